@@ -38,7 +38,30 @@ public class ConfigManager {
             defaultConfig.setLocalRtspListenPort(configEnv.getIntProperty("default.localRtspListenPort"));
             defaultConfig.setLocalPortMin(configEnv.getIntProperty("default.localPortMin"));
             defaultConfig.setLocalPortMax(configEnv.getIntProperty("default.localPortMax"));
-            defaultConfig.setRtpBurstBufferCount(configEnv.getIntProperty("default.rtpBurstBufferCount"));
+            defaultConfig.setGopCacheMaxPackets(configEnv.getIntProperty("default.gopCacheMaxPackets"));
+            defaultConfig.setIngestTransport(configEnv.getStringProperty("default.ingestTransport"));
+            defaultConfig.setIngestRecvBatchSize(configEnv.getIntProperty("default.ingestRecvBatchSize"));
+            defaultConfig.setSharedIngestPortCount(configEnv.getIntProperty("default.sharedIngestPortCount"));
+            defaultConfig.setOutboundRingSize(configEnv.getIntProperty("default.outboundRingSize"));
+            defaultConfig.setTcpFlushCoalesceCount(configEnv.getIntProperty("default.tcpFlushCoalesceCount"));
+            defaultConfig.setUdpEgressMode(configEnv.getStringProperty("default.udpEgressMode"));
+            defaultConfig.setTcpWriteBufferLowWatermark(configEnv.getIntProperty("default.tcpWriteBufferLowWatermark"));
+            defaultConfig.setTcpWriteBufferHighWatermark(configEnv.getIntProperty("default.tcpWriteBufferHighWatermark"));
+            defaultConfig.setTcpStallTimeout(configEnv.getIntProperty("default.tcpStallTimeout"));
+            defaultConfig.setPacerRatePercent(configEnv.getIntProperty("default.pacerRatePercent"));
+            defaultConfig.setPacerMinBitrate(configEnv.getIntProperty("default.pacerMinBitrate"));
+            defaultConfig.setPacerTickInterval(configEnv.getIntProperty("default.pacerTickInterval"));
+            defaultConfig.setPacerMaxQueuePackets(configEnv.getIntProperty("default.pacerMaxQueuePackets"));
+            defaultConfig.setCongestionRaiseReports(configEnv.getIntProperty("default.congestionRaiseReports"));
+            defaultConfig.setCongestionLowerReports(configEnv.getIntProperty("default.congestionLowerReports"));
+            defaultConfig.setMulticastAddressBase(configEnv.getStringProperty("default.multicastAddressBase"));
+            defaultConfig.setMulticastAddressCount(configEnv.getIntProperty("default.multicastAddressCount"));
+            defaultConfig.setMulticastPort(configEnv.getIntProperty("default.multicastPort"));
+            defaultConfig.setMulticastTtl(configEnv.getIntProperty("default.multicastTtl"));
+            defaultConfig.setSrtpCryptoBackend(configEnv.getStringProperty("default.srtpCryptoBackend"));
+            defaultConfig.setSrtpProfiles(configEnv.getStringArrayProperty("default.srtpProfiles"));
+            defaultConfig.setSrtpReplayWindowSize(configEnv.getIntProperty("default.srtpReplayWindowSize"));
+            defaultConfig.setDtlsHandshakeThreads(configEnv.getIntProperty("default.dtlsHandshakeThreads"));
             log.debug("DefaultConfig: {}", defaultConfig.toString());
         }
     }
@@ -75,6 +98,9 @@ public class ConfigManager {
             dtlsConfig = new DtlsConfig();
             dtlsConfig.setKeyPath(configEnv.getStringProperty("dtls.keyPath"));
             dtlsConfig.setCertPath(configEnv.getStringProperty("dtls.certPath"));
+            dtlsConfig.setReloadCheckInterval(configEnv.getIntProperty("dtls.reloadCheckInterval"));
+            dtlsConfig.setIdentity(configEnv.getStringProperty("dtls.identity"));
+            dtlsConfig.setIdentityRotationInterval(configEnv.getIntProperty("dtls.identityRotationInterval"));
             log.debug("DtlsConfig: {}", dtlsConfig.toString());
         }
     }
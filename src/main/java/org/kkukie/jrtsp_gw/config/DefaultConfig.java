@@ -5,6 +5,8 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+
 @Component
 @ConfigurationProperties(prefix = "default")
 @Getter
@@ -21,7 +23,30 @@ public class DefaultConfig extends AbstractConfig {
     private int localRtspListenPort = 0;
     private int localPortMin = 0;
     private int localPortMax = 0;
-    private int rtpBurstBufferCount = 0;
+    private int gopCacheMaxPackets = 2048;
+    private String ingestTransport = "nio";
+    private int ingestRecvBatchSize = 16;
+    private int sharedIngestPortCount = 0;
+    private int outboundRingSize = 32;
+    private int tcpFlushCoalesceCount = 16;
+    private String udpEgressMode = "connected";
+    private int tcpWriteBufferLowWatermark = 262144;
+    private int tcpWriteBufferHighWatermark = 1048576;
+    private int tcpStallTimeout = 5000;
+    private int pacerRatePercent = 0;
+    private int pacerMinBitrate = 2000000;
+    private int pacerTickInterval = 5;
+    private int pacerMaxQueuePackets = 4096;
+    private int congestionRaiseReports = 2;
+    private int congestionLowerReports = 5;
+    private String multicastAddressBase = "239.255.42.1";
+    private int multicastAddressCount = 0;
+    private int multicastPort = 5004;
+    private int multicastTtl = 16;
+    private String srtpCryptoBackend = "jce";
+    private String[] srtpProfiles = null;
+    private int srtpReplayWindowSize = 1024;
+    private int dtlsHandshakeThreads = 16;
 
     @Override
     public String toString() {
@@ -36,7 +61,30 @@ public class DefaultConfig extends AbstractConfig {
                 ", localRtspListenPort=" + localRtspListenPort +
                 ", localPortMin=" + localPortMin +
                 ", localPortMax=" + localPortMax +
-                ", rtpBurstBufferCount=" + rtpBurstBufferCount +
+                ", gopCacheMaxPackets=" + gopCacheMaxPackets +
+                ", ingestTransport='" + ingestTransport + '\'' +
+                ", ingestRecvBatchSize=" + ingestRecvBatchSize +
+                ", sharedIngestPortCount=" + sharedIngestPortCount +
+                ", outboundRingSize=" + outboundRingSize +
+                ", tcpFlushCoalesceCount=" + tcpFlushCoalesceCount +
+                ", udpEgressMode='" + udpEgressMode + '\'' +
+                ", tcpWriteBufferLowWatermark=" + tcpWriteBufferLowWatermark +
+                ", tcpWriteBufferHighWatermark=" + tcpWriteBufferHighWatermark +
+                ", tcpStallTimeout=" + tcpStallTimeout +
+                ", pacerRatePercent=" + pacerRatePercent +
+                ", pacerMinBitrate=" + pacerMinBitrate +
+                ", pacerTickInterval=" + pacerTickInterval +
+                ", pacerMaxQueuePackets=" + pacerMaxQueuePackets +
+                ", congestionRaiseReports=" + congestionRaiseReports +
+                ", congestionLowerReports=" + congestionLowerReports +
+                ", multicastAddressBase='" + multicastAddressBase + '\'' +
+                ", multicastAddressCount=" + multicastAddressCount +
+                ", multicastPort=" + multicastPort +
+                ", multicastTtl=" + multicastTtl +
+                ", srtpCryptoBackend='" + srtpCryptoBackend + '\'' +
+                ", srtpProfiles=" + Arrays.toString(srtpProfiles) +
+                ", srtpReplayWindowSize=" + srtpReplayWindowSize +
+                ", dtlsHandshakeThreads=" + dtlsHandshakeThreads +
                 '}';
     }
 
@@ -13,12 +13,18 @@ public class DtlsConfig extends AbstractConfig {
 
     private String keyPath;
     private String certPath;
+    private int reloadCheckInterval = 10000;
+    private String identity = "file";
+    private int identityRotationInterval = 0;
 
     @Override
     public String toString() {
         return "DtlsConfig{" +
                 "keyPath='" + keyPath + '\'' +
                 ", certPath='" + certPath + '\'' +
+                ", reloadCheckInterval=" + reloadCheckInterval +
+                ", identity='" + identity + '\'' +
+                ", identityRotationInterval=" + identityRotationInterval +
                 '}';
     }
 
@@ -1,6 +1,10 @@
 package org.kkukie.jrtsp_gw.controller;
 
 import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsCredentialManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsCredentials;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
 import org.kkukie.jrtsp_gw.media.core.stream.webrtc.service.WebRtcService;
 import org.kkukie.jrtsp_gw.media.core.stream.webrtc.service.model.WebRtcServiceInfo;
 import org.kkukie.jrtsp_gw.media.core.stream.webrtc.websocket.service.WebSocketService;
@@ -9,6 +13,7 @@ import org.kkukie.jrtsp_gw.session.call.ConferenceMaster;
 import org.kkukie.jrtsp_gw.session.call.model.ConferenceInfo;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
@@ -58,6 +63,29 @@ public class MainServiceController {
         return stringBuilder.toString();
     }
 
+    @GetMapping("/pacer_stats")
+    public String getPacerStats() {
+        NettyChannelManager nettyChannelManager = NettyChannelManager.getInstance();
+        return "QueueDepth," + nettyChannelManager.getTotalPacerQueueDepth()
+                + ",PacingDelay," + nettyChannelManager.getMaxPacingDelay()
+                + ",DroppedAudio," + nettyChannelManager.getTotalDroppedAudioPacketCount()
+                + ",DroppedVideo," + nettyChannelManager.getTotalDroppedVideoPacketCount()
+                + ",CongestionDropped," + nettyChannelManager.getTotalCongestionDroppedPacketCount();
+    }
+
+    @GetMapping("/dtls/fingerprint")
+    public String getDtlsFingerprint() {
+        DtlsCredentials dtlsCredentials = DtlsCredentialManager.getInstance().getCredentials();
+        if (dtlsCredentials == null) { return "none"; }
+
+        return dtlsCredentials.getFingerprint();
+    }
+
+    @PostMapping("/dtls/reload")
+    public String reloadDtlsCredentials() {
+        return String.valueOf(DtlsCredentialManager.getInstance().reload());
+    }
+
     @GetMapping("/{conferenceId}/uri")
     public String getUriByConferenceId(@PathVariable String conferenceId) {
         WebRtcServiceInfo webRtcServiceInfo = getWebRtcServiceInfo(conferenceId);
@@ -82,6 +110,33 @@ public class MainServiceController {
         return webRtcServiceInfo.getRemoteSdp();
     }
 
+    @GetMapping("/{conferenceId}/pacer_stats")
+    public String getPacerStatsByConferenceId(@PathVariable String conferenceId) {
+        List<Streamer> streamers = NettyChannelManager.getInstance().getStreamerListByCallId(conferenceId);
+        StringBuilder stringBuilder = new StringBuilder();
+
+        // Key:QueueDepth:PacingDelay(ms):DroppedAudio:DroppedVideo:CongestionDropped of every viewer
+        stringBuilder.append("PacerStats");
+        for (Streamer streamer : streamers) {
+            if (streamer == null) { continue; }
+
+            stringBuilder.append(",");
+            stringBuilder.append(streamer.getKey());
+            stringBuilder.append(":");
+            stringBuilder.append(streamer.getPacerQueueDepth());
+            stringBuilder.append(":");
+            stringBuilder.append(streamer.getPacingDelay());
+            stringBuilder.append(":");
+            stringBuilder.append(streamer.getDroppedAudioPacketCount());
+            stringBuilder.append(":");
+            stringBuilder.append(streamer.getDroppedVideoPacketCount());
+            stringBuilder.append(":");
+            stringBuilder.append(streamer.getCongestionDroppedPacketCount());
+        }
+
+        return stringBuilder.toString();
+    }
+
     private WebRtcServiceInfo getWebRtcServiceInfo(String conferenceId) {
         ConferenceInfo conference = ConferenceMaster.getInstance().findConference(conferenceId);
         if (conference == null) {
@@ -1,18 +1,18 @@
 package org.kkukie.jrtsp_gw.media.core.handler;
 
 import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.media.core.model.DataChannel;
 import org.kkukie.jrtsp_gw.media.core.scheduler.ServiceScheduler;
 import org.kkukie.jrtsp_gw.media.core.scheduler.base.Scheduler;
 import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtcp.*;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpPacket;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketClass;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandlerException;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.statistics.RtpStatistics;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
@@ -30,8 +30,8 @@ public class RtcpHandler implements PacketHandler {
     private static final long SSRC_TASK_DELAY = 7000;
 
     /* Core elements */
-    private final DatagramSocket datagramSocket;
-    private final ByteBuffer byteBuffer;
+    /** RTCP is multiplexed on the media socket, so reports are sent through the owning data channel */
+    private final DataChannel dataChannel;
     private int pipelinePriority;
 
     /* Scheduler */
@@ -70,9 +70,9 @@ public class RtcpHandler implements PacketHandler {
 
     private final SocketAddress remoteAddress;
 
-    public RtcpHandler(String conferenceId, DatagramSocket datagramSocket, final RtpStatistics statistics, String mediaType, SocketAddress remoteAddress) {
+    public RtcpHandler(String conferenceId, DataChannel dataChannel, final RtpStatistics statistics, String mediaType, SocketAddress remoteAddress) {
         this.conferenceId = conferenceId;
-        this.datagramSocket = datagramSocket;
+        this.dataChannel = dataChannel;
 
         this.mediaType = mediaType.equals(AUDIO_TYPE);
         this.remoteAddress = remoteAddress;
@@ -83,7 +83,6 @@ public class RtcpHandler implements PacketHandler {
 
         // core stuff
         this.pipelinePriority = 0;
-        this.byteBuffer = ByteBuffer.allocateDirect(RtpPacket.RTP_PACKET_MAX_SIZE);
 
         // rtcp stuff
         this.statistics = statistics;
@@ -112,6 +111,11 @@ public class RtcpHandler implements PacketHandler {
         serviceScheduler.stop();
     }
 
+    @Override
+    public PacketClass getPacketClass() {
+        return PacketClass.RTCP;
+    }
+
     @Override
     public int getPipelinePriority() {
         return pipelinePriority;
@@ -299,7 +303,15 @@ public class RtcpHandler implements PacketHandler {
 
     @Override
     public boolean canHandle(byte[] packet, int dataLength, int offset) {
-        byte b0 = packet[offset];
+        return isRtcp(packet[offset], packet[offset + 1]);
+    }
+
+    @Override
+    public boolean canHandle(ByteBuffer packet, int dataLength, int offset) {
+        return isRtcp(packet.get(offset), packet.get(offset + 1));
+    }
+
+    private boolean isRtcp(byte b0, byte b1) {
         int b0Int = b0 & 0xff;
 
         // Differentiate between RTP, STUN and DTLS packets in the pipeline
@@ -310,13 +322,13 @@ public class RtcpHandler implements PacketHandler {
             if (version == RtpPacket.VERSION) {
                 // The payload type field of the first RTCP packet in a compound
                 // packet must be equal to SR or RR.
-                int type = packet[offset + 1] & 0x000000FF;
+                int type = b1 & 0x000000FF;
                 if (type == RtcpHeader.RTCP_SR || type == RtcpHeader.RTCP_RR) {
                     /*
                      * The padding bit (P) should be zero for the first packet of a compound RTCP packet because padding should
                      * only be applied, if it is needed, to the last packet.
                      */
-                    int padding = (packet[offset] & 0x20) >> 5;
+                    int padding = (b0 & 0x20) >> 5;
                     /*
                      * The length fields of the individual RTCP packets must add up to the overall length of the
                      * compound RTCP packet as received. This is a fairly strong check.
@@ -416,22 +428,16 @@ public class RtcpHandler implements PacketHandler {
             return;
         }
 
-        if (this.datagramSocket != null) {
+        if (this.dataChannel != null) {
             if (this.secure) {
                 data = this.dtlsHandler.encodeRTCP(data, 0, data.length);
+                if (data == null) {
+                    log.warn("|RtcpHandler({})| Fail to encode the raw rtcp packet.", conferenceId);
+                    return;
+                }
             }
 
-            // prepare buffer
-            byteBuffer.clear();
-            byteBuffer.rewind();
-            byteBuffer.put(data, 0, data.length);
-            byteBuffer.flip();
-            byteBuffer.rewind();
-
-            byte[] sendData = byteBuffer.array();
-            this.datagramSocket.send(
-                    new DatagramPacket(sendData, sendData.length, remoteAddress)
-            );
+            this.dataChannel.send(data, 0, data.length, remoteAddress);
 
             // trace outgoing RTCP report
             if (log.isTraceEnabled()) {
@@ -458,7 +464,16 @@ public class RtcpHandler implements PacketHandler {
 
         RtcpPacketType type = packet.hasBye() ? RtcpPacketType.RTCP_BYE : RtcpPacketType.RTCP_REPORT;
 
-        if (this.datagramSocket != null) {
+        // Reports are periodic, so one is skipped while the outbound ring is close to full (BYE is always sent)
+        if (type == RtcpPacketType.RTCP_REPORT && this.dataChannel != null && this.dataChannel.isBackpressured()) {
+            this.dataChannel.getOutboundRing().recordDrop();
+            if (log.isDebugEnabled()) {
+                log.debug("|RtcpHandler({})| Skip RTCP report. Outbound ring is backpressured.", conferenceId);
+            }
+            return;
+        }
+
+        if (this.dataChannel != null) {
             // decode packet
             byte[] data = new byte[RtpPacket.RTP_PACKET_MAX_SIZE];
             packet.encode(data, 0);
@@ -467,37 +482,27 @@ public class RtcpHandler implements PacketHandler {
             // If channel is secure, convert RTCP packet to SRTCP. WebRTC calls only.
             if (this.secure) {
                 data = this.dtlsHandler.encodeRTCP(data, 0, dataLength);
+                if (data == null) {
+                    log.warn("|RtcpHandler({})| Fail to encode the {} packet.", conferenceId, type);
+                    return;
+                }
                 dataLength = data.length;
             }
 
-            // prepare buffer
-            byteBuffer.clear();
-            byteBuffer.rewind();
-            byteBuffer.put(data, 0, dataLength);
-            byteBuffer.flip();
-            byteBuffer.rewind();
-
             // trace outgoing RTCP report
             if (log.isTraceEnabled()) {
                 log.trace("|RtcpHandler({})| SENDING RTCP\n[{}]", conferenceId, packet);
             }
 
             // Make double sure channel is still open and connected before sending
-            if (datagramSocket != null) {
+            if (dataChannel.isOpen()) {
                 // send packet
                 // XXX Should register on RTP statistics IF sending fails!
-                byte[] sendData = byteBuffer.array();
-                this.datagramSocket.send(
-                        new DatagramPacket(sendData, sendData.length, remoteAddress)
-                );
+                this.dataChannel.send(data, 0, dataLength, remoteAddress);
             } else {
                 // cancel packet transmission
                 if (log.isDebugEnabled()) {
-                    if (this.datagramSocket.isClosed()) {
-                        log.debug("|RtcpHandler({})| Channel is closed.", conferenceId);
-                    } else if (!this.datagramSocket.isConnected()) {
-                        log.debug("|RtcpHandler({})| RtChannel is disconnected.", conferenceId);
-                    }
+                    log.debug("|RtcpHandler({})| Channel is closed.", conferenceId);
                     log.debug("|RtcpHandler({})| Could not send {} packet.", conferenceId, type);
                 }
                 return;
@@ -540,19 +545,6 @@ public class RtcpHandler implements PacketHandler {
         }
     }
 
-    /**
-     * Disconnects and closes the datagram channel used to send and receive RTCP traffic.
-     */
-    private void closeChannel() {
-        if (this.datagramSocket != null) {
-            if (!this.datagramSocket.isClosed()) {
-                this.datagramSocket.disconnect();
-            }
-
-            this.datagramSocket.close();
-        }
-    }
-
     public int compareTo(PacketHandler o) {
         if (o == null) {
             return 1;
@@ -5,6 +5,7 @@ import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtcp.RtcpHeader;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpInfo;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpPacket;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketClass;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandlerException;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.format.RTPFormat;
@@ -14,6 +15,7 @@ import org.kkukie.jrtsp_gw.media.core.stream.rtsp.rtcp.module.RtpClock;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -24,6 +26,7 @@ public class RtpHandler implements PacketHandler {
 
     private final RtpClock rtpClock;
     private final RtpStatistics statistics;
+    /** Receives the packet once; SRTP is decrypted in place here and fan-out reads from it */
     private final RtpPacket rtpPacket;
 
     private int pipelinePriority;
@@ -34,6 +37,10 @@ public class RtpHandler implements PacketHandler {
     private DtlsHandler dtlsHandler;
 
     private final Map<String, RTPFormats> mediaFormatMap;
+    /** Media type by RTP payload type (0~127), built from mediaFormatMap so the ingest path does not search it */
+    private final String[] payloadMediaTypes = new String[128];
+    /** Handed to the receive callback for every packet, the callback runs on the single receive thread of the conference */
+    private final RtpInfo rtpInfo = new RtpInfo();
 
     private Consumer<RtpInfo> rtpRecvCallback = whatever -> {};
 
@@ -51,6 +58,8 @@ public class RtpHandler implements PacketHandler {
 
         this.loopable = false;
         this.secure = false;
+
+        buildPayloadMediaTypes();
     }
 
     @Override
@@ -68,6 +77,13 @@ public class RtpHandler implements PacketHandler {
             }
         }
         mediaFormatMap.clear();
+        Arrays.fill(payloadMediaTypes, null);
+        rtpInfo.set(null, null, null, null);
+    }
+
+    @Override
+    public PacketClass getPacketClass () {
+        return PacketClass.RTP;
     }
 
     public int getPipelinePriority () {
@@ -116,43 +132,55 @@ public class RtpHandler implements PacketHandler {
          */
         // Packet must be equal or greater than an RTP Packet Header
         if (dataLength >= RtpPacket.FIXED_HEADER_SIZE) {
-            // The most significant 2 bits of every RTP message correspond to the version.
-            // Currently supported version is 2 according to RFC3550
-            byte b0 = packet[offset];
-            int b0Int = b0 & 0xff;
-
-            // Differentiate between RTP, STUN and DTLS packets in the pipeline
-            // https://tools.ietf.org/html/rfc5764#section-5.1.2
-            if (b0Int > 127 && b0Int < 192) {
-                int version = (b0 & 0xC0) >> 6;
-
-                if (RtpPacket.VERSION == version) {
-                    /*
-                     * When RTP and RTCP packets are multiplexed onto a single port, the RTCP packet type field occupies the
-                     * same position in the packet as the combination of the RTP marker (M) bit and the RTP payload type (PT).
-                     * This field can be used to distinguish RTP and RTCP packets when two restrictions are observed:
-                     *
-                     * 1) the RTP payload type values used are distinct from the RTCP packet types used.
-                     *
-                     * 2) for each RTP payload type (PT), PT+128 is distinct from the RTCP packet types used. The first
-                     * constraint precludes a direct conflict between RTP payload type and RTCP packet type; the second
-                     * constraint precludes a conflict between an RTP data packet with the marker bit set and an RTCP packet.
-                     */
-                    int type = packet[offset + 1] & 0xff & 0x7f;
-                    int rtcpType = type + 128;
-
-                    // RTP payload types 72-76 conflict with the RTCP SR, RR, SDES, BYE,
-                    // and APP packets defined in the RTP specification
-                    switch (rtcpType) {
-                        case RtcpHeader.RTCP_SR:
-                        case RtcpHeader.RTCP_RR:
-                        case RtcpHeader.RTCP_SDES:
-                        case RtcpHeader.RTCP_BYE:
-                        case RtcpHeader.RTCP_APP:
-                            return false;
-                        default:
-                            return true;
-                    }
+            return isRtp(packet[offset], packet[offset + 1]);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean canHandle (ByteBuffer packet, int dataLength, int offset) {
+        if (dataLength >= RtpPacket.FIXED_HEADER_SIZE) {
+            return isRtp(packet.get(offset), packet.get(offset + 1));
+        }
+        return false;
+    }
+
+    private boolean isRtp (byte b0, byte b1) {
+        // The most significant 2 bits of every RTP message correspond to the version.
+        // Currently supported version is 2 according to RFC3550
+        int b0Int = b0 & 0xff;
+
+        // Differentiate between RTP, STUN and DTLS packets in the pipeline
+        // https://tools.ietf.org/html/rfc5764#section-5.1.2
+        if (b0Int > 127 && b0Int < 192) {
+            int version = (b0 & 0xC0) >> 6;
+
+            if (RtpPacket.VERSION == version) {
+                /*
+                 * When RTP and RTCP packets are multiplexed onto a single port, the RTCP packet type field occupies the
+                 * same position in the packet as the combination of the RTP marker (M) bit and the RTP payload type (PT).
+                 * This field can be used to distinguish RTP and RTCP packets when two restrictions are observed:
+                 *
+                 * 1) the RTP payload type values used are distinct from the RTCP packet types used.
+                 *
+                 * 2) for each RTP payload type (PT), PT+128 is distinct from the RTCP packet types used. The first
+                 * constraint precludes a direct conflict between RTP payload type and RTCP packet type; the second
+                 * constraint precludes a conflict between an RTP data packet with the marker bit set and an RTCP packet.
+                 */
+                int type = b1 & 0xff & 0x7f;
+                int rtcpType = type + 128;
+
+                // RTP payload types 72-76 conflict with the RTCP SR, RR, SDES, BYE,
+                // and APP packets defined in the RTP specification
+                switch (rtcpType) {
+                    case RtcpHeader.RTCP_SR:
+                    case RtcpHeader.RTCP_RR:
+                    case RtcpHeader.RTCP_SDES:
+                    case RtcpHeader.RTCP_BYE:
+                    case RtcpHeader.RTCP_APP:
+                        return false;
+                    default:
+                        return true;
                 }
             }
         }
@@ -171,27 +199,73 @@ public class RtpHandler implements PacketHandler {
             return null;
         }
 
-        if (this.secure) {
-            // Decode SRTP packet into RTP. WebRTC calls only.
-            byte[] decoded = this.dtlsHandler.decodeRTP(packet, offset, dataLength);
-            if (decoded == null || decoded.length == 0) {
-                log.warn("|RtpHandler({})| SRTP packet is not valid! Dropping packet.", conferenceId);
-                return null;
-            } else {
-                // Transform incoming data directly into an RTP Packet
-                ByteBuffer buffer = this.rtpPacket.getBuffer();
-                buffer.clear();
-                buffer.put(decoded);
-                buffer.flip();
-            }
-        } else {
-            // Transform incoming data directly into an RTP Packet
-            ByteBuffer buffer = this.rtpPacket.getBuffer();
-            buffer.clear();
-            buffer.put(packet, offset, dataLength);
-            buffer.flip();
+        // Transform incoming data directly into an RTP Packet
+        ByteBuffer buffer = this.rtpPacket.getBuffer();
+        buffer.clear();
+        buffer.put(packet, offset, dataLength);
+        buffer.flip();
+
+        // Decode SRTP packet into RTP. WebRTC calls only.
+        if (this.secure && !decodeSrtp(dataLength)) {
+            return null;
         }
 
+        return processRtpPacket(localPeer, remotePeer) ? packet : null;
+    }
+
+    @Override
+    public byte[] handle (ByteBuffer packet, int dataLength, int offset, InetSocketAddress localPeer, InetSocketAddress remotePeer) throws PacketHandlerException {
+        // Do not handle data while DTLS handshake is ongoing. WebRTC calls only.
+        if (this.secure && !this.dtlsHandler.isHandshakeComplete()) {
+            return null;
+        }
+
+        // Transform incoming data directly into an RTP Packet (buffer to buffer, no intermediate copy)
+        int position = packet.position();
+        int limit = packet.limit();
+        packet.limit(offset + dataLength).position(offset);
+
+        ByteBuffer buffer = this.rtpPacket.getBuffer();
+        buffer.clear();
+        buffer.put(packet);
+        buffer.flip();
+
+        packet.limit(limit).position(position);
+
+        // Decode SRTP packet into RTP in place. WebRTC calls only.
+        if (this.secure && !decodeSrtp(dataLength)) {
+            return null;
+        }
+
+        return processRtpPacket(localPeer, remotePeer) ? rtpPacket.getRawData() : null;
+    }
+
+    /**
+     * Authenticates and decrypts the SRTP packet held by {@link #rtpPacket} without leaving its buffer.
+     *
+     * @param dataLength Length of the SRTP packet
+     * @return false if the packet is not valid
+     */
+    private boolean decodeSrtp (int dataLength) {
+        ByteBuffer buffer = this.rtpPacket.getBuffer();
+        int decodedLength = this.dtlsHandler.decodeRTP(buffer, 0, dataLength);
+        if (decodedLength <= 0) {
+            log.warn("|RtpHandler({})| SRTP packet is not valid! Dropping packet.", conferenceId);
+            buffer.clear().limit(0);
+            return false;
+        }
+
+        buffer.limit(decodedLength);
+        buffer.rewind();
+        return true;
+    }
+
+    /**
+     * Processes the packet currently held by {@link #rtpPacket}.
+     *
+     * @return true if the packet must be looped back to the remote peer
+     */
+    private boolean processRtpPacket (InetSocketAddress localPeer, InetSocketAddress remotePeer) {
         // For RTP keep-alive purposes
         this.statistics.setLastHeartbeat(this.rtpClock.getWallClock().getTime());
         // RTP v0 packets are used in some applications. Discarded since we do not handle them.
@@ -203,7 +277,7 @@ public class RtpHandler implements PacketHandler {
                     this.statistics.onRtpReceive(rtpPacket);
                     this.statistics.onRtpSent(rtpPacket);
                     // Return same packet (looping) so it can be transmitted
-                    return packet;
+                    return true;
                 } else {
                     // Update statistics for RTCP
                     this.statistics.onRtpReceive(rtpPacket);
@@ -211,7 +285,7 @@ public class RtpHandler implements PacketHandler {
                     // Write packet
                     String curMediaType = getMediaType(rtpPacket.getPayloadType());
                     if (curMediaType != null && !curMediaType.isEmpty()) {
-                        this.onRtpReceive(new RtpInfo(rtpPacket, remotePeer, localPeer, curMediaType));
+                        this.onRtpReceive(rtpInfo.set(rtpPacket, remotePeer, localPeer, curMediaType));
                     }
                 }
             } else {
@@ -219,11 +293,20 @@ public class RtpHandler implements PacketHandler {
             }
         }
 
-        return null;
+        return false;
     }
 
     private String getMediaType(int payloadType) {
-        String curMediaType = null;
+        if (payloadType < 0 || payloadType >= payloadMediaTypes.length) {
+            return null;
+        }
+        return payloadMediaTypes[payloadType];
+    }
+
+    /**
+     * Fills {@link #payloadMediaTypes} from the formats of the session, the first media type wins for a payload type.
+     */
+    private void buildPayloadMediaTypes() {
         for (Map.Entry<String, RTPFormats> entry : mediaFormatMap.entrySet()) {
             if (entry == null) { continue; }
 
@@ -233,13 +316,13 @@ public class RtpHandler implements PacketHandler {
             RTPFormats formats = entry.getValue();
             if (formats == null) { continue; }
 
-            RTPFormat rtpFormat = formats.getRTPFormat(payloadType);
-            if (rtpFormat != null) {
-                curMediaType = mediaType;
-                break;
+            for (RTPFormat rtpFormat : formats.toArray()) {
+                int payloadType = rtpFormat.getID();
+                if (payloadType >= 0 && payloadType < payloadMediaTypes.length && payloadMediaTypes[payloadType] == null) {
+                    payloadMediaTypes[payloadType] = mediaType;
+                }
             }
         }
-        return curMediaType;
     }
 
     public int compareTo (PacketHandler o) {
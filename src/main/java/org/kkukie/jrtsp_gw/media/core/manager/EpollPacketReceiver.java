@@ -0,0 +1,163 @@
+package org.kkukie.jrtsp_gw.media.core.manager;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.model.IngestTarget;
+import org.kkukie.jrtsp_gw.media.core.scheduler.ServiceScheduler;
+import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsHandler;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 1) PacketSelector 의 대안으로 Netty native epoll transport 를 사용하여 WebRTC 수신 채널을 처리한다. (Linux 전용)
+ * 2) recvmmsg 로 한 번의 시스템 콜에 최대 ingestRecvBatchSize 개의 데이터그램을 읽는다.
+ * 3) 수신 버퍼는 Pooled ByteBuf 를 사용하며, 수신된 패킷은 IngestTarget(DataChannel, SharedIngestPort)을 통해 동일한 PacketHandlerMaster 파이프라인으로 전달된다.
+ * 4) default.ingestTransport 가 "epoll" 이고 native 라이브러리를 로드할 수 있을 때만 사용된다.
+ */
+@Slf4j
+public class EpollPacketReceiver {
+
+    public static final String TRANSPORT_EPOLL = "epoll";
+
+    /** Largest datagram read by recvmmsg, bigger datagrams are truncated by the kernel */
+    private static final int MAX_DATAGRAM_SIZE = DtlsHandler.DEFAULT_MTU;
+
+    private static final EpollPacketReceiver epollPacketReceiver = new EpollPacketReceiver();
+
+    private final Object LOCK = new Object();
+    private EventLoopGroup eventLoopGroup = null;
+    private Bootstrap bootstrap = null;
+
+    private EpollPacketReceiver() {
+        // Nothing
+    }
+
+    public static EpollPacketReceiver getInstance() {
+        return epollPacketReceiver;
+    }
+
+    /**
+     * @return true if the WebRTC ingest leg is configured to use epoll and the native transport is available
+     */
+    public static boolean isEnabled() {
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        if (defaultConfig == null || !TRANSPORT_EPOLL.equalsIgnoreCase(defaultConfig.getIngestTransport())) {
+            return false;
+        }
+
+        if (!Epoll.isAvailable()) {
+            log.warn("|EpollPacketReceiver| Native epoll transport is not available. Fall back to NIO. ({})",
+                    Epoll.unavailabilityCause() != null ? Epoll.unavailabilityCause().getMessage() : "unknown"
+            );
+            return false;
+        }
+        return true;
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (eventLoopGroup != null) { return; }
+
+            DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+            int batchSize = Math.max(1, defaultConfig.getIngestRecvBatchSize());
+
+            eventLoopGroup = new EpollEventLoopGroup(ServiceScheduler.POOL_SIZE, new DefaultThreadFactory("epoll-ingest"));
+            bootstrap = new Bootstrap();
+            bootstrap.group(eventLoopGroup)
+                    .channel(EpollDatagramChannel.class)
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .option(ChannelOption.SO_RCVBUF, defaultConfig.getRecvBufSize())
+                    .option(ChannelOption.SO_SNDBUF, defaultConfig.getSendBufSize())
+                    // recvmmsg is used once the receive buffer can hold more than one datagram of this size
+                    .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, MAX_DATAGRAM_SIZE)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(MAX_DATAGRAM_SIZE * batchSize));
+            // The handler is attached per DataChannel in bind()
+            log.debug("|EpollPacketReceiver| Started. (threads={}, batchSize={})", ServiceScheduler.POOL_SIZE, batchSize);
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            if (eventLoopGroup == null) { return; }
+
+            eventLoopGroup.shutdownGracefully();
+            eventLoopGroup = null;
+            bootstrap = null;
+            log.debug("|EpollPacketReceiver| Stopped.");
+        }
+    }
+
+    /**
+     * Binds an epoll datagram channel and delivers everything it reads to the given target.
+     *
+     * @param localAddress Local address to bind
+     * @param target       DataChannel (owner of the packet handler pipeline) or SharedIngestPort
+     * @param reusePort    Whether SO_REUSEPORT is set, so several sockets (and event loops) can share the port
+     * @return The bound channel, or null if binding failed
+     */
+    public Channel bind(SocketAddress localAddress, IngestTarget target, boolean reusePort) {
+        Bootstrap channelBootstrap;
+        synchronized (LOCK) {
+            if (bootstrap == null) {
+                log.warn("|EpollPacketReceiver({})| Fail to bind. Receiver is not running.", target.getConferenceId());
+                return null;
+            }
+            channelBootstrap = bootstrap.clone();
+        }
+
+        try {
+            return channelBootstrap
+                    .option(EpollChannelOption.SO_REUSEPORT, reusePort)
+                    .handler(new IngestHandler(target))
+                    .bind(localAddress).sync().channel();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("|EpollPacketReceiver({})| Interrupted while binding. (localAddress={})", target.getConferenceId(), localAddress);
+        } catch (Exception e) {
+            log.warn("|EpollPacketReceiver({})| Fail to bind. (localAddress={})", target.getConferenceId(), localAddress, e);
+        }
+        return null;
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+
+    private static class IngestHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+        private final IngestTarget target;
+
+        public IngestHandler(IngestTarget target) {
+            this.target = target;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+            ByteBuf content = packet.content();
+            int dataLength = content.readableBytes();
+            if (dataLength <= 0) { return; }
+
+            // View of the pooled buffer without copying; released by SimpleChannelInboundHandler after this call
+            ByteBuffer buffer = (content.nioBufferCount() == 1) ?
+                    content.internalNioBuffer(content.readerIndex(), dataLength) :
+                    content.nioBuffer(content.readerIndex(), dataLength);
+            target.dispatch(buffer, dataLength, buffer.position(), packet.sender());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("|EpollPacketReceiver({})| Ingest channel exception.", target.getConferenceId(), cause);
+        }
+    }
+
+}
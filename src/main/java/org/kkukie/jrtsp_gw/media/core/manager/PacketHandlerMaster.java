@@ -1,22 +1,29 @@
 package org.kkukie.jrtsp_gw.media.core.manager;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
 import org.kkukie.jrtsp_gw.media.core.handler.RtcpHandler;
 import org.kkukie.jrtsp_gw.media.core.handler.RtpHandler;
 import org.kkukie.jrtsp_gw.media.core.model.DataChannel;
 import org.kkukie.jrtsp_gw.media.core.scheduler.WallClock;
 import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsHandler;
-import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsListener;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpInfo;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpPacket;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandlerPipeline;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.format.RTPFormats;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.statistics.RtpStatistics;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.GopCache;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.StreamerGroup;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.statistics.BitrateMeter;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpKeyFrameDetector;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.rtcp.module.RtpClock;
 import org.kkukie.jrtsp_gw.media.core.stream.stun.candidate.IceComponent;
 import org.kkukie.jrtsp_gw.media.core.stream.stun.handler.IceHandler;
@@ -27,7 +34,7 @@ import org.kkukie.jrtsp_gw.session.media.base.MediaType;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.nio.channels.DatagramChannel;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -44,6 +51,19 @@ public class PacketHandlerMaster {
 
     private final PacketHandlerPipeline handlers = new PacketHandlerPipeline();
 
+    /* Cached viewers of this conference, looked up again only after the group is closed */
+    private volatile StreamerGroup streamerGroup = null;
+    /* Video codec of the remote SDP (for example "H264/90000"), used to find key frames */
+    private String videoCodec = null;
+    /* Clock rates of the remote SDP rtpmap, -1 until parsed and 0 if unknown (RtpHeaderRewriter keeps its default) */
+    private int audioClockRate = -1;
+    private int videoClockRate = -1;
+    /* Packets since the last video key frame, sent first to every new viewer */
+    private final GopCache gopCache = new GopCache(ConfigManager.getDefaultConfig().getGopCacheMaxPackets());
+    /* Received bitrates, the pacing rate of the viewers is based on them */
+    private final BitrateMeter audioBitrateMeter = new BitrateMeter();
+    private final BitrateMeter videoBitrateMeter = new BitrateMeter();
+
     public void initIce(IceInfo iceInfo, List<InetSocketAddress> targetAddressList, DataChannel dataChannel) {
         IceHandler iceHandler = new IceHandler(conferenceId, IceComponent.RTP_ID, dataChannel);
 
@@ -64,11 +84,11 @@ public class PacketHandlerMaster {
         }
     }
 
-    public void initDtls(DatagramChannel mediaChannel, SocketAddress realRemoteAddress, DtlsListener dtlsListener) {
+    public void initDtls(DataChannel dataChannel, SocketAddress realRemoteAddress) {
         if (mediaSession.isSecure()) {
-            DtlsHandler dtlsHandler = new DtlsHandler(conferenceId, realRemoteAddress);
-            dtlsHandler.setChannel(mediaChannel);
-            dtlsHandler.addListener(dtlsListener);
+            DtlsHandler dtlsHandler = new DtlsHandler(conferenceId, realRemoteAddress, dataChannel.getDtlsCredentials());
+            dtlsHandler.setChannel(dataChannel);
+            dtlsHandler.addListener(dataChannel);
             dtlsHandler.setPipelinePriority(DTLS_PRIORITY);
             if (handlers.addHandler(dtlsHandler)) {
                 log.debug("|PacketHandlerMaster({})| Success to add DtlsHandler to pipeline (priority={}).", conferenceId, DTLS_PRIORITY);
@@ -76,12 +96,12 @@ public class PacketHandlerMaster {
         }
     }
 
-    public void initRtp(DatagramChannel mediaChannel, SocketAddress realRemoteAddress, Map<String, RTPFormats> mediaFormatMap) {
+    public void initRtp(DataChannel dataChannel, SocketAddress realRemoteAddress, Map<String, RTPFormats> mediaFormatMap) {
         RtpClock rtpClock = new RtpClock(new WallClock());
         RtpStatistics rtpStatistics = new RtpStatistics(rtpClock);
 
         initRtpHandler(mediaFormatMap, rtpClock, rtpStatistics);
-        initRtcpHandler(mediaChannel, realRemoteAddress, rtpStatistics);
+        initRtcpHandler(dataChannel, realRemoteAddress, rtpStatistics);
     }
 
     private void initRtpHandler(Map<String, RTPFormats> mediaFormatMap,
@@ -97,7 +117,7 @@ public class PacketHandlerMaster {
             log.debug("|PacketHandlerMaster({})| Success to add RtpHandler to pipeline (priority={}).", conferenceId, RTP_PRIORITY);
 
             if (mediaSession.isSecure()) {
-                rtpHandler.enableSrtp((DtlsHandler) handlers.getHandler(DtlsHandler.class.getName()));
+                rtpHandler.enableSrtp(handlers.getHandler(DtlsHandler.class));
                 //rtpHandler.enableSrtp(dtlsHandler);
             } else {
                 rtpHandler.disableSrtp();
@@ -105,10 +125,10 @@ public class PacketHandlerMaster {
         }
     }
 
-    private void initRtcpHandler(DatagramChannel mediaChannel, SocketAddress realRemoteAddress, RtpStatistics rtpStatistics) {
+    private void initRtcpHandler(DataChannel dataChannel, SocketAddress realRemoteAddress, RtpStatistics rtpStatistics) {
         if (mediaSession.isRtcpMux()) {
             RtcpHandler rtcpHandler = new RtcpHandler(
-                    conferenceId, mediaChannel.socket(),
+                    conferenceId, dataChannel,
                     rtpStatistics, MediaType.AUDIO.getName(), realRemoteAddress
             );
             rtcpHandler.start();
@@ -117,7 +137,7 @@ public class PacketHandlerMaster {
                 log.debug("|PacketHandlerMaster({})| Success to add RtcpHandler to pipeline (priority={}).", conferenceId, RTCP_PRIORITY);
 
                 if (mediaSession.isSecure()) {
-                    rtcpHandler.enableSRTCP((DtlsHandler) handlers.getHandler(DtlsHandler.class.getName()));
+                    rtcpHandler.enableSRTCP(handlers.getHandler(DtlsHandler.class));
                 } else {
                     rtcpHandler.disableSRTCP();
                 }
@@ -151,25 +171,95 @@ public class PacketHandlerMaster {
     }
 
     private void relayToRtspClient(RtpInfo rtpInfo) {
-        List<Streamer> streamerList = NettyChannelManager.getInstance().getStreamerListByCallId(conferenceId);
-        if (streamerList == null || streamerList.isEmpty()) {
-            return;
-        }
+        // The packet is copied once into a pooled buffer, the GOP cache and every streamer keep a retained view of it
+        ByteBuf rtpBuf = wrapRtpPacket(rtpInfo.getRtpPacket());
+        try {
+            boolean isKeyFrameStart = isKeyFrameStart(rtpInfo.getMediaType(), rtpBuf);
+            BitrateMeter bitrateMeter = MediaType.AUDIO.getName().equals(rtpInfo.getMediaType()) ? audioBitrateMeter : videoBitrateMeter;
+            bitrateMeter.add(rtpBuf.readableBytes(), System.currentTimeMillis());
+            gopCache.add(rtpBuf, rtpInfo.getMediaType(), isKeyFrameStart);
 
-        for (Streamer streamer : streamerList) {
-            applyRtpMetaToStreamer(rtpInfo, streamer);
-            if (streamer.isStarted()) {
-                streamer.sendRtpPacket(rtpInfo.getRtpPacket(), rtpInfo.getMediaType());
+            StreamerGroup group = streamerGroup;
+            if (group == null || group.isClosed()) {
+                group = NettyChannelManager.getInstance().getStreamerGroup(conferenceId);
+                if (group == null) {
+                    return;
+                }
+                group.setGopCache(gopCache);
+                group.setBitrateMeters(audioBitrateMeter, videoBitrateMeter);
+                streamerGroup = group;
+            }
+
+            for (Streamer streamer : group.getStreamers()) {
+                applyRtpMetaToStreamer(rtpInfo, streamer);
+                if (streamer.isStarted()) {
+                    if (streamer.replayGop(gopCache)) {
+                        // The cache ends with this packet
+                        continue;
+                    }
+                    streamer.sendRtpPacket(rtpBuf, rtpInfo.getMediaType(), isKeyFrameStart);
+                }
             }
+        } finally {
+            rtpBuf.release();
+        }
+    }
+
+    private boolean isKeyFrameStart(String mediaType, ByteBuf rtpBuf) {
+        if (!MediaType.VIDEO.getName().equals(mediaType)) {
+            return false;
+        }
+
+        if (videoCodec == null) {
+            videoCodec = mediaSession.getRemoteSdpMediaInfo().getVideoRtpInfo();
+        }
+        return RtpKeyFrameDetector.isKeyFrameStart(videoCodec, rtpBuf);
+    }
+
+    private ByteBuf wrapRtpPacket(RtpPacket rtpPacket) {
+        ByteBuffer packetBuffer = rtpPacket.getBuffer().duplicate();
+        packetBuffer.position(0);
+        ByteBuf rtpBuf = PooledByteBufAllocator.DEFAULT.directBuffer(packetBuffer.remaining());
+        rtpBuf.writeBytes(packetBuffer);
+        return rtpBuf;
+    }
+
+    /**
+     * @param rtpInfo RTP map of the SDP (for example "opus/48000/2")
+     * @return Clock rate of the RTP map, or 0 if unknown
+     */
+    private static int parseClockRate(String rtpInfo) {
+        if (rtpInfo == null) {
+            return 0;
+        }
+
+        String[] tokens = rtpInfo.split("/");
+        if (tokens.length < 2) {
+            return 0;
+        }
+
+        try {
+            return Integer.parseInt(tokens[1].trim());
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
     private void applyRtpMetaToStreamer(RtpInfo rtpInfo, Streamer streamer) {
         if (rtpInfo.getMediaType().equals(MediaType.AUDIO.getName())) {
+            if (audioClockRate < 0) {
+                audioClockRate = parseClockRate(mediaSession.getRemoteSdpMediaInfo().getAudioRtpInfo());
+            }
+            streamer.setAudioClockRate(audioClockRate);
             streamer.setAudioSsrc(rtpInfo.getRtpPacket().getSyncSource());
             streamer.setAudioCurSeqNum(rtpInfo.getRtpPacket().getSeqNumber());
             streamer.setAudioCurTimeStamp(rtpInfo.getRtpPacket().getTimestamp());
         } else if (rtpInfo.getMediaType().equals(MediaType.VIDEO.getName())) {
+            if (videoClockRate < 0) {
+                videoClockRate = parseClockRate(mediaSession.getRemoteSdpMediaInfo().getVideoRtpInfo());
+            }
+            streamer.setVideoClockRate(videoClockRate);
+            streamer.setVideoCodec(videoCodec);
             streamer.setVideoSsrc(rtpInfo.getRtpPacket().getSyncSource());
             streamer.setVideoCurSeqNum(rtpInfo.getRtpPacket().getSeqNumber());
             streamer.setVideoCurTimeStamp(rtpInfo.getRtpPacket().getTimestamp());
@@ -177,14 +267,14 @@ public class PacketHandlerMaster {
     }
 
     public void selectCandidate(boolean useCandidate) {
-        DtlsHandler dtlsHandler = (DtlsHandler) handlers.getHandler(DtlsHandler.class.getName());
+        DtlsHandler dtlsHandler = handlers.getHandler(DtlsHandler.class);
         if (mediaSession.isSecure() && dtlsHandler != null) {
             dtlsHandler.handshake(useCandidate);
         }
     }
 
     public void joinRtpSession() {
-        RtcpHandler rtcpHandler = (RtcpHandler) handlers.getHandler(RtcpHandler.class.getName());
+        RtcpHandler rtcpHandler = handlers.getHandler(RtcpHandler.class);
         if (rtcpHandler != null) {
             rtcpHandler.joinRtpSession();
         }
@@ -203,6 +293,12 @@ public class PacketHandlerMaster {
         } catch (Exception e) {
             log.warn("|PacketHandlerMaster({})| reset.Exception", conferenceId, e);
         }
+
+        gopCache.clear();
+        if (streamerGroup != null) {
+            streamerGroup = null;
+            NettyChannelManager.getInstance().releaseStreamerGroup(conferenceId);
+        }
     }
 
 }
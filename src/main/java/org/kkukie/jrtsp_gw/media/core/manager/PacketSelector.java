@@ -2,6 +2,7 @@ package org.kkukie.jrtsp_gw.media.core.manager;
 
 import lombok.extern.slf4j.Slf4j;
 import org.kkukie.jrtsp_gw.media.core.model.DataChannel;
+import org.kkukie.jrtsp_gw.media.core.model.SharedIngestPort;
 import org.kkukie.jrtsp_gw.media.core.scheduler.ServiceScheduler;
 
 import java.io.IOException;
@@ -12,120 +13,175 @@ import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * 1) 등록된 UDP 채널을 모니터링하면서 해당 채널의 패킷 수신 기능을 트리거링한다.
- * 2) 현재는 채널 수신(읽기, SelectionKey.OP_READ)만 트리거링한다. (포로그램 목적에 부합)
- * 3) 요청된 호(CallId가 배정된 WebSocketService)당 하나만 존재한다.
+ * 2) 채널 수신(읽기, SelectionKey.OP_READ)을 트리거링하며, 송신 대기 패킷이 소켓 버퍼 부족으로 남으면 OP_WRITE 로 나머지를 송신한다.
+ * 3) 프로세스 전체에서 하나만 존재한다. (CPU 코어 수만큼의 Selector 스레드를 모든 호가 공유)
+ * 4) 각 스레드는 select() 에서 블로킹되며, 채널 등록/해제 요청은 큐에 넣은 후 wakeup() 으로 깨워서 처리한다.
+ * 5) 호 전용 채널(DataChannel)과 공유 포트 소켓(SharedIngestPort.Receiver)을 모두 등록할 수 있다.
  */
 
 @Slf4j
 public class PacketSelector {
 
-    private final String conferenceId;
+    private static final PacketSelector packetSelector = new PacketSelector();
 
     private volatile boolean active;
     private final Object LOCK;
-    private final List<Selector> selectors;
-    private final List<PollTask> pollTasks;
-    private final List<Future<?>> pollTaskFutures;
-    private final AtomicInteger currSelectorIndex;
-    private final ServiceScheduler scheduler = new ServiceScheduler();
-
-    public PacketSelector(String conferenceId) {
-        this.conferenceId = conferenceId;
-        
+    private final List<SelectorWorker> workers;
+
+    private PacketSelector() {
         LOCK = new Object();
         active = false;
-        selectors = new ArrayList<>(ServiceScheduler.POOL_SIZE);
-        pollTasks = new ArrayList<>(ServiceScheduler.POOL_SIZE);
-        pollTaskFutures = new ArrayList<>(ServiceScheduler.POOL_SIZE);
-        currSelectorIndex = new AtomicInteger(0);
+        workers = new ArrayList<>(ServiceScheduler.POOL_SIZE);
+
+        log.debug("|PacketSelector| ServiceScheduler.POOL_SIZE = [ {} ]", ServiceScheduler.POOL_SIZE);
+    }
 
-        log.debug("|PacketSelector({})| ServiceScheduler.POOL_SIZE = [ {} ]", conferenceId, ServiceScheduler.POOL_SIZE);
+    public static PacketSelector getInstance() {
+        return packetSelector;
     }
 
     public void registerChannel(DatagramChannel datagramChannel, DataChannel dataChannel) {
-        try {
-            int index = currSelectorIndex.getAndIncrement();
-            if (index >= selectors.size()) {
-                currSelectorIndex.set(index % selectors.size());
-                index = currSelectorIndex.get();
-            }
-            SelectionKey key = datagramChannel.register(
-                    selectors.get(index),
-                    SelectionKey.OP_READ
-            );
-            key.attach(dataChannel);
-            log.debug("|PacketSelector({})| Success to register the channel. (localAddress={}, isBlocking={})",
-                    conferenceId, datagramChannel.getLocalAddress(), datagramChannel.isBlocking()
-            );
-        } catch (Exception e) {
-            log.warn("|PacketSelector({})| Fail to register the datagram channel.", conferenceId, e);
+        register(datagramChannel, dataChannel, dataChannel.getConferenceId(), dataChannel::setSelectionKey);
+    }
+
+    public void registerReceiver(DatagramChannel datagramChannel, SharedIngestPort.Receiver receiver) {
+        register(datagramChannel, receiver, receiver.getConferenceId(), receiver::setSelectionKey);
+    }
+
+    private void register(DatagramChannel datagramChannel, Object attachment, String ownerId, Consumer<SelectionKey> keyConsumer) {
+        SelectorWorker worker = selectLeastLoadedWorker();
+        if (worker == null) {
+            log.warn("|PacketSelector({})| Fail to register the datagram channel. Selector is not running.", ownerId);
+            return;
         }
+
+        worker.getLoad().incrementAndGet();
+        worker.submit(() -> {
+            try {
+                SelectionKey key = datagramChannel.register(
+                        worker.getSelector(),
+                        SelectionKey.OP_READ,
+                        attachment
+                );
+                keyConsumer.accept(key);
+                log.debug("|PacketSelector({})| Success to register the channel. (worker={}, localAddress={}, isBlocking={})",
+                        ownerId, worker.getWorkerId(), datagramChannel.getLocalAddress(), datagramChannel.isBlocking()
+                );
+            } catch (Exception e) {
+                worker.getLoad().decrementAndGet();
+                log.warn("|PacketSelector({})| Fail to register the datagram channel.", ownerId, e);
+            }
+        });
     }
 
     public void unregisterChannel(DataChannel dataChannel) {
+        SelectionKey selectionKey = dataChannel.getSelectionKey();
+        if (selectionKey != null) {
+            dataChannel.setSelectionKey(null);
+            unregister(selectionKey, dataChannel.getConferenceId());
+        }
+    }
+
+    public void unregisterReceiver(SharedIngestPort.Receiver receiver) {
+        SelectionKey selectionKey = receiver.getSelectionKey();
+        if (selectionKey != null) {
+            receiver.setSelectionKey(null);
+            unregister(selectionKey, receiver.getConferenceId());
+        }
+    }
+
+    private void unregister(SelectionKey selectionKey, String ownerId) {
         try {
-            SelectionKey selectionKey = dataChannel.getSelectionKey();
-            if (selectionKey != null) {
-                selectionKey.cancel();
-                log.debug("|PacketSelector({})| Success to unregister the channel.", conferenceId);
+            selectionKey.cancel();
+
+            SelectorWorker worker = findWorker(selectionKey.selector());
+            if (worker != null) {
+                worker.getLoad().decrementAndGet();
+                // Wake the owning selector up so the cancelled key (and its socket) is released immediately
+                worker.getSelector().wakeup();
             }
+            log.debug("|PacketSelector({})| Success to unregister the channel.", ownerId);
         } catch (Exception e) {
-            log.warn("|PacketSelector({})| Fail to unregister the datagram channel.", conferenceId, e);
+            log.warn("|PacketSelector({})| Fail to unregister the datagram channel.", ownerId, e);
         }
     }
 
-    private void generateTasks() throws IOException {
+    private SelectorWorker selectLeastLoadedWorker() {
+        synchronized (LOCK) {
+            if (!active) { return null; }
+
+            SelectorWorker target = null;
+            for (SelectorWorker worker : workers) {
+                if (target == null || worker.getLoad().get() < target.getLoad().get()) {
+                    target = worker;
+                }
+            }
+            return target;
+        }
+    }
+
+    private SelectorWorker findWorker(Selector selector) {
+        synchronized (LOCK) {
+            for (SelectorWorker worker : workers) {
+                if (worker.getSelector() == selector) {
+                    return worker;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void generateWorkers() throws IOException {
         for (int i = 0; i < ServiceScheduler.POOL_SIZE; i++) {
-            selectors.add(SelectorProvider.provider().openSelector());
-            PollTask pollTask = new PollTask(i, selectors.get(i));
-            pollTasks.add(pollTask);
-            ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(pollTask, 0L, 1L, TimeUnit.MILLISECONDS);
-            pollTaskFutures.add(future);
+            SelectorWorker worker = new SelectorWorker(i, SelectorProvider.provider().openSelector());
+            workers.add(worker);
+            worker.start();
         }
     }
 
-    private void stopTasks() {
-        for (Future<?> future : pollTaskFutures) {
-            future.cancel(false);
+    private void stopWorkers() {
+        for (SelectorWorker worker : workers) {
+            worker.getSelector().wakeup();
+        }
+
+        for (SelectorWorker worker : workers) {
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
-        pollTaskFutures.clear();
     }
 
     private void closeSelectors() {
-        for (int i = 0; i < selectors.size(); i++) {
-            Selector selector = selectors.get(i);
-            if (selector != null && selector.isOpen()) {
+        for (SelectorWorker worker : workers) {
+            Selector selector = worker.getSelector();
+            if (selector.isOpen()) {
                 try {
                     selector.close();
                 } catch (Exception e) {
-                    log.warn("|PacketSelector({})| Could not close selector({}).", conferenceId, i, e);
+                    log.warn("|PacketSelector| Could not close selector({}).", worker.getWorkerId(), e);
                 }
             }
         }
     }
 
-    private void cleanResources() {
-        pollTasks.clear();
-        selectors.clear();
-    }
-
     public void start() {
         synchronized (LOCK) {
             if (!active) {
                 active = true;
                 try {
-                    scheduler.start();
-                    generateTasks();
-                    log.debug("|PacketSelector({})| Started.", conferenceId);
+                    generateWorkers();
+                    log.debug("|PacketSelector| Started.");
                 } catch (IOException e) {
-                    log.warn("|PacketSelector({})| An error occurred while initializing the polling tasks.", conferenceId, e);
+                    log.warn("|PacketSelector| An error occurred while initializing the selector workers.", e);
                     stop();
                 }
             }
@@ -136,40 +192,77 @@ public class PacketSelector {
         synchronized (LOCK) {
             if (active) {
                 active = false;
-                log.debug("|PacketSelector({})| Stopping...", conferenceId);
-                stopTasks();
+                log.debug("|PacketSelector| Stopping...");
+                stopWorkers();
                 closeSelectors();
-                cleanResources();
-                scheduler.stop();
-                log.debug("|PacketSelector({})| Stopped.", conferenceId);
+                workers.clear();
+                log.debug("|PacketSelector| Stopped.");
             }
         }
     }
 
+    public boolean isActive() {
+        return active;
+    }
+
     /////////////////////////////////////////////////////////////////////////
 
-    private class PollTask implements Runnable {
+    private class SelectorWorker extends Thread {
 
         private final int id;
         private final Selector localSelector;
+        private final AtomicInteger load = new AtomicInteger(0);
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
 
-        public PollTask(int id, Selector selector) {
+        public SelectorWorker(int id, Selector selector) {
+            super("packet-selector-" + id);
+            setDaemon(true);
             this.id = id;
-            localSelector = selector;
+            this.localSelector = selector;
+        }
+
+        public int getWorkerId() {
+            return id;
+        }
+
+        public Selector getSelector() {
+            return localSelector;
+        }
+
+        public AtomicInteger getLoad() {
+            return load;
+        }
+
+        public void submit(Runnable task) {
+            pendingTasks.offer(task);
+            // A wakeup issued before select() is entered makes the next select() return immediately,
+            // so the task can never be stranded in the queue.
+            localSelector.wakeup();
+        }
+
+        private void runPendingTasks() {
+            Runnable task;
+            while ((task = pendingTasks.poll()) != null) {
+                task.run();
+            }
         }
 
         @Override
         public void run() {
-            if (active) {
+            while (active) {
+                runPendingTasks();
+
                 try {
-                    // Select channels enabled for reading operation (without blocking!)
-                    int selected = localSelector.selectNow();
+                    // Block until a channel is readable or wakeup() is called
+                    int selected = localSelector.select();
                     if (selected == 0) {
-                        //Thread.yield();
-                        return;
+                        continue;
                     }
-                } catch (IOException e) {
-                    log.error("|PacketSelector({})| |PollTask({})| Could not select channels from Selector!", conferenceId, id);
+                } catch (Exception e) {
+                    if (active) {
+                        log.error("|PacketSelector| |SelectorWorker({})| Could not select channels from Selector!", id, e);
+                    }
+                    continue;
                 }
 
                 // Iterate over selected channels
@@ -187,27 +280,30 @@ public class PacketSelector {
                         if (attachment instanceof DataChannel) {
                             DataChannel channel = (DataChannel) attachment;
                             if (datagramChannel.isOpen()) {
-                                if (key.isValid()) {
+                                if (key.isValid() && key.isReadable()) {
                                     channel.receive();
-                                    if (channel.hasPendingData()) {
-                                        channel.send();
-                                    }
+                                }
+                                // Responses queued while receiving, or the rest of a drain that hit a full socket (OP_WRITE)
+                                if (key.isValid() && channel.hasPendingData()) {
+                                    channel.send();
                                 }
                             } else {
                                 channel.close();
                             }
+                        } else if (attachment instanceof SharedIngestPort.Receiver) {
+                            if (datagramChannel.isOpen() && key.isValid()) {
+                                ((SharedIngestPort.Receiver) attachment).receive();
+                            }
                         } else {
-                            log.warn("|PacketSelector({})| |PollTask({})| Not defined the attachment.", conferenceId, id);
+                            log.warn("|PacketSelector| |SelectorWorker({})| Not defined the attachment.", id);
                         }
                     } catch (Exception e) {
-                        log.error("|PacketSelector({})| |PollTask({})| An unexpected problem occurred while reading from channel.", conferenceId, id, e);
+                        log.error("|PacketSelector| |SelectorWorker({})| An unexpected problem occurred while reading from channel.", id, e);
                     }
                 }
-
-                localSelector.selectedKeys().clear();
-            } else {
-                Thread.yield();
             }
+
+            pendingTasks.clear();
         }
     }
 
@@ -0,0 +1,101 @@
+package org.kkukie.jrtsp_gw.media.core.manager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.model.SharedIngestPort;
+import org.kkukie.jrtsp_gw.media.core.util.WebSocketPortManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 1) default.sharedIngestPortCount 가 0 보다 크면, 시작 시 WebSocketPortManager 에서 해당 개수만큼 포트를 가져와 SharedIngestPort 를 연다.
+ * 2) 모든 호는 호 별 포트 대신 가장 적게 사용 중인 공유 포트를 할당받는다.
+ * 3) 공유 포트는 종료 시에만 WebSocketPortManager 로 반환된다.
+ */
+@Slf4j
+public class SharedIngestPortManager {
+
+    private static final SharedIngestPortManager sharedIngestPortManager = new SharedIngestPortManager();
+
+    private final Object LOCK = new Object();
+    private final Map<Integer, SharedIngestPort> sharedPorts = new ConcurrentHashMap<>();
+
+    private SharedIngestPortManager() {
+        // Nothing
+    }
+
+    public static SharedIngestPortManager getInstance() {
+        return sharedIngestPortManager;
+    }
+
+    /**
+     * @return true if all conferences share the configured number of ingest ports
+     */
+    public static boolean isEnabled() {
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        return defaultConfig != null && defaultConfig.getSharedIngestPortCount() > 0;
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (!sharedPorts.isEmpty()) { return; }
+
+            int count = ConfigManager.getDefaultConfig().getSharedIngestPortCount();
+            for (int i = 0; i < count; i++) {
+                int port = WebSocketPortManager.getInstance().takePort();
+                if (port <= 0) {
+                    log.warn("|SharedIngestPortManager| Fail to take a port for the shared ingest port. (index={})", i);
+                    break;
+                }
+
+                SharedIngestPort sharedIngestPort = new SharedIngestPort(port);
+                if (sharedIngestPort.open()) {
+                    sharedPorts.put(port, sharedIngestPort);
+                } else {
+                    WebSocketPortManager.getInstance().restorePort(port);
+                }
+            }
+            log.debug("|SharedIngestPortManager| Started. (ports={})", sharedPorts.keySet());
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            for (SharedIngestPort sharedIngestPort : sharedPorts.values()) {
+                sharedIngestPort.close();
+                WebSocketPortManager.getInstance().restorePort(sharedIngestPort.getPort());
+            }
+            sharedPorts.clear();
+            log.debug("|SharedIngestPortManager| Stopped.");
+        }
+    }
+
+    /**
+     * @return The least used shared port, or -1 if no shared port is open
+     */
+    public int selectPort() {
+        SharedIngestPort target = null;
+        for (SharedIngestPort sharedIngestPort : sharedPorts.values()) {
+            if (target == null || sharedIngestPort.getAttachedCount() < target.getAttachedCount()) {
+                target = sharedIngestPort;
+            }
+        }
+
+        if (target == null) {
+            log.warn("|SharedIngestPortManager| Fail to select a shared port. No shared port is open.");
+            return -1;
+        }
+        return target.getPort();
+    }
+
+    public SharedIngestPort getSharedPort(int port) {
+        return sharedPorts.get(port);
+    }
+
+    public boolean isSharedPort(int port) {
+        return sharedPorts.containsKey(port);
+    }
+
+}
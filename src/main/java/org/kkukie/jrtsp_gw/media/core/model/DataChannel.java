@@ -1,12 +1,20 @@
 package org.kkukie.jrtsp_gw.media.core.model;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.media.core.manager.EpollPacketReceiver;
 import org.kkukie.jrtsp_gw.media.core.manager.PacketHandlerMaster;
 import org.kkukie.jrtsp_gw.media.core.manager.PacketSelector;
+import org.kkukie.jrtsp_gw.media.core.manager.SharedIngestPortManager;
+import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsListener;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandler;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsCredentials;
 import org.kkukie.jrtsp_gw.media.core.stream.stun.events.IceEventListener;
 import org.kkukie.jrtsp_gw.media.core.stream.stun.events.SelectedCandidatesEvent;
 import org.kkukie.jrtsp_gw.media.core.stream.webrtc.websocket.model.ice.IceInfo;
@@ -20,8 +28,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * [관리 항목]
@@ -32,15 +38,18 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  *      - RtpHandler
  *      - RtcpHandler
  * 3. DTLS
- * 4. PacketSelector 를 사용하여 채널 등록
+ * 4. PacketSelector 를 사용하여 채널 등록 (default.ingestTransport 가 epoll 이면 EpollPacketReceiver 사용)
+ * 5. default.sharedIngestPortCount 가 설정되면 소켓을 열지 않고 SharedIngestPort 에 연결
  *
  */
 @Slf4j
 @Getter
 @Setter
-public class DataChannel implements DtlsListener, IceEventListener {
+public class DataChannel implements DtlsListener, IceEventListener, IngestTarget {
 
     private static final int BUFFER_SIZE = 8192;
+    /** Upper bound of datagrams read per selector wakeup, so one busy channel cannot starve the others of its selector */
+    private static final int MAX_RECV_BATCH = 256;
 
     private final String conferenceId;
 
@@ -48,25 +57,37 @@ public class DataChannel implements DtlsListener, IceEventListener {
 
     protected SelectionKey selectionKey;
     private DatagramChannel mediaChannel;
+    /* Used instead of mediaChannel when the epoll ingest transport is enabled */
+    private Channel ingestChannel;
+    /* Used instead of an own socket when conferences share the ingest ports */
+    private SharedIngestPort sharedIngestPort;
     private final SocketAddress localMediaAddress;
     private SocketAddress realRemoteAddress = null;
+    /* Peer addresses are resolved once (bind / connect) instead of per packet */
+    private InetSocketAddress cachedLocalAddress = null;
+    private InetSocketAddress cachedRemoteAddress = null;
     private List<InetSocketAddress> targetAddressList = null;
+    /* Credentials of the fingerprint in the SDP answer, used by the DTLS handshake */
+    private DtlsCredentials dtlsCredentials = null;
 
     private final ByteBuffer recvBuffer;
-    private final Queue<byte[]> pendingData;
+    /* Bounded, preallocated queue of outgoing datagrams (STUN, DTLS, RTCP) */
+    private final OutboundRing outboundRing;
 
     private final PacketHandlerMaster packetHandlerMaster;
     private final PacketSelector packetSelector;
 
     ////////////////////////////////////////////////////////////////////////
-    public DataChannel(PacketSelector packetSelector, MediaSession mediaSession,
-                       String conferenceId, SocketAddress localMediaAddress) {
-        this.packetSelector = packetSelector;
+    public DataChannel(MediaSession mediaSession, String conferenceId, SocketAddress localMediaAddress) {
+        this.packetSelector = PacketSelector.getInstance();
         this.mediaSession = mediaSession;
         this.conferenceId = conferenceId;
         this.localMediaAddress = localMediaAddress;
         this.recvBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
-        this.pendingData = new ConcurrentLinkedQueue<>();
+        this.outboundRing = new OutboundRing(
+                ConfigManager.getDefaultConfig().getOutboundRingSize(),
+                DtlsHandler.DEFAULT_MTU
+        );
         this.packetHandlerMaster = new PacketHandlerMaster(conferenceId, mediaSession);
     }
 
@@ -74,9 +95,33 @@ public class DataChannel implements DtlsListener, IceEventListener {
         try {
             freeChannel();
 
+            if (SharedIngestPortManager.isEnabled()) {
+                sharedIngestPort = SharedIngestPortManager.getInstance().getSharedPort(
+                        ((InetSocketAddress) localMediaAddress).getPort()
+                );
+                if (sharedIngestPort == null) {
+                    log.warn("|DataChannel({})| Fail to attach to the shared ingest port. (localMediaAddress={})", conferenceId, localMediaAddress);
+                    return;
+                }
+                sharedIngestPort.attach(this);
+                cachedLocalAddress = sharedIngestPort.getLocalAddress();
+                return;
+            }
+
+            if (EpollPacketReceiver.isEnabled()) {
+                ingestChannel = EpollPacketReceiver.getInstance().bind(localMediaAddress, this, false);
+                if (ingestChannel == null) {
+                    log.warn("|DataChannel({})| Fail to create the epoll media channel.", conferenceId);
+                    return;
+                }
+                cachedLocalAddress = (InetSocketAddress) ingestChannel.localAddress();
+                return;
+            }
+
             mediaChannel = DatagramChannel.open();
             mediaChannel.configureBlocking(false);
             mediaChannel.bind(localMediaAddress);
+            cachedLocalAddress = (InetSocketAddress) mediaChannel.getLocalAddress();
 
             packetSelector.registerChannel(mediaChannel, this);
         } catch (Exception e) {
@@ -89,10 +134,14 @@ public class DataChannel implements DtlsListener, IceEventListener {
 
         flush();
         freeChannel();
-        if (selectionKey != null) {
-            selectionKey.cancel();
-        }
         realRemoteAddress = null;
+
+        outboundRing.clear();
+        if (outboundRing.getOverflowCount() > 0 || outboundRing.getDropCount() > 0) {
+            log.debug("|DataChannel({})| Outbound packets lost. (overflow={}, drop={})",
+                    conferenceId, outboundRing.getOverflowCount(), outboundRing.getDropCount()
+            );
+        }
     }
 
     private void freeChannel() {
@@ -103,6 +152,16 @@ public class DataChannel implements DtlsListener, IceEventListener {
                 mediaChannel.close();
                 mediaChannel = null;
             }
+            if (ingestChannel != null) {
+                ingestChannel.close();
+                ingestChannel = null;
+            }
+            if (sharedIngestPort != null) {
+                sharedIngestPort.detach(this);
+                sharedIngestPort = null;
+            }
+            cachedLocalAddress = null;
+            cachedRemoteAddress = null;
         } catch (Exception e) {
             log.warn("|DataChannel({})| Fail to remove the media channel.", conferenceId, e);
         }
@@ -113,6 +172,12 @@ public class DataChannel implements DtlsListener, IceEventListener {
     }
 
     public boolean isOpen() {
+        if (this.sharedIngestPort != null) {
+            return this.sharedIngestPort.isOpen();
+        }
+        if (this.ingestChannel != null) {
+            return this.ingestChannel.isOpen();
+        }
         if(this.mediaChannel != null) {
             return this.mediaChannel.isOpen();
         }
@@ -124,97 +189,178 @@ public class DataChannel implements DtlsListener, IceEventListener {
             throw new IOException("|DataChannel(" + conferenceId + ")| No channel available to connect.");
         }
         this.mediaChannel.connect(address);
+        this.cachedRemoteAddress = (InetSocketAddress) address;
     }
 
     public void disconnect() throws IOException {
         if(isConnected()) {
             this.mediaChannel.disconnect();
         }
+        this.cachedRemoteAddress = null;
     }
 
     public boolean hasPendingData() {
-        return !this.pendingData.isEmpty();
+        return !this.outboundRing.isEmpty();
     }
 
-    public byte[] receive() {
-        recvBuffer.clear();
+    /**
+     * @return true if the outbound ring is close to full, so optional traffic (STUN checks, RTCP reports) should be skipped
+     */
+    public boolean isBackpressured() {
+        return this.outboundRing.isBackpressured();
+    }
 
-        int dataLength;
-        try {
-            SocketAddress remotePeer = mediaChannel.receive(recvBuffer);
-            if (!isConnected() && remotePeer != null) {
-                connect(remotePeer);
+    /**
+     * Drains the socket until it is empty (or {@link #MAX_RECV_BATCH} datagrams are read) and dispatches
+     * every datagram straight from the receive buffer, so the steady state allocates nothing per packet.
+     *
+     * @return The number of datagrams read
+     */
+    public int receive() {
+        int received = 0;
+        while (received < MAX_RECV_BATCH) {
+            DatagramChannel channel = mediaChannel;
+            if (channel == null) { break; }
+
+            recvBuffer.clear();
+
+            int dataLength;
+            try {
+                if (channel.isConnected()) {
+                    // Connected channels can use read(), which does not create a sender address per datagram
+                    dataLength = channel.read(recvBuffer);
+                } else {
+                    SocketAddress remotePeer = channel.receive(recvBuffer);
+                    if (remotePeer == null) {
+                        dataLength = 0;
+                    } else {
+                        connect(remotePeer);
+                        dataLength = recvBuffer.position();
+                    }
+                }
+            } catch (IOException e) {
+                dataLength = -1;
+            }
+
+            // Stop if socket was shutdown or error occurred
+            if (dataLength == -1) {
+                close();
+                break;
+            } else if (dataLength == 0) {
+                // Nothing left to read
+                break;
             }
-            dataLength = this.recvBuffer.position();
-        } catch (IOException e) {
-            dataLength = -1;
+
+            received++;
+            dispatch(recvBuffer, dataLength, 0, cachedRemoteAddress);
+        }
+        return received;
+    }
+
+    /**
+     * Hands a received datagram to the packet handler pipeline.
+     * Called by the NIO receive loop, the epoll ingest transport and the shared ingest port.
+     */
+    @Override
+    public void dispatch(ByteBuffer packet, int dataLength, int offset, InetSocketAddress remotePeer) {
+        if (cachedRemoteAddress == null) {
+            // Epoll and shared channels stay unconnected, so the first sender is remembered here
+            cachedRemoteAddress = remotePeer;
         }
 
-        // Stop if socket was shutdown or error occurred
-        if (dataLength == -1) {
-            close();
-        } else if (dataLength > 0) {
-            // Copy data from buffer so we don't mess with original
-            byte[] dataCopy = new byte[dataLength];
-            this.recvBuffer.rewind();
-            this.recvBuffer.get(dataCopy, 0, dataLength);
-
-            // Delegate work to the proper handler
-            PacketHandler handler = packetHandlerMaster.getHandlers().getCapableHandler(dataCopy);
-            if (handler != null) {
-                try {
-                    byte[] response = handler.handle(
-                            dataCopy, dataLength, 0,
-                            (InetSocketAddress) mediaChannel.getLocalAddress(),
-                            (InetSocketAddress) mediaChannel.getRemoteAddress()
-                    );
-                    if (response != null && response.length > 0) {
-                        queueData(response);
+        // Delegate work to the proper handler
+        PacketHandler handler = packetHandlerMaster.getHandlers().getCapableHandler(packet, dataLength, offset);
+        if (handler != null) {
+            try {
+                byte[] response = handler.handle(
+                        packet, dataLength, offset,
+                        cachedLocalAddress, cachedRemoteAddress
+                );
+                if (response != null && response.length > 0) {
+                    // Answer the sender of the request
+                    outboundRing.offer(response, 0, response.length, remotePeer != null ? remotePeer : realRemoteAddress);
+                    if (mediaChannel == null) {
+                        // No selector loop drives this channel, so answer right away
+                        send();
                     }
-                } catch (Exception e) {
-                    log.error("|DataChannel({})| Could not handle incoming packet.", conferenceId, e);
-                }
-            } else {
-                if (log.isTraceEnabled()) {
-                    log.trace("|DataChannel({})| No protocol handler was found to process an incoming packet. Packet will be dropped.", conferenceId);
                 }
+            } catch (Exception e) {
+                log.error("|DataChannel({})| Could not handle incoming packet.", conferenceId, e);
+            }
+        } else {
+            if (log.isTraceEnabled()) {
+                log.trace("|DataChannel({})| No protocol handler was found to process an incoming packet. Packet will be dropped.", conferenceId);
             }
-            return dataCopy;
         }
-
-        return null;
     }
 
     public void queueData(final byte[] data) {
         if (data != null && data.length > 0) {
-            this.pendingData.offer(data);
+            this.outboundRing.offer(data, 0, data.length, realRemoteAddress);
         }
     }
 
+    /**
+     * Drains the outbound ring until it is empty or the socket would block.
+     * In the latter case OP_WRITE is requested, so the selector thread finishes the drain.
+     */
     public void send() throws IOException {
-        if (this.mediaChannel == null) { return; }
-
-        byte[] data = this.pendingData.poll();
-        if (data != null) {
-            ByteBuffer buffer = ByteBuffer.wrap(data);
-            if (realRemoteAddress == null) { return; }
-            this.mediaChannel.send(buffer, realRemoteAddress);
-            // Keep sending queued data, recursive style
-            send();
+        boolean drained = this.outboundRing.drain(this::write);
+
+        SelectionKey key = this.selectionKey;
+        if (key != null && key.isValid()) {
+            int interestOps = drained ? SelectionKey.OP_READ : (SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            if (key.interestOps() != interestOps) {
+                key.interestOps(interestOps);
+                if (!drained) {
+                    key.selector().wakeup();
+                }
+            }
         }
     }
 
     public boolean send(byte[] data, SocketAddress remoteAddress) throws IOException {
-        if (remoteAddress == null) { return false; }
-        if (data != null) {
-            ByteBuffer buffer = ByteBuffer.wrap(data);
-            if (this.mediaChannel != null) {
-                return this.mediaChannel.send(buffer, remoteAddress) > 0;
-            } else {
-                return false;
-            }
+        if (data == null) { return false; }
+        return send(data, 0, data.length, remoteAddress);
+    }
+
+    /**
+     * Queues a datagram on the outbound ring and drains it through the media socket,
+     * whichever ingest transport owns it.
+     * Used by the ICE, DTLS and RTCP handlers so they do not depend on the socket type.
+     *
+     * @return false if the datagram was dropped because the ring is full
+     */
+    public boolean send(byte[] data, int offset, int length, SocketAddress remoteAddress) throws IOException {
+        if (remoteAddress == null || data == null) { return false; }
+
+        if (!this.outboundRing.offer(data, offset, length, remoteAddress)) {
+            return false;
         }
-        return false;
+        send();
+        return true;
+    }
+
+    private int write(byte[] data, int length, SocketAddress remoteAddress) throws IOException {
+        if (remoteAddress == null) { return -1; }
+
+        if (this.sharedIngestPort != null) {
+            return this.sharedIngestPort.send(data, 0, length, remoteAddress);
+        }
+
+        if (this.ingestChannel != null) {
+            if (!this.ingestChannel.isActive()) { return -1; }
+            if (!this.ingestChannel.isWritable()) { return 0; }
+            // The slot is reused after this call, so the datagram is copied into a pooled buffer
+            ByteBuf buf = this.ingestChannel.alloc().directBuffer(length).writeBytes(data, 0, length);
+            this.ingestChannel.writeAndFlush(new DatagramPacket(buf, (InetSocketAddress) remoteAddress));
+            return length;
+        }
+
+        if (this.mediaChannel != null && this.mediaChannel.isOpen()) {
+            return this.mediaChannel.send(ByteBuffer.wrap(data, 0, length), remoteAddress);
+        }
+        return -1;
     }
 
     public void flush() {
@@ -239,6 +385,12 @@ public class DataChannel implements DtlsListener, IceEventListener {
 
     public void initIce(IceInfo iceInfo, List<InetSocketAddress> targetAddressList) {
         this.targetAddressList = targetAddressList;
+        if (sharedIngestPort != null) {
+            // The first STUN binding request is routed to this channel by its USERNAME,
+            // the responses to our own connectivity checks by the remote candidates
+            sharedIngestPort.registerUfrag(iceInfo.getLocalIceUfrag(), iceInfo.getLocalIcePasswd(), this);
+            sharedIngestPort.registerRemoteAddresses(targetAddressList, this);
+        }
         packetHandlerMaster.initIce(iceInfo, targetAddressList, this);
     }
 
@@ -274,8 +426,8 @@ public class DataChannel implements DtlsListener, IceEventListener {
         }
 
         synchronized (packetHandlerMaster) {
-            packetHandlerMaster.initDtls(mediaChannel, realRemoteAddress, this);
-            packetHandlerMaster.initRtp(mediaChannel, realRemoteAddress, mediaSession.getMediaFormatMap());
+            packetHandlerMaster.initDtls(this, realRemoteAddress);
+            packetHandlerMaster.initRtp(this, realRemoteAddress, mediaSession.getMediaFormatMap());
             packetHandlerMaster.selectCandidate(useCandidate);
         }
     }
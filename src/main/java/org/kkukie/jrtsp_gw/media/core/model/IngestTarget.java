@@ -0,0 +1,21 @@
+package org.kkukie.jrtsp_gw.media.core.model;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of datagrams read by an ingest transport (PacketSelector or EpollPacketReceiver).
+ */
+public interface IngestTarget {
+
+    String getConferenceId();
+
+    /**
+     * @param packet     Buffer holding the datagram, only valid for the duration of the call
+     * @param dataLength Length of the datagram
+     * @param offset     Absolute index of the first byte of the datagram
+     * @param remotePeer Sender of the datagram
+     */
+    void dispatch(ByteBuffer packet, int dataLength, int offset, InetSocketAddress remotePeer);
+
+}
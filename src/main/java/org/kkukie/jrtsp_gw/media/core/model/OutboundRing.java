@@ -0,0 +1,133 @@
+package org.kkukie.jrtsp_gw.media.core.model;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * [관리 항목]
+ * 1. DataChannel 의 송신 대기 패킷 (STUN 응답, DTLS 레코드, RTCP 리포트)
+ * 2. 고정 크기 슬롯을 미리 할당한 원형 버퍼로, 가득 차면 새 패킷을 버리고 overflow 를 기록한다.
+ * 3. 사용량이 high watermark 이상이면 backpressure 상태가 되어 IceHandler, RtcpHandler 가 송신을 건너뛴다.
+ *
+ */
+public class OutboundRing {
+
+    /**
+     * Writes one datagram to the socket.
+     */
+    public interface Writer {
+        /**
+         * @return A positive value if the datagram was sent, 0 if the socket would block,
+         *         or a negative value if the datagram must be dropped
+         */
+        int write(byte[] data, int length, SocketAddress target) throws IOException;
+    }
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final SocketAddress[] targets;
+    private final int slotSize;
+    private final int highWatermark;
+
+    private int head = 0;
+    private int size = 0;
+
+    /** Packets refused because the ring was full */
+    private final AtomicLong overflowCount = new AtomicLong(0);
+    /** Packets dropped because they were too big, failed to send or were skipped under backpressure */
+    private final AtomicLong dropCount = new AtomicLong(0);
+
+    public OutboundRing(int capacity, int slotSize) {
+        int ringCapacity = Math.max(1, capacity);
+        this.slots = new byte[ringCapacity][slotSize];
+        this.lengths = new int[ringCapacity];
+        this.targets = new SocketAddress[ringCapacity];
+        this.slotSize = slotSize;
+        this.highWatermark = Math.max(1, (ringCapacity * 3) / 4);
+    }
+
+    /**
+     * Copies the datagram into the next free slot.
+     *
+     * @return false if the datagram was dropped
+     */
+    public synchronized boolean offer(byte[] data, int offset, int length, SocketAddress target) {
+        if (length > slotSize) {
+            dropCount.incrementAndGet();
+            return false;
+        }
+        if (size == slots.length) {
+            overflowCount.incrementAndGet();
+            return false;
+        }
+
+        int tail = (head + size) % slots.length;
+        System.arraycopy(data, offset, slots[tail], 0, length);
+        lengths[tail] = length;
+        targets[tail] = target;
+        size++;
+        return true;
+    }
+
+    /**
+     * Writes queued datagrams in order until the ring is empty or the socket would block.
+     * A datagram that fails to send (for example PortUnreachableException on a connected socket)
+     * is counted as a drop and skipped, so it can not block the ring.
+     *
+     * @return true if the ring is empty
+     */
+    public synchronized boolean drain(Writer writer) {
+        while (size > 0) {
+            int result;
+            try {
+                result = writer.write(slots[head], lengths[head], targets[head]);
+            } catch (IOException | RuntimeException e) {
+                result = -1;
+            }
+
+            if (result == 0) {
+                return false;
+            } else if (result < 0) {
+                dropCount.incrementAndGet();
+            }
+
+            targets[head] = null;
+            head = (head + 1) % slots.length;
+            size--;
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if a producer should skip optional traffic until the ring drains
+     */
+    public synchronized boolean isBackpressured() {
+        return size >= highWatermark;
+    }
+
+    public void recordDrop() {
+        dropCount.incrementAndGet();
+    }
+
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    public long getDropCount() {
+        return dropCount.get();
+    }
+
+}
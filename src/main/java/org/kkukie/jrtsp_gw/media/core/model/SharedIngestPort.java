@@ -0,0 +1,466 @@
+package org.kkukie.jrtsp_gw.media.core.model;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.media.core.manager.EpollPacketReceiver;
+import org.kkukie.jrtsp_gw.media.core.manager.PacketSelector;
+import org.kkukie.jrtsp_gw.media.core.scheduler.ServiceScheduler;
+import org.kkukie.jrtsp_gw.media.core.stream.stun.messages.StunMessage;
+import org.kkukie.jrtsp_gw.media.core.stream.stun.messages.attributes.StunAttribute;
+import org.kkukie.jrtsp_gw.media.core.stream.stun.messages.attributes.general.MessageIntegrityAttribute;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * [관리 항목]
+ * 1. 여러 호(DataChannel)가 공유하는 WebRTC 수신 UDP 포트
+ * 2. 수신 패킷 역다중화
+ *      - 첫 STUN Binding Request 는 USERNAME 속성의 로컬 ufrag 로 DataChannel 을 찾고, 송신 주소를 학습한다.
+ *        MESSAGE-INTEGRITY 가 로컬 ICE password 로 검증된 요청만 송신 주소를 학습(재학습)한다.
+ *      - ICE 시작 시 상대 후보 주소(targetAddressList)를 미리 등록하여, 게이트웨이의 연결 확인에 대한 응답도 전달되도록 한다.
+ *      - 이후 DTLS/SRTP 패킷은 송신 주소(InetSocketAddress) 한 번의 해시 조회로 DataChannel 에 전달된다.
+ * 3. SO_REUSEPORT 를 지원하면 수신 스레드 수만큼 소켓을 열어 커널이 4-tuple 기준으로 분산하도록 한다.
+ *
+ */
+@Slf4j
+public class SharedIngestPort implements IngestTarget {
+
+    private static final int BUFFER_SIZE = 8192;
+    /** Upper bound of datagrams read per selector wakeup, same as DataChannel */
+    private static final int MAX_RECV_BATCH = 256;
+
+    /** STUN header: type(2) + length(2) + magic cookie(4) + transaction id(12) */
+    private static final int STUN_HEADER_LENGTH = 20;
+
+    private final int port;
+    private final InetSocketAddress localAddress;
+    private final String ingestId;
+
+    private final List<Receiver> receivers = new CopyOnWriteArrayList<>();
+    private final List<Channel> ingestChannels = new CopyOnWriteArrayList<>();
+
+    /* Demux tables */
+    private final Map<String, IceCredential> ufragMap = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, DataChannel> remoteMap = new ConcurrentHashMap<>();
+    private final AtomicInteger attachedCount = new AtomicInteger(0);
+
+    public SharedIngestPort(int port) {
+        this.port = port;
+        this.localAddress = new InetSocketAddress(port);
+        this.ingestId = "shared:" + port;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    public boolean open() {
+        try {
+            if (EpollPacketReceiver.isEnabled()) {
+                openEpoll();
+            } else {
+                openNio();
+            }
+        } catch (Exception e) {
+            log.warn("|SharedIngestPort({})| Fail to open the shared port.", ingestId, e);
+            close();
+            return false;
+        }
+
+        log.debug("|SharedIngestPort({})| Opened. (sockets={})", ingestId, Math.max(receivers.size(), ingestChannels.size()));
+        return isOpen();
+    }
+
+    private void openNio() throws IOException {
+        for (int i = 0; i < ServiceScheduler.POOL_SIZE; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            boolean reusePort = channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.configureBlocking(false);
+            channel.bind(localAddress);
+
+            Receiver receiver = new Receiver(this, channel);
+            receivers.add(receiver);
+            PacketSelector.getInstance().registerReceiver(channel, receiver);
+
+            if (!reusePort) {
+                // Only one socket can be bound to the port
+                break;
+            }
+        }
+    }
+
+    private void openEpoll() throws IOException {
+        for (int i = 0; i < ServiceScheduler.POOL_SIZE; i++) {
+            Channel channel = EpollPacketReceiver.getInstance().bind(localAddress, this, true);
+            if (channel == null) {
+                throw new IOException("Fail to bind the epoll channel. (port=" + port + ")");
+            }
+            ingestChannels.add(channel);
+        }
+    }
+
+    public void close() {
+        for (Receiver receiver : receivers) {
+            receiver.close();
+        }
+        receivers.clear();
+
+        for (Channel channel : ingestChannels) {
+            channel.close();
+        }
+        ingestChannels.clear();
+
+        ufragMap.clear();
+        remoteMap.clear();
+        attachedCount.set(0);
+        log.debug("|SharedIngestPort({})| Closed.", ingestId);
+    }
+
+    public boolean isOpen() {
+        for (Channel channel : ingestChannels) {
+            if (channel.isOpen()) { return true; }
+        }
+        for (Receiver receiver : receivers) {
+            if (receiver.channel.isOpen()) { return true; }
+        }
+        return false;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    public void attach(DataChannel dataChannel) {
+        attachedCount.incrementAndGet();
+        log.debug("|SharedIngestPort({})| DataChannel({}) is attached. (count={})", ingestId, dataChannel.getConferenceId(), attachedCount.get());
+    }
+
+    public void detach(DataChannel dataChannel) {
+        ufragMap.values().removeIf(value -> value.dataChannel == dataChannel);
+        remoteMap.values().removeIf(value -> value == dataChannel);
+        attachedCount.decrementAndGet();
+        log.debug("|SharedIngestPort({})| DataChannel({}) is detached. (count={})", ingestId, dataChannel.getConferenceId(), attachedCount.get());
+    }
+
+    public void registerUfrag(String localIceUfrag, String localIcePasswd, DataChannel dataChannel) {
+        if (localIceUfrag == null || localIceUfrag.isEmpty()) {
+            log.warn("|SharedIngestPort({})| Fail to register the ufrag of DataChannel({}). Ufrag is empty.", ingestId, dataChannel.getConferenceId());
+            return;
+        }
+        if (localIcePasswd == null || localIcePasswd.isEmpty()) {
+            log.warn("|SharedIngestPort({})| Fail to register the ufrag of DataChannel({}). Password is empty.", ingestId, dataChannel.getConferenceId());
+            return;
+        }
+        ufragMap.put(localIceUfrag, new IceCredential(dataChannel, localIcePasswd.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Registers the remote candidates, so the responses to the connectivity checks of the gateway
+     * are routed before the peer sends its own binding request.
+     * An address already learned by another DataChannel is not taken over.
+     */
+    public void registerRemoteAddresses(List<InetSocketAddress> remoteAddressList, DataChannel dataChannel) {
+        if (remoteAddressList == null) { return; }
+
+        for (InetSocketAddress remoteAddress : remoteAddressList) {
+            if (remoteAddress == null) { continue; }
+
+            DataChannel prevDataChannel = remoteMap.putIfAbsent(remoteAddress, dataChannel);
+            if (prevDataChannel != null && prevDataChannel != dataChannel) {
+                log.warn("|SharedIngestPort({})| Fail to register remote address [{}] for DataChannel({}). Already used by DataChannel({}).",
+                        ingestId, remoteAddress, dataChannel.getConferenceId(), prevDataChannel.getConferenceId()
+                );
+            }
+        }
+    }
+
+    public int getAttachedCount() {
+        return attachedCount.get();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public String getConferenceId() {
+        return ingestId;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void dispatch(ByteBuffer packet, int dataLength, int offset, InetSocketAddress remotePeer) {
+        if (remotePeer == null) { return; }
+
+        DataChannel dataChannel = null;
+        // A STUN request names its conference in USERNAME, which also (re)learns the sender address
+        // once its MESSAGE-INTEGRITY is verified with the local password
+        String localUfrag = getStunLocalUfrag(packet, dataLength, offset);
+        if (localUfrag != null) {
+            IceCredential iceCredential = ufragMap.get(localUfrag);
+            if (iceCredential != null) {
+                if (hasValidMessageIntegrity(packet, dataLength, offset, iceCredential.localKey)) {
+                    dataChannel = iceCredential.dataChannel;
+                } else if (log.isDebugEnabled()) {
+                    log.debug("|SharedIngestPort({})| STUN message from [{}] fails the integrity check. (ufrag={})",
+                            ingestId, remotePeer, localUfrag
+                    );
+                }
+            }
+
+            if (dataChannel != null) {
+                DataChannel prevDataChannel = remoteMap.put(remotePeer, dataChannel);
+                if (prevDataChannel != dataChannel) {
+                    if (prevDataChannel != null) {
+                        log.warn("|SharedIngestPort({})| Remote address [{}] is moved from DataChannel({}) to DataChannel({}).",
+                                ingestId, remotePeer, prevDataChannel.getConferenceId(), dataChannel.getConferenceId()
+                        );
+                    } else {
+                        log.debug("|SharedIngestPort({})| Learned remote address [{}] for DataChannel({}).",
+                                ingestId, remotePeer, dataChannel.getConferenceId()
+                        );
+                    }
+                }
+            }
+        }
+
+        if (dataChannel == null) {
+            dataChannel = remoteMap.get(remotePeer);
+        }
+
+        if (dataChannel == null) {
+            if (log.isTraceEnabled()) {
+                log.trace("|SharedIngestPort({})| Unknown remote address [{}]. Packet will be dropped.", ingestId, remotePeer);
+            }
+            return;
+        }
+
+        dataChannel.dispatch(packet, dataLength, offset, remotePeer);
+    }
+
+    /**
+     * Sends a datagram through one of the sockets bound to the shared port.
+     *
+     * @return A positive value if the datagram was sent, 0 if the socket would block,
+     *         or a negative value if the port is closed (same contract as OutboundRing.Writer)
+     */
+    public int send(byte[] data, int offset, int length, SocketAddress remoteAddress) throws IOException {
+        if (!ingestChannels.isEmpty()) {
+            Channel channel = ingestChannels.get(0);
+            if (!channel.isActive()) { return -1; }
+            if (!channel.isWritable()) { return 0; }
+            // The caller may reuse the array after this call, so the datagram is copied into a pooled buffer
+            ByteBuf buf = channel.alloc().directBuffer(length).writeBytes(data, offset, length);
+            channel.writeAndFlush(new DatagramPacket(buf, (InetSocketAddress) remoteAddress));
+            return length;
+        }
+
+        if (!receivers.isEmpty()) {
+            DatagramChannel channel = receivers.get(0).channel;
+            if (!channel.isOpen()) { return -1; }
+            return channel.send(ByteBuffer.wrap(data, offset, length), remoteAddress);
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the local ufrag (the part before ':') of the USERNAME attribute of a STUN message
+     * straight from the datagram, without decoding the whole message.
+     *
+     * @return The local ufrag, or null if the datagram is not a STUN message with USERNAME
+     */
+    public static String getStunLocalUfrag(ByteBuffer packet, int dataLength, int offset) {
+        int index = findStunAttribute(packet, dataLength, offset, StunAttribute.USERNAME);
+        if (index < 0) {
+            return null;
+        }
+
+        int length = packet.getShort(index + 2) & 0xFFFF;
+        int valueIndex = index + 4;
+        int ufragLength = 0;
+        while (ufragLength < length && packet.get(valueIndex + ufragLength) != ':') {
+            ufragLength++;
+        }
+
+        byte[] ufrag = new byte[ufragLength];
+        for (int i = 0; i < ufragLength; i++) {
+            ufrag[i] = packet.get(valueIndex + i);
+        }
+        return new String(ufrag, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Verifies the MESSAGE-INTEGRITY attribute of a STUN message straight from the datagram (RFC 5389 15.4).
+     * The HMAC covers the message up to the attribute, with the header length adjusted to end at the attribute.
+     *
+     * @param key Short-term credential, the local ICE password
+     * @return true if the message carries MESSAGE-INTEGRITY and the HMAC matches
+     */
+    public static boolean hasValidMessageIntegrity(ByteBuffer packet, int dataLength, int offset, byte[] key) {
+        if (key == null) {
+            return false;
+        }
+
+        int index = findStunAttribute(packet, dataLength, offset, StunAttribute.MESSAGE_INTEGRITY);
+        if (index < 0 || (packet.getShort(index + 2) & 0xFFFF) != MessageIntegrityAttribute.DATA_LENGTH) {
+            return false;
+        }
+
+        int hmacInputLength = index - offset;
+        byte[] hmacInput = new byte[hmacInputLength];
+        for (int i = 0; i < hmacInputLength; i++) {
+            hmacInput[i] = packet.get(offset + i);
+        }
+        int adjustedLength = hmacInputLength - STUN_HEADER_LENGTH + 4 + MessageIntegrityAttribute.DATA_LENGTH;
+        hmacInput[2] = (byte) (adjustedLength >> 8);
+        hmacInput[3] = (byte) adjustedLength;
+
+        byte[] received = new byte[MessageIntegrityAttribute.DATA_LENGTH];
+        for (int i = 0; i < received.length; i++) {
+            received[i] = packet.get(index + 4 + i);
+        }
+
+        byte[] expected;
+        try {
+            expected = MessageIntegrityAttribute.calculateHmacSha1(hmacInput, 0, hmacInputLength, key);
+        } catch (IllegalArgumentException e) {
+            log.warn("|SharedIngestPort| Fail to calculate the STUN message integrity.", e);
+            return false;
+        }
+        return MessageDigest.isEqual(expected, received);
+    }
+
+    /**
+     * @return Index of the first attribute header of the given type, or -1 if the datagram is not a STUN message with it
+     */
+    private static int findStunAttribute(ByteBuffer packet, int dataLength, int offset, int attributeType) {
+        if (dataLength < STUN_HEADER_LENGTH || (packet.get(offset) & 0xC0) != 0) {
+            return -1;
+        }
+        for (int i = 0; i < StunMessage.MAGIC_COOKIE.length; i++) {
+            if (packet.get(offset + 4 + i) != StunMessage.MAGIC_COOKIE[i]) {
+                return -1;
+            }
+        }
+
+        int end = offset + Math.min(dataLength, STUN_HEADER_LENGTH + (packet.getShort(offset + 2) & 0xFFFF));
+        int index = offset + STUN_HEADER_LENGTH;
+        while (index + 4 <= end) {
+            int type = packet.getShort(index) & 0xFFFF;
+            int length = packet.getShort(index + 2) & 0xFFFF;
+            int valueIndex = index + 4;
+            if (valueIndex + length > end) {
+                return -1;
+            }
+
+            if (type == attributeType) {
+                return index;
+            }
+
+            // Attribute values are padded to a multiple of 4 bytes
+            index = valueIndex + ((length + 3) & ~3);
+        }
+        return -1;
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * DataChannel registered by its local ufrag, with the key of its STUN messages.
+     */
+    private static class IceCredential {
+
+        private final DataChannel dataChannel;
+        private final byte[] localKey;
+
+        private IceCredential(DataChannel dataChannel, byte[] localKey) {
+            this.dataChannel = dataChannel;
+            this.localKey = localKey;
+        }
+    }
+
+    /**
+     * One NIO socket of the shared port, attached to a PacketSelector key.
+     */
+    public static class Receiver {
+
+        private final SharedIngestPort sharedIngestPort;
+        private final DatagramChannel channel;
+        private final ByteBuffer recvBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private SelectionKey selectionKey;
+
+        private Receiver(SharedIngestPort sharedIngestPort, DatagramChannel channel) {
+            this.sharedIngestPort = sharedIngestPort;
+            this.channel = channel;
+        }
+
+        public String getConferenceId() {
+            return sharedIngestPort.getConferenceId();
+        }
+
+        public void setSelectionKey(SelectionKey selectionKey) {
+            this.selectionKey = selectionKey;
+        }
+
+        public SelectionKey getSelectionKey() {
+            return selectionKey;
+        }
+
+        /**
+         * Drains the socket (up to {@link #MAX_RECV_BATCH} datagrams) and demultiplexes every datagram.
+         *
+         * @return The number of datagrams read
+         */
+        public int receive() {
+            int received = 0;
+            while (received < MAX_RECV_BATCH) {
+                recvBuffer.clear();
+
+                SocketAddress remotePeer;
+                try {
+                    remotePeer = channel.receive(recvBuffer);
+                } catch (IOException e) {
+                    log.warn("|SharedIngestPort({})| Fail to receive.", getConferenceId(), e);
+                    break;
+                }
+                if (remotePeer == null) {
+                    // Nothing left to read
+                    break;
+                }
+
+                received++;
+                sharedIngestPort.dispatch(recvBuffer, recvBuffer.position(), 0, (InetSocketAddress) remotePeer);
+            }
+            return received;
+        }
+
+        private void close() {
+            PacketSelector.getInstance().unregisterReceiver(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("|SharedIngestPort({})| Fail to close the socket.", getConferenceId(), e);
+            }
+        }
+    }
+
+}
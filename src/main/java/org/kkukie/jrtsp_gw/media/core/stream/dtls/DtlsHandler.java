@@ -1,34 +1,34 @@
 package org.kkukie.jrtsp_gw.media.core.stream.dtls;
 
 import lombok.extern.slf4j.Slf4j;
-import org.kkukie.jrtsp_gw.config.ConfigManager;
-import org.kkukie.jrtsp_gw.config.DtlsConfig;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.DTLSClientProtocol;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.DTLSServerProtocol;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.DTLSTransport;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.DatagramTransport;
+import org.kkukie.jrtsp_gw.media.core.model.DataChannel;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketClass;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.*;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class DtlsHandler implements PacketHandler, DatagramTransport {
 
     public static final int DEFAULT_MTU = 1500;
     public static final int MAX_DELAY = 20000;
-    private static final AtomicLong THREAD_COUNTER = new AtomicLong(0);
     private static final int MIN_IP_OVERHEAD = 20;
     private static final int MAX_IP_OVERHEAD = MIN_IP_OVERHEAD + 64;
     private static final int UDP_OVERHEAD = 8;
@@ -37,7 +37,7 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
 
     private final int receiveLimit;
     private final int sendLimit;
-    private final Queue<ByteBuffer> rxQueue;
+    private final BlockingQueue<ByteBuffer> rxQueue;
     private final List<DtlsListener> listeners;
     // Packet Handler properties
     private int pipelinePriority;
@@ -47,11 +47,11 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
     private DtlsSrtpServer server;
     private final DtlsSrtpClient client;
 
-    private long startTime;
+    private volatile long startTime;
     private volatile boolean handshakeComplete;
     private volatile boolean handshakeFailed;
     private volatile boolean handshaking;
-    private Thread worker;
+    private Future<?> worker;
 
     // SRTP properties
     // http://tools.ietf.org/html/rfc5764#section-4.2
@@ -61,12 +61,17 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
     private PacketTransformer srtcpDecoder;
 
     private final DtlsSrtpServerProvider tlsServerProvider;
+    /* Pinned when the SDP answer was built, a new server after destroy() keeps the same certificate */
+    private final DtlsCredentials credentials;
 
-    private DatagramChannel datagramChannel;
+    private DataChannel dataChannel;
 
     private final SocketAddress remoteAddress;
 
-    public DtlsHandler (String conferenceId, SocketAddress remoteAddress) {
+    /**
+     * @param credentials Credentials of the fingerprint in the SDP answer, the current ones of DtlsCredentialManager if null
+     */
+    public DtlsHandler (String conferenceId, SocketAddress remoteAddress, DtlsCredentials credentials) {
         this.conferenceId = conferenceId;
         this.pipelinePriority = 0;
         this.remoteAddress = remoteAddress;
@@ -76,24 +81,28 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
         this.receiveLimit = mtu - MIN_IP_OVERHEAD - UDP_OVERHEAD;
         this.sendLimit = mtu - MAX_IP_OVERHEAD - UDP_OVERHEAD;
 
-        // Handshake properties
-        DtlsConfig dtlsConfig = ConfigManager.getDtlsConfig();
-        DtlsSrtpServerProvider dtlsServerProvider = new DtlsSrtpServerProvider(dtlsConfig.getCertPath(), dtlsConfig.getKeyPath());
-        DtlsSrtpClientProvider dtlsClientProvider = new DtlsSrtpClientProvider(dtlsConfig.getCertPath(), dtlsConfig.getKeyPath());
+        // Handshake properties (Key and certificate are shared by DtlsCredentialManager, no file is read here)
+        if (credentials == null) {
+            log.warn("|DtlsHandler({})| No credentials are pinned to the session, the current credentials are used.", conferenceId);
+            credentials = DtlsCredentialManager.getInstance().getCredentials();
+        }
+        this.credentials = credentials;
+        DtlsSrtpServerProvider dtlsServerProvider = new DtlsSrtpServerProvider();
+        DtlsSrtpClientProvider dtlsClientProvider = new DtlsSrtpClientProvider();
         this.tlsServerProvider = dtlsServerProvider;
-        this.server = dtlsServerProvider.provide();
-        this.client = dtlsClientProvider.provide();
+        this.server = dtlsServerProvider.provide(credentials);
+        this.client = dtlsClientProvider.provide(credentials);
 
         this.listeners = new ArrayList<>();
-        this.rxQueue = new ConcurrentLinkedQueue<>();
+        this.rxQueue = new LinkedBlockingQueue<>();
         this.startTime = 0L;
         this.handshakeComplete = false;
         this.handshakeFailed = false;
         this.handshaking = false;
     }
 
-    public void setChannel (DatagramChannel datagramChannel) {
-        this.datagramChannel = datagramChannel;
+    public void setChannel (DataChannel dataChannel) {
+        this.dataChannel = dataChannel;
     }
 
     public void addListener (DtlsListener listener) {
@@ -218,11 +227,21 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
         return this.srtpDecoder.reverseTransform(packet, offset, length);
     }
 
+    /**
+     * Decodes an RTP Packet in place
+     *
+     * @param packet The buffer holding the encoded RTP packet, overwritten with the decoded packet
+     * @return The length of the decoded RTP packet. Returns -1 if packet is not valid.
+     */
+    public int decodeRTP (ByteBuffer packet, int offset, int length) {
+        return this.srtpDecoder.reverseTransform(packet, offset, length);
+    }
+
     /**
      * Encodes an RTP packet
      *
      * @param packet The decoded RTP packet
-     * @return The encoded RTP packet
+     * @return The encoded RTP packet. Returns null if the packet could not be encoded.
      */
     public byte[] encodeRTP (byte[] packet, int offset, int length) {
         return this.srtpEncoder.transform(packet, offset, length);
@@ -242,7 +261,7 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
      * Encodes an RTCP packet
      *
      * @param packet The decoded RTP packet
-     * @return The encoded RTP packet
+     * @return The encoded RTP packet. Returns null if the packet could not be encoded.
      */
     public byte[] encodeRTCP (byte[] packet, int offset, int length) {
         return this.srtcpEncoder.transform(packet, offset, length);
@@ -252,16 +271,33 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
         if (!handshaking && !handshakeComplete) {
             this.handshaking = true;
             this.startTime = System.currentTimeMillis();
-            if (useCandidate) {
-                this.worker = new Thread(new HandshakeClient(), "DTLS-Client-" + THREAD_COUNTER.incrementAndGet());
-                this.worker.start();
-            } else {
-                this.worker = new Thread(new HandshakeServer(), "DTLS-Server-" + THREAD_COUNTER.incrementAndGet());
-                this.worker.start();
+            // Packets received from now on are kept for the handshake, even while it waits for a thread
+            this.rxQueue.clear();
+            this.worker = DtlsHandshakeExecutor.getInstance().submit(
+                    useCandidate ? new HandshakeClient() : new HandshakeServer()
+            );
+            if (this.worker == null) {
+                this.handshaking = false;
+                this.handshakeFailed = true;
+                fireHandshakeFailed(new IllegalStateException("DTLS handshake executor is not running"));
             }
         }
     }
 
+    private void logReplayDrops (String protocol, PacketTransformer decoder) {
+        if (decoder == null) {
+            return;
+        }
+
+        long replayed = decoder.getReplayedCount();
+        long tooOld = decoder.getTooOldCount();
+        if (replayed > 0 || tooOld > 0) {
+            log.debug("|DtlsHandler({})| {} packets rejected by the replay window. (replayed={}, tooOld={})",
+                    conferenceId, protocol, replayed, tooOld
+            );
+        }
+    }
+
     private void fireHandshakeComplete () {
         if (!this.listeners.isEmpty()) {
             for (DtlsListener listener : listeners) {
@@ -282,13 +318,21 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
 
     @Override
     public void destroy () throws IOException {
-        this.server = this.tlsServerProvider.provide();
-        this.datagramChannel = null;
+        logReplayDrops("SRTP", this.srtpDecoder);
+        logReplayDrops("SRTCP", this.srtcpDecoder);
+
+        this.server = this.tlsServerProvider.provide(this.credentials);
+        this.dataChannel = null;
         this.srtcpDecoder = null;
         this.srtcpEncoder = null;
         this.srtpDecoder = null;
         this.srtpEncoder = null;
         this.startTime = 0L;
+        if (this.worker != null) {
+            // Releases the shared thread if the handshake is still waiting for packets
+            this.worker.cancel(true);
+            this.worker = null;
+        }
         this.handshakeComplete = false;
         this.handshakeFailed = false;
         this.handshaking = false;
@@ -317,6 +361,12 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
         return contentType > 19 && contentType < 64;
     }
 
+    @Override
+    public boolean canHandle (ByteBuffer packet, int dataLength, int offset) {
+        int contentType = packet.get(offset) & 0xff;
+        return contentType > 19 && contentType < 64;
+    }
+
     @Override
     public byte[] handle (byte[] packet, InetSocketAddress localPeer, InetSocketAddress remotePeer) {
         return this.handle(packet, packet.length, 0, localPeer, remotePeer);
@@ -328,6 +378,11 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
         return null;
     }
 
+    @Override
+    public PacketClass getPacketClass () {
+        return PacketClass.DTLS;
+    }
+
     @Override
     public int getPipelinePriority () {
         return this.pipelinePriority;
@@ -358,23 +413,27 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
             throw illegalStateException;
         }
 
-        int attempts = waitMillis;
-        do {
-            ByteBuffer data = this.rxQueue.poll();
-            if (data != null && data.limit() > 0) {
-                int limit = data.limit();
-                data.get(buf, off, limit);
-                return limit;
-            }
+        // Waits no longer than the rest of the handshake time, woken up as soon as the data channel offers a packet
+        long now = System.currentTimeMillis();
+        long deadline = now + Math.min(waitMillis, Math.max(MAX_DELAY - (now - this.startTime), 1));
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                ByteBuffer data = this.rxQueue.poll(remaining, TimeUnit.MILLISECONDS);
+                if (data == null) {
+                    break;
+                }
 
-            try {
-                Thread.sleep(1);
-            } catch (Exception e) {
-                log.warn("|DtlsHandler({})| Could not sleep thread to receive DTLS data.", conferenceId);
-            } finally {
-                attempts--;
+                int length = Math.min(data.remaining(), len);
+                if (length > 0) {
+                    data.get(buf, off, length);
+                    return length;
+                }
             }
-        } while (attempts > 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("DTLS handshake is interrupted");
+        }
 
         // Throw IO exception if no data was received in this interval. Restarts outbound flight.
         throw new SocketTimeoutException("Could not receive DTLS packet in " + waitMillis);
@@ -383,11 +442,8 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
     @Override
     public void send (byte[] buf, int off, int len) throws IOException {
         if (!hasTimeout()) {
-            if (this.datagramChannel != null && datagramChannel.isOpen()) {
-                this.datagramChannel.send(
-                        ByteBuffer.wrap(buf, off, len),
-                        remoteAddress
-                );
+            if (this.dataChannel != null && dataChannel.isOpen()) {
+                this.dataChannel.send(buf, off, len, remoteAddress);
             } else {
                 log.warn("|DtlsHandler({})| Handler skipped send operation because channel is not open or connected.", conferenceId);
             }
@@ -400,7 +456,7 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
     public void close () throws IOException {
         this.rxQueue.clear();
         this.startTime = 0L;
-        this.datagramChannel = null;
+        this.dataChannel = null;
     }
 
     private boolean hasTimeout () {
@@ -410,7 +466,8 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
     private class HandshakeServer implements Runnable {
 
         public void run () {
-            DtlsHandler.this.rxQueue.clear();
+            // The handshake time starts when a shared thread picks it up
+            DtlsHandler.this.startTime = System.currentTimeMillis();
             SecureRandom secureRandom = new SecureRandom();
             DTLSServerProtocol serverProtocol = new DTLSServerProtocol(secureRandom);
 
@@ -466,7 +523,8 @@ public class DtlsHandler implements PacketHandler, DatagramTransport {
     private class HandshakeClient implements Runnable {
 
         public void run () {
-            DtlsHandler.this.rxQueue.clear();
+            // The handshake time starts when a shared thread picks it up
+            DtlsHandler.this.startTime = System.currentTimeMillis();
             SecureRandom secureRandom = new SecureRandom();
             DTLSClientProtocol clientProtocol = new DTLSClientProtocol(secureRandom);
 
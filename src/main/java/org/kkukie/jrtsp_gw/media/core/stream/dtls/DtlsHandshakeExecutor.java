@@ -0,0 +1,104 @@
+package org.kkukie.jrtsp_gw.media.core.stream.dtls;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1) 모든 conference 의 DTLS handshake 를 default.dtlsHandshakeThreads 개의 공유 스레드에서 수행한다.
+ * 2) 동시에 진행되는 handshake 수가 스레드 수를 넘으면 나머지는 큐에서 기다린다. (재연결 폭주 시 스레드가 늘어나지 않는다)
+ * 3) handshake 스레드는 DtlsHandler 의 수신 큐를 blocking poll 로 기다리므로 대기 중에 CPU 를 쓰지 않는다.
+ * 4) 사용하지 않는 스레드는 일정 시간 후 종료된다.
+ */
+@Slf4j
+public class DtlsHandshakeExecutor {
+
+    private static final DtlsHandshakeExecutor dtlsHandshakeExecutor = new DtlsHandshakeExecutor();
+
+    private static final int DEFAULT_THREADS = 16;
+    private static final long KEEP_ALIVE_SEC = 60;
+
+    private final Object LOCK = new Object();
+    private volatile ThreadPoolExecutor executor = null;
+
+    private DtlsHandshakeExecutor() {
+        // Nothing
+    }
+
+    public static DtlsHandshakeExecutor getInstance() {
+        return dtlsHandshakeExecutor;
+    }
+
+    private static int getConfiguredThreads() {
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        if (defaultConfig == null || defaultConfig.getDtlsHandshakeThreads() <= 0) {
+            return DEFAULT_THREADS;
+        }
+        return defaultConfig.getDtlsHandshakeThreads();
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (executor != null) { return; }
+
+            int threads = getConfiguredThreads();
+            ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(
+                    threads, threads,
+                    KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new DefaultThreadFactory("dtls-handshake")
+            );
+            newExecutor.allowCoreThreadTimeOut(true);
+            executor = newExecutor;
+            log.debug("|DtlsHandshakeExecutor| Started. (threads={})", threads);
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            if (executor == null) { return; }
+
+            // Handshakes blocked on their receive queue are interrupted
+            executor.shutdownNow();
+            executor = null;
+            log.debug("|DtlsHandshakeExecutor| Stopped.");
+        }
+    }
+
+    /**
+     * Queues a handshake, the executor is started if it is not running.
+     *
+     * @return Future of the handshake, or null if it is rejected
+     */
+    public Future<?> submit(Runnable handshake) {
+        ThreadPoolExecutor curExecutor = executor;
+        if (curExecutor == null) {
+            start();
+            curExecutor = executor;
+        }
+
+        try {
+            return curExecutor.submit(handshake);
+        } catch (RejectedExecutionException | NullPointerException e) {
+            // Stopped in between
+            log.warn("|DtlsHandshakeExecutor| Fail to submit the handshake.", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return Number of handshakes waiting for a thread
+     */
+    public int getQueuedCount() {
+        ThreadPoolExecutor curExecutor = executor;
+        return curExecutor == null ? 0 : curExecutor.getQueue().size();
+    }
+
+}
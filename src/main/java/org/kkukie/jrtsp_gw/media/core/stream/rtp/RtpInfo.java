@@ -2,17 +2,30 @@ package org.kkukie.jrtsp_gw.media.core.stream.rtp;
 
 import java.net.InetSocketAddress;
 
+/**
+ * Packet handed to the receive callback. The ingest path reuses one instance per RtpHandler,
+ * so a consumer must not keep it after the callback returns.
+ */
 public class RtpInfo {
-    private final RtpPacket rtpPacket;
-    private final String mediaType;
-    private final InetSocketAddress fromAddr;
-    private final InetSocketAddress toAddr;
+    private RtpPacket rtpPacket;
+    private String mediaType;
+    private InetSocketAddress fromAddr;
+    private InetSocketAddress toAddr;
+
+    public RtpInfo() {
+        // Filled by set()
+    }
 
     public RtpInfo(RtpPacket rtpPacket, InetSocketAddress fromAddr, InetSocketAddress toAddr, String mediaType) {
+        set(rtpPacket, fromAddr, toAddr, mediaType);
+    }
+
+    public RtpInfo set(RtpPacket rtpPacket, InetSocketAddress fromAddr, InetSocketAddress toAddr, String mediaType) {
         this.rtpPacket = rtpPacket;
         this.mediaType = mediaType;
         this.fromAddr = fromAddr;
         this.toAddr = toAddr;
+        return this;
     }
 
     public RtpPacket getRtpPacket() {
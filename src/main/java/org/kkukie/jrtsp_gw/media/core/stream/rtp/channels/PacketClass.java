@@ -0,0 +1,75 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.channels;
+
+/**
+ * Packet classes multiplexed on a single WebRTC media port.
+ * <p>
+ * The first byte of a datagram selects the protocol (RFC 7983, section 7).
+ * RTP and RTCP share the 128..191 range and are told apart by the second byte, the RTCP packet type (RFC 5761, section 4).
+ *
+ * <pre>
+ *                  +----------------+
+ *                  |        [0..3] -+--> STUN
+ *                  |      [16..19] -+--> ZRTP
+ *      packet -->  |      [20..63] -+--> DTLS
+ *                  |      [64..79] -+--> TURN Channel
+ *                  |    [128..191] -+--> RTP/RTCP
+ *                  +----------------+
+ * </pre>
+ */
+public enum PacketClass {
+
+    STUN,
+    ZRTP,
+    DTLS,
+    TURN_CHANNEL,
+    RTP,
+    RTCP,
+    UNKNOWN;
+
+    /*
+     * Assigned RTCP packet types, SR (200) .. XR (207) including the RTPFB / PSFB feedback (RFC 4585).
+     * RFC 5761 reserves 192..223, but a marked RTP packet of payload type 64..95 has its second byte in that range,
+     * so only the types in use are taken as RTCP and the rest of the range stays RTP.
+     */
+    private static final int RTCP_TYPE_MIN = 200;
+    private static final int RTCP_TYPE_MAX = 207;
+
+    private static final PacketClass[] FIRST_BYTE_CLASSES = new PacketClass[256];
+    private static final PacketClass[] SECOND_BYTE_CLASSES = new PacketClass[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            FIRST_BYTE_CLASSES[b] = classifyFirstByte(b);
+            SECOND_BYTE_CLASSES[b] = (b >= RTCP_TYPE_MIN && b <= RTCP_TYPE_MAX) ? RTCP : RTP;
+        }
+    }
+
+    private static PacketClass classifyFirstByte(int b0) {
+        if (b0 <= 3) {
+            return STUN;
+        } else if (b0 >= 16 && b0 <= 19) {
+            return ZRTP;
+        } else if (b0 >= 20 && b0 <= 63) {
+            return DTLS;
+        } else if (b0 >= 64 && b0 <= 79) {
+            return TURN_CHANNEL;
+        } else if (b0 >= 128 && b0 <= 191) {
+            return RTP;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * @param b0 First byte of the packet (unsigned)
+     * @return true if the second byte is needed to tell RTP from RTCP
+     */
+    public static boolean isRtpOrRtcp(int b0) {
+        return b0 >= 128 && b0 <= 191;
+    }
+
+    public static PacketClass classify(int b0, int b1) {
+        PacketClass packetClass = FIRST_BYTE_CLASSES[b0 & 0xff];
+        return (packetClass == RTP) ? SECOND_BYTE_CLASSES[b1 & 0xff] : packetClass;
+    }
+
+}
@@ -21,6 +21,7 @@
 package org.kkukie.jrtsp_gw.media.core.stream.rtp.channels;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 /**
  * 
@@ -41,6 +42,26 @@ public interface PacketHandler extends Comparable<PacketHandler> {
 
 	boolean canHandle(byte[] packet, int dataLength, int offset);
 
+	/**
+	 * Checks whether the handler can process the packet stored in a (possibly
+	 * direct) buffer. Only absolute reads are used, so the position and limit
+	 * of the buffer are left untouched.<br>
+	 * The default implementation copies the packet; handlers on the hot path
+	 * should override it.
+	 * 
+	 * @param packet
+	 *            The buffer holding the packet.
+	 * @param dataLength
+	 *            The length of the packet.
+	 * @param offset
+	 *            The absolute index of the first byte of the packet.
+	 * @return <code>true</code>, if the packet can be handled.
+	 *         <code>false</code>, otherwise.
+	 */
+	default boolean canHandle(ByteBuffer packet, int dataLength, int offset) {
+		return canHandle(copyOf(packet, dataLength, offset), dataLength, 0);
+	}
+
 	/**
 	 * Processes the packet and provides a suitable answer.
 	 * 
@@ -77,6 +98,33 @@ public interface PacketHandler extends Comparable<PacketHandler> {
 	 */
 	byte[] handle(byte[] packet, int dataLength, int offset, InetSocketAddress localPeer, InetSocketAddress remotePeer) throws PacketHandlerException;
 
+	/**
+	 * Processes the packet stored in a (possibly direct and reused) buffer.<br>
+	 * The buffer is only valid for the duration of the call, so a handler
+	 * that keeps the data must copy it. The position and limit of the buffer
+	 * are restored before returning.<br>
+	 * The default implementation copies the packet into a new array; handlers
+	 * on the hot path should override it.
+	 * 
+	 * @param packet
+	 *            The buffer holding the packet.
+	 * @param dataLength
+	 *            The length of the packet.
+	 * @param offset
+	 *            The absolute index of the first byte of the packet.
+	 * @param localPeer
+	 *            The local peer who received the packet
+	 * @param remotePeer
+	 *            The remote peer who sent the packet
+	 * @return The answer to be sent to the remote peer as response to the
+	 *         incoming packet.
+	 * @throws PacketHandlerException
+	 *             When the handler cannot process the packet.
+	 */
+	default byte[] handle(ByteBuffer packet, int dataLength, int offset, InetSocketAddress localPeer, InetSocketAddress remotePeer) throws PacketHandlerException {
+		return handle(copyOf(packet, dataLength, offset), dataLength, 0, localPeer, remotePeer);
+	}
+
 	/**
 	 * Gets the priority of the handler in the pipeline.<br>
 	 * The priority affects the place of the handler in the pipeline. This can
@@ -87,6 +135,36 @@ public interface PacketHandler extends Comparable<PacketHandler> {
 	 */
 	int getPipelinePriority();
 
+	/**
+	 * Gets the class of packets (RFC 7983) this handler processes.<br>
+	 * The pipeline uses it to compile its first-byte dispatch table. Handlers
+	 * returning {@link PacketClass#UNKNOWN} are only queried when the table
+	 * has no candidate for a packet.
+	 * 
+	 * @return The class of packets processed by the handler
+	 */
+	default PacketClass getPacketClass() {
+		return PacketClass.UNKNOWN;
+	}
+
 	void destroy() throws Exception;
 
+	/**
+	 * Copies a region of a buffer into an array without disturbing the
+	 * position and limit of the buffer.
+	 */
+	static void copyTo(ByteBuffer packet, int dataLength, int offset, byte[] dst, int dstOffset) {
+		int position = packet.position();
+		int limit = packet.limit();
+		packet.limit(offset + dataLength).position(offset);
+		packet.get(dst, dstOffset, dataLength);
+		packet.limit(limit).position(position);
+	}
+
+	static byte[] copyOf(ByteBuffer packet, int dataLength, int offset) {
+		byte[] data = new byte[dataLength];
+		copyTo(packet, dataLength, offset, data, 0);
+		return data;
+	}
+
 }
@@ -20,13 +20,17 @@
 
 package org.kkukie.jrtsp_gw.media.core.stream.rtp.channels;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Pipeline that selects a capable {@link PacketHandler} to process incoming packets.
+ * <p>
+ * The registered handlers are compiled into an immutable {@link DispatchTable} indexed by the first byte of a packet
+ * (and by the second byte for the RTP/RTCP range, see {@link PacketClass}). The table is rebuilt and swapped atomically
+ * whenever a handler is added or removed, so classifying a packet costs a constant number of array loads plus a single
+ * {@link PacketHandler#canHandle} confirmation.
  * 
  * @author Henrique Rosa (henrique.rosa@telestax.com)
  * 
@@ -37,10 +41,12 @@ public class PacketHandlerPipeline {
 
     private final List<PacketHandler> handlers;
     private final AtomicInteger count;
+    private volatile DispatchTable dispatchTable;
 
     public PacketHandlerPipeline() {
         this.handlers = new ArrayList<>(5);
         this.count = new AtomicInteger(0);
+        this.dispatchTable = DispatchTable.EMPTY;
     }
 
     /**
@@ -51,15 +57,16 @@ public class PacketHandlerPipeline {
      * @return Whether the handler was successfully registered or not.
      */
     public boolean addHandler(PacketHandler handler) {
-        if (!handlers.contains(handler)) {
-            synchronized (this.handlers){
-                handlers.add(handler);
+        synchronized (this.handlers) {
+            if (handlers.contains(handler)) {
+                return false;
             }
-            this.handlers.sort(REVERSE_COMPARATOR);
-            this.count.incrementAndGet();
-            return true;
+            handlers.add(handler);
+            handlers.sort(REVERSE_COMPARATOR);
+            this.dispatchTable = new DispatchTable(handlers);
         }
-        return false;
+        this.count.incrementAndGet();
+        return true;
     }
 
     /**
@@ -73,6 +80,9 @@ public class PacketHandlerPipeline {
         boolean removed;
         synchronized (this.handlers) {
             removed = this.handlers.remove(handler);
+            if (removed) {
+                this.dispatchTable = new DispatchTable(handlers);
+            }
         }
         if (removed) {
             this.count.decrementAndGet();
@@ -96,7 +106,7 @@ public class PacketHandlerPipeline {
      * @return <code>true</code> if the handler is registered. Returns <code>false</code>, otherwise.
      */
     public boolean contains(PacketHandler handler) {
-        return this.handlers.contains(handler);
+        return this.dispatchTable.ordered.contains(handler);
     }
 
     /**
@@ -107,8 +117,18 @@ public class PacketHandlerPipeline {
      *         Returns null in case no capable handler exists.
      */
     public PacketHandler getCapableHandler(byte[] packet) {
-        // Search for the first handler capable of processing the packet
-        for (PacketHandler protocolHandler : this.handlers) {
+        if (packet.length == 0) {
+            return null;
+        }
+
+        DispatchTable table = this.dispatchTable;
+        PacketHandler candidate = table.lookup(packet[0], packet.length > 1 ? packet[1] : 0);
+        if (candidate != null && candidate.canHandle(packet)) {
+            return candidate;
+        }
+
+        // Handlers without a packet class are queried one by one
+        for (PacketHandler protocolHandler : table.unclassified) {
             if (protocolHandler.canHandle(packet)) {
                 return protocolHandler;
             }
@@ -118,22 +138,101 @@ public class PacketHandlerPipeline {
         return null;
     }
 
-    public PacketHandler getHandler(String className) {
-        for (PacketHandler handler : this.handlers) {
-            if (handler.getClass().getName().equals(className)) {
-                return handler;
+    /**
+     * Gets the protocol handler capable of processing the packet stored in a buffer, without copying it.
+     * 
+     * @param packet The buffer holding the packet to be processed
+     * @param dataLength The length of the packet
+     * @param offset The absolute index of the first byte of the packet
+     * @return The protocol handler capable of processing the packet.<br>
+     *         Returns null in case no capable handler exists.
+     */
+    public PacketHandler getCapableHandler(ByteBuffer packet, int dataLength, int offset) {
+        if (dataLength <= 0) {
+            return null;
+        }
+
+        DispatchTable table = this.dispatchTable;
+        PacketHandler candidate = table.lookup(packet.get(offset), dataLength > 1 ? packet.get(offset + 1) : 0);
+        if (candidate != null && candidate.canHandle(packet, dataLength, offset)) {
+            return candidate;
+        }
+
+        for (PacketHandler protocolHandler : table.unclassified) {
+            if (protocolHandler.canHandle(packet, dataLength, offset)) {
+                return protocolHandler;
             }
         }
         return null;
     }
 
+    /**
+     * Gets the registered handler of the given type.
+     * 
+     * @param type The exact class of the handler
+     * @return The registered handler, or null if no handler of that type is registered.
+     */
+    public <T extends PacketHandler> T getHandler(Class<T> type) {
+        return type.cast(this.dispatchTable.byType.get(type));
+    }
+
     /**
      * Gets a <b>copy</b> of the handlers registered in the pipeline.
      * 
      * @return The list of handlers registered.
      */
     public List<PacketHandler> getHandlers() {
-        return new ArrayList<>(this.handlers); // Defensive copy
+        return new ArrayList<>(this.dispatchTable.ordered); // Defensive copy
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Immutable snapshot of the pipeline, compiled for classification by packet bytes.
+     */
+    private static final class DispatchTable {
+
+        private static final DispatchTable EMPTY = new DispatchTable(Collections.emptyList());
+
+        /** Handler per first byte, null for the RTP/RTCP range which is resolved by {@link #bySecondByte} */
+        private final PacketHandler[] byFirstByte = new PacketHandler[256];
+        /** Handler per second byte (RTP payload type / RTCP packet type) for first bytes 128..191 */
+        private final PacketHandler[] bySecondByte = new PacketHandler[256];
+        private final PacketHandler[] unclassified;
+        private final List<PacketHandler> ordered;
+        private final Map<Class<?>, PacketHandler> byType;
+
+        private DispatchTable(List<PacketHandler> sortedHandlers) {
+            this.ordered = Collections.unmodifiableList(new ArrayList<>(sortedHandlers));
+
+            Map<Class<?>, PacketHandler> types = new HashMap<>();
+            EnumMap<PacketClass, PacketHandler> byClass = new EnumMap<>(PacketClass.class);
+            List<PacketHandler> others = new ArrayList<>();
+            // Handlers are sorted by descending priority, so the first handler of a class wins
+            for (PacketHandler handler : sortedHandlers) {
+                types.putIfAbsent(handler.getClass(), handler);
+                PacketClass packetClass = handler.getPacketClass();
+                if (packetClass == null || packetClass == PacketClass.UNKNOWN) {
+                    others.add(handler);
+                } else {
+                    byClass.putIfAbsent(packetClass, handler);
+                }
+            }
+            this.byType = types;
+            this.unclassified = others.toArray(new PacketHandler[0]);
+
+            for (int b = 0; b < 256; b++) {
+                if (!PacketClass.isRtpOrRtcp(b)) {
+                    byFirstByte[b] = byClass.get(PacketClass.classify(b, 0));
+                }
+                bySecondByte[b] = byClass.get(PacketClass.classify(128, b));
+            }
+        }
+
+        private PacketHandler lookup(byte b0, byte b1) {
+            int first = b0 & 0xff;
+            return PacketClass.isRtpOrRtcp(first) ? bySecondByte[b1 & 0xff] : byFirstByte[first];
+        }
     }
 
 }
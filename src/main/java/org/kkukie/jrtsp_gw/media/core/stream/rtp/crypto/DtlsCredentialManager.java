@@ -0,0 +1,179 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DtlsConfig;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1) 설정된 DTLS 키와 인증서를 DtlsCredentials 로 한 번 읽어 두고 모든 conference 가 공유한다.
+ * 2) reload 는 새 DtlsCredentials 를 완전히 읽은 뒤에 참조를 교체한다. 읽기에 실패하면 기존 자격 증명을 유지한다.
+ * 3) dtls.reloadCheckInterval 마다 파일 수정 시간을 확인하여 바뀌었으면 reload 한다. (0 이면 감시하지 않음)
+ * 4) REST (POST /dtls/reload) 로도 reload 할 수 있다.
+ * 5) dtls.identity 가 ecdsa 이면 파일 대신 DtlsIdentityGenerator 로 ECDSA P-256 자격 증명을 만들고,
+ *    dtls.identityRotationInterval (초) 마다 새로 만든다. (0 이면 시작할 때 한 번만 생성)
+ *    세션은 SDP answer 를 만들 때 받은 자격 증명으로 handshake 하므로, 교체 중에 협상 중인 세션도 실패하지 않는다.
+ *    인증서 유효 기간은 교체 주기의 두 배 이상이라 교체 이후에 시작되는 handshake 에서도 만료되지 않는다.
+ */
+@Slf4j
+public class DtlsCredentialManager {
+
+    private static final DtlsCredentialManager dtlsCredentialManager = new DtlsCredentialManager();
+
+    public static final String IDENTITY_ECDSA = "ecdsa";
+
+    private final Object LOCK = new Object();
+    private volatile DtlsCredentials credentials = null;
+    private ScheduledExecutorService watcher = null;
+
+    private DtlsCredentialManager() {
+        // Nothing
+    }
+
+    public static DtlsCredentialManager getInstance() {
+        return dtlsCredentialManager;
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (credentials == null) {
+                reload();
+            }
+
+            DtlsConfig dtlsConfig = ConfigManager.getDtlsConfig();
+            if (watcher != null || dtlsConfig == null) { return; }
+
+            if (isEcdsaIdentity(dtlsConfig)) {
+                long rotationInterval = dtlsConfig.getIdentityRotationInterval();
+                if (rotationInterval <= 0) { return; }
+
+                watcher = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("dtls-credential-watcher"));
+                watcher.scheduleAtFixedRate(this::reload, rotationInterval, rotationInterval, TimeUnit.SECONDS);
+                log.debug("|DtlsCredentialManager| Started. (identityRotationInterval={}s)", rotationInterval);
+            } else {
+                long interval = dtlsConfig.getReloadCheckInterval();
+                if (interval <= 0) { return; }
+
+                watcher = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("dtls-credential-watcher"));
+                watcher.scheduleWithFixedDelay(this::reloadIfModified, interval, interval, TimeUnit.MILLISECONDS);
+                log.debug("|DtlsCredentialManager| Started. (reloadCheckInterval={}ms)", interval);
+            }
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            if (watcher == null) { return; }
+
+            watcher.shutdownNow();
+            watcher = null;
+            log.debug("|DtlsCredentialManager| Stopped.");
+        }
+    }
+
+    /**
+     * @return Current credentials, loaded on the first call if the manager is not started. null if they can not be loaded.
+     */
+    public DtlsCredentials getCredentials() {
+        DtlsCredentials curCredentials = credentials;
+        if (curCredentials == null) {
+            synchronized (LOCK) {
+                if (credentials == null) {
+                    reload();
+                }
+                curCredentials = credentials;
+            }
+        }
+        return curCredentials;
+    }
+
+    /**
+     * Reads the configured key and certificate again (or generates a new ECDSA identity) and replaces the current credentials.
+     *
+     * @return false if the credentials can not be loaded, the current credentials are kept
+     */
+    public boolean reload() {
+        DtlsConfig dtlsConfig = ConfigManager.getDtlsConfig();
+        if (dtlsConfig != null && isEcdsaIdentity(dtlsConfig)) {
+            return generate(dtlsConfig);
+        }
+
+        if (dtlsConfig == null || dtlsConfig.getCertPath() == null || dtlsConfig.getKeyPath() == null) {
+            log.warn("|DtlsCredentialManager| Fail to reload. DTLS key or certificate path is not configured.");
+            return false;
+        }
+
+        synchronized (LOCK) {
+            DtlsCredentials newCredentials;
+            try {
+                newCredentials = DtlsCredentials.load(dtlsConfig.getCertPath(), dtlsConfig.getKeyPath());
+            } catch (Exception e) {
+                log.warn("|DtlsCredentialManager| Fail to reload. (certPath={}, keyPath={})",
+                        dtlsConfig.getCertPath(), dtlsConfig.getKeyPath(), e
+                );
+                return false;
+            }
+
+            credentials = newCredentials;
+            log.debug("|DtlsCredentialManager| Reloaded. (certPath={}, fingerprint={})",
+                    newCredentials.getCertPath(), newCredentials.getFingerprint()
+            );
+            return true;
+        }
+    }
+
+    /**
+     * Takes the snapshot a session advertises in its SDP answer and uses for its handshake.
+     *
+     * @return Current credentials, null if they are loaded from another certificate file than the given one
+     */
+    public DtlsCredentials getCredentials(String certPath) {
+        DtlsCredentials curCredentials = getCredentials();
+        if (curCredentials == null) {
+            return null;
+        }
+        // A generated identity replaces the certificate file
+        if (!curCredentials.isGenerated() && !curCredentials.getCertPath().equals(certPath)) {
+            return null;
+        }
+        return curCredentials;
+    }
+
+    private boolean generate(DtlsConfig dtlsConfig) {
+        // Certificate stays valid for two rotations at least
+        long validity = Math.max(
+                DtlsIdentityGenerator.DEFAULT_VALIDITY,
+                TimeUnit.SECONDS.toMillis(dtlsConfig.getIdentityRotationInterval()) * 2
+        );
+
+        synchronized (LOCK) {
+            DtlsCredentials newCredentials;
+            try {
+                newCredentials = DtlsIdentityGenerator.generate(validity);
+            } catch (Exception e) {
+                log.warn("|DtlsCredentialManager| Fail to generate the ECDSA identity.", e);
+                return false;
+            }
+
+            credentials = newCredentials;
+            log.debug("|DtlsCredentialManager| Generated the ECDSA identity. (fingerprint={})", newCredentials.getFingerprint());
+            return true;
+        }
+    }
+
+    private static boolean isEcdsaIdentity(DtlsConfig dtlsConfig) {
+        return IDENTITY_ECDSA.equalsIgnoreCase(dtlsConfig.getIdentity());
+    }
+
+    private void reloadIfModified() {
+        DtlsCredentials curCredentials = credentials;
+        if (curCredentials == null || curCredentials.isModified()) {
+            reload();
+        }
+    }
+
+}
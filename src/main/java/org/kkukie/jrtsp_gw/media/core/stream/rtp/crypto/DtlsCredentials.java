@@ -0,0 +1,138 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.TlsCertificate;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 1) DTLS 인증서 체인, 개인키, SHA-256 fingerprint 를 한 번에 읽어 보관하는 불변 객체
+ * 2) handshake 와 SDP answer 는 이 객체만 참조하므로 세션 생성 시 파일을 읽지 않는다.
+ * 3) 교체는 DtlsCredentialManager 가 새 객체를 만들어 참조를 바꾸는 방식으로 이루어진다.
+ *    각 세션은 SDP answer 를 만들 때 받은 객체를 DtlsHandler 까지 전달하여, 교체 후에도 광고한 fingerprint 의 인증서로 handshake 한다.
+ * 4) 파일 변경 감지를 위해 읽은 시점의 파일 수정 시간을 함께 보관한다.
+ * 5) DtlsIdentityGenerator 가 메모리에서 만든 자격 증명은 파일 경로가 없다. (null)
+ */
+public class DtlsCredentials {
+
+    private static final String SHA_256 = "sha-256";
+
+    private final String certPath;
+    private final String keyPath;
+    private final TlsCertificate certificateChain;
+    private final AsymmetricKeyParameter privateKey;
+    /* SDP a=fingerprint value without the hash function, "AB:CD:..." */
+    private final String fingerprint;
+    private final long certModified;
+    private final long keyModified;
+
+    private DtlsCredentials(String certPath, String keyPath,
+                            TlsCertificate certificateChain, AsymmetricKeyParameter privateKey,
+                            String fingerprint, long certModified, long keyModified) {
+        this.certPath = certPath;
+        this.keyPath = keyPath;
+        this.certificateChain = certificateChain;
+        this.privateKey = privateKey;
+        this.fingerprint = fingerprint;
+        this.certModified = certModified;
+        this.keyModified = keyModified;
+    }
+
+    /**
+     * Reads and parses the PEM files.
+     *
+     * @throws IOException if a file can not be read
+     * @throws IllegalArgumentException if a file is not a certificate or a private key
+     */
+    public static DtlsCredentials load(String certPath, String keyPath) throws IOException {
+        // Modification times are taken first, so a change during the load is detected by the next check
+        long certModified = new File(certPath).lastModified();
+        long keyModified = new File(keyPath).lastModified();
+
+        TlsCertificate certificateChain = TlsUtils.loadCertificateChain(new String[]{certPath});
+        AsymmetricKeyParameter privateKey = TlsUtils.loadPrivateKeyResource(keyPath);
+        String fingerprint = TlsUtils.fingerprint(SHA_256, certificateChain.getCertificateAt(0));
+
+        return new DtlsCredentials(
+                certPath, keyPath,
+                certificateChain, privateKey,
+                fingerprint.substring(fingerprint.indexOf(' ') + 1),
+                certModified, keyModified
+        );
+    }
+
+    /**
+     * Wraps a key and a certificate generated in memory.
+     */
+    static DtlsCredentials of(TlsCertificate certificateChain, AsymmetricKeyParameter privateKey) throws IOException {
+        String fingerprint = TlsUtils.fingerprint(SHA_256, certificateChain.getCertificateAt(0));
+        return new DtlsCredentials(
+                null, null,
+                certificateChain, privateKey,
+                fingerprint.substring(fingerprint.indexOf(' ') + 1),
+                0, 0
+        );
+    }
+
+    /**
+     * @return true if one of the files is modified after it was loaded, always false if generated
+     */
+    public boolean isModified() {
+        if (isGenerated()) {
+            return false;
+        }
+        return new File(certPath).lastModified() != certModified
+                || new File(keyPath).lastModified() != keyModified;
+    }
+
+    /**
+     * @return Fingerprint of the certificate in the SDP format of the given hash function, "sha-256 AB:CD:..."
+     */
+    public String getFingerprint(String hashFunction) throws IOException {
+        if (SHA_256.equals(hashFunction)) {
+            return SHA_256 + " " + fingerprint;
+        }
+        return TlsUtils.fingerprint(hashFunction, certificateChain.getCertificateAt(0));
+    }
+
+    public boolean isGenerated() {
+        return certPath == null;
+    }
+
+    public boolean isEcdsa() {
+        return privateKey instanceof ECPrivateKeyParameters;
+    }
+
+    /**
+     * @return Certificate type to negotiate the cipher suites and the client certificate with
+     */
+    public AlgorithmCertificate getAlgorithmCertificate() {
+        return isEcdsa() ? AlgorithmCertificate.ECDSA : AlgorithmCertificate.RSA;
+    }
+
+    public String getCertPath() {
+        return certPath;
+    }
+
+    public String getKeyPath() {
+        return keyPath;
+    }
+
+    public TlsCertificate getCertificateChain() {
+        return certificateChain;
+    }
+
+    public AsymmetricKeyParameter getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * @return SHA-256 fingerprint of the certificate, "AB:CD:..."
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+}
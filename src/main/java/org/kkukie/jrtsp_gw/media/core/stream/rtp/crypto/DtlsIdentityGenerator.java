@@ -0,0 +1,113 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.ASN1EncodableVector;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.ASN1Encoding;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.ASN1Integer;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.DERBitString;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.DERSequence;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.sec.SECObjectIdentifiers;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x500.X500Name;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x509.Certificate;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x509.TBSCertificate;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x509.Time;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x509.V3TBSCertificateGenerator;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x9.X9ECParameters;
+import org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.digests.SHA256Digest;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.generators.ECKeyPairGenerator;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.ECKeyGenerationParameters;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.ECNamedDomainParameters;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.signers.ECDSASigner;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.TlsCertificate;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.util.SubjectPublicKeyInfoFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1) 파일 없이 메모리에서 ECDSA P-256 키와 자체 서명 인증서를 만들어 DtlsCredentials 로 돌려준다.
+ * 2) 곡선 연산은 내장 BouncyCastle 의 custom/sec (SecP256R1Curve) 구현을 사용한다.
+ * 3) WebRTC 는 인증서를 SDP fingerprint 로만 검증하므로, 주체 이름이나 확장 필드 없이 최소한의 v3 인증서만 만든다.
+ * 4) ECDSA 서명은 RSA 서명보다 훨씬 가벼워서 다수의 handshake 가 동시에 시작될 때 CPU 사용량이 줄어든다.
+ */
+public class DtlsIdentityGenerator {
+
+    public static final String CURVE_NAME = "secp256r1";
+    public static final long DEFAULT_VALIDITY = TimeUnit.DAYS.toMillis(30);
+
+    private static final String COMMON_NAME = "CN=jrtsp_gw";
+    /* Start of the validity is moved back for the peers with a slow clock */
+    private static final long CLOCK_SKEW = TimeUnit.DAYS.toMillis(1);
+    private static final AlgorithmIdentifier SIGNATURE_ALGORITHM = new AlgorithmIdentifier(X9ObjectIdentifiers.ecdsa_with_SHA256);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private DtlsIdentityGenerator() {
+        // Nothing
+    }
+
+    /**
+     * @param validityMillis Validity of the certificate from now
+     * @return Credentials with a new key pair and a self-signed certificate
+     */
+    public static DtlsCredentials generate(long validityMillis) throws IOException {
+        // Key pair on the named curve, so the certificate carries the curve OID
+        X9ECParameters x9 = CustomNamedCurves.getByName(CURVE_NAME);
+        ECNamedDomainParameters domainParameters = new ECNamedDomainParameters(
+                SECObjectIdentifiers.secp256r1,
+                x9.getCurve(), x9.getG(), x9.getN(), x9.getH(), x9.getSeed()
+        );
+        ECKeyPairGenerator keyPairGenerator = new ECKeyPairGenerator();
+        keyPairGenerator.init(new ECKeyGenerationParameters(domainParameters, RANDOM));
+        AsymmetricCipherKeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+        // Self-signed certificate
+        long now = System.currentTimeMillis();
+        X500Name name = new X500Name(COMMON_NAME);
+        V3TBSCertificateGenerator tbsGenerator = new V3TBSCertificateGenerator();
+        tbsGenerator.setSerialNumber(new ASN1Integer(new BigInteger(63, RANDOM).add(BigInteger.ONE)));
+        tbsGenerator.setSignature(SIGNATURE_ALGORITHM);
+        tbsGenerator.setIssuer(name);
+        tbsGenerator.setSubject(name);
+        tbsGenerator.setStartDate(new Time(new Date(now - CLOCK_SKEW)));
+        tbsGenerator.setEndDate(new Time(new Date(now + validityMillis)));
+        tbsGenerator.setSubjectPublicKeyInfo(SubjectPublicKeyInfoFactory.createSubjectPublicKeyInfo(keyPair.getPublic()));
+        TBSCertificate tbsCertificate = tbsGenerator.generateTBSCertificate();
+
+        ASN1EncodableVector certificateVector = new ASN1EncodableVector();
+        certificateVector.add(tbsCertificate);
+        certificateVector.add(SIGNATURE_ALGORITHM);
+        certificateVector.add(new DERBitString(sign(keyPair, tbsCertificate.getEncoded(ASN1Encoding.DER))));
+        Certificate certificate = Certificate.getInstance(new DERSequence(certificateVector));
+
+        return DtlsCredentials.of(new TlsCertificate(new Certificate[]{certificate}), keyPair.getPrivate());
+    }
+
+    /**
+     * @return DER encoded ECDSA-Sig-Value of the SHA-256 digest of the data
+     */
+    private static byte[] sign(AsymmetricCipherKeyPair keyPair, byte[] data) throws IOException {
+        SHA256Digest digest = new SHA256Digest();
+        digest.update(data, 0, data.length);
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+
+        // Deterministic k (RFC 6979)
+        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+        signer.init(true, keyPair.getPrivate());
+        BigInteger[] signature = signer.generateSignature(hash);
+
+        ASN1EncodableVector signatureVector = new ASN1EncodableVector();
+        signatureVector.add(new ASN1Integer(signature[0]));
+        signatureVector.add(new ASN1Integer(signature[1]));
+        return new DERSequence(signatureVector).getEncoded(ASN1Encoding.DER);
+    }
+
+}
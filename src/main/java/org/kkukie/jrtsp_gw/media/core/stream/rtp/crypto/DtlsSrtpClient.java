@@ -20,7 +20,6 @@
 
 package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
 
-import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,8 +36,7 @@ public class DtlsSrtpClient extends DefaultTlsClient {
     private final ProtocolVersion maxVersion;
 
     // TlsCertificate resources
-    private final String[] certificateResources;
-    private final String keyResource;
+    private final DtlsCredentials credentials;
     private final AlgorithmCertificate algorithmCertificate;
     private final CipherSuite[] cipherSuites;
     private String hashFunction = "";
@@ -53,18 +51,19 @@ public class DtlsSrtpClient extends DefaultTlsClient {
     private SRTPPolicy srtcpPolicy;
 
     private UseSRTPData clientSrtpData;
+    // SRTP protection profile selected by the server, -1 until the server extensions are processed
+    private int selectedProfile = -1;
 
     private TlsSession session = null;
 
     private byte[] masterSecret = null;
 
     public DtlsSrtpClient (ProtocolVersion minVersion, ProtocolVersion maxVersion, CipherSuite[] cipherSuites,
-                           String[] certificatesPath, String keyPath, AlgorithmCertificate algorithmCertificate) {
+                           DtlsCredentials credentials, AlgorithmCertificate algorithmCertificate) {
         this.minVersion = minVersion;
         this.maxVersion = maxVersion;
         this.cipherSuites = cipherSuites;
-        this.certificateResources = certificatesPath;
-        this.keyResource = keyPath;
+        this.credentials = credentials;
         this.algorithmCertificate = algorithmCertificate;
     }
 
@@ -93,7 +92,7 @@ public class DtlsSrtpClient extends DefaultTlsClient {
         if (clientExtensions == null) {
             clientExtensions = new Hashtable<>();
         }
-        int[] protectionProfiles = {SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_80}; //this is the only one supported for now
+        int[] protectionProfiles = SRTPParameters.getPreferredProfiles();
         byte[] mki = new byte[]{};  //do not use mki
         clientSrtpData = new UseSRTPData(protectionProfiles, mki);
         TlsSRTPUtils.addUseSRTPExtension(clientExtensions, clientSrtpData);
@@ -118,6 +117,12 @@ public class DtlsSrtpClient extends DefaultTlsClient {
     @Override
     public void processServerExtensions (Hashtable newServerExtensions) throws IOException {
         super.processServerExtensions(newServerExtensions);
+
+        // the server selects one of the offered profiles
+        UseSRTPData serverSrtpData = TlsSRTPUtils.getUseSRTPExtension(newServerExtensions);
+        if (serverSrtpData != null && serverSrtpData.getProtectionProfiles().length > 0) {
+            selectedProfile = serverSrtpData.getProtectionProfiles()[0];
+        }
     }
 
 
@@ -130,10 +135,7 @@ public class DtlsSrtpClient extends DefaultTlsClient {
     public String generateFingerprint (String hashFunction) {
         try {
             this.hashFunction = hashFunction;
-            TlsCertificate dtlsCertChain = TlsUtils.loadCertificateChain(certificateResources);
-
-            org.kkukie.jrtsp_gw.media.bouncycastle.asn1.x509.Certificate certificate = dtlsCertChain.getCertificateAt(0);
-            return TlsUtils.fingerprint(this.hashFunction, certificate);
+            return getLoadedCredentials().getFingerprint(this.hashFunction);
         } catch (IOException e) {
             logger.error("Could not get local fingerprint: {}", e.getMessage());
             return "";
@@ -146,7 +148,9 @@ public class DtlsSrtpClient extends DefaultTlsClient {
      */
     public void prepareSrtpSharedSecret () {
         logger.debug("DtlsSrtpClient: Preparing SRTP Shared Secret...");
-        SRTPParameters srtpParams = SRTPParameters.getSrtpParametersForProfile(clientSrtpData.getProtectionProfiles()[0]);
+        SRTPParameters srtpParams = SRTPParameters.getSrtpParametersForProfile(
+                selectedProfile >= 0 ? selectedProfile : clientSrtpData.getProtectionProfiles()[0]
+        );
         final int keyLen = srtpParams.getCipherKeyLength();
         final int saltLen = srtpParams.getCipherSaltLength();
 
@@ -257,8 +261,9 @@ public class DtlsSrtpClient extends DefaultTlsClient {
                 short[] certificateTypes = certificateRequest.getCertificateTypes();
                 if (certificateTypes == null) return null;
 
+                // Certificate type and signature of the current credentials (RSA or ECDSA)
                 for (short certificateType : certificateTypes) {
-                    if (certificateType == ClientCertificateType.rsa_sign) {
+                    if (certificateType == algorithmCertificate.getClientCertificate()) {
                         ok = true;
                         break;
                     }
@@ -270,7 +275,7 @@ public class DtlsSrtpClient extends DefaultTlsClient {
                 if (sigAlgs != null) {
                     for (int i = 0; i < sigAlgs.size(); ++i) {
                         SignatureAndHashAlgorithm sigAlg = (SignatureAndHashAlgorithm) sigAlgs.elementAt(i);
-                        if (sigAlg.getSignature() == SignatureAlgorithm.rsa) {
+                        if (sigAlg.getSignature() == algorithmCertificate.getSignatureAlgorithm()) {
                             signatureAndHashAlgorithm = sigAlg;
                             break;
                         }
@@ -280,13 +285,24 @@ public class DtlsSrtpClient extends DefaultTlsClient {
                         return null;
                     }
                 }
-                AsymmetricKeyParameter dtlsPrivateKey = TlsUtils.loadPrivateKeyResource(keyResource);
-                TlsCertificate dtlsCertChain = TlsUtils.loadCertificateChain(certificateResources);
-                return new DefaultTlsSignerCredentials(context, dtlsCertChain, dtlsPrivateKey, signatureAndHashAlgorithm);
+                DtlsCredentials loadedCredentials = getLoadedCredentials();
+                return new DefaultTlsSignerCredentials(context, loadedCredentials.getCertificateChain(),
+                        loadedCredentials.getPrivateKey(), signatureAndHashAlgorithm
+                );
             }
         };
     }
 
+    /**
+     * @return Credentials shared with the other handshakes, loaded once by DtlsCredentialManager
+     */
+    private DtlsCredentials getLoadedCredentials () throws IOException {
+        if (credentials == null) {
+            throw new IOException("DTLS credentials are not loaded");
+        }
+        return credentials;
+    }
+
     @Override
     public void notifyHandshakeComplete () throws IOException {
         super.notifyHandshakeComplete();
@@ -38,31 +38,48 @@ public class DtlsSrtpClientProvider {
             TLS_RSA_WITH_AES_256_CBC_SHA256, TLS_RSA_WITH_AES_128_CBC_SHA256, TLS_RSA_WITH_AES_256_CBC_SHA, TLS_RSA_WITH_AES_128_CBC_SHA,
             TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256};
 
+    /* Offered with an ECDSA client certificate (dtls.identity: ecdsa), the ECDSA suites first */
+    private static final int[] ecdsaCipherSuites = {
+            TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256, TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384, TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256,
+            TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA384, TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA, TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA,
+            TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384, TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256, TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384,
+            TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256, TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA, TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA, TLS_DHE_RSA_WITH_AES_256_GCM_SHA384,
+            TLS_DHE_RSA_WITH_AES_128_GCM_SHA256, TLS_DHE_RSA_WITH_AES_256_CBC_SHA256, TLS_DHE_RSA_WITH_AES_128_CBC_SHA256,
+            TLS_DHE_RSA_WITH_AES_256_CBC_SHA, TLS_DHE_RSA_WITH_AES_128_CBC_SHA, TLS_RSA_WITH_AES_256_GCM_SHA384, TLS_RSA_WITH_AES_128_GCM_SHA256,
+            TLS_RSA_WITH_AES_256_CBC_SHA256, TLS_RSA_WITH_AES_128_CBC_SHA256, TLS_RSA_WITH_AES_256_CBC_SHA, TLS_RSA_WITH_AES_128_CBC_SHA};
+
     private final ProtocolVersion minVersion;
     private final ProtocolVersion maxVersion;
     private final CipherSuite[] cipherSuites;
-    private final String[] certificatePaths;
-    private final String keyPath;
-    private final AlgorithmCertificate algorithmCertificate;
+    private final CipherSuite[] ecdsaSuites;
 
-    public DtlsSrtpClientProvider (String certificatePath, String keyPath) {
+    public DtlsSrtpClientProvider () {
         this.minVersion = ProtocolVersion.DTLSv10;
         this.maxVersion = ProtocolVersion.DTLSv12;
-        this.cipherSuites = new CipherSuite[defaultCipherSuites.length];
-        for (int idx = 0; idx < defaultCipherSuites.length; idx++) {
-            cipherSuites[idx] = CipherSuite.getEnum(defaultCipherSuites[idx]);
-        }
-        this.certificatePaths = new String[]{certificatePath};
-        this.keyPath = keyPath;
-        this.algorithmCertificate = AlgorithmCertificate.RSA;
+        this.cipherSuites = toCipherSuites(defaultCipherSuites);
+        this.ecdsaSuites = toCipherSuites(ecdsaCipherSuites);
     }
 
-    public DtlsSrtpClient provide () {
+    /**
+     * @param credentials Credentials pinned to the session when its SDP answer was built,
+     *                    so the certificate matches the advertised fingerprint
+     */
+    public DtlsSrtpClient provide (DtlsCredentials credentials) {
+        // The suites and the certificate type follow the key of the credentials
+        boolean isEcdsa = credentials != null && credentials.isEcdsa();
         return new DtlsSrtpClient(
                 minVersion, maxVersion,
-                cipherSuites, certificatePaths,
-                keyPath, algorithmCertificate
+                isEcdsa ? ecdsaSuites : cipherSuites, credentials,
+                isEcdsa ? AlgorithmCertificate.ECDSA : AlgorithmCertificate.RSA
         );
     }
 
+    private static CipherSuite[] toCipherSuites (int[] values) {
+        CipherSuite[] suites = new CipherSuite[values.length];
+        for (int idx = 0; idx < values.length; idx++) {
+            suites[idx] = CipherSuite.getEnum(values[idx]);
+        }
+        return suites;
+    }
+
 }
@@ -44,8 +44,7 @@ public class DtlsSrtpServer extends DefaultTlsServer {
     private static final Logger logger = LoggerFactory.getLogger(DtlsSrtpServer.class);
 
     // TlsCertificate resources
-    private final String[] certificateResources;
-    private final String keyResource;
+    private final DtlsCredentials credentials;
     private final AlgorithmCertificate algorithmCertificate;
     private final ProtocolVersion minVersion;
     private final ProtocolVersion maxVersion;
@@ -66,12 +65,11 @@ public class DtlsSrtpServer extends DefaultTlsServer {
     private byte[] masterSecret = null;
 
     public DtlsSrtpServer (ProtocolVersion minVersion, ProtocolVersion maxVersion, CipherSuite[] cipherSuites,
-                           String[] certificatesPath, String keyPath, AlgorithmCertificate algorithmCertificate) {
+                           DtlsCredentials credentials, AlgorithmCertificate algorithmCertificate) {
         this.minVersion = minVersion;
         this.maxVersion = maxVersion;
         this.cipherSuites = cipherSuites;
-        this.certificateResources = certificatesPath;
-        this.keyResource = keyPath;
+        this.credentials = credentials;
         this.algorithmCertificate = algorithmCertificate;
     }
 
@@ -139,7 +137,11 @@ public class DtlsSrtpServer extends DefaultTlsServer {
                 }
             }
         }
-        return new CertificateRequest(new short[]{algorithmCertificate.getClientCertificate()}, serverSigAlgs, null);
+        // Browsers use ECDSA certificates, accepted as well with an ECDSA identity
+        short[] certificateTypes = (algorithmCertificate == AlgorithmCertificate.ECDSA)
+                ? new short[]{ClientCertificateType.ecdsa_sign, ClientCertificateType.rsa_sign}
+                : new short[]{algorithmCertificate.getClientCertificate()};
+        return new CertificateRequest(certificateTypes, serverSigAlgs, null);
     }
 
     public void notifyClientCertificate (TlsCertificate clientTlsCertificate) throws IOException {
@@ -160,13 +162,17 @@ public class DtlsSrtpServer extends DefaultTlsServer {
     @Override
     protected TlsSignerCredentials getECDSASignerCredentials () throws IOException {
         logger.debug("DTLS: TlsSignerCredentials");
-        return TlsUtils.loadSignerCredentials(context, certificateResources, keyResource, new SignatureAndHashAlgorithm(HashAlgorithm.sha256, SignatureAlgorithm.ecdsa));
+        DtlsCredentials loadedCredentials = getLoadedCredentials();
+        return new DefaultTlsSignerCredentials(context, loadedCredentials.getCertificateChain(), loadedCredentials.getPrivateKey(),
+                new SignatureAndHashAlgorithm(HashAlgorithm.sha256, SignatureAlgorithm.ecdsa)
+        );
     }
 
     @Override
     protected TlsEncryptionCredentials getRSAEncryptionCredentials () throws IOException {
         logger.debug("DTLS: getRSAEncryptionCredentials");
-        return TlsUtils.loadEncryptionCredentials(context, certificateResources, keyResource);
+        DtlsCredentials loadedCredentials = getLoadedCredentials();
+        return new DefaultTlsEncryptionCredentials(context, loadedCredentials.getCertificateChain(), loadedCredentials.getPrivateKey());
     }
 
     @SuppressWarnings("unchecked")
@@ -191,7 +197,20 @@ public class DtlsSrtpServer extends DefaultTlsServer {
                 return null;
             }
         }
-        return TlsUtils.loadSignerCredentials(context, certificateResources, keyResource, signatureAndHashAlgorithm);
+        DtlsCredentials loadedCredentials = getLoadedCredentials();
+        return new DefaultTlsSignerCredentials(context, loadedCredentials.getCertificateChain(), loadedCredentials.getPrivateKey(),
+                signatureAndHashAlgorithm
+        );
+    }
+
+    /**
+     * @return Credentials shared with the other handshakes, loaded once by DtlsCredentialManager
+     */
+    private DtlsCredentials getLoadedCredentials () throws IOException {
+        if (credentials == null) {
+            throw new IOException("DTLS credentials are not loaded");
+        }
+        return credentials;
     }
 
     @SuppressWarnings("unchecked")
@@ -219,17 +238,14 @@ public class DtlsSrtpServer extends DefaultTlsServer {
         UseSRTPData clientSrtpData = TlsSRTPUtils.getUseSRTPExtension(newClientExtensions);
 
         if (clientSrtpData != null) {
-            for (int profile : clientSrtpData.getProtectionProfiles()) {
-                switch (profile) {
-                    case SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_32:
-                    case SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_80:
-                    case SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_32:
-                    case SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_80:
-                        chosenProfile = profile;
-                        break;
-                    default:
-                }
+            // first profile of our preference (default.srtpProfiles) that the client offered
+            int preferredProfile = SRTPParameters.chooseProfile(
+                    SRTPParameters.getPreferredProfiles(), clientSrtpData.getProtectionProfiles()
+            );
+            if (preferredProfile >= 0) {
+                chosenProfile = preferredProfile;
             }
+            logger.debug("DTLS: Chosen SRTP protection profile: {}", SRTPParameters.getSrtpParametersForProfile(chosenProfile));
 
             // server chooses a mutually supported SRTP protection profile
             // http://tools.ietf.org/html/draft-ietf-avt-dtls-srtp-07#section-4.1.2
@@ -344,9 +360,7 @@ public class DtlsSrtpServer extends DefaultTlsServer {
     public String generateFingerprint (String hashFunction) {
         try {
             this.hashFunction = hashFunction;
-            TlsCertificate chain = TlsUtils.loadCertificateChain(certificateResources);
-            Certificate certificate = chain.getCertificateAt(0);
-            return TlsUtils.fingerprint(this.hashFunction, certificate);
+            return getLoadedCredentials().getFingerprint(this.hashFunction);
         } catch (IOException e) {
             logger.error("Could not get local fingerprint: {}", e.getMessage());
             return "";
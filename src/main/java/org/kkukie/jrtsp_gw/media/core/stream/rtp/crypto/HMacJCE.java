@@ -0,0 +1,75 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.CipherParameters;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.Mac;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.KeyParameter;
+
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * BouncyCastle {@link Mac} view of a cached javax.crypto HMAC, so the SRTP crypto
+ * contexts use the JVM intrinsics without changing their authentication code.
+ * <p>
+ * Not thread safe, one instance per crypto context.
+ */
+public class HMacJCE implements Mac {
+
+    public static final String HMAC_SHA1 = "HmacSHA1";
+
+    private final javax.crypto.Mac mac;
+
+    public HMacJCE (String algorithm) throws GeneralSecurityException {
+        this.mac = javax.crypto.Mac.getInstance(algorithm);
+    }
+
+    @Override
+    public void init (CipherParameters params) throws IllegalArgumentException {
+        if (!(params instanceof KeyParameter)) {
+            throw new IllegalArgumentException("HMacJCE requires a KeyParameter");
+        }
+
+        try {
+            mac.init(new SecretKeySpec(((KeyParameter) params).getKey(), mac.getAlgorithm()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid HMAC key", e);
+        }
+    }
+
+    @Override
+    public String getAlgorithmName () {
+        return mac.getAlgorithm();
+    }
+
+    @Override
+    public int getMacSize () {
+        return mac.getMacLength();
+    }
+
+    @Override
+    public void update (byte in) throws IllegalStateException {
+        mac.update(in);
+    }
+
+    @Override
+    public void update (byte[] in, int inOff, int len) throws IllegalStateException {
+        mac.update(in, inOff, len);
+    }
+
+    @Override
+    public int doFinal (byte[] out, int outOff) throws IllegalStateException {
+        try {
+            mac.doFinal(out, outOff);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("HMAC output buffer is too short", e);
+        }
+        return mac.getMacLength();
+    }
+
+    @Override
+    public void reset () {
+        mac.reset();
+    }
+
+}
@@ -6,6 +6,7 @@
  */
 package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
 
+import java.nio.ByteBuffer;
 
 /**
  * Encapsulate the concept of packet transformation. Given a packet,
@@ -57,6 +58,35 @@ public interface PacketTransformer {
      */
     byte[] reverseTransform (byte[] pkt, int offset, int length);
 
+    /**
+     * Reverse-transforms a packet in place, inside a region of the given buffer.
+     * <p>
+     * The restored packet starts at the same offset and is never longer than
+     * the transformed one. The default implementation stages the region in an
+     * array; transformers that can work on the buffer directly override it.
+     *
+     * @param pkt    the buffer holding the packet to be restored
+     * @param offset the absolute index of the packet data
+     * @param length the length of the packet data
+     * @return The length of the restored packet. Returns -1 if the packet cannot be restored.
+     */
+    default int reverseTransform (ByteBuffer pkt, int offset, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = pkt.get(offset + i);
+        }
+
+        byte[] restored = reverseTransform(data, 0, length);
+        if (restored == null || restored.length > length) {
+            return -1;
+        }
+
+        for (int i = 0; i < restored.length; i++) {
+            pkt.put(offset + i, restored[i]);
+        }
+        return restored.length;
+    }
+
     /**
      * Close the transformer and underlying transform engine.
      * <p>
@@ -65,4 +95,18 @@ public interface PacketTransformer {
      */
     void close ();
 
+    /**
+     * @return Number of received packets rejected because they were already received
+     */
+    default long getReplayedCount () {
+        return 0;
+    }
+
+    /**
+     * @return Number of received packets rejected because they were older than the replay window
+     */
+    default long getTooOldCount () {
+        return 0;
+    }
+
 }
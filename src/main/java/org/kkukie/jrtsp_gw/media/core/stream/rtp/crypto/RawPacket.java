@@ -46,11 +46,17 @@ public class RawPacket {
      */
     private ByteBuffer buffer;
 
+    /**
+     * Buffer owned by this packet, restored by {@link #release()} after a caller buffer was wrapped
+     */
+    private ByteBuffer ownBuffer;
+
     /**
      * Initializes a new empty <tt>RawPacket</tt> instance.
      */
     public RawPacket () {
         this.buffer = ByteBuffer.allocateDirect(RtpPacket.RTP_PACKET_MAX_SIZE);
+        this.ownBuffer = this.buffer;
     }
 
     /**
@@ -66,10 +72,12 @@ public class RawPacket {
      */
     public RawPacket (byte[] data, int offset, int length) {
         this.buffer = ByteBuffer.allocateDirect(RtpPacket.RTP_PACKET_MAX_SIZE);
+        this.ownBuffer = this.buffer;
         wrap(data, offset, length);
     }
 
     public void wrap (byte[] data, int offset, int length) {
+        this.buffer = this.ownBuffer;
         this.buffer.clear();
         this.buffer.rewind();
         this.buffer.put(data, offset, length);
@@ -77,6 +85,39 @@ public class RawPacket {
         this.buffer.rewind();
     }
 
+    /**
+     * Uses a region of a caller buffer as the content of this packet, without copying.
+     * <p>
+     * Transformations then work in place on the caller buffer, so only shrinking
+     * operations may be applied. Call {@link #release()} when done.
+     *
+     * @param data   the buffer holding the packet
+     * @param offset the absolute index of the packet data in <tt>data</tt>
+     * @param length the length of the packet data
+     */
+    public void wrap (ByteBuffer data, int offset, int length) {
+        if (offset == 0) {
+            data.limit(length);
+            data.position(0);
+            this.buffer = data;
+        } else {
+            ByteBuffer view = data.duplicate();
+            view.limit(offset + length);
+            view.position(offset);
+            this.buffer = view.slice();
+        }
+    }
+
+    /**
+     * Drops the reference to a wrapped caller buffer and returns to the own buffer.
+     */
+    public void release () {
+        if (this.buffer != this.ownBuffer) {
+            this.buffer.rewind();
+            this.buffer = this.ownBuffer;
+        }
+    }
+
     public byte[] getData () {
         this.buffer.rewind();
         byte[] data = new byte[this.buffer.limit()];
@@ -293,6 +334,7 @@ public class RawPacket {
             newBuffer.limit(newLen);
             // switch to new buffer
             buffer = newBuffer;
+            ownBuffer = newBuffer;
         }
     }
 
@@ -8,10 +8,8 @@ package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
 
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.BlockCipher;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.Mac;
-import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.digests.SHA1Digest;
-import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.engines.AESFastEngine;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.engines.AESEngine;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.engines.TwofishEngine;
-import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.macs.HMac;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.KeyParameter;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpPacket;
 
@@ -46,10 +44,6 @@ import java.util.Arrays;
  */
 public class SRTCPCryptoContext {
 
-    /**
-     * The replay check windows size
-     */
-    private static final long REPLAY_WINDOW_SIZE = 64;
     /**
      * Encryption / Authentication policy for this session
      */
@@ -66,23 +60,19 @@ public class SRTCPCryptoContext {
     /**
      * RTCP SSRC of this cryptographic context
      */
-    private final long ssrcCtx;
+    private long ssrcCtx;
     /**
      * Master key identifier
      */
     private final byte[] mki;
-    /**
-     * Index received so far
-     */
-    private int receivedIndex = 0;
     /**
      * Index sent so far
      */
     private int sentIndex = 0;
     /**
-     * Bit mask for replay check
+     * Replay check window, see SRTPReplayWindow
      */
-    private long replayWindow;
+    private final SRTPReplayWindow replayWindow;
     /**
      * Master encryption key
      */
@@ -113,6 +103,13 @@ public class SRTCPCryptoContext {
     // The symmetric cipher engines we need here
     private BlockCipher cipher = null;
     private BlockCipher cipherF8 = null; // used inside F8 mode only
+    // SRTP crypto backend of this context, see SRTPCryptoBackend
+    private final String backend;
+    // JCE counter mode cipher of the packet path, null if the block cipher above is used
+    private SRTPCipherCTRJCE cipherCtrJce = null;
+    // AEAD AES-GCM cipher (RFC 7714), null if the policy is not AES-GCM
+    private SRTPCipherGCM cipherGcm = null;
+    private final byte[] gcmIvStore = new byte[SRTPCipherGCM.IV_LENGTH];
 
     /**
      * Construct an empty SRTPCryptoContext using ssrc.
@@ -130,6 +127,8 @@ public class SRTCPCryptoContext {
         saltKey = null;
         policy = null;
         tagStore = null;
+        backend = null;
+        replayWindow = null;
     }
 
     /**
@@ -146,14 +145,26 @@ public class SRTCPCryptoContext {
      * @param policy     SRTP policy for this SRTP cryptographic context, defined the
      *                   encryption algorithm, the authentication algorithm, etc
      */
-    @SuppressWarnings("fallthrough")
     public SRTCPCryptoContext (long ssrc, byte[] masterK, byte[] masterS, SRTPPolicy policy) {
+        this(ssrc, masterK, masterS, policy, SRTPCryptoBackend.getConfiguredBackend());
+    }
+
+    /**
+     * Construct a normal SRTCPCryptoContext on the given SRTP crypto backend.
+     *
+     * @param backend SRTPCryptoBackend.BACKEND_JCE or SRTPCryptoBackend.BACKEND_BC
+     */
+    @SuppressWarnings("fallthrough")
+    public SRTCPCryptoContext (long ssrc, byte[] masterK, byte[] masterS, SRTPPolicy policy, String backend) {
         ssrcCtx = ssrc;
+        this.backend = backend;
         mki = null;
         this.policy = policy;
+        replayWindow = new SRTPReplayWindow(SRTPReplayWindow.getConfiguredSize());
         masterKey = new byte[policy.getEncKeyLength()];
         System.arraycopy(masterK, 0, masterKey, 0, masterK.length);
-        masterSalt = new byte[policy.getSaltKeyLength()];
+        // The 96 bit master salt of AES-GCM is zero padded for the AES-CM key derivation (RFC 7714 section 11)
+        masterSalt = new byte[Math.max(policy.getSaltKeyLength(), 14)];
         System.arraycopy(masterS, 0, masterSalt, 0, masterS.length);
 
         switch (policy.getEncType()) {
@@ -163,12 +174,20 @@ public class SRTCPCryptoContext {
                 break;
 
             case SRTPPolicy.AESF8_ENCRYPTION:
-                cipherF8 = new AESFastEngine();
+                cipherF8 = new AESEngine();
 
             case SRTPPolicy.AESCM_ENCRYPTION:
-                cipher = new AESFastEngine();
+                cipher = new AESEngine();
+                encKey = new byte[this.policy.getEncKeyLength()];
+                saltKey = new byte[this.policy.getSaltKeyLength()];
+                break;
+
+            case SRTPPolicy.AESGCM_ENCRYPTION:
+                // AES-CM is used for the key derivation only
+                cipher = new AESEngine();
                 encKey = new byte[this.policy.getEncKeyLength()];
                 saltKey = new byte[this.policy.getSaltKeyLength()];
+                cipherGcm = new SRTPCipherGCM(backend);
                 break;
 
             case SRTPPolicy.TWOFISHF8_ENCRYPTION:
@@ -183,15 +202,16 @@ public class SRTCPCryptoContext {
             default:
                 throw new IllegalStateException("Unexpected value: " + policy.getEncType());
         }
+        cipherCtrJce = SRTPCryptoBackend.newCipherCtr(backend, policy.getEncType());
 
         switch (policy.getAuthType()) {
             case SRTPPolicy.NULL_AUTHENTICATION:
                 authKey = null;
-                tagStore = null;
+                tagStore = (cipherGcm != null) ? new byte[SRTPCipherGCM.TAG_LENGTH] : null;
                 break;
 
             case SRTPPolicy.HMACSHA1_AUTHENTICATION:
-                mac = new HMac(new SHA1Digest());
+                mac = SRTPCryptoBackend.newHmacSha1(backend);
                 authKey = new byte[policy.getAuthKeyLength()];
                 tagStore = new byte[mac.getMacSize()];
                 break;
@@ -251,6 +271,15 @@ public class SRTCPCryptoContext {
         return ssrcCtx;
     }
 
+    /**
+     * Binds a spare context, derived ahead of the first packet, to the SSRC it is used for.
+     *
+     * @param ssrcIn the SSRC of this cryptographic context
+     */
+    void setSSRC (long ssrcIn) {
+        ssrcCtx = ssrcIn;
+    }
+
     /**
      * Transform a RTP packet into a SRTP packet.
      * This method is called when a normal RTP packet ready to be sent.
@@ -267,8 +296,19 @@ public class SRTCPCryptoContext {
      * method (RTPManager managed transportation) instead.
      *
      * @param pkt the RTP packet that is going to be sent out
+     * @return false if the AEAD cipher failed, the packet must not be sent
      */
-    public void transformPacket (RawPacket pkt) {
+    public boolean transformPacket (RawPacket pkt) {
+        if (cipherGcm != null) {
+            // Encrypt and authenticate the packet in one pass, RFC 7714
+            if (!processPacketAESGCM(pkt, sentIndex | 0x80000000, true)) {
+                return false;
+            }
+            sentIndex++;
+            sentIndex &= ~0x80000000;       // clear possible overflow
+            return true;
+        }
+
         boolean encrypt = false;
         // Encrypt the packet using Counter Mode encryption
         if (policy.getEncType() == SRTPPolicy.AESCM_ENCRYPTION || policy.getEncType() == SRTPPolicy.TWOFISH_ENCRYPTION) {
@@ -300,6 +340,7 @@ public class SRTCPCryptoContext {
         }
         sentIndex++;
         sentIndex &= ~0x80000000;       // clear possible overflow
+        return true;
     }
 
     /**
@@ -321,6 +362,22 @@ public class SRTCPCryptoContext {
      * false if authentication or replay check failed
      */
     public boolean reverseTransformPacket (RawPacket pkt) {
+        if (cipherGcm != null) {
+            // header (8), tag (16) and E flag with index (4) at least
+            if (pkt.getLength() < 8 + SRTPCipherGCM.TAG_LENGTH + 4) {
+                return false;
+            }
+
+            int indexEflag = pkt.readInt(pkt.getLength() - 4);
+            int index = indexEflag & ~0x80000000;
+            if (!checkReplay(index) || !processPacketAESGCM(pkt, indexEflag, false)) {
+                return false;
+            }
+
+            update(index);
+            return true;
+        }
+
         boolean decrypt = false;
         int tagLength = policy.getAuthTagLength();
         int indexEflag = pkt.getSRTCPIndex(tagLength);
@@ -411,7 +468,66 @@ public class SRTCPCryptoContext {
         // Encrypted part excludes fixed header (8 bytes)
         final int payloadOffset = 8;
         final int payloadLength = pkt.getLength() - payloadOffset;
-        cipherCtr.process(cipher, pkt.getBuffer(), payloadOffset, payloadLength, ivStore);
+        if (cipherCtrJce != null) {
+            cipherCtrJce.process(pkt.getBuffer(), payloadOffset, payloadLength, ivStore);
+        } else {
+            cipherCtr.process(cipher, pkt.getBuffer(), payloadOffset, payloadLength, ivStore);
+        }
+    }
+
+    /**
+     * Perform AEAD AES-GCM encryption / decryption, RFC 7714 section 9.
+     * <p>
+     * The fixed header (8 bytes) and the E flag with the index are the associated data,
+     * the packet is sent as header, cipher text, tag (16 bytes), E flag with index (4 bytes).
+     * Without the E flag the whole packet before the tag is the associated data.
+     *
+     * @param pkt        the RTCP packet to be encrypted / decrypted
+     * @param indexEflag SRTCP index with the E flag
+     * @param encrypt    true to encrypt and append the trailer, false to authenticate, decrypt and strip the trailer
+     * @return false if the cipher failed or the tag did not match
+     */
+    private boolean processPacketAESGCM (RawPacket pkt, int indexEflag, boolean encrypt) {
+        long ssrc = pkt.getRtcpSsrc();
+        int index = indexEflag & ~0x80000000;
+
+        /* IV = (00 00 || SSRC || 00 00 || 0 || index) XOR salt */
+        gcmIvStore[0] = saltKey[0];
+        gcmIvStore[1] = saltKey[1];
+        gcmIvStore[2] = (byte) (((ssrc >> 24) & 0xff) ^ saltKey[2]);
+        gcmIvStore[3] = (byte) (((ssrc >> 16) & 0xff) ^ saltKey[3]);
+        gcmIvStore[4] = (byte) (((ssrc >> 8) & 0xff) ^ saltKey[4]);
+        gcmIvStore[5] = (byte) ((ssrc & 0xff) ^ saltKey[5]);
+        gcmIvStore[6] = saltKey[6];
+        gcmIvStore[7] = saltKey[7];
+        gcmIvStore[8] = (byte) (((index >> 24) & 0xff) ^ saltKey[8]);
+        gcmIvStore[9] = (byte) (((index >> 16) & 0xff) ^ saltKey[9]);
+        gcmIvStore[10] = (byte) (((index >> 8) & 0xff) ^ saltKey[10]);
+        gcmIvStore[11] = (byte) ((index & 0xff) ^ saltKey[11]);
+
+        rbStore[0] = (byte) (indexEflag >> 24);
+        rbStore[1] = (byte) (indexEflag >> 16);
+        rbStore[2] = (byte) (indexEflag >> 8);
+        rbStore[3] = (byte) indexEflag;
+
+        if (encrypt) {
+            final int payloadLength = pkt.getLength() - 8;
+            if (!cipherGcm.encrypt(pkt.getBuffer(), 8, rbStore, 8, payloadLength, gcmIvStore, tagStore)) {
+                return false;
+            }
+            pkt.append(tagStore, SRTPCipherGCM.TAG_LENGTH);
+            pkt.append(rbStore, 4);
+            return true;
+        }
+
+        // cipher text with the tag, only the tag if the packet is not encrypted
+        final int tagEnd = pkt.getLength() - 4;
+        final int payloadOffset = ((indexEflag & 0x80000000) == 0x80000000) ? 8 : tagEnd - SRTPCipherGCM.TAG_LENGTH;
+        if (!cipherGcm.decrypt(pkt.getBuffer(), payloadOffset, rbStore, payloadOffset, tagEnd - payloadOffset, gcmIvStore)) {
+            return false;
+        }
+        pkt.shrink(SRTPCipherGCM.TAG_LENGTH + 4);
+        return true;
     }
 
     /**
@@ -474,8 +590,8 @@ public class SRTCPCryptoContext {
     /**
      * Checks if a packet is a replayed on based on its sequence number.
      * <p>
-     * This method supports a 64 packet history relative the the given
-     * sequence number.
+     * This method supports a history of default.srtpReplayWindowSize packets
+     * relative to the highest received index.
      * <p>
      * Sequence Number is guaranteed to be real (not faked) through
      * authentication.
@@ -485,23 +601,21 @@ public class SRTCPCryptoContext {
      * replayed one, false if not
      */
     boolean checkReplay (int index) {
-        // compute the index of previously received packet and its
-        // delta to the new received packet
-        int delta = index - receivedIndex;
+        return replayWindow.check(index) == SRTPReplayWindow.ACCEPTED;
+    }
 
-        if (delta > 0) {
-            /* Packet not yet received */
-            return true;
-        } else {
-            if (-delta > REPLAY_WINDOW_SIZE) {
-                /* Packet too old */
-                return false;
-            } else {
-                /* Packet already received ! */
-                /* Packet not yet received */
-                return ((this.replayWindow >> (-delta)) & 0x1) == 0;
-            }
-        }
+    /**
+     * @return Number of packets rejected because they were already received
+     */
+    public long getReplayedCount () {
+        return replayWindow == null ? 0 : replayWindow.getReplayedCount();
+    }
+
+    /**
+     * @return Number of packets rejected because they were older than the replay window
+     */
+    public long getTooOldCount () {
+        return replayWindow == null ? 0 : replayWindow.getTooOldCount();
     }
 
     /**
@@ -555,6 +669,12 @@ public class SRTCPCryptoContext {
         }
         encryptionKey = new KeyParameter(encKey);
         cipher.init(true, encryptionKey);
+        if (cipherCtrJce != null) {
+            cipherCtrJce.init(encKey);
+        }
+        if (cipherGcm != null) {
+            cipherGcm.init(encKey);
+        }
         Arrays.fill(encKey, (byte) 0);
     }
 
@@ -567,17 +687,8 @@ public class SRTCPCryptoContext {
      * @param index index number of the accepted packet
      */
     private void update (int index) {
-        int delta = receivedIndex - index;
-
         /* update the replay bit mask */
-        if (delta > 0) {
-            replayWindow = replayWindow << delta;
-            replayWindow |= 1;
-        } else {
-            replayWindow |= (1L << delta);
-        }
-
-        receivedIndex = index;
+        replayWindow.update(index);
     }
 
     /**
@@ -598,7 +709,7 @@ public class SRTCPCryptoContext {
     public SRTCPCryptoContext deriveContext (long ssrc) {
         SRTCPCryptoContext pcc;
         pcc = new SRTCPCryptoContext(ssrc, masterKey,
-                masterSalt, policy);
+                masterSalt, policy, backend);
         return pcc;
     }
 
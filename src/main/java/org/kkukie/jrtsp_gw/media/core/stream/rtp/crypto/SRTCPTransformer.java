@@ -6,9 +6,7 @@
  */
 package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
 
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.ArrayDeque;
 
 /**
  * SRTCPTransformer implements PacketTransformer.
@@ -19,6 +17,11 @@ import java.util.Map;
  */
 public class SRTCPTransformer implements PacketTransformer {
 
+    /**
+     * Contexts derived ahead for the first SSRCs of the session (audio, video)
+     */
+    private static final int SPARE_CONTEXT_COUNT = 2;
+
     private final RawPacket packet;
 
     private final SRTPTransformEngine forwardEngine;
@@ -27,7 +30,12 @@ public class SRTCPTransformer implements PacketTransformer {
     /**
      * All the known SSRC's corresponding SRTCPCryptoContexts
      */
-    private final Hashtable<Long, SRTCPCryptoContext> contexts;
+    private final SsrcContextTable<SRTCPCryptoContext> contexts;
+
+    /**
+     * Contexts with derived session keys, bound to a SSRC when it is first seen
+     */
+    private final ArrayDeque<SRTCPCryptoContext> spareContexts = new ArrayDeque<>(SPARE_CONTEXT_COUNT);
 
     /**
      * Constructs a SRTCPTransformer object.
@@ -51,7 +59,17 @@ public class SRTCPTransformer implements PacketTransformer {
         this.packet = new RawPacket();
         this.forwardEngine = forwardEngine;
         this.reverseEngine = reverseEngine;
-        this.contexts = new Hashtable<>();
+        this.contexts = new SsrcContextTable<>();
+
+        // The session keys do not depend on the SSRC, so the key derivation is done here
+        // (DTLS handshake thread) instead of on the first packet of each SSRC
+        if (forwardEngine == reverseEngine && forwardEngine.getDefaultContextControl() != null) {
+            for (int i = 0; i < SPARE_CONTEXT_COUNT; i++) {
+                SRTCPCryptoContext context = forwardEngine.getDefaultContextControl().deriveContext(0);
+                context.deriveSrtcpKeys();
+                spareContexts.add(context);
+            }
+        }
     }
 
     /**
@@ -73,13 +91,18 @@ public class SRTCPTransformer implements PacketTransformer {
         SRTCPCryptoContext context = contexts.get(ssrc);
 
         if (context == null) {
-            context = forwardEngine.getDefaultContextControl().deriveContext(ssrc);
-            context.deriveSrtcpKeys();
+            context = takeSpareContext(ssrc);
+            if (context == null) {
+                context = forwardEngine.getDefaultContextControl().deriveContext(ssrc);
+                context.deriveSrtcpKeys();
+            }
             contexts.put(ssrc, context);
         }
 
         // Secure packet into SRTCP format
-        context.transformPacket(packet);
+        if (!context.transformPacket(packet)) {
+            return null;
+        }
         return packet.getData();
     }
 
@@ -96,8 +119,11 @@ public class SRTCPTransformer implements PacketTransformer {
         SRTCPCryptoContext context = this.contexts.get(ssrc);
 
         if (context == null) {
-            context = reverseEngine.getDefaultContextControl().deriveContext(ssrc);
-            context.deriveSrtcpKeys();
+            context = takeSpareContext(ssrc);
+            if (context == null) {
+                context = reverseEngine.getDefaultContextControl().deriveContext(ssrc);
+                context.deriveSrtcpKeys();
+            }
             contexts.put(ssrc, context);
         }
 
@@ -109,6 +135,24 @@ public class SRTCPTransformer implements PacketTransformer {
         return null;
     }
 
+    @Override
+    public long getReplayedCount () {
+        long count = 0;
+        for (SRTCPCryptoContext context : contexts.values()) {
+            count += context.getReplayedCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getTooOldCount () {
+        long count = 0;
+        for (SRTCPCryptoContext context : contexts.values()) {
+            count += context.getTooOldCount();
+        }
+        return count;
+    }
+
     /**
      * Close the transformer and underlying transform engine.
      * <p>
@@ -120,16 +164,20 @@ public class SRTCPTransformer implements PacketTransformer {
         if (forwardEngine != reverseEngine)
             reverseEngine.close();
 
-        Iterator<Map.Entry<Long, SRTCPCryptoContext>> iter
-                = contexts.entrySet().iterator();
-
-        while (iter.hasNext()) {
-            Map.Entry<Long, SRTCPCryptoContext> entry = iter.next();
-            SRTCPCryptoContext context = entry.getValue();
+        for (SRTCPCryptoContext context : contexts.clear()) {
+            context.close();
+        }
+        SRTCPCryptoContext spare;
+        while ((spare = spareContexts.poll()) != null) {
+            spare.close();
+        }
+    }
 
-            iter.remove();
-            if (context != null)
-                context.close();
+    private SRTCPCryptoContext takeSpareContext (long ssrc) {
+        SRTCPCryptoContext context = spareContexts.poll();
+        if (context != null) {
+            context.setSSRC(ssrc);
         }
+        return context;
     }
 }
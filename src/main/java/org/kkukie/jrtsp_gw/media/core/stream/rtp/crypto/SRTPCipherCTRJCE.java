@@ -0,0 +1,94 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * SRTP Counter Mode AES (AES-CM, RFC3711 section 4.1.1) on a cached
+ * javax.crypto "AES/CTR/NoPadding" cipher.
+ * <p>
+ * The SRTP IV leaves the last 16 bits as block counter starting at zero, so the
+ * 128 bit counter of CTR mode produces the same key stream as {@link SRTPCipherCTR}
+ * for any packet shorter than 2^16 blocks.
+ * <p>
+ * Not thread safe, one instance per crypto context.
+ */
+public class SRTPCipherCTRJCE {
+
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final int MAX_BUFFER_LENGTH = 10 * 1024;
+
+    private final Cipher cipher;
+    private SecretKeySpec keySpec = null;
+
+    /* Copy of a direct buffer region, processed in place */
+    private byte[] streamBuf = new byte[1500];
+
+    public SRTPCipherCTRJCE () throws GeneralSecurityException {
+        this.cipher = Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * @param key Session encryption key, copied
+     */
+    public void init (byte[] key) {
+        keySpec = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Encrypts or decrypts a region of the buffer in place.
+     *
+     * @param data buffer holding the region, position and limit are not changed
+     * @param off  absolute index of the region
+     * @param len  length of the region
+     * @param iv   16 bytes SRTP IV, the last two bytes are zero
+     */
+    public void process (ByteBuffer data, int off, int len, byte[] iv) {
+        assert off + len <= data.limit();
+        if (len <= 0) {
+            return;
+        }
+
+        try {
+            // The same key is given on every packet, so the provider keeps its expanded key schedule
+            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+
+            if (data.hasArray()) {
+                byte[] array = data.array();
+                int arrayOff = data.arrayOffset() + off;
+                cipher.doFinal(array, arrayOff, len, array, arrayOff);
+                return;
+            }
+
+            byte[] buf = streamBuf;
+            if (len > buf.length) {
+                buf = new byte[len];
+                if (len <= MAX_BUFFER_LENGTH) {
+                    streamBuf = buf;
+                }
+            }
+
+            ByteBuffer region = data.duplicate();
+            region.limit(off + len).position(off);
+            region.get(buf, 0, len);
+            cipher.doFinal(buf, 0, len, buf, 0);
+            region.position(off);
+            region.put(buf, 0, len);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-CTR processing failed", e);
+        }
+    }
+
+    /**
+     * Clears the reference to the session key.
+     */
+    public void close () {
+        keySpec = null;
+        Arrays.fill(streamBuf, (byte) 0);
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.InvalidCipherTextException;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.engines.AESEngine;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.AEADParameters;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * SRTP / SRTCP AEAD AES-GCM (RFC 7714) on a cached cipher of the configured backend,
+ * javax.crypto "AES/GCM/NoPadding" or the embedded BouncyCastle GCMBlockCipher.
+ * <p>
+ * The associated data is a leading region of the packet optionally followed by a
+ * trailer (the ESRTCP word of SRTCP), the encrypted region follows the leading region.
+ * Authentication and decryption are done in one pass, the 16 bytes tag follows the cipher text.
+ * <p>
+ * Not thread safe, one instance per crypto context.
+ */
+@Slf4j
+public class SRTPCipherGCM {
+
+    public static final int TAG_LENGTH = 16;
+    public static final int IV_LENGTH = 12;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /* One of the two engines is used */
+    private final Cipher jceCipher;
+    private final GCMBlockCipher bcCipher;
+
+    private SecretKeySpec keySpec = null;
+    private KeyParameter keyParameter = null;
+    private boolean isBcKeyed = false;
+
+    /* Copy of the packet, processed in place */
+    private byte[] workBuf = new byte[1500 + TAG_LENGTH];
+    private byte[] outBuf = new byte[1500 + TAG_LENGTH];
+
+    public SRTPCipherGCM (String backend) {
+        Cipher cipher = null;
+        if (SRTPCryptoBackend.isJce(backend)) {
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                log.warn("|SRTPCipherGCM| Fail to create the JCE AES-GCM cipher, BouncyCastle is used.", e);
+            }
+        }
+        this.jceCipher = cipher;
+        this.bcCipher = (cipher == null) ? new GCMBlockCipher(new AESEngine()) : null;
+    }
+
+    /**
+     * @param key Session encryption key (16 or 32 bytes), copied
+     */
+    public void init (byte[] key) {
+        if (jceCipher != null) {
+            keySpec = new SecretKeySpec(key, "AES");
+        } else {
+            keyParameter = new KeyParameter(key);
+            isBcKeyed = false;
+        }
+    }
+
+    /**
+     * Encrypts data[off, off + len) in place and returns the tag.
+     *
+     * @param data       packet starting at index 0, position and limit are not changed
+     * @param aadLen     length of the leading associated data, data[0, aadLen)
+     * @param aadTrailer associated data following the leading region, null if none
+     * @param iv         12 bytes IV
+     * @param tagOut     receives the 16 bytes tag
+     * @return false if the cipher refused the IV (reused) or failed
+     */
+    public boolean encrypt (ByteBuffer data, int aadLen, byte[] aadTrailer, int off, int len, byte[] iv, byte[] tagOut) {
+        byte[] work = load(data, off + len);
+        try {
+            int outLen;
+            byte[] out;
+            if (jceCipher != null) {
+                jceCipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+                updateAad(work, aadLen, aadTrailer);
+                out = work;
+                outLen = jceCipher.doFinal(work, off, len, work, off);
+            } else {
+                initBc(true, iv);
+                updateAad(work, aadLen, aadTrailer);
+                out = ensureOut(len + TAG_LENGTH);
+                outLen = bcCipher.processBytes(work, off, len, out, 0);
+                outLen += bcCipher.doFinal(out, outLen);
+                System.arraycopy(out, 0, work, off, outLen);
+                out = work;
+            }
+            if (outLen != len + TAG_LENGTH) {
+                return false;
+            }
+
+            store(data, work, off, len);
+            System.arraycopy(out, off + len, tagOut, 0, TAG_LENGTH);
+            return true;
+        } catch (GeneralSecurityException | InvalidCipherTextException | IllegalArgumentException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Authenticates and decrypts data[off, off + len) in place, the last 16 bytes of the region are the tag.
+     * The plain text is written at off and is 16 bytes shorter than the region.
+     *
+     * @return false if the tag does not match
+     */
+    public boolean decrypt (ByteBuffer data, int aadLen, byte[] aadTrailer, int off, int len, byte[] iv) {
+        if (len < TAG_LENGTH) {
+            return false;
+        }
+
+        byte[] work = load(data, off + len);
+        try {
+            int outLen;
+            if (jceCipher != null) {
+                jceCipher.init(Cipher.DECRYPT_MODE, keySpec, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+                updateAad(work, aadLen, aadTrailer);
+                outLen = jceCipher.doFinal(work, off, len, work, off);
+            } else {
+                initBc(false, iv);
+                updateAad(work, aadLen, aadTrailer);
+                byte[] out = ensureOut(len);
+                outLen = bcCipher.processBytes(work, off, len, out, 0);
+                outLen += bcCipher.doFinal(out, outLen);
+                System.arraycopy(out, 0, work, off, outLen);
+            }
+            if (outLen != len - TAG_LENGTH) {
+                return false;
+            }
+
+            store(data, work, off, outLen);
+            return true;
+        } catch (GeneralSecurityException | InvalidCipherTextException | IllegalArgumentException | IllegalStateException e) {
+            // AEADBadTagException / InvalidCipherTextException on a tag mismatch
+            return false;
+        }
+    }
+
+    /**
+     * Clears the references to the session key.
+     */
+    public void close () {
+        keySpec = null;
+        keyParameter = null;
+        Arrays.fill(workBuf, (byte) 0);
+        Arrays.fill(outBuf, (byte) 0);
+    }
+
+    private void initBc (boolean forEncryption, byte[] iv) {
+        // The key schedule and the GHASH tables are kept after the first packet
+        bcCipher.init(forEncryption, new AEADParameters(isBcKeyed ? null : keyParameter, TAG_LENGTH * 8, iv));
+        isBcKeyed = true;
+    }
+
+    private void updateAad (byte[] work, int aadLen, byte[] aadTrailer) {
+        if (jceCipher != null) {
+            jceCipher.updateAAD(work, 0, aadLen);
+            if (aadTrailer != null) {
+                jceCipher.updateAAD(aadTrailer);
+            }
+        } else {
+            bcCipher.processAADBytes(work, 0, aadLen);
+            if (aadTrailer != null) {
+                bcCipher.processAADBytes(aadTrailer, 0, aadTrailer.length);
+            }
+        }
+    }
+
+    private byte[] load (ByteBuffer data, int length) {
+        if (workBuf.length < length + TAG_LENGTH) {
+            workBuf = new byte[length + TAG_LENGTH];
+        }
+
+        ByteBuffer region = data.duplicate();
+        region.limit(length).position(0);
+        region.get(workBuf, 0, length);
+        return workBuf;
+    }
+
+    private void store (ByteBuffer data, byte[] work, int off, int len) {
+        ByteBuffer region = data.duplicate();
+        region.limit(off + len).position(off);
+        region.put(work, off, len);
+    }
+
+    private byte[] ensureOut (int length) {
+        if (outBuf.length < length) {
+            outBuf = new byte[length];
+        }
+        return outBuf;
+    }
+
+}
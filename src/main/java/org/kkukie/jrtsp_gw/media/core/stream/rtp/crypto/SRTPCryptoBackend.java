@@ -0,0 +1,70 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.Mac;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.digests.SHA1Digest;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.macs.HMac;
+
+/**
+ * 1) SRTP / SRTCP 패킷 경로의 AES-CM 암복호화와 HMAC-SHA1 인증을 수행할 구현을 default.srtpCryptoBackend 로 고른다.
+ * 2) "jce": javax.crypto 의 AES/CTR/NoPadding, HmacSHA1 (JVM 의 AES-NI, SHA intrinsic 사용), "bc": 내장 BouncyCastle 엔진
+ * 3) 두 구현의 출력은 바이트 단위로 같다. (SRTP 의 16 bit 블록 카운터는 패킷 하나 안에서 넘치지 않으므로 CTR 의 128 bit 카운터와 같다)
+ * 4) 세션 키 유도, F8, Twofish 는 항상 BouncyCastle 엔진을 사용한다.
+ * 5) JCE 구현을 만들 수 없으면 BouncyCastle 로 대체한다.
+ * 6) AEAD AES-GCM (RFC 7714) 프로파일도 같은 설정으로 AES/GCM/NoPadding 또는 BouncyCastle GCMBlockCipher 를 사용한다. (SRTPCipherGCM)
+ */
+@Slf4j
+public class SRTPCryptoBackend {
+
+    public static final String BACKEND_JCE = "jce";
+    public static final String BACKEND_BC = "bc";
+
+    private SRTPCryptoBackend() {
+        // Nothing
+    }
+
+    /**
+     * @return Backend of the configuration, JCE if there is no configuration
+     */
+    public static String getConfiguredBackend() {
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        if (defaultConfig == null || defaultConfig.getSrtpCryptoBackend() == null) {
+            return BACKEND_JCE;
+        }
+        return defaultConfig.getSrtpCryptoBackend();
+    }
+
+    public static boolean isJce(String backend) {
+        return BACKEND_JCE.equalsIgnoreCase(backend);
+    }
+
+    /**
+     * @return JCE counter mode cipher for an AES-CM policy with the JCE backend, null if the BouncyCastle path is used
+     */
+    public static SRTPCipherCTRJCE newCipherCtr(String backend, int encType) {
+        if (!isJce(backend) || encType != SRTPPolicy.AESCM_ENCRYPTION) {
+            return null;
+        }
+
+        try {
+            return new SRTPCipherCTRJCE();
+        } catch (Exception e) {
+            log.warn("|SRTPCryptoBackend| Fail to create the JCE AES-CTR cipher, BouncyCastle is used.", e);
+            return null;
+        }
+    }
+
+    public static Mac newHmacSha1(String backend) {
+        if (isJce(backend)) {
+            try {
+                return new HMacJCE(HMacJCE.HMAC_SHA1);
+            } catch (Exception e) {
+                log.warn("|SRTPCryptoBackend| Fail to create the JCE HmacSHA1, BouncyCastle is used.", e);
+            }
+        }
+        return new HMac(new SHA1Digest());
+    }
+
+}
@@ -10,7 +10,7 @@ import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.BlockCipher;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.Mac;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.digests.SHA1Digest;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.digests.SHA256Digest;
-import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.engines.AESFastEngine;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.engines.AESEngine;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.engines.TwofishEngine;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.macs.HMac;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.KeyParameter;
@@ -46,10 +46,6 @@ import java.util.Formatter;
  */
 public class SRTPCryptoContext {
 
-    /**
-     * The replay check windows size
-     */
-    private static final long REPLAY_WINDOW_SIZE = 64;
     /**
      * Encryption / Authentication policy for this session
      */
@@ -66,6 +62,10 @@ public class SRTPCryptoContext {
      * Temp store.
      */
     private final byte[] ivStore = new byte[16];
+    /**
+     * Temp store.
+     */
+    private final byte[] gcmIvStore = new byte[SRTPCipherGCM.IV_LENGTH];
     /**
      * Temp store.
      */
@@ -79,7 +79,7 @@ public class SRTPCryptoContext {
     /**
      * RTP SSRC of this cryptographic context
      */
-    private final long ssrcCtx;
+    private long ssrcCtx;
     /**
      * Master key identifier
      */
@@ -108,9 +108,9 @@ public class SRTPCryptoContext {
      */
     private final long keyDerivationRate;
     /**
-     * Bit mask for replay check
+     * Replay check window, see SRTPReplayWindow
      */
-    private long replayWindow;
+    private final SRTPReplayWindow replayWindow;
     /**
      * Master encryption key
      */
@@ -144,6 +144,18 @@ public class SRTPCryptoContext {
      * Used inside F8 mode only
      */
     private BlockCipher cipherF8 = null;
+    /**
+     * SRTP crypto backend of this context, see SRTPCryptoBackend
+     */
+    private final String backend;
+    /**
+     * JCE counter mode cipher of the packet path, null if the block cipher above is used
+     */
+    private SRTPCipherCTRJCE cipherCtrJce = null;
+    /**
+     * AEAD AES-GCM cipher (RFC 7714), null if the policy is not AES-GCM
+     */
+    private SRTPCipherGCM cipherGcm = null;
 
     /**
      * Construct an empty SRTPCryptoContext using ssrc. The other parameters are
@@ -166,6 +178,8 @@ public class SRTPCryptoContext {
         seqNumSet = false;
         policy = null;
         tagStore = null;
+        backend = null;
+        replayWindow = null;
     }
 
     /**
@@ -187,23 +201,36 @@ public class SRTPCryptoContext {
      * @param policyIn SRTP policy for this SRTP cryptographic context, defined the
      *                 encryption algorithm, the authentication algorithm, etc
      */
-    @SuppressWarnings("fallthrough")
     public SRTPCryptoContext (long ssrcIn, int rocIn, long kdr, byte[] masterK,
                               byte[] masterS, SRTPPolicy policyIn) {
+        this(ssrcIn, rocIn, kdr, masterK, masterS, policyIn, SRTPCryptoBackend.getConfiguredBackend());
+    }
+
+    /**
+     * Construct a normal SRTPCryptoContext on the given SRTP crypto backend.
+     *
+     * @param backendIn SRTPCryptoBackend.BACKEND_JCE or SRTPCryptoBackend.BACKEND_BC
+     */
+    @SuppressWarnings("fallthrough")
+    public SRTPCryptoContext (long ssrcIn, int rocIn, long kdr, byte[] masterK,
+                              byte[] masterS, SRTPPolicy policyIn, String backendIn) {
         ssrcCtx = ssrcIn;
+        backend = backendIn;
         mki = null;
         roc = rocIn;
         guessedROC = 0;
         seqNum = 0;
         keyDerivationRate = kdr;
         seqNumSet = false;
+        replayWindow = new SRTPReplayWindow(SRTPReplayWindow.getConfiguredSize());
 
         policy = policyIn;
 
         masterKey = new byte[policy.getEncKeyLength()];
         System.arraycopy(masterK, 0, masterKey, 0, masterK.length);
 
-        masterSalt = new byte[policy.getSaltKeyLength()];
+        // The 96 bit master salt of AES-GCM is zero padded for the AES-CM key derivation (RFC 7714 section 11)
+        masterSalt = new byte[Math.max(policy.getSaltKeyLength(), 14)];
         System.arraycopy(masterS, 0, masterSalt, 0, masterS.length);
 
         hmac = new HMac(new SHA1Digest());
@@ -211,13 +238,21 @@ public class SRTPCryptoContext {
 
         switch (policy.getEncType()) {
             case SRTPPolicy.AESF8_ENCRYPTION:
-                cipherF8 = new AESFastEngine();
+                cipherF8 = new AESEngine();
                 //$FALL-THROUGH$
 
             case SRTPPolicy.AESCM_ENCRYPTION:
-                cipher = new AESFastEngine();
+                cipher = new AESEngine();
+                encKey = new byte[policy.getEncKeyLength()];
+                saltKey = new byte[policy.getSaltKeyLength()];
+                break;
+
+            case SRTPPolicy.AESGCM_ENCRYPTION:
+                // AES-CM is used for the key derivation only
+                cipher = new AESEngine();
                 encKey = new byte[policy.getEncKeyLength()];
                 saltKey = new byte[policy.getSaltKeyLength()];
+                cipherGcm = new SRTPCipherGCM(backend);
                 break;
 
             case SRTPPolicy.TWOFISHF8_ENCRYPTION:
@@ -235,15 +270,16 @@ public class SRTPCryptoContext {
                 saltKey = null;
                 break;
         }
+        cipherCtrJce = SRTPCryptoBackend.newCipherCtr(backend, policy.getEncType());
 
         switch (policy.getAuthType()) {
             case SRTPPolicy.NULL_AUTHENTICATION:
                 authKey = null;
-                tagStore = null;
+                tagStore = (cipherGcm != null) ? new byte[SRTPCipherGCM.TAG_LENGTH] : null;
                 break;
 
             case SRTPPolicy.HMACSHA1_AUTHENTICATION:
-                hmac = new HMac(new SHA1Digest());
+                hmac = SRTPCryptoBackend.newHmacSha1(backend);
                 authKey = new byte[policy.getAuthKeyLength()];
                 tagStore = new byte[hmac.getMacSize()];
                 break;
@@ -295,6 +331,15 @@ public class SRTPCryptoContext {
         return ssrcCtx;
     }
 
+    /**
+     * Binds a spare context, derived ahead of the first packet, to the SSRC it is used for.
+     *
+     * @param ssrcIn the SSRC of this cryptographic context
+     */
+    void setSSRC (long ssrcIn) {
+        ssrcCtx = ssrcIn;
+    }
+
     /**
      * Get the Roll-Over-Counter of this SRTP cryptographic context
      *
@@ -329,10 +374,15 @@ public class SRTPCryptoContext {
      * method (RTPManager managed transportation) instead.
      *
      * @param pkt the RTP packet that is going to be sent out
+     * @return false if the AEAD cipher failed, the packet must not be sent
      */
-    public void transformPacket (RawPacket pkt) {
-        /* Encrypt the packet using Counter Mode encryption */
-        if (policy.getEncType() == SRTPPolicy.AESCM_ENCRYPTION || policy.getEncType() == SRTPPolicy.TWOFISH_ENCRYPTION) {
+    public boolean transformPacket (RawPacket pkt) {
+        if (cipherGcm != null) {
+            /* Encrypt and authenticate the packet in one pass, RFC 7714 */
+            if (!processPacketAESGCM(pkt, roc, true)) {
+                return false;
+            }
+        } else if (policy.getEncType() == SRTPPolicy.AESCM_ENCRYPTION || policy.getEncType() == SRTPPolicy.TWOFISH_ENCRYPTION) {
             processPacketAESCM(pkt);
         } else if (policy.getEncType() == SRTPPolicy.AESF8_ENCRYPTION || policy.getEncType() == SRTPPolicy.TWOFISHF8_ENCRYPTION) {
             /* Encrypt the packet using F8 Mode encryption */
@@ -350,6 +400,7 @@ public class SRTPCryptoContext {
         if (seqNo == 0xFFFF) {
             roc++;
         }
+        return true;
     }
 
     /**
@@ -386,6 +437,17 @@ public class SRTPCryptoContext {
             return false;
         }
 
+        // Authenticate and decrypt packet in one pass, RFC 7714
+        if (cipherGcm != null) {
+            if (pkt.getLength() < pkt.getHeaderLength() + SRTPCipherGCM.TAG_LENGTH
+                    || !processPacketAESGCM(pkt, guessedROC, false)) {
+                return false;
+            }
+
+            update(seqNo, guessedIndex);
+            return true;
+        }
+
         // Authenticate packet
         if (policy.getAuthType() != SRTPPolicy.NULL_AUTHENTICATION) {
             int tagLength = policy.getAuthTagLength();
@@ -455,7 +517,55 @@ public class SRTPCryptoContext {
         final int payloadOffset = pkt.getHeaderLength();
         final int payloadLength = pkt.getPayloadLength();
 
-        cipherCtr.process(cipher, pkt.getBuffer(), payloadOffset, payloadLength, ivStore);
+        if (cipherCtrJce != null) {
+            cipherCtrJce.process(pkt.getBuffer(), payloadOffset, payloadLength, ivStore);
+        } else {
+            cipherCtr.process(cipher, pkt.getBuffer(), payloadOffset, payloadLength, ivStore);
+        }
+    }
+
+    /**
+     * Perform AEAD AES-GCM encryption / decryption, RFC 7714 section 8.
+     * The RTP header is the associated data, the tag follows the encrypted payload.
+     *
+     * @param pkt     the RTP packet to be encrypted / decrypted
+     * @param rocIn   Roll-Over-Counter of the packet
+     * @param encrypt true to encrypt and append the tag, false to authenticate, decrypt and strip the tag
+     * @return false if the cipher failed or the tag did not match
+     */
+    private boolean processPacketAESGCM (RawPacket pkt, int rocIn, boolean encrypt) {
+        long ssrc = pkt.getSSRC();
+        int seqNo = pkt.getSequenceNumber();
+
+        // IV = (00 00 || SSRC || ROC || SEQ) XOR salt
+        ivStore[0] = saltKey[0];
+        ivStore[1] = saltKey[1];
+        for (int i = 2; i < 6; i++) {
+            ivStore[i] = (byte) ((0xFF & (ssrc >> ((5 - i) * 8))) ^ saltKey[i]);
+        }
+        for (int i = 6; i < 10; i++) {
+            ivStore[i] = (byte) ((0xFF & (rocIn >> ((9 - i) * 8))) ^ saltKey[i]);
+        }
+        ivStore[10] = (byte) ((0xFF & (seqNo >> 8)) ^ saltKey[10]);
+        ivStore[11] = (byte) ((0xFF & seqNo) ^ saltKey[11]);
+        System.arraycopy(ivStore, 0, gcmIvStore, 0, SRTPCipherGCM.IV_LENGTH);
+
+        final int headerLength = pkt.getHeaderLength();
+        final int payloadLength = pkt.getPayloadLength();
+
+        if (encrypt) {
+            if (!cipherGcm.encrypt(pkt.getBuffer(), headerLength, null, headerLength, payloadLength, gcmIvStore, tagStore)) {
+                return false;
+            }
+            pkt.append(tagStore, SRTPCipherGCM.TAG_LENGTH);
+            return true;
+        }
+
+        if (!cipherGcm.decrypt(pkt.getBuffer(), headerLength, null, headerLength, payloadLength, gcmIvStore)) {
+            return false;
+        }
+        pkt.shrink(SRTPCipherGCM.TAG_LENGTH);
+        return true;
     }
 
     /**
@@ -466,9 +576,11 @@ public class SRTPCryptoContext {
     public void processPacketAESF8 (RawPacket pkt) {
         // 11 bytes of the RTP header are the 11 bytes of the iv
         // the first byte of the RTP header is not used.
+        // Absolute reads, so the packet region (which may be a caller buffer) is left untouched
         ByteBuffer buf = pkt.getBuffer();
-        buf.compact();
-        buf.get(ivStore, 0, 12);
+        for (int i = 1; i < 12; i++) {
+            ivStore[i] = buf.get(i);
+        }
         ivStore[0] = 0;
 
         // set the ROC in network order into IV
@@ -516,8 +628,8 @@ public class SRTPCryptoContext {
     /**
      * Checks if a packet is a replayed on based on its sequence number.
      * <p>
-     * This method supports a 64 packet history relative the the given sequence
-     * number.
+     * This method supports a history of default.srtpReplayWindowSize packets
+     * relative to the highest received packet index.
      * <p>
      * Sequence Number is guaranteed to be real (not faked) through
      * authentication.
@@ -528,24 +640,21 @@ public class SRTPCryptoContext {
      * replayed one, false if not
      */
     boolean checkReplay (int seqNo, long guessedIndex) {
-        // compute the index of previously received packet and its
-        // delta to the new received packet
-        long localIndex = (((long) this.roc) << 16) | this.seqNum;
-        long delta = guessedIndex - localIndex;
+        return replayWindow.check(guessedIndex) == SRTPReplayWindow.ACCEPTED;
+    }
 
-        if (delta > 0) {
-            /* Packet not yet received */
-            return true;
-        } else {
-            if (-delta > REPLAY_WINDOW_SIZE) {
-                /* Packet too old */
-                return false;
-            } else {
-                /* Packet already received ! */
-                /* Packet not yet received */
-                return ((this.replayWindow >> (-delta)) & 0x1) == 0;
-            }
-        }
+    /**
+     * @return Number of packets rejected because they were already received
+     */
+    public long getReplayedCount () {
+        return replayWindow == null ? 0 : replayWindow.getReplayedCount();
+    }
+
+    /**
+     * @return Number of packets rejected because they were older than the replay window
+     */
+    public long getTooOldCount () {
+        return replayWindow == null ? 0 : replayWindow.getTooOldCount();
     }
 
     /**
@@ -616,6 +725,12 @@ public class SRTPCryptoContext {
         }
         encryptionKey = new KeyParameter(encKey);
         cipher.init(true, encryptionKey);
+        if (cipherCtrJce != null) {
+            cipherCtrJce.init(encKey);
+        }
+        if (cipherGcm != null) {
+            cipherGcm.init(encKey);
+        }
 
         Arrays.fill(encKey, (byte) 0);
     }
@@ -655,15 +770,8 @@ public class SRTPCryptoContext {
      * @param guessedIndex guessed roc
      */
     private void update (int seqNo, long guessedIndex) {
-        long delta = guessedIndex - (((long) this.roc) << 16 | this.seqNum);
-
         /* update the replay bit mask */
-        if (delta > 0) {
-            replayWindow = replayWindow << delta;
-            replayWindow |= 1;
-        } else {
-            replayWindow |= (1L << delta);
-        }
+        replayWindow.update(guessedIndex);
 
         if (seqNo > seqNum) {
             //logger.debug("SRTPCryptoContext.update: Updated seq number. [{} > {}]", this.seqNum, seqNo);
@@ -693,7 +801,7 @@ public class SRTPCryptoContext {
      * @return a new SRTPCryptoContext with all relevant data set.
      */
     public SRTPCryptoContext deriveContext (long ssrc, int roc, long deriveRate) {
-        return new SRTPCryptoContext(ssrc, roc, deriveRate, masterKey, masterSalt, policy);
+        return new SRTPCryptoContext(ssrc, roc, deriveRate, masterKey, masterSalt, policy, backend);
     }
 
 }
@@ -1,7 +1,12 @@
 package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
 
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
 import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.SRTPProtectionProfile;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public enum SRTPParameters {
 
     // DTLS derived key and salt lengths for SRTP
@@ -13,7 +18,21 @@ public enum SRTPParameters {
     SRTP_AES128_CM_HMAC_SHA1_80(SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_80, SRTPPolicy.AESCM_ENCRYPTION, 16, SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 10, 14),
     SRTP_AES128_CM_HMAC_SHA1_32(SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_32, SRTPPolicy.AESCM_ENCRYPTION, 16, SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 4, 10, 14),
     SRTP_NULL_HMAC_SHA1_80(SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_80, SRTPPolicy.NULL_ENCRYPTION, 0, SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 10, 0),
-    SRTP_NULL_HMAC_SHA1_32(SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_32, SRTPPolicy.NULL_ENCRYPTION, 0, SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 4, 10, 0);
+    SRTP_NULL_HMAC_SHA1_32(SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_32, SRTPPolicy.NULL_ENCRYPTION, 0, SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 4, 10, 0),
+    // AEAD AES-GCM, http://tools.ietf.org/html/rfc7714#section-14.2
+    // No separate authentication, the 16 bytes tag is produced by the cipher, 12 bytes salt
+    SRTP_AEAD_AES_128_GCM(SRTPProtectionProfile.SRTP_AEAD_AES_128_GCM, SRTPPolicy.AESGCM_ENCRYPTION, 16, SRTPPolicy.NULL_AUTHENTICATION, 0, 16, 16, 12),
+    SRTP_AEAD_AES_256_GCM(SRTPProtectionProfile.SRTP_AEAD_AES_256_GCM, SRTPPolicy.AESGCM_ENCRYPTION, 32, SRTPPolicy.NULL_AUTHENTICATION, 0, 16, 16, 12);
+
+    /**
+     * Order of preference used when default.srtpProfiles is not configured
+     */
+    private static final SRTPParameters[] DEFAULT_PREFERENCE = {
+            SRTP_AEAD_AES_128_GCM,
+            SRTP_AEAD_AES_256_GCM,
+            SRTP_AES128_CM_HMAC_SHA1_80,
+            SRTP_AES128_CM_HMAC_SHA1_32
+    };
 
     private final int profile;
     private final int encType;
@@ -45,11 +64,74 @@ public enum SRTPParameters {
                 return SRTP_NULL_HMAC_SHA1_80;
             case SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_32:
                 return SRTP_NULL_HMAC_SHA1_32;
+            case SRTPProtectionProfile.SRTP_AEAD_AES_128_GCM:
+                return SRTP_AEAD_AES_128_GCM;
+            case SRTPProtectionProfile.SRTP_AEAD_AES_256_GCM:
+                return SRTP_AEAD_AES_256_GCM;
             default:
                 throw new IllegalArgumentException("SRTP Protection Profile value %d is not allowed for DTLS SRTP. See http://tools.ietf.org/html/rfc5764#section-4.1.2 for valid values.");
         }
     }
 
+    /**
+     * @return protection profile values of default.srtpProfiles in order of preference,
+     * unknown names are skipped and the built-in order is used if nothing is left
+     */
+    public static int[] getPreferredProfiles () {
+        String[] names = null;
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        if (defaultConfig != null) {
+            names = defaultConfig.getSrtpProfiles();
+        }
+
+        List<Integer> profiles = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    int profile = valueOf(name.trim()).getProfile();
+                    if (!profiles.contains(profile)) {
+                        profiles.add(profile);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Unknown profile name
+                }
+            }
+        }
+        if (profiles.isEmpty()) {
+            for (SRTPParameters parameters : DEFAULT_PREFERENCE) {
+                profiles.add(parameters.getProfile());
+            }
+        }
+
+        int[] result = new int[profiles.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = profiles.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Chooses the first profile of the preference that the peer offered.
+     *
+     * @param preferred protection profiles in order of preference, see getPreferredProfiles
+     * @param offered   protection profiles of the peer use_srtp extension
+     * @return chosen profile value, -1 if there is no common profile
+     */
+    public static int chooseProfile (int[] preferred, int[] offered) {
+        if (preferred == null || offered == null) {
+            return -1;
+        }
+
+        for (int profile : preferred) {
+            for (int offeredProfile : offered) {
+                if (profile == offeredProfile) {
+                    return profile;
+                }
+            }
+        }
+        return -1;
+    }
+
     public int getProfile () {
         return profile;
     }
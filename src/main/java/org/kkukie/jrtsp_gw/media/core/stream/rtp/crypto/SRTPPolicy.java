@@ -37,6 +37,12 @@ public class SRTPPolicy {
      * F8 Mode TwoFish Cipher
      */
     public static final int TWOFISHF8_ENCRYPTION = 4;
+
+    /**
+     * AEAD AES-GCM, authenticated encryption, defined in RFC 7714
+     */
+    public static final int AESGCM_ENCRYPTION = 5;
+
     /**
      * Null Authentication, no authentication
      */
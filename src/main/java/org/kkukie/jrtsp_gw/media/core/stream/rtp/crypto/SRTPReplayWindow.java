@@ -0,0 +1,124 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 1) SRTP / SRTCP 수신 패킷의 replay 검사 창 (RFC 3711 section 3.3.2)
+ * 2) 창 크기는 default.srtpReplayWindowSize 로 정하며, 64 ~ 4096 사이의 2 의 거듭제곱으로 맞춘다.
+ * 3) 비트는 long 배열에 packet index 를 창 크기로 나눈 나머지 위치에 원형으로 기록된다.
+ *    검사는 비트 하나를 읽고, 갱신은 새로 앞선 index 의 비트만 지우므로 창 크기와 무관하게 O(1) 이다. (분할 상환)
+ * 4) 거부된 패킷은 이미 받은 패킷(replay)과 창보다 오래된 패킷(too old)으로 나누어 센다.
+ * 5) 검사와 갱신은 패킷 경로의 한 스레드에서만 호출되며, 카운터는 다른 스레드에서 읽을 수 있다.
+ */
+public class SRTPReplayWindow {
+
+    public static final int MIN_SIZE = 64;
+    public static final int MAX_SIZE = 4096;
+    public static final int DEFAULT_SIZE = 1024;
+
+    public static final int ACCEPTED = 0;
+    public static final int REPLAYED = 1;
+    public static final int TOO_OLD = 2;
+
+    private final int size;
+    private final long[] words;
+
+    /* Highest accepted packet index, -1 before the first packet */
+    private long top = -1;
+
+    private final AtomicLong replayedCount = new AtomicLong(0);
+    private final AtomicLong tooOldCount = new AtomicLong(0);
+
+    public SRTPReplayWindow(int size) {
+        this.size = normalizeSize(size);
+        this.words = new long[this.size / Long.SIZE];
+    }
+
+    /**
+     * @return Window size of the configuration, DEFAULT_SIZE if there is no configuration
+     */
+    public static int getConfiguredSize() {
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        if (defaultConfig == null || defaultConfig.getSrtpReplayWindowSize() <= 0) {
+            return DEFAULT_SIZE;
+        }
+        return defaultConfig.getSrtpReplayWindowSize();
+    }
+
+    /**
+     * @return Power of two between MIN_SIZE and MAX_SIZE, not smaller than the given size
+     */
+    public static int normalizeSize(int size) {
+        if (size <= MIN_SIZE) {
+            return MIN_SIZE;
+        }
+        if (size >= MAX_SIZE) {
+            return MAX_SIZE;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Checks the packet index before the packet is authenticated. Rejections are counted.
+     *
+     * @param index packet index (48 bit SRTP index or 31 bit SRTCP index)
+     * @return ACCEPTED, REPLAYED or TOO_OLD
+     */
+    public int check(long index) {
+        if (index > top) {
+            return ACCEPTED;
+        }
+
+        if (top - index >= size) {
+            tooOldCount.incrementAndGet();
+            return TOO_OLD;
+        }
+
+        int bit = (int) (index & (size - 1));
+        if ((words[bit >>> 6] & (1L << bit)) != 0) {
+            replayedCount.incrementAndGet();
+            return REPLAYED;
+        }
+        return ACCEPTED;
+    }
+
+    /**
+     * Marks the packet index as received, after the packet is authenticated.
+     */
+    public void update(long index) {
+        if (index > top) {
+            if (top < 0 || index - top >= size) {
+                Arrays.fill(words, 0L);
+            } else {
+                // Slots of the indexes between the old and the new top belong to packets not received yet
+                for (long i = top + 1; i < index; i++) {
+                    int bit = (int) (i & (size - 1));
+                    words[bit >>> 6] &= ~(1L << bit);
+                }
+            }
+            top = index;
+        } else if (top - index >= size) {
+            return;
+        }
+
+        int bit = (int) (index & (size - 1));
+        words[bit >>> 6] |= (1L << bit);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    public long getTooOldCount() {
+        return tooOldCount.get();
+    }
+
+}
@@ -38,8 +38,17 @@ public class SRTPTransformEngine implements TransformEngine {
      * @param srtcpPolicy SRTCP policy
      */
     public SRTPTransformEngine (byte[] masterKey, byte[] masterSalt, SRTPPolicy srtpPolicy, SRTPPolicy srtcpPolicy) {
-        defaultContext = new SRTPCryptoContext(0, 0, 0, masterKey, masterSalt, srtpPolicy);
-        defaultContextControl = new SRTCPCryptoContext(0, masterKey, masterSalt, srtcpPolicy);
+        this(masterKey, masterSalt, srtpPolicy, srtcpPolicy, SRTPCryptoBackend.getConfiguredBackend());
+    }
+
+    /**
+     * Construct a SRTPTransformEngine on the given SRTP crypto backend.
+     *
+     * @param backend SRTPCryptoBackend.BACKEND_JCE or SRTPCryptoBackend.BACKEND_BC
+     */
+    public SRTPTransformEngine (byte[] masterKey, byte[] masterSalt, SRTPPolicy srtpPolicy, SRTPPolicy srtcpPolicy, String backend) {
+        defaultContext = new SRTPCryptoContext(0, 0, 0, masterKey, masterSalt, srtpPolicy, backend);
+        defaultContextControl = new SRTCPCryptoContext(0, masterKey, masterSalt, srtcpPolicy, backend);
     }
 
     /**
@@ -6,7 +6,8 @@
  */
 package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
 
-import java.util.Hashtable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 
 /**
  * SRTPTransformer implements PacketTransformer and provides implementations for
@@ -23,6 +24,11 @@ import java.util.Hashtable;
  */
 public class SRTPTransformer implements PacketTransformer {
 
+    /**
+     * Contexts derived ahead for the first SSRCs of the session (audio, video)
+     */
+    private static final int SPARE_CONTEXT_COUNT = 2;
+
     private final RawPacket rawPacket;
 
     private final SRTPTransformEngine forwardEngine;
@@ -31,7 +37,12 @@ public class SRTPTransformer implements PacketTransformer {
     /**
      * All the known SSRC's corresponding SRTPCryptoContexts
      */
-    private final Hashtable<Long, SRTPCryptoContext> contexts;
+    private final SsrcContextTable<SRTPCryptoContext> contexts;
+
+    /**
+     * Contexts with derived session keys, bound to a SSRC when it is first seen
+     */
+    private final ArrayDeque<SRTPCryptoContext> spareContexts = new ArrayDeque<>(SPARE_CONTEXT_COUNT);
 
     /**
      * Constructs a SRTPTransformer object.
@@ -54,8 +65,19 @@ public class SRTPTransformer implements PacketTransformer {
     public SRTPTransformer (SRTPTransformEngine forwardEngine, SRTPTransformEngine reverseEngine) {
         this.forwardEngine = forwardEngine;
         this.reverseEngine = reverseEngine;
-        this.contexts = new Hashtable<>();
+        this.contexts = new SsrcContextTable<>();
         this.rawPacket = new RawPacket();
+
+        // The session keys do not depend on the SSRC, so the key derivation is done here
+        // (DTLS handshake thread) instead of on the first packet of each SSRC.
+        // Both directions derive with a key derivation rate of 0, so one spare serves either.
+        if (forwardEngine == reverseEngine && forwardEngine.getDefaultContext() != null) {
+            for (int i = 0; i < SPARE_CONTEXT_COUNT; i++) {
+                SRTPCryptoContext context = forwardEngine.getDefaultContext().deriveContext(0, 0, 0);
+                context.deriveSrtpKeys(0);
+                spareContexts.add(context);
+            }
+        }
     }
 
     public byte[] transform (byte[] pkt) {
@@ -70,13 +92,18 @@ public class SRTPTransformer implements PacketTransformer {
         long ssrc = rawPacket.getSSRC();
         SRTPCryptoContext context = contexts.get(ssrc);
         if (context == null) {
-            context = forwardEngine.getDefaultContext().deriveContext(ssrc, 0, 0);
-            context.deriveSrtpKeys(0);
+            context = takeSpareContext(ssrc);
+            if (context == null) {
+                context = forwardEngine.getDefaultContext().deriveContext(ssrc, 0, 0);
+                context.deriveSrtpKeys(0);
+            }
             contexts.put(ssrc, context);
         }
 
         // Transform RTP packet into SRTP
-        context.transformPacket(this.rawPacket);
+        if (!context.transformPacket(this.rawPacket)) {
+            return null;
+        }
         return this.rawPacket.getData();
     }
 
@@ -95,22 +122,62 @@ public class SRTPTransformer implements PacketTransformer {
         // Wrap data into the raw packet for readable format
         this.rawPacket.wrap(pkt, offset, length);
 
+        // SRTP -> RTP
+        if (reverseTransformRawPacket()) {
+            return this.rawPacket.getData();
+        }
+
+        return null;
+    }
+
+    /**
+     * Authenticates and decrypts the packet directly in the given buffer region.
+     * The authentication tag is stripped, so the restored packet is shorter than the input.
+     *
+     * @return The length of the restored packet, or -1 if it failed authentication or replay check
+     */
+    @Override
+    public int reverseTransform (ByteBuffer pkt, int offset, int length) {
+        this.rawPacket.wrap(pkt, offset, length);
+        try {
+            return reverseTransformRawPacket() ? this.rawPacket.getLength() : -1;
+        } finally {
+            this.rawPacket.release();
+        }
+    }
+
+    private boolean reverseTransformRawPacket () {
         // Associate packet to a crypto context
         long ssrc = this.rawPacket.getSSRC();
         SRTPCryptoContext context = this.contexts.get(ssrc);
         if (context == null) {
-            context = this.reverseEngine.getDefaultContext().deriveContext(ssrc, 0, 0);
-            context.deriveSrtpKeys(this.rawPacket.getSequenceNumber());
+            context = takeSpareContext(ssrc);
+            if (context == null) {
+                context = this.reverseEngine.getDefaultContext().deriveContext(ssrc, 0, 0);
+                context.deriveSrtpKeys(this.rawPacket.getSequenceNumber());
+            }
             contexts.put(ssrc, context);
         }
 
-        // SRTP -> RTP
-        boolean reversed = context.reverseTransformPacket(this.rawPacket);
-        if (reversed) {
-            return this.rawPacket.getData();
+        return context.reverseTransformPacket(this.rawPacket);
+    }
+
+    @Override
+    public long getReplayedCount () {
+        long count = 0;
+        for (SRTPCryptoContext context : contexts.values()) {
+            count += context.getReplayedCount();
         }
+        return count;
+    }
 
-        return null;
+    @Override
+    public long getTooOldCount () {
+        long count = 0;
+        for (SRTPCryptoContext context : contexts.values()) {
+            count += context.getTooOldCount();
+        }
+        return count;
     }
 
     /**
@@ -125,13 +192,21 @@ public class SRTPTransformer implements PacketTransformer {
             reverseEngine.close();
         }
 
-        for (Long ssrc : contexts.keySet()) {
-            SRTPCryptoContext context = contexts.get(ssrc);
-            if (context != null) {
-                context.close();
-                contexts.remove(ssrc);
-            }
+        for (SRTPCryptoContext context : contexts.clear()) {
+            context.close();
+        }
+        SRTPCryptoContext spare;
+        while ((spare = spareContexts.poll()) != null) {
+            spare.close();
+        }
+    }
+
+    private SRTPCryptoContext takeSpareContext (long ssrc) {
+        SRTPCryptoContext context = spareContexts.poll();
+        if (context != null) {
+            context.setSSRC(ssrc);
         }
+        return context;
     }
 
 }
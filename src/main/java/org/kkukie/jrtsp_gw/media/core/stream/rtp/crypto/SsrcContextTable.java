@@ -0,0 +1,156 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1) SSRC(long) 를 키로 crypto context 를 찾는 open addressing (linear probing) 테이블
+ * 2) 테이블은 copy-on-write 로 유지되며, 패킷 경로의 조회는 lock, Long boxing, 할당 없이 volatile 스냅샷만 읽는다.
+ * 3) 마지막으로 찾은 SSRC 한 개를 따로 캐시하여, 같은 SSRC 가 연속되는 일반적인 경우 해시 탐색도 하지 않는다.
+ *    캐시된 항목은 자신이 속한 스냅샷이 현재 스냅샷일 때만 사용되므로, 변경 이후 이전 context 를 돌려주지 않는다.
+ * 4) 변경(put, clear)은 드물며 synchronized 로 직렬화된다. (writer 하나, reader 여럿)
+ *
+ * @param <T> SRTPCryptoContext 또는 SRTCPCryptoContext
+ */
+public class SsrcContextTable<T> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /* Immutable snapshot, replaced as a whole on every change */
+    private static final class Table {
+        private final long[] keys;
+        private final Entry[] entries;
+        private final int size;
+
+        private Table(int capacity, int size) {
+            this.keys = new long[capacity];
+            this.entries = new Entry[capacity];
+            this.size = size;
+        }
+    }
+
+    /* Entry of exactly one snapshot, so the last hit is checked against the current snapshot */
+    private static final class Entry {
+        private final long key;
+        private final Object value;
+        private final Table owner;
+
+        private Entry(long key, Object value, Table owner) {
+            this.key = key;
+            this.value = value;
+            this.owner = owner;
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY, 0);
+    private volatile Entry last = null;
+
+    /**
+     * @return Context of the SSRC, null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long ssrc) {
+        Table current = table;
+        Entry entry = last;
+        if (entry != null && entry.key == ssrc && entry.owner == current) {
+            return (T) entry.value;
+        }
+
+        int mask = current.keys.length - 1;
+        for (int i = index(ssrc, mask); ; i = (i + 1) & mask) {
+            entry = current.entries[i];
+            if (entry == null) {
+                return null;
+            }
+            if (current.keys[i] == ssrc) {
+                last = entry;
+                return (T) entry.value;
+            }
+        }
+    }
+
+    /**
+     * Adds or replaces the context of the SSRC.
+     */
+    public synchronized void put(long ssrc, T context) {
+        if (context == null) {
+            return;
+        }
+
+        Table current = table;
+        int capacity = current.keys.length;
+        // Load factor is kept under 0.5, so probing stays short
+        if ((current.size + 1) * 2 > capacity) {
+            capacity *= 2;
+        }
+
+        Table next = new Table(capacity, current.size + (contains(current, ssrc) ? 0 : 1));
+        for (Entry entry : current.entries) {
+            if (entry != null && entry.key != ssrc) {
+                insert(next, entry.key, entry.value);
+            }
+        }
+        insert(next, ssrc, context);
+
+        table = next;
+    }
+
+    /**
+     * @return Snapshot of the contexts
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> values() {
+        Table current = table;
+        List<T> values = new ArrayList<>(current.size);
+        for (Entry entry : current.entries) {
+            if (entry != null) {
+                values.add((T) entry.value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Removes every context.
+     *
+     * @return Removed contexts, to be closed by the caller
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> clear() {
+        List<T> values = values();
+        table = new Table(INITIAL_CAPACITY, 0);
+        last = null;
+        return values;
+    }
+
+    public int size() {
+        return table.size;
+    }
+
+    private static boolean contains(Table table, long ssrc) {
+        int mask = table.keys.length - 1;
+        for (int i = index(ssrc, mask); table.entries[i] != null; i = (i + 1) & mask) {
+            if (table.keys[i] == ssrc) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void insert(Table table, long ssrc, Object value) {
+        int mask = table.keys.length - 1;
+        int i = index(ssrc, mask);
+        while (table.entries[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table.keys[i] = ssrc;
+        table.entries[i] = new Entry(ssrc, value, table);
+    }
+
+    private static int index(long ssrc, int mask) {
+        // SSRCs are random, the mix only spreads sequential test values
+        long h = ssrc * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp;
+
+import io.netty.buffer.ByteBuf;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpDto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * [관리 항목]
+ * 1. 하나의 conference 에서 마지막 video key frame 이후 수신된 모든 RTP 패킷 (audio 포함, 수신 순서 유지)
+ * 2. 패킷은 relay 용 pooled 버퍼를 retain 해서 보관하며, 버퍼 내용은 변경되지 않는다.
+ * 3. 새로운 key frame (다른 RTP timestamp 의 key frame 시작 패킷)이 들어오면 이전 GOP 를 release 하고 새로 시작한다.
+ * 4. 최대 패킷 수를 넘으면 비우고 다음 key frame 까지 저장하지 않는다.
+ * 5. PLAY 직후의 Streamer 는 live 패킷 대신 snapshot 을 먼저 받아 바로 화면을 띄운다.
+ *
+ */
+public class GopCache {
+
+    private static final RtpDto[] EMPTY_SNAPSHOT = new RtpDto[0];
+
+    private final int maxPacketCount;
+    private final List<RtpDto> packets = new ArrayList<>();
+
+    private boolean hasKeyFrame = false;
+    private long keyFrameTimestamp = -1;
+
+    public GopCache(int maxPacketCount) {
+        this.maxPacketCount = maxPacketCount;
+    }
+
+    /**
+     * @param rtpBuf          Relay buffer of the packet, retained by the cache
+     * @param mediaType       Media type of the packet
+     * @param isKeyFrameStart Whether the packet starts a video key frame
+     */
+    public synchronized void add(ByteBuf rtpBuf, String mediaType, boolean isKeyFrameStart) {
+        if (maxPacketCount <= 0) {
+            return;
+        }
+
+        if (isKeyFrameStart) {
+            // A key frame can start with several packets (SPS, PPS, slices) of the same timestamp
+            long timestamp = rtpBuf.getUnsignedInt(rtpBuf.readerIndex() + 4);
+            if (!hasKeyFrame || timestamp != keyFrameTimestamp) {
+                releasePackets();
+                hasKeyFrame = true;
+                keyFrameTimestamp = timestamp;
+            }
+        }
+
+        if (!hasKeyFrame) {
+            return;
+        }
+
+        if (packets.size() >= maxPacketCount) {
+            // GOP is too long to be cached, wait for the next key frame
+            clear();
+            return;
+        }
+
+        packets.add(new RtpDto(rtpBuf.retainedDuplicate(), mediaType, isKeyFrameStart));
+    }
+
+    /**
+     * @return The cached packets in order, each buffer retained for the caller, who must release it
+     */
+    public synchronized RtpDto[] snapshot() {
+        if (packets.isEmpty()) {
+            return EMPTY_SNAPSHOT;
+        }
+
+        RtpDto[] snapshot = new RtpDto[packets.size()];
+        for (int i = 0; i < snapshot.length; i++) {
+            RtpDto rtpDto = packets.get(i);
+            snapshot[i] = new RtpDto(rtpDto.getRtpBuf().retainedDuplicate(), rtpDto.getMediaType(), rtpDto.isKeyFrameStart());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param mediaType Media type of the packet
+     * @return The first cached packet of the media type, retained for the caller who must release it, or null
+     */
+    public synchronized ByteBuf findFirstPacket(String mediaType) {
+        for (RtpDto rtpDto : packets) {
+            if (rtpDto.getMediaType().equals(mediaType)) {
+                return rtpDto.getRtpBuf().retainedDuplicate();
+            }
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return packets.size();
+    }
+
+    public synchronized void clear() {
+        releasePackets();
+        hasKeyFrame = false;
+        keyFrameTimestamp = -1;
+    }
+
+    private void releasePackets() {
+        for (RtpDto rtpDto : packets) {
+            rtpDto.getRtpBuf().release();
+        }
+        packets.clear();
+    }
+
+}
@@ -1,22 +1,31 @@
 package org.kkukie.jrtsp_gw.media.core.stream.rtsp;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelOutboundInvoker;
+import io.netty.channel.socket.DatagramPacket;
 import io.netty.handler.codec.http.DefaultHttpResponse;
-import io.netty.handler.codec.rtsp.RtspHeaderNames;
 import io.netty.handler.codec.rtsp.RtspHeaderValues;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.net.ntp.TimeStamp;
 import org.kkukie.jrtsp_gw.config.ConfigManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpPacket;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.base.MediaType;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.MulticastGroupManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.PacerTimerManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.SharedEgressPortManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.rtcp.type.regular.RtcpSenderReport;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.rtcp.type.regular.base.report.RtcpReportBlock;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.statistics.RtpRxStatistics;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.CongestionPolicy;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.MulticastGroup;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.RtpPacer;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.StreamInfo;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.UdpStream;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.network.LocalNetworkInfo;
@@ -24,24 +33,24 @@ import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.network.TargetNetworkIn
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.AudioRtpMeta;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtcpInfo;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpDto;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpHeaderRewriter;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpKeyFrameDetector;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.VideoRtpMeta;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.base.RtpMeta;
 
-import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 public class Streamer {
 
-    private final int RTP_BURST_BUFFER_COUNT;
-
-    private boolean isRtpBurstDone = false;
-    private Queue<RtpDto> rtpBurstBuffer;
+    /* Clock rates used until the SDP rate is known */
+    private static final int AUDIO_DEFAULT_CLOCK_RATE = 48000;
+    private static final int VIDEO_CLOCK_RATE = 90000;
 
     private final StreamInfo streamInfo;
 
@@ -59,18 +68,45 @@ public class Streamer {
     private final RtpRxStatistics rtpRxStatistics;
     private boolean isNoRtp = true;
 
-    public Streamer(MediaType mediaType, String conferenceId, String sessionId, String trackId, boolean isTcp, String listenIp, int listenPort) {
-        this.RTP_BURST_BUFFER_COUNT = ConfigManager.getDefaultConfig().getRtpBurstBufferCount();
+    /* Channel number of the RTSP interleaved frame header, parsed once from the track ID */
+    private final byte tcpRtpChannel;
+    /* Channel number of the interleaved RTCP sent by the viewer, the second one of the SETUP interleaved pair */
+    private volatile int tcpRtcpChannel;
+
+    /* Set at PLAY, the next relayed packet is preceded by the GOP cache of the conference */
+    private final AtomicBoolean isGopReplayPending = new AtomicBoolean(false);
+
+    /* TCP slow consumer policy */
+    private final long tcpStallTimeout;
+    private final long tcpAudioWriteLimit;
+    private long tcpUnwritableSince = 0;
+    private boolean isTcpWaitingKeyFrame = false;
+    private final AtomicLong droppedAudioPacketCount = new AtomicLong(0);
+    private final AtomicLong droppedVideoPacketCount = new AtomicLong(0);
+
+    /* Output SSRC, sequence number and timestamp of this viewer, fixed at PLAY (RTP-Info) */
+    private final RtpHeaderRewriter rtpHeaderRewriter;
+
+    /* Adaptation to the RTCP receiver reports of the viewer */
+    private final CongestionPolicy congestionPolicy;
+    private volatile String videoCodec = null;
+    private boolean isCongestionWaitingKeyFrame = false;
+    private long congestionKeyFrameTimestamp = -1;
+    private final AtomicLong congestionDroppedPacketCount = new AtomicLong(0);
 
+    /* Egress pacer (default.pacerRatePercent > 0), created at PLAY */
+    private volatile RtpPacer rtpPacer = null;
+
+    /* Unconnected socket shared with other viewers (default.udpEgressMode=shared), selected at PLAY */
+    private volatile Channel sharedEgressChannel = null;
+
+    /* Joined multicast group (RTP/AVP;multicast), this viewer sends nothing itself */
+    private volatile MulticastGroup multicastGroup = null;
+
+    public Streamer(MediaType mediaType, String conferenceId, String sessionId, String trackId, boolean isTcp, String listenIp, int listenPort) {
         this.streamInfo = new StreamInfo(
                 mediaType, conferenceId, sessionId, trackId
         );
-        if (!isTcp) {
-            UdpStream udpStream = new UdpStream();
-            udpStream.start(getConferenceId());
-            streamInfo.setUdpStream(udpStream);
-        }
-
         this.localNetworkInfo = new LocalNetworkInfo(listenIp, listenPort, isTcp);
         this.targetNetworkInfo = new TargetNetworkInfo();
 
@@ -81,6 +117,15 @@ public class Streamer {
         this.isStarted = new AtomicBoolean(false);
 
         this.rtpRxStatistics = new RtpRxStatistics();
+        this.tcpRtpChannel = parseTcpRtpChannel(trackId);
+        this.tcpRtcpChannel = tcpRtpChannel + 1;
+        this.tcpStallTimeout = ConfigManager.getDefaultConfig().getTcpStallTimeout();
+        this.tcpAudioWriteLimit = 2L * ConfigManager.getDefaultConfig().getTcpWriteBufferHighWatermark();
+        this.congestionPolicy = new CongestionPolicy(
+                ConfigManager.getDefaultConfig().getCongestionRaiseReports(),
+                ConfigManager.getDefaultConfig().getCongestionLowerReports()
+        );
+        this.rtpHeaderRewriter = new RtpHeaderRewriter(mediaType == MediaType.AUDIO ? AUDIO_DEFAULT_CLOCK_RATE : VIDEO_CLOCK_RATE);
 
         log.debug("|Streamer({})| Streamer({}) is created. (conferenceId={}, trackId={}, localNetworkInfo={})",
                 getKey(), mediaType.getName(), conferenceId, trackId, localNetworkInfo
@@ -89,8 +134,22 @@ public class Streamer {
 
     public void open() {
         try {
+            if (isTcp() || multicastGroup != null) { return; }
+
+            if (SharedEgressPortManager.isEnabled()) {
+                openSharedEgress();
+                return;
+            }
+
+            // The UDP channels are created at PLAY, a SETUP without PLAY costs no socket
             UdpStream udpStream = streamInfo.getUdpStream();
-            if (udpStream != null) {
+            if (udpStream == null) {
+                udpStream = new UdpStream();
+                udpStream.start(getConferenceId());
+                streamInfo.setUdpStream(udpStream);
+            }
+
+            if (targetNetworkInfo.getRtpDestChannel() == null) {
                 if (udpStream.connectTargetRtpEndpoint(targetNetworkInfo)) {
                     log.debug("|Streamer({})| Success to connect the UDP Rtp endpoint. (targetNetworkInfo={})", getKey(), targetNetworkInfo);
 
@@ -108,6 +167,52 @@ public class Streamer {
         }
     }
 
+    private void openSharedEgress() {
+        if (sharedEgressChannel != null) { return; }
+
+        Channel channel = SharedEgressPortManager.getInstance().selectChannel();
+        if (channel == null) {
+            log.warn("|Streamer({})| Fail to open the shared egress. No shared socket is open.", getKey());
+            return;
+        }
+
+        openUnconnectedEgress(channel);
+
+        // Reports of this viewer arrive on the shared sockets from the client port given at SETUP
+        InetSocketAddress rtcpSourceAddress = getRtcpSourceAddress();
+        if (sharedEgressChannel != null && rtcpSourceAddress != null) {
+            SharedEgressPortManager.getInstance().registerRtcpSource(rtcpSourceAddress, getKey());
+        }
+    }
+
+    private InetSocketAddress getRtcpSourceAddress() {
+        return (targetNetworkInfo.getRtcpTargetAddress() != null) ?
+                targetNetworkInfo.getRtcpTargetAddress() : targetNetworkInfo.getRtpTargetAddress();
+    }
+
+    /**
+     * Sends through an unconnected socket to the target address, used by the shared egress and the multicast senders.
+     *
+     * @param channel Unconnected datagram channel to write to
+     */
+    public void openUnconnectedEgress(Channel channel) {
+        if (targetNetworkInfo.getDestIp() == null || targetNetworkInfo.getRtpDestPort() <= 0) {
+            log.warn("|Streamer({})| Fail to open the shared egress. Target is unknown. (targetNetworkInfo={})", getKey(), targetNetworkInfo);
+            return;
+        }
+
+        targetNetworkInfo.setRtpTargetAddress(
+                new InetSocketAddress(targetNetworkInfo.getDestIp(), targetNetworkInfo.getRtpDestPort())
+        );
+        if (targetNetworkInfo.getRtcpDestPort() > 0) {
+            targetNetworkInfo.setRtcpTargetAddress(
+                    new InetSocketAddress(targetNetworkInfo.getDestIp(), targetNetworkInfo.getRtcpDestPort())
+            );
+        }
+        sharedEgressChannel = channel;
+        log.debug("|Streamer({})| Success to open the unconnected egress. (channel={}, targetNetworkInfo={})", getKey(), channel, targetNetworkInfo);
+    }
+
     public MediaType getMediaType() {
         return streamInfo.getMediaType();
     }
@@ -128,7 +233,34 @@ public class Streamer {
         this.isStarted.set(isPaused);
     }
 
+    public MulticastGroup getMulticastGroup() {
+        return multicastGroup;
+    }
+
+    public void setMulticastGroup(MulticastGroup multicastGroup) {
+        this.multicastGroup = multicastGroup;
+    }
+
     public void close() {
+        NettyChannelManager.getInstance().deleteRtcpChannel(getKey());
+
+        if (sharedEgressChannel != null) {
+            SharedEgressPortManager.getInstance().unregisterRtcpSource(getRtcpSourceAddress(), getKey());
+        }
+        sharedEgressChannel = null;
+
+        MulticastGroup group = multicastGroup;
+        if (group != null) {
+            multicastGroup = null;
+            MulticastGroupManager.getInstance().leave(group);
+        }
+
+        RtpPacer pacer = rtpPacer;
+        if (pacer != null) {
+            rtpPacer = null;
+            pacer.close();
+        }
+
         UdpStream udpStream = streamInfo.getUdpStream();
         if (udpStream != null) {
             udpStream.stop(targetNetworkInfo);
@@ -136,9 +268,88 @@ public class Streamer {
         }
     }
 
+    /**
+     * Fixes the first sequence number and the RTP timestamp of the next PLAY.
+     * If the GOP cache will be replayed, its first packet is the first one sent, so the mapping stays identity
+     * and the shared relay buffer is sent without copy. Otherwise the next live packet is expected.
+     *
+     * @param gopCache GOP cache of the conference, null if unknown
+     */
+    public void prepareRtpHeader(GopCache gopCache) {
+        RtpMeta rtpMeta = (streamInfo.getMediaType() == MediaType.AUDIO) ? audioRtpMeta : videoRtpMeta;
+        int nextSeq = rtpMeta.getCurSeqNum() + 1;
+        long nextTs = rtpMeta.getCurTimeStamp();
+
+        ByteBuf firstPacket = (gopCache != null) ? gopCache.findFirstPacket(streamInfo.getMediaType().getName()) : null;
+        if (firstPacket != null) {
+            try {
+                nextSeq = firstPacket.getUnsignedShort(firstPacket.readerIndex() + 2);
+                nextTs = firstPacket.getUnsignedInt(firstPacket.readerIndex() + 4);
+            } finally {
+                firstPacket.release();
+            }
+        }
+
+        rtpHeaderRewriter.prepare(nextSeq, nextTs, rtpMeta.getClockRate());
+    }
+
+    /**
+     * Creates the egress pacer of the next PLAY if pacing is enabled.
+     *
+     * @param streamerGroup Group of the conference, gives the measured bitrate to pace on (null: minimum bitrate)
+     */
+    public void preparePacer(StreamerGroup streamerGroup) {
+        if (!PacerTimerManager.isEnabled() || multicastGroup != null) {
+            return;
+        }
+
+        RtpPacer oldPacer = rtpPacer;
+        rtpPacer = new RtpPacer(getKey(), streamInfo.getMediaType().getName(), streamerGroup, ConfigManager.getDefaultConfig());
+        if (oldPacer != null) {
+            oldPacer.close();
+        }
+    }
+
+    /**
+     * @return Packets waiting in the egress pacer, 0 if pacing is disabled
+     */
+    public int getPacerQueueDepth() {
+        RtpPacer pacer = rtpPacer;
+        return (pacer != null) ? pacer.getQueueDepth() : 0;
+    }
+
+    /**
+     * @return Time the last packet waited in the egress pacer in milliseconds, 0 if pacing is disabled
+     */
+    public long getPacingDelay() {
+        RtpPacer pacer = rtpPacer;
+        return (pacer != null) ? pacer.getLastPacingDelayMs() : 0;
+    }
+
+    /**
+     * @return RTP-Info entry of this stream for the PLAY response (url, seq and rtptime of the first packet)
+     */
+    public String getRtpInfo() {
+        String trackId = (streamInfo.getMediaType() == MediaType.AUDIO) ? RtpMeta.AUDIO_TRACK_ID : RtpMeta.VIDEO_TRACK_ID;
+        MulticastGroup group = multicastGroup;
+        if (group != null) {
+            // The group is already running, the viewer joins at the next packet of the sender
+            RtpHeaderRewriter senderRewriter = group.getSender().rtpHeaderRewriter;
+            return RtspHeaderValues.URL + "=" + targetNetworkInfo.getUri() + "/" + RtpMeta.TRACK_ID_TAG + "=" + trackId
+                    + ";" + RtspHeaderValues.SEQ + "=" + senderRewriter.getNextSeq()
+                    + ";" + RtspHeaderValues.RTPTIME + "=" + senderRewriter.getLastTs();
+        }
+        return RtspHeaderValues.URL + "=" + targetNetworkInfo.getUri() + "/" + RtpMeta.TRACK_ID_TAG + "=" + trackId
+                + ";" + RtspHeaderValues.SEQ + "=" + rtpHeaderRewriter.getStartSeq()
+                + ";" + RtspHeaderValues.RTPTIME + "=" + rtpHeaderRewriter.getStartTs();
+    }
+
     public void start() {
         //rtpRxStatistics.start();
 
+        congestionPolicy.reset();
+        rtcpInfo.setCongestionLevel(CongestionPolicy.LEVEL_NORMAL);
+        isGopReplayPending.set(true);
         isStarted.set(true);
         //log.debug("|Streamer({})| Streamer is started. ({})", getKey(), this);
     }
@@ -146,12 +357,14 @@ public class Streamer {
     public void stop() {
         //rtpRxStatistics.stop();
 
-        if (rtpBurstBuffer != null) {
-            rtpBurstBuffer.clear();
-            rtpBurstBuffer = null;
+        if (droppedAudioPacketCount.get() > 0 || droppedVideoPacketCount.get() > 0) {
+            log.debug("|Streamer({})| Packets dropped for the slow consumer. (audio={}, video={})",
+                    getKey(), droppedAudioPacketCount.get(), droppedVideoPacketCount.get()
+            );
+        }
+        if (congestionDroppedPacketCount.get() > 0) {
+            log.debug("|Streamer({})| Packets dropped for the congestion. (video={})", getKey(), congestionDroppedPacketCount.get());
         }
-
-        NettyChannelManager.getInstance().deleteRtcpChannel(getKey());
 
         close();
         isStarted.set(false);
@@ -230,6 +443,21 @@ public class Streamer {
         audioRtpMeta.setCurTimeStamp(audioCurTimeStamp);
     }
 
+    public void setAudioClockRate(int audioClockRate) {
+        audioRtpMeta.setClockRate(audioClockRate);
+    }
+
+    public void setVideoClockRate(int videoClockRate) {
+        videoRtpMeta.setClockRate(videoClockRate);
+    }
+
+    /**
+     * @param videoCodec Video codec name of the RTP map, needed to find the non-reference frames
+     */
+    public void setVideoCodec(String videoCodec) {
+        this.videoCodec = videoCodec;
+    }
+
     public String getClientUserAgent() {
         return streamInfo.getClientUserAgent();
     }
@@ -272,6 +500,10 @@ public class Streamer {
         return localNetworkInfo.getListenIp();
     }
 
+    public int getListenPort() {
+        return localNetworkInfo.getListenPort();
+    }
+
     public boolean isTcp() {
         return localNetworkInfo.isTcp();
     }
@@ -283,78 +515,237 @@ public class Streamer {
             return;
         }
 
-        playResponse.headers().add(
-                RtspHeaderNames.RTP_INFO,
-                makeRtpInfoData()
-        );
         rtspChannelContext.writeAndFlush(playResponse);
         log.debug("|Streamer({})| [PLAY] > Success to send the response: {}\n", getKey(), playResponse);
     }
 
-    private String makeRtpInfoData() {
-        return RtspHeaderValues.URL + "=" + targetNetworkInfo.getUri() + "/" + RtpMeta.TRACK_ID_TAG + "=" + RtpMeta.AUDIO_TRACK_ID
-                + ";" + RtspHeaderValues.SEQ + "=" + getAudioCurSeqNum()
-                + ";" + RtspHeaderValues.RTPTIME + "=" + getAudioCurTimeStamp() + "," +
-                RtspHeaderValues.URL + "=" + targetNetworkInfo.getUri() + "/" + RtpMeta.TRACK_ID_TAG + "=" + RtpMeta.VIDEO_TRACK_ID
-                + ";" + RtspHeaderValues.SEQ + "=" + getVideoCurSeqNum()
-                + ";" + RtspHeaderValues.RTPTIME + "=" + getVideoCurTimeStamp();
-    }
+    /**
+     * @param rtpBuf          Relay buffer shared by all streamers of the conference, owned by the caller
+     * @param mediaType       Media type of the packet
+     * @param isKeyFrameStart Whether the packet starts a video key frame (see RtpKeyFrameDetector)
+     */
+    public void sendRtpPacket(ByteBuf rtpBuf, String mediaType, boolean isKeyFrameStart) {
+        send(rtpBuf, mediaType, isKeyFrameStart);
+    }
+
+    /**
+     * Sends the GOP cache once after PLAY, at line rate, so the viewer can decode from the last key frame.
+     * The cache already holds the packet being relayed, so the caller skips the live packet if this returns true.
+     *
+     * @param gopCache GOP cache of the conference
+     * @return true if the cached packets were sent
+     */
+    public boolean replayGop(GopCache gopCache) {
+        if (!isGopReplayPending.compareAndSet(true, false)) {
+            return false;
+        }
 
-    public void sendRtpPacket(RtpPacket rtpPacket, String mediaType) {
-        if (burstRtp(rtpPacket, mediaType)) { return; }
+        RtpDto[] snapshot = gopCache.snapshot();
+        if (snapshot.length == 0) {
+            return false;
+        }
 
-        send(rtpPacket, mediaType);
+        for (RtpDto rtpDto : snapshot) {
+            try {
+                send(rtpDto.getRtpBuf(), rtpDto.getMediaType(), rtpDto.isKeyFrameStart());
+            } finally {
+                rtpDto.getRtpBuf().release();
+            }
+        }
+        log.debug("|Streamer({})| GOP cache is sent. (packets={})", getKey(), snapshot.length);
+        return true;
     }
 
-    private boolean burstRtp(RtpPacket rtpPacket, String mediaType) {
-        if (!isRtpBurstDone) {
-            if (rtpBurstBuffer == null) {
-                rtpBurstBuffer = new ConcurrentLinkedQueue<>();
-            }
+    private void send(ByteBuf rtpBuf, String mediaType, boolean isKeyFrameStart) {
+        if (!streamInfo.getMediaType().getName().equals(mediaType)) {
+            return;
+        }
 
-            rtpBurstBuffer.offer(new RtpDto(rtpPacket, mediaType));
-            if (rtpBurstBuffer.size() == RTP_BURST_BUFFER_COUNT) {
-                while (!rtpBurstBuffer.isEmpty()) {
-                    RtpDto rtpDto = rtpBurstBuffer.poll();
-                    if (rtpDto == null) { continue; }
-                    send(rtpDto.getRtpPacket(), rtpDto.getMediaType());
-                }
-                rtpBurstBuffer = null;
-                isRtpBurstDone = true;
-            } else {
-                return true;
-            }
+        if (streamInfo.getMediaType() == MediaType.VIDEO && !acceptCongestedVideoPacket(rtpBuf, isKeyFrameStart)) {
+            // Not counted as a loss by the viewer
+            rtpHeaderRewriter.skip();
+            congestionDroppedPacketCount.incrementAndGet();
+            return;
         }
-        return false;
-    }
 
-    private void send(RtpPacket rtpPacket, String mediaType) {
+        boolean isRewritten = rtpHeaderRewriter.map(rtpBuf);
         if (isTcp()) {
-            sendRtpPacketWithTcp(rtpPacket);
+            sendRtpPacketWithTcp(rtpBuf, isRewritten, isKeyFrameStart);
         } else {
-            if (streamInfo.getMediaType().getName().equals(mediaType)) {
-                sendRtpPacketWithUdp(rtpPacket);
-            }
+            sendRtpPacketWithUdp(rtpBuf, isRewritten);
         }
 
         if (isNoRtp) {
             isNoRtp = false;
         }
 
-        rtpRxStatistics.calculate(rtpPacket.getRawData().length);
+        rtpRxStatistics.calculate(rtpBuf.readableBytes());
     }
 
-    public void sendRtpPacketWithTcp(RtpPacket rtpPacket) {
+    private void sendRtpPacketWithTcp(ByteBuf rtpBuf, boolean isRewritten, boolean isKeyFrameStart) {
         ChannelHandlerContext rtspChannelContext = streamInfo.getRtspChannelContext();
         if (rtspChannelContext == null) {
             return;
         }
 
-        ByteBuf rtpBuf = Unpooled.copiedBuffer(makeTcpRtpData(rtpPacket));
-        rtspChannelContext.writeAndFlush(rtpBuf);
+        if (!acceptTcpRtpPacket(rtspChannelContext.channel(), isKeyFrameStart)) {
+            return;
+        }
+
+        // FlushConsolidationHandler in the RTSP pipeline merges these flushes (default.tcpFlushCoalesceCount)
+        writeRtpData(rtspChannelContext, makeTcpRtpData(rtspChannelContext, rtpBuf, isRewritten), rtpBuf.readableBytes());
+    }
+
+    /**
+     * Slow consumer policy of the RTSP connection.
+     * 1) While the channel is not writable (write buffer above the high watermark), video is dropped
+     *    and audio is kept until the buffer reaches twice the high watermark.
+     * 2) Once video is dropped, it is dropped until the next key frame, so the viewer never decodes a broken GOP.
+     * 3) If the channel stays unwritable for default.tcpStallTimeout, the connection is closed.
+     *
+     * @return true if the packet can be written
+     */
+    private boolean acceptTcpRtpPacket(Channel channel, boolean isKeyFrameStart) {
+        boolean isAudio = streamInfo.getMediaType() == MediaType.AUDIO;
+
+        if (channel.isWritable()) {
+            tcpUnwritableSince = 0;
+        } else {
+            long now = System.currentTimeMillis();
+            if (tcpUnwritableSince == 0) {
+                tcpUnwritableSince = now;
+            } else if (tcpStallTimeout > 0 && now - tcpUnwritableSince >= tcpStallTimeout) {
+                log.warn("|Streamer({})| Close the stalled RTSP connection. (unwritable={}ms, droppedAudio={}, droppedVideo={})",
+                        getKey(), now - tcpUnwritableSince, droppedAudioPacketCount.get(), droppedVideoPacketCount.get()
+                );
+                tcpUnwritableSince = 0;
+                channel.close();
+                return false;
+            }
+
+            if (!isAudio) {
+                isTcpWaitingKeyFrame = true;
+                droppedVideoPacketCount.incrementAndGet();
+                return false;
+            }
+
+            ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+            if (outboundBuffer == null || outboundBuffer.totalPendingWriteBytes() >= tcpAudioWriteLimit) {
+                droppedAudioPacketCount.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        if (!isAudio && isTcpWaitingKeyFrame) {
+            if (!isKeyFrameStart) {
+                droppedVideoPacketCount.incrementAndGet();
+                return false;
+            }
+            isTcpWaitingKeyFrame = false;
+        }
+        return true;
+    }
+
+    /**
+     * Congestion policy of the video (see CongestionPolicy).
+     * 1) Level 1 drops the frames that no other frame refers to.
+     * 2) Level 2 sends only the key frames, level 3 sends no video.
+     * 3) Once a referenced frame is dropped, the video restarts from the next key frame.
+     *
+     * @return true if the packet can be sent
+     */
+    private boolean acceptCongestedVideoPacket(ByteBuf rtpBuf, boolean isKeyFrameStart) {
+        int level = congestionPolicy.getLevel();
+        if (level == CongestionPolicy.LEVEL_NORMAL && !isCongestionWaitingKeyFrame) {
+            return true;
+        }
+
+        if (level >= CongestionPolicy.LEVEL_AUDIO_ONLY) {
+            isCongestionWaitingKeyFrame = true;
+            return false;
+        }
+
+        long timestamp = rtpBuf.getUnsignedInt(rtpBuf.readerIndex() + 4);
+        if (isKeyFrameStart) {
+            isCongestionWaitingKeyFrame = false;
+            congestionKeyFrameTimestamp = timestamp;
+            return true;
+        }
+
+        if (level == CongestionPolicy.LEVEL_KEY_FRAME_ONLY) {
+            // The rest of the key frame has the timestamp of its first packet
+            if (timestamp == congestionKeyFrameTimestamp) {
+                return true;
+            }
+            isCongestionWaitingKeyFrame = true;
+            return false;
+        }
+
+        if (isCongestionWaitingKeyFrame) {
+            return timestamp == congestionKeyFrameTimestamp;
+        }
+
+        return level != CongestionPolicy.LEVEL_DROP_NON_REFERENCE || !RtpKeyFrameDetector.isNonReference(videoCodec, rtpBuf);
+    }
+
+    /**
+     * Applies the fraction lost of an RTCP receiver report of this viewer.
+     * At the highest level the RTSP connection is closed, which releases every streamer of the session.
+     *
+     * @param fractionLost Fraction lost of the report block, from 0 to 1
+     */
+    public void handleReceiverReport(double fractionLost) {
+        int prevLevel = congestionPolicy.getLevel();
+        int level = congestionPolicy.update(fractionLost);
+        rtcpInfo.setCongestionLevel(level);
+        if (level == prevLevel) {
+            return;
+        }
+
+        log.debug("|Streamer({})| Congestion level is changed. ({} > {}, fractionLost={}, smoothed={})",
+                getKey(), prevLevel, level, fractionLost, congestionPolicy.getSmoothedFractionLost()
+        );
+
+        if (level >= CongestionPolicy.LEVEL_DISCONNECT) {
+            ChannelHandlerContext rtspChannelContext = streamInfo.getRtspChannelContext();
+            if (rtspChannelContext != null) {
+                log.warn("|Streamer({})| Close the congested RTSP connection. (smoothedFractionLost={})",
+                        getKey(), congestionPolicy.getSmoothedFractionLost()
+                );
+                rtspChannelContext.channel().close();
+            }
+        }
+    }
+
+    /**
+     * @return SSRC of the RTP sent to this viewer, -1 before the first packet
+     */
+    public long getOutputSsrc() {
+        return rtpHeaderRewriter.getOutSsrc();
+    }
+
+    public int getTcpRtcpChannel() {
+        return tcpRtcpChannel;
     }
 
-    private byte[] makeTcpRtpData(RtpPacket rtpPacket) {
+    public void setTcpRtcpChannel(int tcpRtcpChannel) {
+        this.tcpRtcpChannel = tcpRtcpChannel;
+    }
+
+    public long getCongestionDroppedPacketCount() {
+        return congestionDroppedPacketCount.get();
+    }
+
+    public long getDroppedAudioPacketCount() {
+        return droppedAudioPacketCount.get();
+    }
+
+    public long getDroppedVideoPacketCount() {
+        return droppedVideoPacketCount.get();
+    }
+
+    private ByteBuf makeTcpRtpData(ChannelHandlerContext rtspChannelContext, ByteBuf rtpBuf, boolean isRewritten) {
         /**
          * The RTP data will be encapsulated in the following format:
          *    | magic number | channel number | Embedded data length | data |
@@ -362,49 +753,103 @@ public class Streamer {
          *    1. Magic Number - 1 byte value of hex 0X24 (RTP data identifier)
          *    2. Channel number - 1 byte value to denote the channel number-1 bytes used to indicate the channel
          *    3. The embedded date length - 2 bytes to indicate the length of the inserted data
-         *    4. RTP data (byte array)
+         *    4. RTP data (shared relay buffer, not copied)
+         *       If the RTP header is rewritten, only the 12 bytes fixed header is written next to the frame header
+         *       and the rest of the packet is still shared.
          */
 
-        byte[] rtpPacketRawData = rtpPacket.getRawData();
-        int rtpDataLength = rtpPacketRawData.length;
+        ByteBuf header = rtspChannelContext.alloc().buffer(isRewritten ? 4 + RtpHeaderRewriter.RTP_HEADER_SIZE : 4);
+        header.writeByte(StreamInfo.TCP_RTP_MAGIC_NUMBER);
+        header.writeByte(tcpRtpChannel);
+        header.writeShort(rtpBuf.readableBytes());
+
+        ByteBuf body;
+        if (isRewritten) {
+            rtpHeaderRewriter.writeHeader(rtpBuf, header);
+            body = rtpBuf.retainedSlice(
+                    rtpBuf.readerIndex() + RtpHeaderRewriter.RTP_HEADER_SIZE,
+                    rtpBuf.readableBytes() - RtpHeaderRewriter.RTP_HEADER_SIZE
+            );
+        } else {
+            body = rtpBuf.retainedDuplicate();
+        }
 
-        byte[] newRtpData = new byte[1 + 1 + 2 + rtpDataLength];
-        newRtpData[0] = StreamInfo.TCP_RTP_MAGIC_NUMBER;
-        newRtpData[1] = Byte.parseByte(streamInfo.getTrackId());
+        CompositeByteBuf tcpRtpData = rtspChannelContext.alloc().compositeBuffer(2);
+        tcpRtpData.addComponents(true, header, body);
+        return tcpRtpData;
+    }
+
+    private static byte parseTcpRtpChannel(String trackId) {
+        if (trackId == null || trackId.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            return Byte.parseByte(trackId);
+        } catch (NumberFormatException e) {
+            log.warn("|Streamer| Track ID is not a number. Interleaved channel 0 is used. (trackId={})", trackId);
+            return 0;
+        }
+    }
 
-        byte[] rtpDataLengthArray = ByteBuffer.allocate(2).putShort((short) rtpDataLength).array();
-        newRtpData[2] = rtpDataLengthArray[0];
-        newRtpData[3] = rtpDataLengthArray[1];
-        System.arraycopy(rtpPacketRawData, 0, newRtpData, 4, rtpDataLength);
-        return newRtpData;
+    /**
+     * @return Datagram payload owned by the caller, the shared relay buffer itself unless the header is rewritten
+     */
+    private ByteBuf makeUdpRtpData(Channel channel, ByteBuf rtpBuf, boolean isRewritten) {
+        if (!isRewritten) {
+            return rtpBuf.retainedDuplicate();
+        }
+
+        ByteBuf udpRtpData = channel.alloc().directBuffer(rtpBuf.readableBytes());
+        rtpHeaderRewriter.writeHeader(rtpBuf, udpRtpData);
+        udpRtpData.writeBytes(
+                rtpBuf,
+                rtpBuf.readerIndex() + RtpHeaderRewriter.RTP_HEADER_SIZE,
+                rtpBuf.readableBytes() - RtpHeaderRewriter.RTP_HEADER_SIZE
+        );
+        return udpRtpData;
     }
 
-    public void sendRtpPacketWithUdp(RtpPacket rtpPacket) {
+    private void sendRtpPacketWithUdp(ByteBuf rtpBuf, boolean isRewritten) {
         try {
-            ByteBuf rtpBuf = Unpooled.copiedBuffer(rtpPacket.getRawData());
             if (rtpBuf == null || rtpBuf.readableBytes() <= 0
                     || targetNetworkInfo.getDestIp() == null || targetNetworkInfo.getRtpDestPort() <= 0) {
                 return;
             }
 
+            Channel egressChannel = sharedEgressChannel;
+            if (egressChannel != null) {
+                InetSocketAddress rtpTargetAddress = targetNetworkInfo.getRtpTargetAddress();
+                if (rtpTargetAddress != null) {
+                    writeRtpData(egressChannel, new DatagramPacket(makeUdpRtpData(egressChannel, rtpBuf, isRewritten), rtpTargetAddress), rtpBuf.readableBytes());
+                }
+                return;
+            }
+
             Channel rtpDestChannel = targetNetworkInfo.getRtpDestChannel();
             if (rtpDestChannel != null) {
-                ChannelFuture channelFuture = rtpDestChannel.writeAndFlush(rtpBuf);
-                if (channelFuture == null && !isRtpDestActive()) {
-                    log.warn("|Streamer({})| Fail to send the message to rtp target. (targetNetworkInfo={})", getKey(), targetNetworkInfo);
-                } /*else {
-                    log.debug("RtpPacket: ts={}, seq={}, ssrc={} / destIp={}, rtpDestPort={}",
-                            rtpPacket.getTimestamp(), rtpPacket.getSeqNumber(), rtpPacket.getSyncSource(),
-                            targetNetworkInfo.getDestIp(), targetNetworkInfo.getRtpDestPort()
-                    );
-                    //processRtcpPacket(rtpPacket);
-                }*/
+                writeRtpData(rtpDestChannel, makeUdpRtpData(rtpDestChannel, rtpBuf, isRewritten), rtpBuf.readableBytes());
             }
         } catch (Exception e) {
             log.warn("|Streamer({})| Streamer.send.Exception", getKey(), e);
         }
     }
 
+    /**
+     * Last step of every RTP write, through the pacer if pacing is enabled.
+     *
+     * @param data  Outgoing message, owned by this call
+     * @param bytes Size of the RTP packet in the message
+     */
+    private void writeRtpData(ChannelOutboundInvoker invoker, Object data, int bytes) {
+        RtpPacer pacer = rtpPacer;
+        if (pacer != null) {
+            pacer.send(invoker, data, bytes);
+        } else {
+            invoker.writeAndFlush(data, invoker.voidPromise());
+        }
+    }
+
     private void processRtcpPacket(RtpPacket rtpPacket) {
         Channel rtcpDestChannel = targetNetworkInfo.getRtcpDestChannel();
         if (rtcpDestChannel != null) {
@@ -465,10 +910,6 @@ public class Streamer {
         return rtcpInfo.getCongestionLevel();
     }
 
-    public void setCongestionLevel(int congestionLevel) {
-        rtcpInfo.setCongestionLevel(congestionLevel);
-    }
-
     public String getTrackId() {
         return streamInfo.getTrackId();
     }
@@ -0,0 +1,102 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp;
+
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.base.MediaType;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.statistics.BitrateMeter;
+
+import java.util.Arrays;
+
+/**
+ * [관리 항목]
+ * 1. 하나의 conference 를 시청 중인 Streamer 목록
+ * 2. 목록은 copy-on-write 배열로 유지되며, RTP relay 경로는 lock 이나 할당 없이 배열을 그대로 순회한다.
+ * 3. 변경(add, remove, close)은 RtspNettyChannel 의 streamer lock 안에서만 수행된다.
+ * 4. 비어서 registry 에서 제거되면 closed 상태가 되고, 참조를 캐시한 쪽은 registry 에서 다시 가져와야 한다.
+ *
+ */
+public class StreamerGroup {
+
+    private static final Streamer[] EMPTY_STREAMERS = new Streamer[0];
+
+    private final String conferenceId;
+
+    private volatile Streamer[] streamers = EMPTY_STREAMERS;
+    private volatile boolean isClosed = false;
+    /* GOP cache of the conference, set by the relay side when it takes the group */
+    private volatile GopCache gopCache = null;
+    /* Bitrates of the conference, set by the relay side with the GOP cache and read by the pacers */
+    private volatile BitrateMeter audioBitrateMeter = null;
+    private volatile BitrateMeter videoBitrateMeter = null;
+
+    public StreamerGroup(String conferenceId) {
+        this.conferenceId = conferenceId;
+    }
+
+    public String getConferenceId() {
+        return conferenceId;
+    }
+
+    /**
+     * @return Snapshot of the streamers, must not be modified by the caller
+     */
+    public Streamer[] getStreamers() {
+        return streamers;
+    }
+
+    public GopCache getGopCache() {
+        return gopCache;
+    }
+
+    public void setGopCache(GopCache gopCache) {
+        this.gopCache = gopCache;
+    }
+
+    public void setBitrateMeters(BitrateMeter audioBitrateMeter, BitrateMeter videoBitrateMeter) {
+        this.audioBitrateMeter = audioBitrateMeter;
+        this.videoBitrateMeter = videoBitrateMeter;
+    }
+
+    /**
+     * @return Bitrate meter of the media type, or null if the relay side has not taken the group yet
+     */
+    public BitrateMeter getBitrateMeter(String mediaType) {
+        return MediaType.AUDIO.getName().equals(mediaType) ? audioBitrateMeter : videoBitrateMeter;
+    }
+
+    public boolean isEmpty() {
+        return streamers.length == 0;
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    public void add(Streamer streamer) {
+        Streamer[] current = streamers;
+        for (Streamer cur : current) {
+            if (cur == streamer) { return; }
+        }
+
+        Streamer[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = streamer;
+        streamers = next;
+    }
+
+    public void remove(Streamer streamer) {
+        Streamer[] current = streamers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == streamer) {
+                Streamer[] next = new Streamer[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                streamers = next;
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        isClosed = true;
+        streamers = EMPTY_STREAMERS;
+    }
+
+}
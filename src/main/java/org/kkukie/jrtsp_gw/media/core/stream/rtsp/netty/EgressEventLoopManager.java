@@ -0,0 +1,61 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.media.core.scheduler.ServiceScheduler;
+
+/**
+ * 1) RTSP UDP 송신 채널(UdpStream)과 RTCP 수신 채널(RtcpNettyChannel)이 공유하는 게이트웨이 전역 event loop group 을 관리한다.
+ * 2) 스레드 수는 CPU 코어 수로 고정되며, 시청자 수와 무관하다.
+ * 3) 채널을 닫아도 group 은 유지되고, 서비스 종료 시에만 shutdown 된다.
+ */
+@Slf4j
+public class EgressEventLoopManager {
+
+    private static final EgressEventLoopManager egressEventLoopManager = new EgressEventLoopManager();
+
+    private final Object LOCK = new Object();
+    private EventLoopGroup eventLoopGroup = null;
+
+    private EgressEventLoopManager() {
+        // Nothing
+    }
+
+    public static EgressEventLoopManager getInstance() {
+        return egressEventLoopManager;
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (eventLoopGroup != null) { return; }
+
+            eventLoopGroup = new NioEventLoopGroup(ServiceScheduler.POOL_SIZE, new DefaultThreadFactory("rtsp-egress"));
+            log.debug("|EgressEventLoopManager| Started. (threads={})", ServiceScheduler.POOL_SIZE);
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            if (eventLoopGroup == null) { return; }
+
+            eventLoopGroup.shutdownGracefully();
+            eventLoopGroup = null;
+            log.debug("|EgressEventLoopManager| Stopped.");
+        }
+    }
+
+    /**
+     * @return The shared event loop group, started on first use
+     */
+    public EventLoopGroup getEventLoopGroup() {
+        synchronized (LOCK) {
+            if (eventLoopGroup == null) {
+                start();
+            }
+            return eventLoopGroup;
+        }
+    }
+
+}
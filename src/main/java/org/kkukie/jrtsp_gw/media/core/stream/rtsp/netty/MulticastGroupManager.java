@@ -0,0 +1,229 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.InternetProtocolFamily;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.base.MediaType;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.SharedEgressChannelHandler;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.MulticastGroup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 1) default.multicastAddressCount 가 0 보다 크면, multicast 송신용 UDP 소켓 하나 (IP_MULTICAST_TTL = default.multicastTtl) 를 연다.
+ * 2) conference 마다 default.multicastAddressBase 부터 순서대로 그룹 주소 하나를 배정하고, 트랙마다 포트 쌍을 나눈다. (audio: multicastPort, video: multicastPort + 2)
+ * 3) (conference, track) 마다 송신 Streamer 하나만 StreamerGroup 에 등록되므로, 시청 세션 수와 무관하게 패킷은 한 번만 송신된다.
+ * 4) 세션은 SETUP 에서 join, Streamer 가 닫힐 때 leave 하며, 마지막 세션이 떠나면 송신을 멈추고 주소를 반납한다.
+ * 5) 클라이언트가 요청한 destination 은 사용하지 않는다. (SETUP 응답에 배정된 그룹 주소를 알린다)
+ */
+@Slf4j
+public class MulticastGroupManager {
+
+    public static final String MULTICAST_SESSION_ID = "multicast";
+
+    private static final MulticastGroupManager multicastGroupManager = new MulticastGroupManager();
+
+    private final Object LOCK = new Object();
+    private final SharedEgressChannelHandler channelHandler = new SharedEgressChannelHandler();
+
+    /* Key: conferenceId:trackId */
+    private final Map<String, MulticastGroup> groupMap = new HashMap<>();
+    /* Key: conferenceId, value: index of the address in the pool */
+    private final Map<String, Integer> addressIndexMap = new HashMap<>();
+
+    private Channel channel = null;
+    private long baseAddress = 0;
+    private boolean[] usedAddresses = new boolean[0];
+
+    private MulticastGroupManager() {
+        // Nothing
+    }
+
+    public static MulticastGroupManager getInstance() {
+        return multicastGroupManager;
+    }
+
+    public static boolean isEnabled() {
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        return defaultConfig != null && defaultConfig.getMulticastAddressCount() > 0;
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (channel != null) { return; }
+
+            DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+            try {
+                InetAddress base = InetAddress.getByName(defaultConfig.getMulticastAddressBase());
+                if (!base.isMulticastAddress() || base.getAddress().length != 4) {
+                    log.warn("|MulticastGroupManager| Base address is not an IPv4 multicast address. (base={})", defaultConfig.getMulticastAddressBase());
+                    return;
+                }
+                baseAddress = toLong(base.getAddress());
+                usedAddresses = new boolean[defaultConfig.getMulticastAddressCount()];
+
+                Bootstrap bootstrap = new Bootstrap();
+                bootstrap.group(EgressEventLoopManager.getInstance().getEventLoopGroup())
+                        .channelFactory(() -> new NioDatagramChannel(InternetProtocolFamily.IPv4))
+                        .option(ChannelOption.SO_SNDBUF, defaultConfig.getSendBufSize())
+                        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                        .option(ChannelOption.IP_MULTICAST_TTL, defaultConfig.getMulticastTtl())
+                        .handler(channelHandler);
+                channel = bootstrap.bind(new InetSocketAddress(defaultConfig.getLocalListenIp(), 0)).sync().channel();
+            } catch (Exception e) {
+                log.warn("|MulticastGroupManager| Fail to open the multicast socket.", e);
+                channel = null;
+                return;
+            }
+
+            log.debug("|MulticastGroupManager| Started. (base={}, count={}, port={}, ttl={})",
+                    defaultConfig.getMulticastAddressBase(), usedAddresses.length,
+                    defaultConfig.getMulticastPort(), defaultConfig.getMulticastTtl()
+            );
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            for (MulticastGroup multicastGroup : groupMap.values()) {
+                stopSender(multicastGroup);
+            }
+            groupMap.clear();
+            addressIndexMap.clear();
+            usedAddresses = new boolean[0];
+
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                log.debug("|MulticastGroupManager| Stopped.");
+            }
+        }
+    }
+
+    /**
+     * Joins a session to the multicast group of the track, the group starts to send at the first join.
+     *
+     * @return The joined group, or null if multicast is not available
+     */
+    public MulticastGroup join(MediaType mediaType, String conferenceId, String trackId) {
+        synchronized (LOCK) {
+            if (channel == null) {
+                log.warn("|MulticastGroupManager({})| Fail to join. Multicast socket is not open. (trackId={})", conferenceId, trackId);
+                return null;
+            }
+
+            String groupKey = conferenceId + ":" + trackId;
+            MulticastGroup multicastGroup = groupMap.get(groupKey);
+            if (multicastGroup != null) {
+                multicastGroup.increaseRefCount();
+                log.debug("|MulticastGroupManager({})| Session joined. ({})", conferenceId, multicastGroup);
+                return multicastGroup;
+            }
+
+            int addressIndex = takeAddressIndex(conferenceId);
+            if (addressIndex < 0) {
+                log.warn("|MulticastGroupManager({})| Fail to join. No multicast address is left. (count={})", conferenceId, usedAddresses.length);
+                return null;
+            }
+
+            DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+            String groupIp = toAddressString(baseAddress + addressIndex);
+            int rtpPort = defaultConfig.getMulticastPort() + (mediaType == MediaType.AUDIO ? 0 : 2);
+
+            Streamer sender = new Streamer(mediaType, conferenceId, MULTICAST_SESSION_ID, trackId, false, defaultConfig.getLocalListenIp(), 0);
+            sender.setDestIp(groupIp);
+            sender.setRtpDestPort(rtpPort);
+            sender.setRtcpDestPort(rtpPort + 1);
+            sender.openUnconnectedEgress(channel);
+
+            multicastGroup = new MulticastGroup(conferenceId, trackId, groupIp, rtpPort, defaultConfig.getMulticastTtl(), sender);
+            multicastGroup.increaseRefCount();
+            groupMap.put(groupKey, multicastGroup);
+
+            NettyChannelManager.getInstance().startGroupStreamer(sender);
+            log.debug("|MulticastGroupManager({})| Group is started. ({})", conferenceId, multicastGroup);
+            return multicastGroup;
+        }
+    }
+
+    /**
+     * Leaves a session from the group, the group stops to send at the last leave.
+     */
+    public void leave(MulticastGroup multicastGroup) {
+        synchronized (LOCK) {
+            String groupKey = multicastGroup.getConferenceId() + ":" + multicastGroup.getTrackId();
+            if (groupMap.get(groupKey) != multicastGroup) {
+                return;
+            }
+
+            if (multicastGroup.decreaseRefCount() > 0) {
+                log.debug("|MulticastGroupManager({})| Session left. ({})", multicastGroup.getConferenceId(), multicastGroup);
+                return;
+            }
+
+            groupMap.remove(groupKey);
+            stopSender(multicastGroup);
+            releaseAddressIndex(multicastGroup.getConferenceId());
+            log.debug("|MulticastGroupManager({})| Group is stopped. ({})", multicastGroup.getConferenceId(), multicastGroup);
+        }
+    }
+
+    private void stopSender(MulticastGroup multicastGroup) {
+        Streamer sender = multicastGroup.getSender();
+        NettyChannelManager.getInstance().stopGroupStreamer(sender);
+        sender.stop();
+    }
+
+    private int takeAddressIndex(String conferenceId) {
+        Integer addressIndex = addressIndexMap.get(conferenceId);
+        if (addressIndex != null) {
+            return addressIndex;
+        }
+
+        for (int i = 0; i < usedAddresses.length; i++) {
+            if (!usedAddresses[i]) {
+                usedAddresses[i] = true;
+                addressIndexMap.put(conferenceId, i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void releaseAddressIndex(String conferenceId) {
+        // Other tracks of the conference still use the address
+        for (MulticastGroup multicastGroup : groupMap.values()) {
+            if (multicastGroup.getConferenceId().equals(conferenceId)) {
+                return;
+            }
+        }
+
+        Integer addressIndex = addressIndexMap.remove(conferenceId);
+        if (addressIndex != null && addressIndex < usedAddresses.length) {
+            usedAddresses[addressIndex] = false;
+        }
+    }
+
+    private static long toLong(byte[] address) {
+        long value = 0;
+        for (byte b : address) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return value;
+    }
+
+    private static String toAddressString(long value) {
+        return ((value >> 24) & 0xFF) + "." + ((value >> 16) & 0xFF) + "." + ((value >> 8) & 0xFF) + "." + (value & 0xFF);
+    }
+
+}
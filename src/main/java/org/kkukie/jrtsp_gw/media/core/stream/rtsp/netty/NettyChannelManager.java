@@ -2,9 +2,11 @@ package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty;
 
 import io.netty.channel.Channel;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.StreamerGroup;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.base.MediaType;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.module.RtcpNettyChannel;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.module.RtspNettyChannel;
+import org.kkukie.jrtsp_gw.media.core.util.WebSocketPortManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -91,86 +93,91 @@ public class NettyChannelManager {
 
     ////////////////////////////////////////////////////////////////////////////////
 
-    public RtcpNettyChannel openRtcpChannel(String streamerKey, String ip, int port) {
-        if (rtcpChannelMap.get(streamerKey) != null) {
-            logger.trace("| ({}) Fail to add the rtcp channel. Key is duplicated.", streamerKey);
-            return null;
-        }
+    /**
+     * Opens the RTCP channel of a UDP viewer on a port taken from the port pool, advertised as the server RTCP port.
+     *
+     * @param streamerKey Key of the streamer the reports belong to
+     * @param ip Listen ip
+     * @return Opened channel (the existing one if the streamer has already one), null if failed
+     */
+    public RtcpNettyChannel openRtcpChannel(String streamerKey, String ip) {
+        rtcpChannelMapLock.lock();
+        try {
+            RtcpNettyChannel rtcpNettyChannel = rtcpChannelMap.get(streamerKey);
+            if (rtcpNettyChannel != null) {
+                return rtcpNettyChannel;
+            }
 
-            /*int port = WebSocketPortManager.getInstance().takePort();
-            if (port == -1) {
-                logger.warn("| Fail to add the channel. Port is full. (key={})", key);
-                return false;
-            }*/
+            int port = WebSocketPortManager.getInstance().takePort();
+            if (port <= 0) {
+                logger.warn("| ({}) Fail to add the rtcp channel. Port is full.", streamerKey);
+                return null;
+            }
 
-        RtcpNettyChannel rtcpNettyChannel = new RtcpNettyChannel(streamerKey, ip, port);
-        rtcpNettyChannel.run(ip, port);
+            rtcpNettyChannel = new RtcpNettyChannel(streamerKey, ip, port);
+            rtcpNettyChannel.run(ip, port);
 
-        // 메시지 수신용 채널 open
-        Channel channel = rtcpNettyChannel.openChannel(
-                ip,
-                port
-        );
+            // 메시지 수신용 채널 open
+            Channel channel = rtcpNettyChannel.openChannel(
+                    ip,
+                    port
+            );
 
-        if (channel == null) {
-            rtcpNettyChannel.closeChannel();
-            rtcpNettyChannel.stop();
-            logger.warn("| ({}) Fail to add the rtcp channel.", streamerKey);
-            return null;
-        }
+            if (channel == null) {
+                rtcpNettyChannel.stop();
+                WebSocketPortManager.getInstance().restorePort(port);
+                logger.warn("| ({}) Fail to add the rtcp channel. (ip={}, port={})", streamerKey, ip, port);
+                return null;
+            }
 
-        rtcpChannelMapLock.lock();
-        try {
-            rtcpChannelMap.putIfAbsent(streamerKey, rtcpNettyChannel);
+            rtcpChannelMap.put(streamerKey, rtcpNettyChannel);
+            logger.debug("| ({}) Success to add rtcp channel. (ip={}, port={})", streamerKey, ip, port);
             return rtcpNettyChannel;
         } catch (Exception e) {
-            logger.warn("| ({}) Fail to add rtcp channel (ip={}, port={}).", streamerKey, ip, port, e);
+            logger.warn("| ({}) Fail to add rtcp channel (ip={}).", streamerKey, ip, e);
             return null;
         } finally {
             rtcpChannelMapLock.unlock();
-            if (rtcpChannelMap.get(streamerKey) != null) {
-                logger.debug("| ({}) Success to add rtcp channel.", streamerKey);
-            }
         }
     }
 
     public void deleteRtcpChannel(String streamerKey) {
-        if (!rtcpChannelMap.isEmpty()) {
-            return;
+        RtcpNettyChannel rtcpNettyChannel;
+        rtcpChannelMapLock.lock();
+        try {
+            rtcpNettyChannel = rtcpChannelMap.remove(streamerKey);
+        } finally {
+            rtcpChannelMapLock.unlock();
         }
 
-        RtcpNettyChannel rtcpNettyChannel = rtcpChannelMap.get(streamerKey);
         if (rtcpNettyChannel == null) {
             return;
         }
-        rtcpNettyChannel.closeChannel();
-        rtcpNettyChannel.stop();
 
-        rtcpChannelMapLock.lock();
-        try {
-            rtcpChannelMap.remove(streamerKey);
-        } catch (Exception e) {
-            logger.warn("| ({}) Fail to close the rtcp channel.", streamerKey, e);
-        } finally {
-            rtcpChannelMapLock.unlock();
-            if (rtcpChannelMap.get(streamerKey) == null) {
-                logger.debug("| ({}) Success to close the rtcp channel.", streamerKey);
-            }
-        }
+        closeRtcpChannel(rtcpNettyChannel);
+        logger.debug("| ({}) Success to close the rtcp channel.", streamerKey);
     }
 
     public void deleteAllRtcpChannels() {
+        List<RtcpNettyChannel> rtcpNettyChannels;
         rtcpChannelMapLock.lock();
         try {
-            rtcpChannelMap.entrySet().removeIf(Objects::nonNull);
-        } catch (Exception e) {
-            logger.warn("| Fail to close all rtcp channel(s).", e);
+            rtcpNettyChannels = new ArrayList<>(rtcpChannelMap.values());
+            rtcpChannelMap.clear();
         } finally {
             rtcpChannelMapLock.unlock();
-            if (rtcpChannelMap.isEmpty()) {
-                logger.debug("| Success to close all rtcp channel(s).");
-            }
         }
+
+        for (RtcpNettyChannel rtcpNettyChannel : rtcpNettyChannels) {
+            closeRtcpChannel(rtcpNettyChannel);
+        }
+        logger.debug("| Success to close all rtcp channel(s). ({})", rtcpNettyChannels.size());
+    }
+
+    private void closeRtcpChannel(RtcpNettyChannel rtcpNettyChannel) {
+        rtcpNettyChannel.closeChannel();
+        rtcpNettyChannel.stop();
+        WebSocketPortManager.getInstance().restorePort(rtcpNettyChannel.getListenPort());
     }
 
     public RtcpNettyChannel getRtcpChannel(String streamerKey) {
@@ -186,13 +193,13 @@ public class NettyChannelManager {
 
     ////////////////////////////////////////////////////////////////////////////////
 
-    public Streamer addStreamer(MediaType mediaType, String conferenceId, String sessionId, String trackId, boolean isTcp) {
+    public Streamer addStreamer(MediaType mediaType, String conferenceId, String sessionId, String trackId, boolean isTcp, boolean isMulticast) {
         if (rtspNettyChannel == null) {
             logger.warn("({}) Fail to add the message sender. Not found the netty channel. (conferenceId={}, trackId={}", conferenceId, trackId, sessionId);
             return null;
         }
 
-        return rtspNettyChannel.addStreamer(mediaType, conferenceId, sessionId, trackId, isTcp);
+        return rtspNettyChannel.addStreamer(mediaType, conferenceId, sessionId, trackId, isTcp, isMulticast);
     }
 
     public Streamer getStreamer(String key) {
@@ -222,6 +229,23 @@ public class NettyChannelManager {
         rtspNettyChannel.startStreaming(key);
     }
 
+    public void startGroupStreamer(Streamer streamer) {
+        if (rtspNettyChannel == null) {
+            logger.warn("({}) Fail to start the group streamer. Not found the netty channel", streamer.getKey());
+            return;
+        }
+
+        rtspNettyChannel.startGroupStreamer(streamer);
+    }
+
+    public void stopGroupStreamer(Streamer streamer) {
+        if (rtspNettyChannel == null) {
+            return;
+        }
+
+        rtspNettyChannel.stopGroupStreamer(streamer);
+    }
+
     public void stopStreaming(String key) {
         if (rtspNettyChannel == null) {
             logger.warn("({}) Fail to stop to stream media. Not found the netty channel", key);
@@ -243,19 +267,35 @@ public class NettyChannelManager {
     }
 
     public List<Streamer> getStreamerListByCallId(String conferenceId) {
-        Collection<Streamer> values = rtspNettyChannel.getCloneStreamerMap().values();
-        if (!values.isEmpty()) {
-            return values.stream().filter(
-                    streamer -> {
-                        if (streamer == null) {
-                            return false;
-                        }
-                        return streamer.getConferenceId().equals(conferenceId);
-                    }
-            ).collect(Collectors.toList());
+        if (rtspNettyChannel == null) {
+            return Collections.emptyList();
         }
 
-        return Collections.emptyList();
+        StreamerGroup streamerGroup = rtspNettyChannel.findStreamerGroup(conferenceId);
+        if (streamerGroup == null || streamerGroup.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return Arrays.asList(streamerGroup.getStreamers());
+    }
+
+    /**
+     * @return conferenceId 에 해당하는 StreamerGroup, RTSP 채널이 없으면 null 반환
+     */
+    public StreamerGroup getStreamerGroup(String conferenceId) {
+        if (rtspNettyChannel == null) {
+            return null;
+        }
+
+        return rtspNettyChannel.getStreamerGroup(conferenceId);
+    }
+
+    public void releaseStreamerGroup(String conferenceId) {
+        if (rtspNettyChannel == null) {
+            return;
+        }
+
+        rtspNettyChannel.releaseStreamerGroup(conferenceId);
     }
 
     public Streamer getStreamerBySessionId(String sessionId) {
@@ -279,4 +319,79 @@ public class NettyChannelManager {
         return new ArrayList<>(cloneStreamerMap.values());
     }
 
+    /**
+     * @return 모든 Streamer 의 egress pacer 대기 패킷 수의 합, RTSP 채널이 없으면 0 반환
+     */
+    public int getTotalPacerQueueDepth() {
+        if (rtspNettyChannel == null) {
+            return 0;
+        }
+
+        int total = 0;
+        for (Streamer streamer : rtspNettyChannel.getCloneStreamerMap().values()) {
+            total += streamer.getPacerQueueDepth();
+        }
+        return total;
+    }
+
+    /**
+     * @return 모든 Streamer 의 마지막 pacing 지연(ms) 중 최대값, RTSP 채널이 없으면 0 반환
+     */
+    public long getMaxPacingDelay() {
+        if (rtspNettyChannel == null) {
+            return 0;
+        }
+
+        long max = 0;
+        for (Streamer streamer : rtspNettyChannel.getCloneStreamerMap().values()) {
+            max = Math.max(max, streamer.getPacingDelay());
+        }
+        return max;
+    }
+
+    /**
+     * @return 모든 Streamer 가 느린 TCP 시청자 때문에 버린 audio 패킷 수의 합, RTSP 채널이 없으면 0 반환
+     */
+    public long getTotalDroppedAudioPacketCount() {
+        if (rtspNettyChannel == null) {
+            return 0;
+        }
+
+        long total = 0;
+        for (Streamer streamer : rtspNettyChannel.getCloneStreamerMap().values()) {
+            total += streamer.getDroppedAudioPacketCount();
+        }
+        return total;
+    }
+
+    /**
+     * @return 모든 Streamer 가 느린 TCP 시청자 때문에 버린 video 패킷 수의 합, RTSP 채널이 없으면 0 반환
+     */
+    public long getTotalDroppedVideoPacketCount() {
+        if (rtspNettyChannel == null) {
+            return 0;
+        }
+
+        long total = 0;
+        for (Streamer streamer : rtspNettyChannel.getCloneStreamerMap().values()) {
+            total += streamer.getDroppedVideoPacketCount();
+        }
+        return total;
+    }
+
+    /**
+     * @return 모든 Streamer 가 혼잡 단계에 따라 버린 video 패킷 수의 합, RTSP 채널이 없으면 0 반환
+     */
+    public long getTotalCongestionDroppedPacketCount() {
+        if (rtspNettyChannel == null) {
+            return 0;
+        }
+
+        long total = 0;
+        for (Streamer streamer : rtspNettyChannel.getCloneStreamerMap().values()) {
+            total += streamer.getCongestionDroppedPacketCount();
+        }
+        return total;
+    }
+
 }
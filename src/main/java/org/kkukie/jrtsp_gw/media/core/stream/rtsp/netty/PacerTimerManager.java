@@ -0,0 +1,80 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1) default.pacerRatePercent 가 0 보다 크면, 모든 시청자의 RtpPacer 가 공유하는 timer wheel (스레드 1개) 을 관리한다.
+ * 2) tick 간격은 default.pacerTickInterval (ms) 이며, 시청자 수와 무관하게 스레드는 늘어나지 않는다.
+ * 3) timer 는 큐에 보낼 패킷이 남은 pacer 만 예약하므로, 대기 중인 패킷이 없으면 아무 작업도 하지 않는다.
+ */
+@Slf4j
+public class PacerTimerManager {
+
+    private static final PacerTimerManager pacerTimerManager = new PacerTimerManager();
+
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final Object LOCK = new Object();
+    private volatile HashedWheelTimer timer = null;
+
+    private PacerTimerManager() {
+        // Nothing
+    }
+
+    public static PacerTimerManager getInstance() {
+        return pacerTimerManager;
+    }
+
+    public static boolean isEnabled() {
+        return ConfigManager.getDefaultConfig().getPacerRatePercent() > 0;
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (timer != null) { return; }
+
+            int tickInterval = Math.max(1, ConfigManager.getDefaultConfig().getPacerTickInterval());
+            timer = new HashedWheelTimer(
+                    new DefaultThreadFactory("rtsp-pacer"),
+                    tickInterval, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL
+            );
+            timer.start();
+            log.debug("|PacerTimerManager| Started. (tickInterval={}ms)", tickInterval);
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            if (timer == null) { return; }
+
+            timer.stop();
+            timer = null;
+            log.debug("|PacerTimerManager| Stopped.");
+        }
+    }
+
+    /**
+     * @return Timeout of the task, or null if the timer is not running
+     */
+    public Timeout schedule(TimerTask task, long delayNanos) {
+        HashedWheelTimer curTimer = timer;
+        if (curTimer == null) {
+            return null;
+        }
+
+        try {
+            return curTimer.newTimeout(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (IllegalStateException e) {
+            // Stopped in between
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.nio.NioChannelOption;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.scheduler.ServiceScheduler;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.SharedEgressChannelHandler;
+import org.kkukie.jrtsp_gw.media.core.util.WebSocketPortManager;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1) default.udpEgressMode 가 "shared" 이면, 시작 시 WebSocketPortManager 에서 RTP, RTCP 포트를 하나씩 가져와 연결하지 않은(unconnected) UDP 소켓을 연다.
+ * 2) RTP 포트에는 egress event loop 개수만큼 SO_REUSEPORT 소켓을 열어, 각 event loop 가 자신의 소켓을 갖는다.
+ * 3) 모든 UDP 시청자는 호 별 소켓 대신 이 소켓들로 DatagramPacket(목적지 = rtpDestIp:rtpDestPort)을 송신하며, SETUP 응답의 server_port 도 이 포트를 광고한다.
+ * 4) 시청자가 보내는 RTCP 는 송신 주소(SETUP 의 destination:client_port)로 Streamer 를 찾아 RR 을 혼잡 제어에 전달한다.
+ */
+@Slf4j
+public class SharedEgressPortManager {
+
+    public static final String EGRESS_MODE_SHARED = "shared";
+
+    private static final SharedEgressPortManager sharedEgressPortManager = new SharedEgressPortManager();
+
+    private final Object LOCK = new Object();
+    private final SharedEgressChannelHandler channelHandler = new SharedEgressChannelHandler();
+    private final AtomicInteger nextChannelIndex = new AtomicInteger(0);
+    /* Source address of the viewer RTCP > Streamer key */
+    private final Map<InetSocketAddress, String> rtcpSourceMap = new ConcurrentHashMap<>();
+
+    private volatile Channel[] rtpChannels = new Channel[0];
+    private Channel rtcpChannel = null;
+    private int rtpPort = -1;
+    private int rtcpPort = -1;
+
+    private SharedEgressPortManager() {
+        // Nothing
+    }
+
+    public static SharedEgressPortManager getInstance() {
+        return sharedEgressPortManager;
+    }
+
+    /**
+     * @return true if all UDP viewers share the unconnected egress sockets
+     */
+    public static boolean isEnabled() {
+        DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+        return defaultConfig != null && EGRESS_MODE_SHARED.equalsIgnoreCase(defaultConfig.getUdpEgressMode());
+    }
+
+    public void start() {
+        synchronized (LOCK) {
+            if (rtpChannels.length > 0) { return; }
+
+            DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
+            rtpPort = WebSocketPortManager.getInstance().takePort();
+            rtcpPort = WebSocketPortManager.getInstance().takePort();
+            if (rtpPort <= 0 || rtcpPort <= 0) {
+                log.warn("|SharedEgressPortManager| Fail to take the shared egress ports. (rtpPort={}, rtcpPort={})", rtpPort, rtcpPort);
+                stop();
+                return;
+            }
+
+            Bootstrap bootstrap = new Bootstrap();
+            bootstrap.group(EgressEventLoopManager.getInstance().getEventLoopGroup())
+                    .channel(NioDatagramChannel.class)
+                    .option(ChannelOption.SO_SNDBUF, defaultConfig.getSendBufSize())
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .option(NioChannelOption.of(StandardSocketOptions.SO_REUSEPORT), true)
+                    .handler(channelHandler);
+
+            List<Channel> channels = new ArrayList<>();
+            try {
+                InetSocketAddress rtpAddress = new InetSocketAddress(defaultConfig.getLocalListenIp(), rtpPort);
+                channels.add(bootstrap.bind(rtpAddress).sync().channel());
+                // Channels are registered round-robin, so each egress event loop gets one socket
+                for (int i = 1; i < ServiceScheduler.POOL_SIZE; i++) {
+                    ChannelFuture channelFuture = bootstrap.bind(rtpAddress).await();
+                    if (!channelFuture.isSuccess()) {
+                        log.debug("|SharedEgressPortManager| SO_REUSEPORT is not available. (sockets={})", channels.size());
+                        break;
+                    }
+                    channels.add(channelFuture.channel());
+                }
+                rtcpChannel = bootstrap.bind(new InetSocketAddress(defaultConfig.getLocalListenIp(), rtcpPort)).sync().channel();
+            } catch (Exception e) {
+                log.warn("|SharedEgressPortManager| Fail to bind the shared egress sockets. (rtpPort={}, rtcpPort={})", rtpPort, rtcpPort, e);
+                for (Channel channel : channels) {
+                    channel.close();
+                }
+                stop();
+                return;
+            }
+
+            rtpChannels = channels.toArray(new Channel[0]);
+            log.debug("|SharedEgressPortManager| Started. (rtpPort={}, rtcpPort={}, sockets={})", rtpPort, rtcpPort, rtpChannels.length);
+        }
+    }
+
+    public void stop() {
+        synchronized (LOCK) {
+            for (Channel channel : rtpChannels) {
+                channel.close();
+            }
+            rtpChannels = new Channel[0];
+
+            if (rtcpChannel != null) {
+                rtcpChannel.close();
+                rtcpChannel = null;
+            }
+
+            if (rtpPort > 0) {
+                WebSocketPortManager.getInstance().restorePort(rtpPort);
+            }
+            if (rtcpPort > 0) {
+                WebSocketPortManager.getInstance().restorePort(rtcpPort);
+            }
+            rtpPort = -1;
+            rtcpPort = -1;
+            log.debug("|SharedEgressPortManager| Stopped.");
+        }
+    }
+
+    /**
+     * @return One of the shared RTP sockets (round-robin), or null if none is open
+     */
+    public Channel selectChannel() {
+        Channel[] channels = rtpChannels;
+        if (channels.length == 0) {
+            return null;
+        }
+        return channels[Math.floorMod(nextChannelIndex.getAndIncrement(), channels.length)];
+    }
+
+    /**
+     * Maps the RTCP source address of a viewer to its streamer, the address is the target learned at SETUP.
+     *
+     * @param sourceAddress RTCP address of the viewer
+     * @param streamerKey Key of the streamer
+     */
+    public void registerRtcpSource(InetSocketAddress sourceAddress, String streamerKey) {
+        if (sourceAddress == null || streamerKey == null) { return; }
+
+        String prevKey = rtcpSourceMap.put(sourceAddress, streamerKey);
+        if (prevKey != null && !prevKey.equals(streamerKey)) {
+            log.debug("|SharedEgressPortManager| RTCP source is remapped. (address={}, {} > {})", sourceAddress, prevKey, streamerKey);
+        }
+    }
+
+    public void unregisterRtcpSource(InetSocketAddress sourceAddress, String streamerKey) {
+        if (sourceAddress == null || streamerKey == null) { return; }
+
+        rtcpSourceMap.remove(sourceAddress, streamerKey);
+    }
+
+    /**
+     * @return Key of the streamer which receives from the address, or null if unknown
+     */
+    public String getStreamerKeyByRtcpSource(InetSocketAddress sourceAddress) {
+        if (sourceAddress == null) { return null; }
+
+        return rtcpSourceMap.get(sourceAddress);
+    }
+
+    public int getRtpPort() {
+        return rtpPort;
+    }
+
+    public int getRtcpPort() {
+        return rtcpPort;
+    }
+
+}
@@ -39,67 +39,58 @@ public class RtcpChannelHandler extends SimpleChannelInboundHandler<DatagramPack
 
     ////////////////////////////////////////////////////////////////////////////////
 
-    private static void handleReceiverReport(RtcpPacket rtcpPacket, Streamer streamer, long ssrc) {
+    private static void handleReceiverReport(RtcpPacket rtcpPacket, Streamer streamer) {
         RtcpReceiverReport rtcpReceiverReport = (RtcpReceiverReport) rtcpPacket.getRtcpFormat();
-        RtcpReportBlock rtcpReportBlock = rtcpReceiverReport.getReportBlockBySsrc(ssrc);
+        RtcpReportBlock rtcpReportBlock = rtcpReceiverReport.getReportBlockBySsrc(streamer.getOutputSsrc());
+        if (rtcpReportBlock == null) {
+            // The viewer receives only this stream on the port
+            rtcpReportBlock = rtcpReceiverReport.getReportBlockByIndex(0);
+        }
+
         if (rtcpReportBlock != null) {
-            float fractionLost = ((float) rtcpReportBlock.getFraction() / 100);
-            if (fractionLost >= 0 && fractionLost <= 0.01) {
-                streamer.setCongestionLevel(0);
-            } else if (fractionLost > 0.01 && fractionLost <= 0.25) {
-                streamer.setCongestionLevel(1);
-            } else if (fractionLost > 0.25 && fractionLost <= 0.5) {
-                streamer.setCongestionLevel(2);
-            } else if (fractionLost > 0.5 && fractionLost <= 0.75) {
-                streamer.setCongestionLevel(3);
-            } else {
-                streamer.setCongestionLevel(4);
-            }
+            // Fraction lost is an 8 bits fixed point number (x / 256)
+            double fractionLost = (double) (rtcpReportBlock.getFraction() & 0xFF) / 256;
+            streamer.handleReceiverReport(fractionLost);
+        }
+    }
+
+    /**
+     * Parses the RTCP of a viewer and applies its receiver report to the streamer.
+     * Shared by the per-streamer RTCP channel, the shared egress sockets and the interleaved RTSP channel.
+     *
+     * @param buf RTCP data, the reader index is not moved
+     * @param streamer Streamer the RTCP belongs to
+     */
+    public static void handleRtcp(ByteBuf buf, Streamer streamer) {
+        if (buf == null || streamer == null) {
+            return;
+        }
+
+        int readBytes = buf.readableBytes();
+        if (readBytes < RtcpHeader.LENGTH) {
+            return;
+        }
+
+        byte[] data = new byte[readBytes];
+        buf.getBytes(buf.readerIndex(), data);
+
+        RtcpPacket rtcpPacket = new RtcpPacket(data);
+        if (log.isTraceEnabled()) {
+            log.trace("|RtcpChannelHandler({})| {}", streamer.getKey(), rtcpPacket);
+        }
+
+        if (rtcpPacket.getRtcpHeader().getPacketType() == RtcpType.RECEIVER_REPORT) {
+            handleReceiverReport(rtcpPacket, streamer);
         }
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) {
         try {
-            ByteBuf buf = msg.content();
-            if (buf == null) {
-                return;
-            }
-
-            int readBytes = buf.readableBytes();
-            if (readBytes <= 0) {
-                return;
-            }
-
-            byte[] data = new byte[readBytes];
-            buf.getBytes(0, data);
-
-            //log.debug("({}) data: [{}], readBytes: [{}]", name, ByteUtil.byteArrayToHex(data), readBytes);
-
-            if (data.length >= RtcpHeader.LENGTH) {
-                RtcpPacket rtcpPacket = new RtcpPacket(data);
-                if (log.isTraceEnabled()) {
-                    log.trace("[{}] ({}) {}", streamerKey, name, rtcpPacket);
-                }
-
-                int packetType = rtcpPacket.getRtcpHeader().getPacketType();
-                if (packetType == RtcpType.RECEIVER_REPORT) {
-                    for (Streamer streamer : NettyChannelManager.getInstance().getAllStreamers()) {
-                        if (streamer == null) {
-                            continue;
-                        }
-
-                        long audioSsrc = streamer.getAudioSsrc();
-                        if (audioSsrc > 0) {
-                            handleReceiverReport(rtcpPacket, streamer, audioSsrc);
-                        }
-
-                        long videoSsrc = streamer.getVideoSsrc();
-                        if (videoSsrc > 0) {
-                            handleReceiverReport(rtcpPacket, streamer, videoSsrc);
-                        }
-                    }
-                }
+            // The RTCP port belongs to one streamer, the report never applies to other viewers
+            Streamer streamer = NettyChannelManager.getInstance().getStreamer(streamerKey);
+            if (streamer != null) {
+                handleRtcp(msg.content(), streamer);
             }
         } catch (Exception e) {
             log.warn("[{}] ({}) Fail to handle the rtcp Packet.", streamerKey, name, e);
@@ -10,6 +10,7 @@ import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.rtsp.*;
 import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 import media.core.rtsp.sdp.SdpRtp;
 import media.core.rtsp.sdp.SdpSession;
@@ -18,7 +19,11 @@ import org.kkukie.jrtsp_gw.config.DefaultConfig;
 import org.kkukie.jrtsp_gw.config.SdpConfig;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.base.MediaType;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.MulticastGroupManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.SharedEgressPortManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.module.RtcpNettyChannel;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.MulticastGroup;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.base.RtpMeta;
 import org.kkukie.jrtsp_gw.session.call.ConferenceMaster;
 import org.kkukie.jrtsp_gw.session.call.model.ConferenceInfo;
@@ -156,12 +161,32 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
                     log.warn("({}) < Unknown method: {}", name, req);
                     sendFailResponse(name, ctx, req, res, null, RtspResponseStatuses.METHOD_NOT_ALLOWED);
                 }
+            } else if (msg instanceof RtspInterleavedDecoder.InterleavedFrame) {
+                try {
+                    handleInterleavedFrame((RtspInterleavedDecoder.InterleavedFrame) msg);
+                } finally {
+                    ReferenceCountUtil.release(msg);
+                }
             }
         } catch (Exception e) {
             log.warn("({}) Fail to handle RTSP Packet.", name, e);
         }
     }
 
+    private void handleInterleavedFrame(RtspInterleavedDecoder.InterleavedFrame frame) {
+        // The viewer sends its RTCP on the second channel of each interleaved pair
+        Streamer streamer = null;
+        if (audioContextStreamer != null && audioContextStreamer.isTcp() && audioContextStreamer.getTcpRtcpChannel() == frame.getChannel()) {
+            streamer = audioContextStreamer;
+        } else if (videoContextStreamer != null && videoContextStreamer.isTcp() && videoContextStreamer.getTcpRtcpChannel() == frame.getChannel()) {
+            streamer = videoContextStreamer;
+        }
+
+        if (streamer != null) {
+            RtcpChannelHandler.handleRtcp(frame.content(), streamer);
+        }
+    }
+
     private void handleGetParameter(ChannelHandlerContext ctx, DefaultHttpRequest req, DefaultFullHttpResponse res) {
         res.setStatus(RtspResponseStatuses.OK);
         sendResponse(name, ctx, req, res);
@@ -340,9 +365,15 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
 
         String transportHeaderContent = req.headers().get(RtspHeaderNames.TRANSPORT);
         boolean isTcp = transportHeaderContent.contains(String.valueOf(RtspHeaderValues.INTERLEAVED));
+        boolean isMulticast = !isTcp && transportHeaderContent.contains(String.valueOf(RtspHeaderValues.MULTICAST));
+        if (isMulticast && !MulticastGroupManager.isEnabled()) {
+            log.warn("({}) Multicast transport is not enabled. (transport={})", name, transportHeaderContent);
+            sendFailResponse(name, ctx, req, res, curSessionId, RtspResponseStatuses.UNSUPPORTED_TRANSPORT);
+            return;
+        }
 
         String trackId = getTrackIdFromTargetUri(targetUri);
-        if (!saveStreamer(ctx, req, res, curSessionId, trackId, conferenceInfo, isTcp)) {
+        if (!saveStreamer(ctx, req, res, curSessionId, trackId, conferenceInfo, isTcp, isMulticast)) {
             return;
         }
 
@@ -368,6 +399,11 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
         // USERAGENT
         setUserAgent(req, currentContextStreamer);
 
+        if (isMulticast) {
+            setupMulticast(ctx, req, res, currentContextStreamer);
+            return;
+        }
+
         // TRANSPORT
         setRtpDestIp(ctx, transportHeaderContent, currentContextStreamer);
 
@@ -378,8 +414,8 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private boolean saveStreamer(ChannelHandlerContext ctx, DefaultHttpRequest req, DefaultFullHttpResponse res, String curSessionId, String trackId, ConferenceInfo conferenceInfo, boolean isTcp) {
-        Streamer streamer = addStreamer(conferenceInfo.getConferenceId(), curSessionId, trackId, isTcp);
+    private boolean saveStreamer(ChannelHandlerContext ctx, DefaultHttpRequest req, DefaultFullHttpResponse res, String curSessionId, String trackId, ConferenceInfo conferenceInfo, boolean isTcp, boolean isMulticast) {
+        Streamer streamer = addStreamer(conferenceInfo.getConferenceId(), curSessionId, trackId, isTcp, isMulticast);
         if (streamer == null || streamer.getTrackId() == null) {
             log.warn("({}) ({}) Streamer is not defined. (listenIp={}, listenPort={})",
                     name, curSessionId, listenIp, listenRtspPort
@@ -419,7 +455,7 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
         return conferenceInfo;
     }
 
-    private Streamer addStreamer(String conferenceId, String curSessionId, String trackId, boolean isTcp) {
+    private Streamer addStreamer(String conferenceId, String curSessionId, String trackId, boolean isTcp, boolean isMulticast) {
         // setup 요청 시마다 기존 streamer 삭제하고 새로운 streamer 생성
         Streamer streamer = NettyChannelManager.getInstance().getStreamer(
                 getStreamerKey(conferenceId, trackId, curSessionId)
@@ -433,8 +469,39 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
                 conferenceId,
                 curSessionId,
                 trackId,
-                isTcp
+                isTcp,
+                isMulticast
+        );
+    }
+
+    private void setupMulticast(ChannelHandlerContext ctx, DefaultHttpRequest req, DefaultFullHttpResponse res, Streamer streamer) {
+        // The group address is chosen by the server, a destination requested by the client is ignored
+        MulticastGroup multicastGroup = MulticastGroupManager.getInstance().join(
+                streamer.getMediaType(), streamer.getConferenceId(), streamer.getTrackId()
+        );
+        if (multicastGroup == null) {
+            // The streamer registered by saveStreamer is not used, its port is given back
+            NettyChannelManager.getInstance().deleteStreamer(streamer);
+            releaseStreamerFromContext(streamer.getKey());
+            sendFailResponse(name, ctx, req, res, streamer.getSessionId(), RtspResponseStatuses.UNSUPPORTED_TRANSPORT);
+            return;
+        }
+
+        streamer.setMulticastGroup(multicastGroup);
+        streamer.setDestIp(multicastGroup.getGroupIp());
+        streamer.setRtpDestPort(multicastGroup.getRtpPort());
+        streamer.setRtcpDestPort(multicastGroup.getRtcpPort());
+
+        res.headers().add(
+                RtspHeaderNames.TRANSPORT,
+                "RTP/AVP;" + RtspHeaderValues.MULTICAST
+                        + ";" + RtspHeaderValues.DESTINATION + "=" + multicastGroup.getGroupIp()
+                        + ";" + RtspHeaderValues.PORT + "=" + multicastGroup.getRtpPort() + "-" + multicastGroup.getRtcpPort()
+                        + ";" + RtspHeaderValues.TTL + "=" + multicastGroup.getTtl()
         );
+        sendNormalOkResponse(res, ctx, req);
+
+        log.debug("({}) ({}) Success to setup the multicast stream. ({})", name, streamer.getKey(), multicastGroup);
     }
 
     private void setupUdp(ChannelHandlerContext ctx, DefaultHttpRequest req, DefaultFullHttpResponse res, String transportHeaderContent, Streamer streamer) {
@@ -442,9 +509,22 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
             return;
         }
 
-        // Listen RTCP?
-        /*int rtcpDestPort = streamer.getRtcpDestPort();
-        NettyChannelManager.getInstance().openRtcpChannel(streamer.getKey(), streamer.getListenIp(), rtcpDestPort);*/
+        if (SharedEgressPortManager.isEnabled()) {
+            if (!transportHeaderContent.contains(RtspHeaderValues.SERVER_PORT)) {
+                // Every viewer receives from the shared egress ports
+                transportHeaderContent += ";" + RtspHeaderValues.SERVER_PORT + "="
+                        + SharedEgressPortManager.getInstance().getRtpPort() + "-" + SharedEgressPortManager.getInstance().getRtcpPort();
+            }
+        } else {
+            // The receiver reports of the viewer arrive on the advertised server RTCP port
+            RtcpNettyChannel rtcpNettyChannel = NettyChannelManager.getInstance().openRtcpChannel(streamer.getKey(), streamer.getListenIp());
+            if (rtcpNettyChannel == null) {
+                log.warn("({}) ({}) Fail to open the rtcp channel. Receiver reports are not handled.", name, streamer.getKey());
+            } else if (!transportHeaderContent.contains(RtspHeaderValues.SERVER_PORT)) {
+                transportHeaderContent += ";" + RtspHeaderValues.SERVER_PORT + "="
+                        + streamer.getListenPort() + "-" + rtcpNettyChannel.getListenPort();
+            }
+        }
 
         res.headers().add(
                 RtspHeaderNames.TRANSPORT,
@@ -505,6 +585,17 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void setupTcp(ChannelHandlerContext ctx, DefaultHttpRequest req, DefaultFullHttpResponse res, String transportHeaderContent, Streamer streamer) {
+        String interleavedString = getTransportAttribute(transportHeaderContent, RtspHeaderValues.INTERLEAVED);
+        if (interleavedString != null && interleavedString.contains("-")) {
+            try {
+                streamer.setTcpRtcpChannel(Integer.parseInt(interleavedString.substring(interleavedString.lastIndexOf("-") + 1).trim()));
+            } catch (NumberFormatException e) {
+                log.warn("({}) ({}) Fail to parse the interleaved rtcp channel. (transportHeaderContent={})",
+                        name, streamer.getKey(), transportHeaderContent
+                );
+            }
+        }
+
         res.headers().add(
                 RtspHeaderNames.TRANSPORT,
                 transportHeaderContent
@@ -618,6 +709,12 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
                     );
                 }
 
+                // Sequence number and rtptime of the first packet of each stream, fixed by startStreaming
+                res.headers().add(
+                        RtspHeaderNames.RTP_INFO,
+                        audioContextStreamer.getRtpInfo() + "," + videoContextStreamer.getRtpInfo()
+                );
+
                 Streamer streamer = NettyChannelManager.getInstance().getStreamerBySessionId(curSessionId);
                 if (streamer != null) {
                     log.debug("({}) Play response is saved in [{}]", name, streamer.getKey());
@@ -678,6 +775,12 @@ public class RtspChannelHandler extends ChannelInboundHandlerAdapter {
                     );
                 }
 
+                // Sequence number and rtptime of the first packet of each stream, fixed by startStreaming
+                res.headers().add(
+                        RtspHeaderNames.RTP_INFO,
+                        audioContextStreamer.getRtpInfo() + "," + videoContextStreamer.getRtpInfo()
+                );
+
                 // Callback
                 Streamer streamer = NettyChannelManager.getInstance().getStreamerBySessionId(curSessionId);
                 if (streamer != null) {
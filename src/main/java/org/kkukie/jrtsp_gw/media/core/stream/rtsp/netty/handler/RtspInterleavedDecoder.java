@@ -0,0 +1,125 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * @class public class RtspInterleavedDecoder extends ByteToMessageDecoder
+ * @brief RtspInterleavedDecoder class
+ * 1) TCP 시청자는 RTSP 연결로 RTCP 를 '$' + channel(1) + length(2) 형식의 interleaved frame 으로 보낸다.
+ * 2) RtspDecoder 앞에서 interleaved frame 은 InterleavedFrame 으로 분리하고, RTSP 메시지는 헤더와 Content-Length 만큼 모아서 그대로 넘긴다.
+ */
+public class RtspInterleavedDecoder extends ByteToMessageDecoder {
+
+    public static final byte INTERLEAVED_MAGIC = '$';
+    private static final int INTERLEAVED_HEADER_LENGTH = 4;
+    private static final int MAX_RTSP_HEADER_LENGTH = 8192;
+    private static final int MAX_RTSP_CONTENT_LENGTH = 65536;
+    private static final String CONTENT_LENGTH = "content-length:";
+
+    /* Body bytes of a large RTSP message which are passed to RtspDecoder without buffering */
+    private int remainingContentLength = 0;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (remainingContentLength > 0) {
+            int length = Math.min(remainingContentLength, in.readableBytes());
+            remainingContentLength -= length;
+            out.add(in.readRetainedSlice(length));
+            return;
+        }
+
+        int readerIndex = in.readerIndex();
+        if (in.getByte(readerIndex) == INTERLEAVED_MAGIC) {
+            if (in.readableBytes() < INTERLEAVED_HEADER_LENGTH) {
+                return;
+            }
+
+            int channel = in.getUnsignedByte(readerIndex + 1);
+            int length = in.getUnsignedShort(readerIndex + 2);
+            if (in.readableBytes() < INTERLEAVED_HEADER_LENGTH + length) {
+                return;
+            }
+
+            in.skipBytes(INTERLEAVED_HEADER_LENGTH);
+            out.add(new InterleavedFrame(channel, in.readRetainedSlice(length)));
+            return;
+        }
+
+        int headerEnd = findHeaderEnd(in);
+        if (headerEnd < 0) {
+            if (in.readableBytes() > MAX_RTSP_HEADER_LENGTH) {
+                // Not a RTSP message either, RtspDecoder reports it
+                out.add(in.readRetainedSlice(in.readableBytes()));
+            }
+            return;
+        }
+
+        int headerLength = headerEnd - readerIndex;
+        int contentLength = getContentLength(in.toString(readerIndex, headerLength, StandardCharsets.US_ASCII));
+        if (contentLength > MAX_RTSP_CONTENT_LENGTH) {
+            // Not buffered, RtspDecoder reads the body as it arrives
+            remainingContentLength = contentLength;
+            out.add(in.readRetainedSlice(headerLength));
+            return;
+        }
+
+        int messageLength = headerLength + contentLength;
+        if (in.readableBytes() < messageLength) {
+            return;
+        }
+
+        out.add(in.readRetainedSlice(messageLength));
+    }
+
+    /**
+     * @return Index next to the empty line which ends the RTSP header, -1 if not received yet
+     */
+    private static int findHeaderEnd(ByteBuf in) {
+        int end = Math.min(in.writerIndex(), in.readerIndex() + MAX_RTSP_HEADER_LENGTH);
+        for (int i = in.readerIndex(); i + 3 < end; i++) {
+            if (in.getByte(i) == '\r' && in.getByte(i + 1) == '\n'
+                    && in.getByte(i + 2) == '\r' && in.getByte(i + 3) == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    private static int getContentLength(String header) {
+        for (String line : header.split("\r\n")) {
+            if (line.regionMatches(true, 0, CONTENT_LENGTH, 0, CONTENT_LENGTH.length())) {
+                try {
+                    return Math.max(0, Integer.parseInt(line.substring(CONTENT_LENGTH.length()).trim()));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Payload of an interleaved frame received on the RTSP connection, released by the reader.
+     */
+    public static class InterleavedFrame extends DefaultByteBufHolder {
+
+        private final int channel;
+
+        public InterleavedFrame(int channel, ByteBuf data) {
+            super(data);
+            this.channel = channel;
+        }
+
+        public int getChannel() {
+            return channel;
+        }
+
+    }
+
+}
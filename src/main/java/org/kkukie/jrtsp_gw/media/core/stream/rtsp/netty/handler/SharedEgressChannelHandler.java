@@ -0,0 +1,55 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.SharedEgressPortManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @class public class SharedEgressChannelHandler extends ChannelInboundHandlerAdapter
+ * @brief SharedEgressChannelHandler class
+ * 모든 시청자가 공유하는 송신 소켓의 핸들러, 수신된 RTCP 는 송신 주소로 Streamer 를 찾아 RR 을 처리하고 예외가 발생해도 채널을 닫지 않는다.
+ */
+@ChannelHandler.Sharable
+public class SharedEgressChannelHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedEgressChannelHandler.class);
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        try {
+            if (!(msg instanceof DatagramPacket)) {
+                return;
+            }
+
+            // All viewers send to the same port, the sender address tells which one reports
+            DatagramPacket packet = (DatagramPacket) msg;
+            String streamerKey = SharedEgressPortManager.getInstance().getStreamerKeyByRtcpSource(packet.sender());
+            if (streamerKey == null) {
+                return;
+            }
+
+            Streamer streamer = NettyChannelManager.getInstance().getStreamer(streamerKey);
+            if (streamer != null) {
+                RtcpChannelHandler.handleRtcp(packet.content(), streamer);
+            }
+        } catch (Exception e) {
+            logger.warn("SharedEgressChannelHandler.channelRead.Exception (channel={})", ctx.channel(), e);
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // One unreachable viewer must not close the socket of all the others
+        logger.trace("SharedEgressChannelHandler.Exception (channel={}, cause={})", ctx.channel(), cause.toString());
+    }
+
+}
@@ -3,10 +3,10 @@ package org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.module;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import org.kkukie.jrtsp_gw.config.ConfigManager;
 import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.EgressEventLoopManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.RtcpChannelHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +28,6 @@ public class RtcpNettyChannel { // > UDP
     private final int listenPort;
 
     private Bootstrap b;
-    private NioEventLoopGroup group;
     /*메시지 수신용 채널 */
     private Channel serverChannel;
 
@@ -44,13 +43,11 @@ public class RtcpNettyChannel { // > UDP
 
     public void run(String ip, int port) {
         DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
-        int nioThreadCount = defaultConfig.getStreamThreadPoolSize();
         int sendBufSize = defaultConfig.getSendBufSize();
         int recvBufSize = defaultConfig.getRecvBufSize();
 
-        group = new NioEventLoopGroup(nioThreadCount);
         b = new Bootstrap();
-        b.group(group).channel(NioDatagramChannel.class)
+        b.group(EgressEventLoopManager.getInstance().getEventLoopGroup()).channel(NioDatagramChannel.class)
                 .option(ChannelOption.SO_BROADCAST, false)
                 .option(ChannelOption.SO_SNDBUF, sendBufSize)
                 .option(ChannelOption.SO_RCVBUF, recvBufSize)
@@ -70,12 +67,10 @@ public class RtcpNettyChannel { // > UDP
 
     /**
      * @fn public void stop()
-     * @brief Netty Channel 을 종료하는 함수
+     * @brief Netty Channel 을 종료하는 함수, event loop group 은 공유되므로 종료하지 않는다.
      */
     public void stop() {
-        if (group != null) {
-            group.shutdownGracefully();
-        }
+        b = null;
     }
 
     ////////////////////////////////////////////////////////////////////////////////
@@ -8,11 +8,15 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.rtsp.RtspDecoder;
 import io.netty.handler.codec.rtsp.RtspEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import org.kkukie.jrtsp_gw.config.ConfigManager;
 import org.kkukie.jrtsp_gw.config.DefaultConfig;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.StreamerGroup;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.SharedEgressPortManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.base.MediaType;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.RtspChannelHandler;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.RtspInterleavedDecoder;
 import org.kkukie.jrtsp_gw.media.core.util.WebSocketPortManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +26,7 @@ import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -38,6 +43,9 @@ public class RtspNettyChannel { // > TCP
     /* Key: To MDN, value: Streamer */
     private final HashMap<String, Streamer> streamerMap = new HashMap<>();
     private final ReentrantLock streamerMapLock = new ReentrantLock();
+    /* Streamer Index */
+    /* Key: Conference ID, value: StreamerGroup (Modified under streamerMapLock) */
+    private final ConcurrentHashMap<String, StreamerGroup> streamerGroupMap = new ConcurrentHashMap<>();
     private EventLoopGroup bossGroup = new NioEventLoopGroup();
     private ServerBootstrap b;
     /*메시지 수신용 채널 */
@@ -55,6 +63,9 @@ public class RtspNettyChannel { // > TCP
     public void run(String ip, int port) {
         DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
         int recvBufSize = defaultConfig.getRecvBufSize();
+        int tcpFlushCoalesceCount = Math.max(1, defaultConfig.getTcpFlushCoalesceCount());
+        int writeBufferHighWatermark = Math.max(1, defaultConfig.getTcpWriteBufferHighWatermark());
+        int writeBufferLowWatermark = Math.min(Math.max(0, defaultConfig.getTcpWriteBufferLowWatermark()), writeBufferHighWatermark);
 
         bossGroup = new NioEventLoopGroup();
         b = new ServerBootstrap();
@@ -64,11 +75,17 @@ public class RtspNettyChannel { // > TCP
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .option(ChannelOption.SO_REUSEADDR, true)
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 1000)
+                // Bounds the outbound buffer of each viewer, Streamer drops media while the channel is not writable
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(writeBufferLowWatermark, writeBufferHighWatermark))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel socketChannel) {
                         final ChannelPipeline pipeline = socketChannel.pipeline();
-                        pipeline.addLast(new RtspDecoder(), new RtspEncoder());
+                        // Interleaved RTP is written from the relay threads,
+                        // so flushes are merged into one event loop task per batch of writes
+                        pipeline.addLast(new FlushConsolidationHandler(tcpFlushCoalesceCount, true));
+                        // Interleaved RTCP of the viewers is split from the RTSP messages before RtspDecoder
+                        pipeline.addLast(new RtspInterleavedDecoder(), new RtspDecoder(), new RtspEncoder());
                         pipeline.addLast(
                                 new RtspChannelHandler(ip, port)
                         );
@@ -148,13 +165,26 @@ public class RtspNettyChannel { // > TCP
 
     ////////////////////////////////////////////////////////////////////////////////
 
-    public Streamer addStreamer(MediaType mediaType, String conferenceId, String sessionId, String trackId, boolean isTcp) {
+    /**
+     * @param isMulticast Viewer of a multicast group, it takes no port and receives the packets of the group sender
+     */
+    public Streamer addStreamer(MediaType mediaType, String conferenceId, String sessionId, String trackId, boolean isTcp, boolean isMulticast) {
         String key = (trackId != null && !trackId.isEmpty()) ? conferenceId + ":" + trackId + ":" + sessionId : conferenceId + ":" + sessionId;
         if (getStreamer(key) != null) {
             logger.warn("Streamer is already exist. (key={})", sessionId);
             return null;
         }
 
+        // TCP viewers use the RTSP connection and shared egress viewers use the shared port, so only the others take a port
+        int listenPort;
+        if (isTcp || isMulticast) {
+            listenPort = 0;
+        } else if (SharedEgressPortManager.isEnabled()) {
+            listenPort = SharedEgressPortManager.getInstance().getRtpPort();
+        } else {
+            listenPort = WebSocketPortManager.getInstance().takePort();
+        }
+
         streamerMapLock.lock();
         try {
             Streamer streamer = new Streamer(
@@ -163,12 +193,22 @@ public class RtspNettyChannel { // > TCP
                     sessionId,
                     trackId,
                     isTcp,
-                    listenIp, WebSocketPortManager.getInstance().takePort()
+                    listenIp, listenPort
             );
-            streamerMap.putIfAbsent(streamer.getKey(), streamer);
+            if (streamerMap.putIfAbsent(streamer.getKey(), streamer) == null) {
+                if (!isMulticast) {
+                    streamerGroupMap.computeIfAbsent(conferenceId, StreamerGroup::new).add(streamer);
+                }
+            } else {
+                restorePort(streamer);
+                return null;
+            }
             return streamer;
         } catch (Exception e) {
             logger.warn("Fail to add streamer (conferenceId={}, sessionId={}, trackId={})", conferenceId, sessionId, trackId, e);
+            if (!isTcp && !isMulticast && !SharedEgressPortManager.isEnabled() && listenPort > 0) {
+                WebSocketPortManager.getInstance().restorePort(listenPort);
+            }
             return null;
         } finally {
             streamerMapLock.unlock();
@@ -185,7 +225,10 @@ public class RtspNettyChannel { // > TCP
 
         streamerMapLock.lock();
         try {
-            streamerMap.remove(key);
+            if (streamerMap.remove(key) != null) {
+                removeFromGroup(streamer);
+                restorePort(streamer);
+            }
         } catch (Exception e) {
             logger.warn("Fail to delete the Streamer. (key={})", key, e);
         } finally {
@@ -212,7 +255,13 @@ public class RtspNettyChannel { // > TCP
 
                 streamer.close();
                 streamerMap.remove(key);
+                restorePort(streamer);
             }
+
+            for (StreamerGroup streamerGroup : streamerGroupMap.values()) {
+                streamerGroup.close();
+            }
+            streamerGroupMap.clear();
         } catch (Exception e) {
             logger.warn("Fail to delete all the Streamers.", e);
         } finally {
@@ -240,6 +289,73 @@ public class RtspNettyChannel { // > TCP
         return cloneMap;
     }
 
+    /**
+     * @param conferenceId Conference ID
+     * @return Live StreamerGroup of the conference (created if absent), never closed at the time of the call
+     * @fn public StreamerGroup getStreamerGroup (String conferenceId)
+     * @brief 지정한 conference 의 Streamer 목록을 반환하는 함수, RTP relay 경로에서 캐시해서 사용한다.
+     */
+    public StreamerGroup getStreamerGroup(String conferenceId) {
+        StreamerGroup streamerGroup = streamerGroupMap.get(conferenceId);
+        if (streamerGroup != null && !streamerGroup.isClosed()) {
+            return streamerGroup;
+        }
+
+        streamerMapLock.lock();
+        try {
+            return streamerGroupMap.computeIfAbsent(conferenceId, StreamerGroup::new);
+        } finally {
+            streamerMapLock.unlock();
+        }
+    }
+
+    /**
+     * @return StreamerGroup of the conference, or null if nobody watches it
+     */
+    public StreamerGroup findStreamerGroup(String conferenceId) {
+        return streamerGroupMap.get(conferenceId);
+    }
+
+    /**
+     * @fn public void releaseStreamerGroup (String conferenceId)
+     * @brief 지정한 conference 의 StreamerGroup 이 비어 있으면 제거하는 함수
+     */
+    public void releaseStreamerGroup(String conferenceId) {
+        streamerMapLock.lock();
+        try {
+            StreamerGroup streamerGroup = streamerGroupMap.get(conferenceId);
+            if (streamerGroup != null && streamerGroup.isEmpty()) {
+                streamerGroupMap.remove(conferenceId);
+                streamerGroup.close();
+            }
+        } finally {
+            streamerMapLock.unlock();
+        }
+    }
+
+    private void restorePort(Streamer streamer) {
+        if (streamer.isTcp() || SharedEgressPortManager.getInstance().getRtpPort() == streamer.getListenPort()) {
+            return;
+        }
+
+        if (streamer.getListenPort() > 0) {
+            WebSocketPortManager.getInstance().restorePort(streamer.getListenPort());
+        }
+    }
+
+    private void removeFromGroup(Streamer streamer) {
+        StreamerGroup streamerGroup = streamerGroupMap.get(streamer.getConferenceId());
+        if (streamerGroup == null) {
+            return;
+        }
+
+        streamerGroup.remove(streamer);
+        if (streamerGroup.isEmpty()) {
+            streamerGroupMap.remove(streamer.getConferenceId());
+            streamerGroup.close();
+        }
+    }
+
     /**
      * @param key Streamer key
      * @return 성공 시 Streamer 객체, 실패 시 null 반환
@@ -257,10 +373,41 @@ public class RtspNettyChannel { // > TCP
             return;
         }
 
+        StreamerGroup streamerGroup = findStreamerGroup(streamer.getConferenceId());
+        streamer.prepareRtpHeader(streamerGroup != null ? streamerGroup.getGopCache() : null);
+        streamer.preparePacer(streamerGroup);
         streamer.open();
         streamer.start();
     }
 
+    /**
+     * Registers a multicast group sender to the relay of its conference and starts it.
+     * The sender is not in the Streamer map, it is owned by the MulticastGroupManager.
+     */
+    public void startGroupStreamer(Streamer streamer) {
+        StreamerGroup streamerGroup;
+        streamerMapLock.lock();
+        try {
+            streamerGroup = streamerGroupMap.computeIfAbsent(streamer.getConferenceId(), StreamerGroup::new);
+            streamerGroup.add(streamer);
+        } finally {
+            streamerMapLock.unlock();
+        }
+
+        streamer.prepareRtpHeader(streamerGroup.getGopCache());
+        streamer.preparePacer(streamerGroup);
+        streamer.start();
+    }
+
+    public void stopGroupStreamer(Streamer streamer) {
+        streamerMapLock.lock();
+        try {
+            removeFromGroup(streamer);
+        } finally {
+            streamerMapLock.unlock();
+        }
+    }
+
     public void stopStreaming(String key) {
         Streamer streamer = getStreamer(key);
         if (streamer == null) {
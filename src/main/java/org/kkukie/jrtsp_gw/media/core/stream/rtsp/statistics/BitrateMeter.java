@@ -0,0 +1,40 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.statistics;
+
+/**
+ * 1) 하나의 conference 에서 수신한 한 종류의 미디어(audio 또는 video) RTP 비트레이트를 측정한다.
+ * 2) 1초 단위 window 로 측정하고, window 가 끝날 때마다 이동 평균(3/4 이전 값 + 1/4 새 값)으로 갱신한다.
+ * 3) add() 는 relay thread 하나에서만 호출되고, getBitrate() 는 어느 thread 에서나 호출할 수 있다.
+ */
+public class BitrateMeter {
+
+    private static final long WINDOW_MS = 1000;
+
+    private long windowStartMs = 0;
+    private long windowBytes = 0;
+
+    private volatile long bitrate = 0;
+
+    /**
+     * @param bytes Size of the received RTP packet
+     * @param nowMs Current time in milliseconds
+     */
+    public void add(int bytes, long nowMs) {
+        if (windowStartMs == 0) {
+            windowStartMs = nowMs;
+        } else if (nowMs - windowStartMs >= WINDOW_MS) {
+            long windowBitrate = windowBytes * 8 * 1000 / (nowMs - windowStartMs);
+            bitrate = (bitrate == 0) ? windowBitrate : (bitrate * 3 + windowBitrate) / 4;
+            windowStartMs = nowMs;
+            windowBytes = 0;
+        }
+        windowBytes += bytes;
+    }
+
+    /**
+     * @return Measured bitrate in bps, 0 until the first window ends
+     */
+    public long getBitrate() {
+        return bitrate;
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream;
+
+/**
+ * [관리 항목]
+ * 1. 하나의 Streamer (시청자) 가 보낸 RTCP receiver report 의 fraction lost 로 정한 혼잡 단계 (0 ~ 4)
+ * 2. fraction lost 는 이동 평균 (이전 값과 새 값의 평균) 으로 완화하고, 이동 평균과 마지막 report 가 모두 가리키는 단계로만 움직인다.
+ * 3. hysteresis: 더 높은 단계가 default.congestionRaiseReports 번 연속되어야 올라가고,
+ *    더 낮은 단계가 default.congestionLowerReports 번 연속되어야 한 단계씩 내려간다.
+ * 4. 단계별 동작은 Streamer 가 수행한다.
+ *    0: 정상, 1: 참조되지 않는 video frame 제외, 2: video key frame 만 송신, 3: video 중지 (audio 유지), 4: 연결 종료
+ *
+ */
+public class CongestionPolicy {
+
+    public static final int LEVEL_NORMAL = 0;
+    public static final int LEVEL_DROP_NON_REFERENCE = 1;
+    public static final int LEVEL_KEY_FRAME_ONLY = 2;
+    public static final int LEVEL_AUDIO_ONLY = 3;
+    public static final int LEVEL_DISCONNECT = 4;
+
+    private final int raiseReports;
+    private final int lowerReports;
+
+    private double smoothedFractionLost = -1;
+    private volatile int level = LEVEL_NORMAL;
+    private int raiseCount = 0;
+    private int lowerCount = 0;
+
+    /**
+     * @param raiseReports Consecutive reports above the current level to go up (0: the policy is disabled)
+     * @param lowerReports Consecutive reports below the current level to go down one level
+     */
+    public CongestionPolicy(int raiseReports, int lowerReports) {
+        this.raiseReports = raiseReports;
+        this.lowerReports = Math.max(1, lowerReports);
+    }
+
+    public boolean isEnabled() {
+        return raiseReports > 0;
+    }
+
+    /**
+     * @param fractionLost Fraction lost of the receiver report, from 0 to 1
+     * @return The congestion level after the report
+     */
+    public synchronized int update(double fractionLost) {
+        smoothedFractionLost = (smoothedFractionLost < 0) ? fractionLost : (smoothedFractionLost + fractionLost) / 2;
+        if (!isEnabled()) {
+            return level;
+        }
+
+        // Both the smoothed and the last report must agree, so one report alone never moves the level
+        int smoothedLevel = toLevel(smoothedFractionLost);
+        int reportLevel = toLevel(fractionLost);
+        if (Math.min(smoothedLevel, reportLevel) > level) {
+            lowerCount = 0;
+            if (++raiseCount >= raiseReports) {
+                raiseCount = 0;
+                level = Math.min(smoothedLevel, reportLevel);
+            }
+        } else if (Math.max(smoothedLevel, reportLevel) < level) {
+            raiseCount = 0;
+            if (++lowerCount >= lowerReports) {
+                lowerCount = 0;
+                level--;
+            }
+        } else {
+            raiseCount = 0;
+            lowerCount = 0;
+        }
+        return level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public synchronized double getSmoothedFractionLost() {
+        return Math.max(0, smoothedFractionLost);
+    }
+
+    public synchronized void reset() {
+        smoothedFractionLost = -1;
+        level = LEVEL_NORMAL;
+        raiseCount = 0;
+        lowerCount = 0;
+    }
+
+    private static int toLevel(double fractionLost) {
+        if (fractionLost <= 0.01) {
+            return LEVEL_NORMAL;
+        } else if (fractionLost <= 0.25) {
+            return LEVEL_DROP_NON_REFERENCE;
+        } else if (fractionLost <= 0.5) {
+            return LEVEL_KEY_FRAME_ONLY;
+        } else if (fractionLost <= 0.75) {
+            return LEVEL_AUDIO_ONLY;
+        }
+        return LEVEL_DISCONNECT;
+    }
+
+}
@@ -0,0 +1,85 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream;
+
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+
+/**
+ * [관리 항목]
+ * 1. 하나의 (conference, track) 을 multicast 로 송신하는 그룹 주소, 포트, TTL
+ * 2. 그룹으로 실제 RTP 를 보내는 송신 Streamer 1개 (StreamerGroup 에 등록되어 relay 를 받는다)
+ * 3. 이 그룹에 SETUP 한 RTSP 세션 수 (참조 수), 0 이 되면 MulticastGroupManager 가 송신을 멈춘다.
+ * 4. 참조 수는 MulticastGroupManager 의 lock 안에서만 변경된다.
+ *
+ */
+public class MulticastGroup {
+
+    private final String conferenceId;
+    private final String trackId;
+    private final String groupIp;
+    private final int rtpPort;
+    private final int ttl;
+    private final Streamer sender;
+
+    private int refCount = 0;
+
+    public MulticastGroup(String conferenceId, String trackId, String groupIp, int rtpPort, int ttl, Streamer sender) {
+        this.conferenceId = conferenceId;
+        this.trackId = trackId;
+        this.groupIp = groupIp;
+        this.rtpPort = rtpPort;
+        this.ttl = ttl;
+        this.sender = sender;
+    }
+
+    public String getConferenceId() {
+        return conferenceId;
+    }
+
+    public String getTrackId() {
+        return trackId;
+    }
+
+    public String getGroupIp() {
+        return groupIp;
+    }
+
+    public int getRtpPort() {
+        return rtpPort;
+    }
+
+    public int getRtcpPort() {
+        return rtpPort + 1;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public Streamer getSender() {
+        return sender;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public int increaseRefCount() {
+        return ++refCount;
+    }
+
+    public int decreaseRefCount() {
+        return --refCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MulticastGroup{" +
+                "conferenceId='" + conferenceId + '\'' +
+                ", trackId='" + trackId + '\'' +
+                ", groupIp='" + groupIp + '\'' +
+                ", rtpPort=" + rtpPort +
+                ", ttl=" + ttl +
+                ", refCount=" + refCount +
+                '}';
+    }
+
+}
@@ -0,0 +1,254 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream;
+
+import io.netty.channel.ChannelOutboundInvoker;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import lombok.extern.slf4j.Slf4j;
+import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.StreamerGroup;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.PacerTimerManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.statistics.BitrateMeter;
+
+import java.util.ArrayDeque;
+
+/**
+ * [관리 항목]
+ * 1. 하나의 Streamer (시청자) 의 송신 token bucket 과 대기 큐
+ * 2. 송신 속도는 conference 에서 측정한 해당 미디어 비트레이트의 default.pacerRatePercent % 이다. (측정 전에는 default.pacerMinBitrate)
+ * 3. 큐가 비어 있고 token 이 충분하면 바로 보내고, 아니면 큐에 넣고 공유 timer wheel (PacerTimerManager) 에 다음 송신 시점을 예약한다.
+ * 4. key frame, GOP replay 같은 burst 는 큐에서 나누어 보내지며, 큐가 default.pacerMaxQueuePackets 를 넘으면 pacing 을 포기하고 모두 보낸다. (패킷은 버리지 않는다)
+ * 5. 마지막 패킷의 pacing 지연(ms)과 큐 길이는 Streamer 를 거쳐 HA 로그와 REST (GET /pacer_stats, /{conferenceId}/pacer_stats) 로 조회된다.
+ *
+ */
+@Slf4j
+public class RtpPacer implements TimerTask {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    /* The bucket holds at least one full-size packet */
+    private static final int MIN_BUCKET_BYTES = 1500;
+
+    private final String key;
+    private final String mediaType;
+    private final StreamerGroup streamerGroup;
+
+    private final int ratePercent;
+    private final long minBitrate;
+    private final long bucketNanos;
+    private final int maxQueuePackets;
+
+    private final ArrayDeque<PacedPacket> queue = new ArrayDeque<>();
+
+    private double tokens = 0;
+    private double capacity = MIN_BUCKET_BYTES;
+    private long lastRefillNanos;
+    private boolean isScheduled = false;
+    private boolean isClosed = false;
+
+    private volatile long lastPacingDelayMs = 0;
+    private long maxPacingDelayMs = 0;
+    private long pacedPacketCount = 0;
+    private long bypassedPacketCount = 0;
+
+    /**
+     * @param key           Key of the Streamer, for logs
+     * @param mediaType     Media type of the Streamer
+     * @param streamerGroup Group of the conference, gives the measured bitrate (null: minimum bitrate only)
+     * @param defaultConfig Pacer options
+     */
+    public RtpPacer(String key, String mediaType, StreamerGroup streamerGroup, DefaultConfig defaultConfig) {
+        this.key = key;
+        this.mediaType = mediaType;
+        this.streamerGroup = streamerGroup;
+        this.ratePercent = defaultConfig.getPacerRatePercent();
+        this.minBitrate = Math.max(1, defaultConfig.getPacerMinBitrate());
+        // Two ticks of credit, so a packet can always go out on the next tick of the wheel
+        this.bucketNanos = 2L * Math.max(1, defaultConfig.getPacerTickInterval()) * 1_000_000L;
+        this.maxQueuePackets = defaultConfig.getPacerMaxQueuePackets();
+        this.lastRefillNanos = System.nanoTime();
+        this.tokens = MIN_BUCKET_BYTES;
+    }
+
+    /**
+     * Writes the data now or after the pacing delay. The ownership of the data is transferred to the pacer.
+     *
+     * @param invoker Channel or context to write to
+     * @param data    Outgoing message (ByteBuf or DatagramPacket)
+     * @param bytes   Size of the RTP packet in the message
+     */
+    public synchronized void send(ChannelOutboundInvoker invoker, Object data, int bytes) {
+        if (isClosed) {
+            ReferenceCountUtil.release(data);
+            return;
+        }
+
+        long now = System.nanoTime();
+        refill(now);
+
+        if (queue.isEmpty() && canSend(bytes)) {
+            tokens -= bytes;
+            lastPacingDelayMs = 0;
+            write(invoker, data);
+            return;
+        }
+
+        if (queue.size() >= maxQueuePackets) {
+            // Too far behind, the queue is sent at once rather than dropped
+            flushAll();
+            bypassedPacketCount++;
+            write(invoker, data);
+            return;
+        }
+
+        queue.add(new PacedPacket(invoker, data, bytes, now));
+        schedule();
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        synchronized (this) {
+            isScheduled = false;
+            if (isClosed) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            refill(now);
+
+            PacedPacket packet;
+            while ((packet = queue.peek()) != null && canSend(packet.bytes)) {
+                queue.poll();
+                tokens -= packet.bytes;
+                writePaced(packet, now);
+            }
+
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    public synchronized void close() {
+        isClosed = true;
+        for (PacedPacket packet : queue) {
+            ReferenceCountUtil.release(packet.data);
+        }
+        queue.clear();
+
+        if (pacedPacketCount > 0 || bypassedPacketCount > 0) {
+            log.debug("|RtpPacer({})| Pacer is closed. (paced={}, bypassed={}, maxDelay={}ms)",
+                    key, pacedPacketCount, bypassedPacketCount, maxPacingDelayMs
+            );
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Time the last sent packet waited in the queue, in milliseconds
+     */
+    public long getLastPacingDelayMs() {
+        return lastPacingDelayMs;
+    }
+
+    public synchronized long getMaxPacingDelayMs() {
+        return maxPacingDelayMs;
+    }
+
+    /**
+     * @return Pacing rate in bytes per second
+     */
+    private double getRate() {
+        long bitrate = 0;
+        if (streamerGroup != null) {
+            BitrateMeter bitrateMeter = streamerGroup.getBitrateMeter(mediaType);
+            if (bitrateMeter != null) {
+                bitrate = bitrateMeter.getBitrate() * ratePercent / 100;
+            }
+        }
+        return Math.max(bitrate, minBitrate) / 8.0;
+    }
+
+    private void refill(long now) {
+        double rate = getRate();
+        capacity = Math.max(MIN_BUCKET_BYTES, rate * bucketNanos / NANOS_PER_SECOND);
+        tokens = Math.min(capacity, tokens + rate * (now - lastRefillNanos) / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * A packet larger than the bucket is sent once the bucket is full, the tokens go below zero
+     */
+    private boolean canSend(int bytes) {
+        return tokens >= Math.min(bytes, capacity);
+    }
+
+    private void schedule() {
+        if (isScheduled) {
+            return;
+        }
+
+        PacedPacket head = queue.peek();
+        if (head == null) {
+            return;
+        }
+
+        long delayNanos = (long) (Math.max(0, Math.min(head.bytes, capacity) - tokens) * NANOS_PER_SECOND / getRate());
+        if (PacerTimerManager.getInstance().schedule(this, delayNanos) == null) {
+            // Timer is not running, nothing is held back
+            flushAll();
+            return;
+        }
+        isScheduled = true;
+    }
+
+    /**
+     * Sends the whole queue without waiting for the tokens, every packet is counted as bypassed
+     */
+    private void flushAll() {
+        long now = System.nanoTime();
+        PacedPacket packet;
+        while ((packet = queue.poll()) != null) {
+            updatePacingDelay(packet, now);
+            bypassedPacketCount++;
+            write(packet.invoker, packet.data);
+        }
+    }
+
+    private void writePaced(PacedPacket packet, long now) {
+        updatePacingDelay(packet, now);
+        pacedPacketCount++;
+        write(packet.invoker, packet.data);
+    }
+
+    private void updatePacingDelay(PacedPacket packet, long now) {
+        long delayMs = (now - packet.enqueuedNanos) / 1_000_000L;
+        lastPacingDelayMs = delayMs;
+        if (delayMs > maxPacingDelayMs) {
+            maxPacingDelayMs = delayMs;
+        }
+    }
+
+    private static void write(ChannelOutboundInvoker invoker, Object data) {
+        invoker.writeAndFlush(data, invoker.voidPromise());
+    }
+
+    private static class PacedPacket {
+
+        private final ChannelOutboundInvoker invoker;
+        private final Object data;
+        private final int bytes;
+        private final long enqueuedNanos;
+
+        private PacedPacket(ChannelOutboundInvoker invoker, Object data, int bytes, long enqueuedNanos) {
+            this.invoker = invoker;
+            this.data = data;
+            this.bytes = bytes;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+    }
+
+}
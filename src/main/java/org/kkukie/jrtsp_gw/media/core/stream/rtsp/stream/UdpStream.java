@@ -3,11 +3,11 @@ package org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import lombok.NoArgsConstructor;
 import org.kkukie.jrtsp_gw.config.ConfigManager;
 import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.EgressEventLoopManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.StreamerChannelHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.network.TargetNetworkInfo;
 
@@ -19,13 +19,12 @@ import java.net.UnknownHostException;
 public class UdpStream {
 
     private final Bootstrap bootstrap = new Bootstrap();
-    private NioEventLoopGroup nioEventLoopGroup = null;
 
     public void start(String conferenceId) {
         DefaultConfig defaultConfig = ConfigManager.getDefaultConfig();
 
-        nioEventLoopGroup = new NioEventLoopGroup(defaultConfig.getStreamThreadPoolSize());
-        bootstrap.group(nioEventLoopGroup).channel(NioDatagramChannel.class)
+        // Channels run on the gateway-wide egress group, so no thread is created per stream
+        bootstrap.group(EgressEventLoopManager.getInstance().getEventLoopGroup()).channel(NioDatagramChannel.class)
                 .option(ChannelOption.SO_BROADCAST, false)
                 .option(ChannelOption.SO_SNDBUF, defaultConfig.getSendBufSize())
                 .option(ChannelOption.SO_RCVBUF, defaultConfig.getRecvBufSize())
@@ -47,10 +46,6 @@ public class UdpStream {
     public void stop(TargetNetworkInfo targetNetworkInfo) {
         closeTargetRtpEndpoint(targetNetworkInfo);
         closeTargetRtcpEndpoint(targetNetworkInfo);
-
-        if (nioEventLoopGroup != null) {
-            nioEventLoopGroup.shutdownGracefully();
-        }
     }
 
     public boolean connectTargetRtpEndpoint(TargetNetworkInfo targetNetworkInfo) throws InterruptedException, UnknownHostException {
@@ -1,12 +1,14 @@
 package org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp;
 
+import io.netty.buffer.ByteBuf;
 import lombok.Data;
-import org.kkukie.jrtsp_gw.media.core.stream.rtp.RtpPacket;
 
 @Data
 public class RtpDto {
 
-    private final RtpPacket rtpPacket;
+    /* Retained view of the shared relay buffer, released after it is sent */
+    private final ByteBuf rtpBuf;
     private final String mediaType;
+    private final boolean isKeyFrameStart;
 
 }
@@ -0,0 +1,179 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * [관리 항목]
+ * 1. 하나의 Streamer (시청자) 가 보는 RTP 의 출력 SSRC, sequence offset, timestamp offset
+ * 2. PLAY 시점에 다음 출력 패킷의 seq, rtptime 을 정하고 (RTP-Info), 첫 패킷이 정확히 그 seq 로 나가도록 offset 을 맞춘다.
+ *    첫 패킷의 timestamp 가 rtptime 이후 1초 이내이면 timestamp 는 그대로 둔다. (rtptime 은 play 시작 시점의 timestamp)
+ * 3. 입력 SSRC 가 바뀌거나 seq, timestamp 가 크게 점프하면 (publisher 재접속 등) 마지막 출력 값에서 이어지도록 offset 을 다시 계산한다.
+ * 4. offset 이 모두 0 이고 SSRC 가 같으면 (identity) 호출한 쪽은 공유 relay 버퍼를 그대로 보낸다.
+ * 5. 정책에 따라 의도적으로 버린 패킷은 skip() 으로 sequence 에서 제외하여, 시청자가 손실로 보고하지 않게 한다.
+ * 6. map(), writeHeader(), skip() 은 relay thread 에서만 호출되고, prepare() 는 RTSP thread 에서 호출된다.
+ *
+ */
+public class RtpHeaderRewriter {
+
+    public static final int RTP_HEADER_SIZE = 12;
+
+    private static final int SEQ_MODULO = 0x10000;
+    private static final long TS_MASK = 0xFFFFFFFFL;
+    /* Sequence gap treated as a new source, any smaller forward or backward gap is loss or reordering */
+    private static final int MAX_SEQ_JUMP = 3000;
+    /* Timestamp gap treated as a new source, in seconds of the clock rate */
+    private static final int MAX_TS_JUMP_SECONDS = 10;
+
+    private int clockRate;
+
+    private long outSsrc = -1;
+    private int seqOffset = 0;
+    private long tsOffset = 0;
+
+    private long inSsrc = -1;
+    private int lastInSeq = 0;
+    private long lastInTs = 0;
+
+    private int lastOutSeq = 0;
+    private long lastOutTs = 0;
+    private long lastOutTimeMs = 0;
+
+    private boolean isStartPending = false;
+    private int startSeq = 0;
+    private long startTs = 0;
+
+    /* Output values of the last mapped packet, written by writeHeader() */
+    private int curOutSeq = 0;
+    private long curOutTs = 0;
+
+    public RtpHeaderRewriter(int clockRate) {
+        this.clockRate = clockRate;
+    }
+
+    /**
+     * Fixes the RTP-Info of the next PLAY, the first mapped packet after this call is sent with these values.
+     *
+     * @param nextOutSeq Sequence number of the first packet to send
+     * @param nextOutTs  RTP timestamp of the play range start
+     * @param clockRate  Clock rate of the media, ignored if not positive
+     */
+    public synchronized void prepare(int nextOutSeq, long nextOutTs, int clockRate) {
+        this.startSeq = nextOutSeq & 0xFFFF;
+        this.startTs = nextOutTs & TS_MASK;
+        this.isStartPending = true;
+        if (clockRate > 0) {
+            this.clockRate = clockRate;
+        }
+    }
+
+    /**
+     * @return SSRC of the sent packets, -1 before the first packet
+     */
+    public synchronized long getOutSsrc() {
+        return outSsrc;
+    }
+
+    public synchronized int getStartSeq() {
+        return startSeq;
+    }
+
+    public synchronized long getStartTs() {
+        return startTs;
+    }
+
+    /**
+     * @return Sequence number of the next packet to send, for a receiver joining a running stream
+     */
+    public synchronized int getNextSeq() {
+        return (isStartPending || inSsrc < 0) ? startSeq : (lastOutSeq + 1) & 0xFFFF;
+    }
+
+    /**
+     * @return RTP timestamp of the last sent packet, for a receiver joining a running stream
+     */
+    public synchronized long getLastTs() {
+        return (isStartPending || inSsrc < 0) ? startTs : lastOutTs;
+    }
+
+    /**
+     * @param rtpBuf RTP packet, from readerIndex to writerIndex (not modified)
+     * @return true if the header must be rewritten, false if the packet can be sent as it is
+     */
+    public synchronized boolean map(ByteBuf rtpBuf) {
+        int index = rtpBuf.readerIndex();
+        if (rtpBuf.readableBytes() < RTP_HEADER_SIZE) {
+            return false;
+        }
+
+        int seq = rtpBuf.getUnsignedShort(index + 2);
+        long ts = rtpBuf.getUnsignedInt(index + 4);
+        long ssrc = rtpBuf.getUnsignedInt(index + 8);
+        long now = System.currentTimeMillis();
+
+        if (outSsrc < 0) {
+            outSsrc = ssrc;
+        }
+
+        if (isStartPending) {
+            isStartPending = false;
+            seqOffset = (startSeq - seq) & 0xFFFF;
+            // rtptime of RTP-Info is the timestamp of the play range start, a first packet up to a second later keeps its own timestamp
+            long tsGap = (ts - startTs) & TS_MASK;
+            tsOffset = (tsGap <= clockRate) ? 0 : (startTs - ts) & TS_MASK;
+        } else if (inSsrc >= 0 && (ssrc != inSsrc || isDiscontinuity(seq, ts))) {
+            // Continue from the last sent packet, advanced by the wall clock time in between
+            long elapsedTicks = Math.max(1, (now - lastOutTimeMs) * clockRate / 1000);
+            seqOffset = (lastOutSeq + 1 - seq) & 0xFFFF;
+            tsOffset = (lastOutTs + elapsedTicks - ts) & TS_MASK;
+        }
+
+        inSsrc = ssrc;
+        lastInSeq = seq;
+        lastInTs = ts;
+
+        curOutSeq = (seq + seqOffset) & 0xFFFF;
+        curOutTs = (ts + tsOffset) & TS_MASK;
+        lastOutSeq = curOutSeq;
+        lastOutTs = curOutTs;
+        lastOutTimeMs = now;
+
+        return ssrc != outSsrc || seqOffset != 0 || tsOffset != 0;
+    }
+
+    /**
+     * Removes a dropped packet from the output numbering, the next packet takes its sequence number.
+     * Before the first packet of a PLAY nothing is numbered yet.
+     */
+    public synchronized void skip() {
+        if (isStartPending || inSsrc < 0) {
+            return;
+        }
+        seqOffset = (seqOffset - 1) & 0xFFFF;
+    }
+
+    private boolean isDiscontinuity(int seq, long ts) {
+        int seqGap = (seq - lastInSeq) & 0xFFFF;
+        if (seqGap > MAX_SEQ_JUMP && seqGap < SEQ_MODULO - MAX_SEQ_JUMP) {
+            return true;
+        }
+
+        long tsGap = Math.abs((int) (ts - lastInTs));
+        return clockRate > 0 && tsGap > (long) clockRate * MAX_TS_JUMP_SECONDS;
+    }
+
+    /**
+     * Writes the fixed RTP header of the last mapped packet, with the output sequence number, timestamp and SSRC.
+     *
+     * @param rtpBuf Source RTP packet given to the last map() call (not modified)
+     * @param dst    Destination buffer, 12 bytes are written
+     */
+    public synchronized void writeHeader(ByteBuf rtpBuf, ByteBuf dst) {
+        int index = rtpBuf.readerIndex();
+        dst.writeByte(rtpBuf.getByte(index));
+        dst.writeByte(rtpBuf.getByte(index + 1));
+        dst.writeShort(curOutSeq);
+        dst.writeInt((int) curOutTs);
+        dst.writeInt((int) outSsrc);
+    }
+
+}
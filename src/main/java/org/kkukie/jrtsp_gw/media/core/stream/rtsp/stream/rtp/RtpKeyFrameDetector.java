@@ -0,0 +1,159 @@
+package org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 1) RTP 패킷이 video key frame 의 시작인지 판별한다. (H.264: SPS 또는 IDR 의 첫 패킷, VP8: key frame 의 첫 패킷)
+ * 2) 지원하지 않는 코덱은 모든 패킷을 key frame 시작으로 간주한다. (key frame 대기로 영상이 멈추지 않도록)
+ * 3) 참조되지 않는 frame (H.264: nal_ref_idc 0, VP8: N bit) 의 패킷인지 판별한다. 지원하지 않는 코덱은 모두 참조 frame 으로 간주한다.
+ * 4) 버퍼의 readerIndex 와 내용은 변경하지 않는다.
+ */
+public class RtpKeyFrameDetector {
+
+    private static final int RTP_HEADER_SIZE = 12;
+
+    private static final int H264_NAL_TYPE_IDR = 5;
+    private static final int H264_NAL_TYPE_SPS = 7;
+    private static final int H264_NAL_TYPE_STAP_A = 24;
+    private static final int H264_NAL_TYPE_FU_A = 28;
+
+    private RtpKeyFrameDetector() {
+        // Nothing
+    }
+
+    /**
+     * @param codec  Video codec name of the RTP map (for example "H264/90000")
+     * @param rtpBuf RTP packet, from readerIndex to writerIndex
+     * @return true if the packet starts a key frame, or if the codec is not supported
+     */
+    public static boolean isKeyFrameStart(String codec, ByteBuf rtpBuf) {
+        if (codec == null) {
+            return true;
+        }
+
+        int payloadOffset = getPayloadOffset(rtpBuf);
+        if (payloadOffset < 0) {
+            return false;
+        }
+
+        String upperCodec = codec.toUpperCase();
+        if (upperCodec.startsWith("H264")) {
+            return isH264KeyFrameStart(rtpBuf, payloadOffset);
+        } else if (upperCodec.startsWith("VP8")) {
+            return isVp8KeyFrameStart(rtpBuf, payloadOffset);
+        }
+        return true;
+    }
+
+    /**
+     * @param codec  Video codec name of the RTP map (for example "H264/90000")
+     * @param rtpBuf RTP packet, from readerIndex to writerIndex
+     * @return true if no other frame refers to the frame of the packet, false if it does or if the codec is not supported
+     */
+    public static boolean isNonReference(String codec, ByteBuf rtpBuf) {
+        if (codec == null) {
+            return false;
+        }
+
+        int payloadOffset = getPayloadOffset(rtpBuf);
+        if (payloadOffset < 0) {
+            return false;
+        }
+
+        String upperCodec = codec.toUpperCase();
+        if (upperCodec.startsWith("H264")) {
+            // NRI of the NAL header, also of the FU-A indicator and the STAP-A header
+            return (rtpBuf.getUnsignedByte(payloadOffset) & 0x60) == 0;
+        } else if (upperCodec.startsWith("VP8")) {
+            // N bit of the payload descriptor
+            return (rtpBuf.getUnsignedByte(payloadOffset) & 0x20) != 0;
+        }
+        return false;
+    }
+
+    /**
+     * @return Absolute index of the RTP payload, or -1 if the packet is malformed
+     */
+    private static int getPayloadOffset(ByteBuf rtpBuf) {
+        int start = rtpBuf.readerIndex();
+        int end = rtpBuf.writerIndex();
+        if (end - start < RTP_HEADER_SIZE) {
+            return -1;
+        }
+
+        int firstByte = rtpBuf.getUnsignedByte(start);
+        int offset = start + RTP_HEADER_SIZE + (firstByte & 0x0F) * 4;
+        if ((firstByte & 0x10) != 0) {
+            // Header extension: 2 bytes profile, 2 bytes length in 32-bit words
+            if (offset + 4 > end) {
+                return -1;
+            }
+            offset += 4 + rtpBuf.getUnsignedShort(offset + 2) * 4;
+        }
+        return offset < end ? offset : -1;
+    }
+
+    private static boolean isH264KeyFrameStart(ByteBuf rtpBuf, int offset) {
+        int end = rtpBuf.writerIndex();
+        int nalType = rtpBuf.getUnsignedByte(offset) & 0x1F;
+
+        if (nalType == H264_NAL_TYPE_FU_A) {
+            if (offset + 1 >= end) {
+                return false;
+            }
+            int fuHeader = rtpBuf.getUnsignedByte(offset + 1);
+            // Start bit and the type of the fragmented NAL
+            return (fuHeader & 0x80) != 0 && isH264KeyNal(fuHeader & 0x1F);
+        } else if (nalType == H264_NAL_TYPE_STAP_A) {
+            // | STAP-A header | size (2) | NAL | size (2) | NAL | ...
+            int index = offset + 1;
+            while (index + 2 < end) {
+                int nalSize = rtpBuf.getUnsignedShort(index);
+                if (isH264KeyNal(rtpBuf.getUnsignedByte(index + 2) & 0x1F)) {
+                    return true;
+                }
+                index += 2 + nalSize;
+            }
+            return false;
+        }
+        return isH264KeyNal(nalType);
+    }
+
+    private static boolean isH264KeyNal(int nalType) {
+        return nalType == H264_NAL_TYPE_IDR || nalType == H264_NAL_TYPE_SPS;
+    }
+
+    private static boolean isVp8KeyFrameStart(ByteBuf rtpBuf, int offset) {
+        int end = rtpBuf.writerIndex();
+        int descriptor = rtpBuf.getUnsignedByte(offset);
+        // S bit set and partition index 0
+        if ((descriptor & 0x10) == 0 || (descriptor & 0x0F) != 0) {
+            return false;
+        }
+
+        int index = offset + 1;
+        if ((descriptor & 0x80) != 0) {
+            if (index >= end) {
+                return false;
+            }
+            int extension = rtpBuf.getUnsignedByte(index++);
+            if ((extension & 0x80) != 0) {
+                // PictureID, 15 bits when M is set
+                if (index >= end) {
+                    return false;
+                }
+                index += (rtpBuf.getUnsignedByte(index) & 0x80) != 0 ? 2 : 1;
+            }
+            if ((extension & 0x40) != 0) {
+                index++;
+            }
+            if ((extension & 0x30) != 0) {
+                index++;
+            }
+        }
+
+        // P bit of the VP8 payload header is 0 for key frames
+        return index < end && (rtpBuf.getUnsignedByte(index) & 0x01) == 0;
+    }
+
+}
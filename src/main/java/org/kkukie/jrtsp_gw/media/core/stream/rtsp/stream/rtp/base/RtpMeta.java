@@ -14,6 +14,7 @@ public class RtpMeta {
     private final AtomicInteger curSeqNum = new AtomicInteger(0);
     private final AtomicLong curTimeStamp = new AtomicLong(0);
     private long ssrc;
+    private int clockRate = 0;
 
     public RtpMeta() {}
 
@@ -25,6 +26,14 @@ public class RtpMeta {
         this.ssrc = ssrc;
     }
 
+    public int getClockRate() {
+        return clockRate;
+    }
+
+    public void setClockRate(int clockRate) {
+        this.clockRate = clockRate;
+    }
+
     public int getCurSeqNum() {
         return curSeqNum.get();
     }
@@ -85,6 +85,13 @@ public class HarvestHandler {
     }
 
     private void harvest(DataChannel dataChannel, List<InetSocketAddress> targetAddressList) {
+        if (dataChannel.isBackpressured()) {
+            // Connectivity checks are periodic, so this round is skipped until the outbound ring drains
+            dataChannel.getOutboundRing().recordDrop();
+            log.trace("|HarvestHandler({})| Skip harvesting. Outbound ring is backpressured.", conferenceId);
+            return;
+        }
+
         for (InetSocketAddress targetAddress : targetAddressList) {
             try {
                 if (dataChannel.send(encodedBindingRequest, targetAddress)) {
@@ -2,6 +2,7 @@ package org.kkukie.jrtsp_gw.media.core.stream.stun.handler;
 
 import lombok.extern.slf4j.Slf4j;
 import org.kkukie.jrtsp_gw.media.core.model.DataChannel;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketClass;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandler;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandlerException;
 import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.TransportAddress;
@@ -22,6 +23,7 @@ import org.kkukie.jrtsp_gw.media.core.stream.webrtc.websocket.model.ice.IceInfo;
 import javax.xml.bind.DatatypeConverter;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -39,6 +41,8 @@ public class IceHandler implements PacketHandler {
     private int pipelinePriority = 1;
 
     private HarvestHandler harvestHandler = null;
+    /* Checked for backpressure before answering binding requests */
+    private DataChannel dataChannel = null;
 
     public IceHandler(String conferenceId, short componentId, IceEventListener iceListener) {
         this.conferenceId = conferenceId;
@@ -60,6 +64,7 @@ public class IceHandler implements PacketHandler {
         stopHarvester();
 
         authenticator = null;
+        dataChannel = null;
     }
 
     public short getComponentId() {
@@ -93,6 +98,22 @@ public class IceHandler implements PacketHandler {
         }
     }
 
+    @Override
+    public boolean canHandle(ByteBuffer packet, int dataLength, int offset) {
+        byte b0 = packet.get(offset);
+        int b0Int = b0 & 255;
+        if (b0Int < 2 && dataLength >= 20) {
+            boolean firstBitsValid = ((b0 & 192) == 0);
+            boolean hasMagicCookie = (packet.get(offset + 4) == MAGIC_COOKIE[0])
+                    && (packet.get(offset + 5) == MAGIC_COOKIE[1])
+                    && (packet.get(offset + 6) == MAGIC_COOKIE[2])
+                    && (packet.get(offset + 7) == MAGIC_COOKIE[3]);
+            return firstBitsValid && hasMagicCookie;
+        } else {
+            return false;
+        }
+    }
+
     public byte[] handle(byte[] packet, InetSocketAddress localPeer, InetSocketAddress remotePeer) throws PacketHandlerException {
         return this.handle(packet, packet.length, 0, localPeer, remotePeer);
     }
@@ -164,6 +185,15 @@ public class IceHandler implements PacketHandler {
                     );
                 }
 
+                if (dataChannel != null && dataChannel.isBackpressured()) {
+                    // The peer retransmits the request, so the response can be skipped until the outbound ring drains
+                    dataChannel.getOutboundRing().recordDrop();
+                    log.debug("|IceHandler({})| Skip StunResponse(tid={}) to [{}]. Outbound ring is backpressured.",
+                            conferenceId, DatatypeConverter.printHexBinary(transactionID), remotePeer
+                    );
+                    return null;
+                }
+
                 log.debug("|HarvestHandler({})| Send StunResponse(tid={}) to [{}].",
                         conferenceId, DatatypeConverter.printHexBinary(response.getTransactionId()), remotePeer
                 );
@@ -198,6 +228,11 @@ public class IceHandler implements PacketHandler {
         return null;
     }
 
+    @Override
+    public PacketClass getPacketClass() {
+        return PacketClass.STUN;
+    }
+
     public int getPipelinePriority() {
         return this.pipelinePriority;
     }
@@ -208,6 +243,7 @@ public class IceHandler implements PacketHandler {
 
     public void startHarvester(DataChannel dataChannel, IceInfo iceInfo, List<InetSocketAddress> targetAddressList) {
         stopHarvester();
+        this.dataChannel = dataChannel;
         harvestHandler = new HarvestHandler(conferenceId);
         harvestHandler.start(dataChannel, iceInfo, targetAddressList);
     }
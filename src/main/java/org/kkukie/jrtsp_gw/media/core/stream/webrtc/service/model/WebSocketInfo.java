@@ -8,7 +8,7 @@ import lombok.extern.slf4j.Slf4j;
 import media.core.rtsp.sdp.*;
 import org.kkukie.jrtsp_gw.config.ConfigManager;
 import org.kkukie.jrtsp_gw.config.DtlsConfig;
-import org.kkukie.jrtsp_gw.media.core.manager.PacketSelector;
+import org.kkukie.jrtsp_gw.media.core.manager.SharedIngestPortManager;
 import org.kkukie.jrtsp_gw.media.core.model.DataChannel;
 import org.kkukie.jrtsp_gw.media.core.stream.webrtc.websocket.command.OmeAnswer;
 import org.kkukie.jrtsp_gw.media.core.stream.webrtc.websocket.command.OmeCandidate;
@@ -46,7 +46,6 @@ public class WebSocketInfo {
     private int localPort = 0;
     private String remoteRealm = null;
 
-    private PacketSelector packetSelector = null;
     private DataChannel dataChannel;
 
     private WebRtcServiceInfo webRtcServiceInfo = null;
@@ -73,13 +72,6 @@ public class WebSocketInfo {
         localIp = webSocket.getSocket().getLocalAddress().getHostAddress();
         localPort = webSocket.getSocket().getLocalPort();
 
-        if (packetSelector != null) {
-            packetSelector.stop();
-            packetSelector = null;
-        }
-        packetSelector = new PacketSelector(webRtcServiceInfo.getConferenceId());
-        packetSelector.start();
-
         log.debug("|WebSocketInfo({})| LOCAL NETWORK = {}:{}", webRtcServiceInfo.getConferenceId(), localIp, localPort);
     }
 
@@ -112,8 +104,6 @@ public class WebSocketInfo {
     public void stop() {
         freeMediaChannel();
 
-        packetSelector.stop();
-
         if (webSocket != null) {
             webSocket.disconnect();
             webSocket = null;
@@ -124,9 +114,9 @@ public class WebSocketInfo {
         try {
             if (dataChannel == null) {
                 dataChannel = new DataChannel(
-                        packetSelector, mediaSession,
-                        webRtcServiceInfo.getConferenceId(), localAddress
+                        mediaSession, webRtcServiceInfo.getConferenceId(), localAddress
                 );
+                dataChannel.setDtlsCredentials(localPeerConnection.getDtlsCredentials());
                 dataChannel.initChannel();
 
                 List<InetSocketAddress> targetAddressList = createTargetAddressList();
@@ -150,9 +140,12 @@ public class WebSocketInfo {
     private void freeMediaChannel() {
         if (dataChannel != null) {
             dataChannel.close();
-            WebSocketPortManager.getInstance().restorePort(
-                    ((InetSocketAddress) mediaSession.getLocalMediaAddress()).getPort()
-            );
+
+            int localMediaPort = ((InetSocketAddress) mediaSession.getLocalMediaAddress()).getPort();
+            // Shared ingest ports are returned only when the service stops
+            if (!SharedIngestPortManager.getInstance().isSharedPort(localMediaPort)) {
+                WebSocketPortManager.getInstance().restorePort(localMediaPort);
+            }
         }
     }
 
@@ -441,7 +434,10 @@ public class WebSocketInfo {
 
     private void setupIceInfo(SdpSession localSdpSession, SdpSession remoteSdpSession) {
         // MEDIA
-        webRtcIceInfo.setStunServerPort(WebSocketPortManager.getInstance().takePort());
+        webRtcIceInfo.setStunServerPort(SharedIngestPortManager.isEnabled() ?
+                SharedIngestPortManager.getInstance().selectPort() :
+                WebSocketPortManager.getInstance().takePort()
+        );
         mediaSession.setLocalMediaAddress(new InetSocketAddress(localIp, webRtcIceInfo.getStunServerPort()));
 
         IceInfo iceInfo = webRtcIceInfo.getIceInfo();
@@ -4,6 +4,8 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import media.core.rtsp.sdp.*;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsCredentialManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsCredentials;
 import org.kkukie.jrtsp_gw.util.RandomManager;
 
 import java.util.ArrayList;
@@ -18,6 +20,8 @@ public class RTCPeerConnectionMaster {
 
     private SdpSession remoteDesc = null;
     private SdpSession localDesc = null;
+    /* Credentials of the fingerprint in localDesc, the DTLS handshake of the session uses the same ones */
+    private DtlsCredentials dtlsCredentials = null;
 
     public SdpSession createAnswerSdpSession() {
         if (certPath == null || remoteDesc == null) { return null; }
@@ -82,11 +86,18 @@ public class RTCPeerConnectionMaster {
         SdpIceoptions remoteIceOptions = remoteDesc.getIceOptions();
         String newFingerPrint;
 
-        try {
-            newFingerPrint = FingerPrintGenerator.getFingerPrint(certPath);
-        } catch (Exception e) {
-            log.warn("RTCPeerConnectionMaster.getFingerPrint.Exception", e);
-            return true;
+        // Cached with the DTLS credentials, the certificate file is read only if it is not the configured one
+        // The snapshot is kept, a reload or a rotation after this point does not change the certificate of this session
+        dtlsCredentials = DtlsCredentialManager.getInstance().getCredentials(certPath);
+        if (dtlsCredentials != null) {
+            newFingerPrint = dtlsCredentials.getFingerprint();
+        } else {
+            try {
+                newFingerPrint = FingerPrintGenerator.getFingerPrint(certPath);
+            } catch (Exception e) {
+                log.warn("RTCPeerConnectionMaster.getFingerPrint.Exception", e);
+                return true;
+            }
         }
 
         for (SdpMedia localMedia : localDesc.getMedia()) {
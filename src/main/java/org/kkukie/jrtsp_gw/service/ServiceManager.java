@@ -3,7 +3,16 @@ package org.kkukie.jrtsp_gw.service;
 import lombok.extern.slf4j.Slf4j;
 import org.kkukie.jrtsp_gw.config.ConfigManager;
 import org.kkukie.jrtsp_gw.config.DefaultConfig;
+import org.kkukie.jrtsp_gw.media.core.manager.EpollPacketReceiver;
+import org.kkukie.jrtsp_gw.media.core.manager.PacketSelector;
+import org.kkukie.jrtsp_gw.media.core.manager.SharedIngestPortManager;
+import org.kkukie.jrtsp_gw.media.core.stream.dtls.DtlsHandshakeExecutor;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsCredentialManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.EgressEventLoopManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.MulticastGroupManager;
 import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.PacerTimerManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.SharedEgressPortManager;
 import org.kkukie.jrtsp_gw.media.core.util.WebSocketPortManager;
 import org.kkukie.jrtsp_gw.service.monitor.HaHandler;
 import org.kkukie.jrtsp_gw.service.scheduler.job.Job;
@@ -57,6 +66,28 @@ public class ServiceManager {
 
         WebSocketPortManager.getInstance().initResource(defaultConfig.getLocalPortMin(), defaultConfig.getLocalPortMax());
 
+        if (EpollPacketReceiver.isEnabled()) {
+            EpollPacketReceiver.getInstance().start();
+        } else {
+            PacketSelector.getInstance().start();
+        }
+
+        if (SharedIngestPortManager.isEnabled()) {
+            SharedIngestPortManager.getInstance().start();
+        }
+
+        EgressEventLoopManager.getInstance().start();
+        if (SharedEgressPortManager.isEnabled()) {
+            SharedEgressPortManager.getInstance().start();
+        }
+        if (PacerTimerManager.isEnabled()) {
+            PacerTimerManager.getInstance().start();
+        }
+        if (MulticastGroupManager.isEnabled()) {
+            MulticastGroupManager.getInstance().start();
+        }
+        DtlsCredentialManager.getInstance().start();
+        DtlsHandshakeExecutor.getInstance().start();
         NettyChannelManager.getInstance().openRtspChannel(
                 defaultConfig.getLocalListenIp(),
                 defaultConfig.getLocalRtspListenPort()
@@ -89,9 +120,20 @@ public class ServiceManager {
     }
 
     public void stop() {
+        SharedIngestPortManager.getInstance().stop();
+
         WebSocketPortManager.getInstance().releaseResource();
 
+        MulticastGroupManager.getInstance().stop();
         NettyChannelManager.getInstance().deleteRtspChannel();
+        SharedEgressPortManager.getInstance().stop();
+        PacerTimerManager.getInstance().stop();
+        DtlsHandshakeExecutor.getInstance().stop();
+        DtlsCredentialManager.getInstance().stop();
+        EgressEventLoopManager.getInstance().stop();
+
+        PacketSelector.getInstance().stop();
+        EpollPacketReceiver.getInstance().stop();
 
         scheduleManager.stopAll(MAIN_SCHEDULE_JOB);
 
@@ -1,6 +1,7 @@
 package org.kkukie.jrtsp_gw.service.monitor;
 
 
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
 import org.kkukie.jrtsp_gw.service.scheduler.job.Job;
 import org.kkukie.jrtsp_gw.service.scheduler.job.JobContainer;
 import org.kkukie.jrtsp_gw.service.system.SystemManager;
@@ -26,9 +27,13 @@ public class HaHandler extends JobContainer {
 
             String cpuUsageStr = systemManager.getCpuUsage();
             String memoryUsageStr = systemManager.getHeapMemoryUsage();
+            NettyChannelManager nettyChannelManager = NettyChannelManager.getInstance();
 
-            logger.debug("| cpu=[{}], mem=[{}], thread=[{}] | Conference=[{}]",
-                    cpuUsageStr, memoryUsageStr, Thread.activeCount(), ConferenceMaster.getInstance().getConferenceInfoSize()
+            logger.debug("| cpu=[{}], mem=[{}], thread=[{}] | Conference=[{}] | pacerQueue=[{}], pacingDelay=[{}ms] | dropped=[audio:{}, video:{}, congestion:{}]",
+                    cpuUsageStr, memoryUsageStr, Thread.activeCount(), ConferenceMaster.getInstance().getConferenceInfoSize(),
+                    nettyChannelManager.getTotalPacerQueueDepth(), nettyChannelManager.getMaxPacingDelay(),
+                    nettyChannelManager.getTotalDroppedAudioPacketCount(), nettyChannelManager.getTotalDroppedVideoPacketCount(),
+                    nettyChannelManager.getTotalCongestionDroppedPacketCount()
             );
         });
     }
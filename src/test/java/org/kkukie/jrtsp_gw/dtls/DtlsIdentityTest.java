@@ -0,0 +1,117 @@
+package org.kkukie.jrtsp_gw.dtls;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.Signer;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.digests.SHA256Digest;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.signers.DSADigestSigner;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.signers.ECDSASigner;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.signers.RSADigestSigner;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.AlgorithmCertificate;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsCredentials;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.DtlsIdentityGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+public class DtlsIdentityTest {
+
+    private static double signaturesPerSecond(Signer signer, byte[] data) throws Exception {
+        // Warm up
+        for (int i = 0; i < 20; i++) {
+            signer.update(data, 0, data.length);
+            signer.generateSignature();
+        }
+
+        int count = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+        long now;
+        do {
+            signer.update(data, 0, data.length);
+            signer.generateSignature();
+            count++;
+        } while ((now = System.nanoTime()) < end);
+        return count * 1e9 / (now - start);
+    }
+
+    @Test
+    public void generateEcdsaIdentity() throws Exception {
+        // 1) Given
+        DtlsCredentials credentials = DtlsIdentityGenerator.generate(DtlsIdentityGenerator.DEFAULT_VALIDITY);
+        byte[] encoded = credentials.getCertificateChain().getCertificateAt(0).getEncoded();
+
+        // 2) When
+        X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(encoded));
+
+        // 3) Then
+        // Self-signed, parsed and verified by the JDK
+        certificate.verify(certificate.getPublicKey());
+        certificate.checkValidity();
+        assertEquals("SHA256withECDSA", certificate.getSigAlgName());
+        assertEquals("EC", certificate.getPublicKey().getAlgorithm());
+
+        assertTrue(credentials.isGenerated());
+        assertTrue(credentials.isEcdsa());
+        assertFalse(credentials.isModified());
+        assertEquals(AlgorithmCertificate.ECDSA, credentials.getAlgorithmCertificate());
+
+        StringJoiner fingerprint = new StringJoiner(":");
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(encoded)) {
+            fingerprint.add(String.format("%02X", b));
+        }
+        assertEquals(fingerprint.toString(), credentials.getFingerprint());
+        assertEquals("sha-256 " + fingerprint, credentials.getFingerprint("sha-256"));
+
+        // Every identity has its own key
+        assertNotEquals(credentials.getFingerprint(),
+                DtlsIdentityGenerator.generate(DtlsIdentityGenerator.DEFAULT_VALIDITY).getFingerprint()
+        );
+    }
+
+    @Test
+    @Disabled("Benchmark, run manually")
+    public void handshakeSignatureBenchmark() throws Exception {
+        // 1) Given
+        // The server signs the key exchange once per handshake, the dominating private key operation
+        SecureRandom random = new SecureRandom();
+        byte[] serverKeyExchange = new byte[128];
+        random.nextBytes(serverKeyExchange);
+
+        RSAKeyPairGenerator rsaKeyPairGenerator = new RSAKeyPairGenerator();
+        rsaKeyPairGenerator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(65537), random, 2048, 80));
+        AsymmetricCipherKeyPair rsaKeyPair = rsaKeyPairGenerator.generateKeyPair();
+        Signer rsaSigner = new RSADigestSigner(new SHA256Digest());
+        rsaSigner.init(true, rsaKeyPair.getPrivate());
+
+        DtlsCredentials credentials = DtlsIdentityGenerator.generate(DtlsIdentityGenerator.DEFAULT_VALIDITY);
+        Signer ecdsaSigner = new DSADigestSigner(new ECDSASigner(), new SHA256Digest());
+        ecdsaSigner.init(true, credentials.getPrivateKey());
+
+        // 2) When
+        double rsaRate = signaturesPerSecond(rsaSigner, serverKeyExchange);
+        double ecdsaRate = signaturesPerSecond(ecdsaSigner, serverKeyExchange);
+
+        // 3) Then
+        log.info("Handshake signatures per second on one core: RSA-2048=[{}], ECDSA-P256=[{}], x{}",
+                String.format("%.0f", rsaRate), String.format("%.0f", ecdsaRate), String.format("%.1f", ecdsaRate / rsaRate)
+        );
+        assertTrue(rsaRate > 0);
+        assertTrue(ecdsaRate > 0);
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.kkukie.jrtsp_gw.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.core.model.OutboundRing;
+
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundRingTest {
+
+    @Test
+    public void skipDatagramThatFailsToSend() {
+        // 1) Given
+        OutboundRing outboundRing = new OutboundRing(4, 64);
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", 5000);
+        outboundRing.offer(new byte[]{1}, 0, 1, target);
+        outboundRing.offer(new byte[]{2}, 0, 1, target);
+        outboundRing.offer(new byte[]{3}, 0, 1, target);
+
+        List<Byte> sent = new ArrayList<>();
+        OutboundRing.Writer writer = (data, length, remoteAddress) -> {
+            if (data[0] == 1) {
+                throw new PortUnreachableException();
+            }
+            if (data[0] == 2) {
+                throw new IllegalStateException();
+            }
+            sent.add(data[0]);
+            return length;
+        };
+
+        // 2) When
+        boolean drained = outboundRing.drain(writer);
+
+        // 3) Then
+        // Failed datagrams are dropped, the next one is still sent
+        assertTrue(drained);
+        assertTrue(outboundRing.isEmpty());
+        assertEquals(2, outboundRing.getDropCount());
+        assertEquals(1, sent.size());
+        assertEquals(3, (byte) sent.get(0));
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.kkukie.jrtsp_gw.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketClass;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandler;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.channels.PacketHandlerPipeline;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PacketHandlerPipelineTest {
+
+    @Test
+    public void classifyByFirstAndSecondByte() {
+        // 1) Given
+        PacketHandlerPipeline pipeline = new PacketHandlerPipeline();
+        StubHandler stun = new StubHandler(PacketClass.STUN, 3);
+        StubHandler dtls = new StubHandler(PacketClass.DTLS, 1);
+        StubHandler rtp = new StubHandler(PacketClass.RTP, 4);
+        StubHandler rtcp = new StubHandler(PacketClass.RTCP, 2);
+        pipeline.addHandler(stun);
+        pipeline.addHandler(dtls);
+        pipeline.addHandler(rtp);
+        pipeline.addHandler(rtcp);
+
+        // 2) When & 3) Then
+        assertSame(stun, pipeline.getCapableHandler(new byte[]{0x00, 0x01}));
+        assertSame(dtls, pipeline.getCapableHandler(new byte[]{22, (byte) 0xfe}));
+        assertSame(rtp, pipeline.getCapableHandler(new byte[]{(byte) 0x80, 96}));
+        assertSame(rtp, pipeline.getCapableHandler(new byte[]{(byte) 0x80, (byte) (96 | 0x80)}));
+        assertSame(rtcp, pipeline.getCapableHandler(new byte[]{(byte) 0x80, (byte) 200}));
+        assertSame(rtcp, pipeline.getCapableHandler(new byte[]{(byte) 0x81, (byte) 206}));   // PSFB (PLI)
+        // Marked RTP of payload type 64..95 shares the second byte range 192..223 with RTCP
+        assertSame(rtp, pipeline.getCapableHandler(new byte[]{(byte) 0x80, (byte) (64 | 0x80)}));
+        assertSame(rtp, pipeline.getCapableHandler(new byte[]{(byte) 0x80, (byte) (95 | 0x80)}));
+        assertNull(pipeline.getCapableHandler(new byte[]{(byte) 0xff, 0}));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put(4, (byte) 0x81).put(5, (byte) 201);
+        assertSame(rtcp, pipeline.getCapableHandler(buffer, 2, 4));
+        assertEquals(0, buffer.position());
+
+        // The highest priority handler of a type is returned
+        assertSame(rtp, pipeline.getHandler(StubHandler.class));
+    }
+
+    @Test
+    public void rebuildOnRemove() {
+        // 1) Given
+        PacketHandlerPipeline pipeline = new PacketHandlerPipeline();
+        StubHandler rtp = new StubHandler(PacketClass.RTP, 4);
+        pipeline.addHandler(rtp);
+
+        // 2) When
+        boolean removed = pipeline.removeHandler(rtp);
+
+        // 3) Then
+        assertTrue(removed);
+        assertEquals(0, pipeline.count());
+        assertNull(pipeline.getCapableHandler(new byte[]{(byte) 0x80, 96}));
+    }
+
+    private static class StubHandler implements PacketHandler {
+
+        private final PacketClass packetClass;
+        private final int priority;
+
+        StubHandler(PacketClass packetClass, int priority) {
+            this.packetClass = packetClass;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean canHandle(byte[] packet) {
+            return true;
+        }
+
+        @Override
+        public boolean canHandle(byte[] packet, int dataLength, int offset) {
+            return true;
+        }
+
+        @Override
+        public boolean canHandle(ByteBuffer packet, int dataLength, int offset) {
+            return true;
+        }
+
+        @Override
+        public byte[] handle(byte[] packet, InetSocketAddress localPeer, InetSocketAddress remotePeer) {
+            return null;
+        }
+
+        @Override
+        public byte[] handle(byte[] packet, int dataLength, int offset, InetSocketAddress localPeer, InetSocketAddress remotePeer) {
+            return null;
+        }
+
+        @Override
+        public int getPipelinePriority() {
+            return priority;
+        }
+
+        @Override
+        public PacketClass getPacketClass() {
+            return packetClass;
+        }
+
+        @Override
+        public void destroy() {
+            // Nothing
+        }
+
+        @Override
+        public int compareTo(PacketHandler o) {
+            return (o == null) ? 1 : (priority - o.getPipelinePriority());
+        }
+    }
+
+}
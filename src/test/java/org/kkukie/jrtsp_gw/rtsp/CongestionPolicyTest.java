@@ -0,0 +1,43 @@
+package org.kkukie.jrtsp_gw.rtsp;
+
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.CongestionPolicy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CongestionPolicyTest {
+
+    @Test
+    public void ignoreSingleLossyReport() {
+        // 1) Given
+        CongestionPolicy congestionPolicy = new CongestionPolicy(2, 3);
+
+        // 2) When & 3) Then
+        assertEquals(CongestionPolicy.LEVEL_NORMAL, congestionPolicy.update(0));
+        assertEquals(CongestionPolicy.LEVEL_NORMAL, congestionPolicy.update(0.6));     // smoothed 0.3, first report above
+        assertEquals(CongestionPolicy.LEVEL_NORMAL, congestionPolicy.update(0));       // smoothed 0.15 but the report is clean, streak is broken
+        assertEquals(CongestionPolicy.LEVEL_NORMAL, congestionPolicy.update(0));
+    }
+
+    @Test
+    public void raiseQuicklyAndLowerSlowly() {
+        // 1) Given
+        CongestionPolicy congestionPolicy = new CongestionPolicy(2, 3);
+
+        // 2) When
+        congestionPolicy.update(0.4);
+        int raisedLevel = congestionPolicy.update(0.4);
+
+        int[] loweredLevels = new int[3];
+        for (int i = 0; i < loweredLevels.length; i++) {
+            loweredLevels[i] = congestionPolicy.update(0);
+        }
+
+        // 3) Then
+        assertEquals(CongestionPolicy.LEVEL_KEY_FRAME_ONLY, raisedLevel);
+        assertEquals(CongestionPolicy.LEVEL_KEY_FRAME_ONLY, loweredLevels[0]);
+        assertEquals(CongestionPolicy.LEVEL_KEY_FRAME_ONLY, loweredLevels[1]);
+        assertEquals(CongestionPolicy.LEVEL_DROP_NON_REFERENCE, loweredLevels[2]);  // One level at a time
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.kkukie.jrtsp_gw.rtsp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.GopCache;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpDto;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GopCacheTest {
+
+    private static ByteBuf newRtpPacket(long timestamp) {
+        ByteBuf rtpBuf = Unpooled.buffer(16);
+        rtpBuf.writeByte(0x80).writeByte(96).writeShort(1).writeInt((int) timestamp).writeInt(0x12345678).writeInt(0);
+        return rtpBuf;
+    }
+
+    @Test
+    public void keepPacketsSinceLastKeyFrame() {
+        // 1) Given
+        GopCache gopCache = new GopCache(16);
+        ByteBuf firstKey = newRtpPacket(1000);
+        ByteBuf secondKey = newRtpPacket(4000);
+        ByteBuf secondKeySlice = newRtpPacket(4000);
+
+        // 2) When
+        gopCache.add(newRtpPacket(500), "audio", false);      // Before any key frame, not cached
+        gopCache.add(firstKey, "video", true);
+        gopCache.add(newRtpPacket(2000), "video", false);
+        gopCache.add(secondKey, "video", true);
+        gopCache.add(secondKeySlice, "video", true);          // Same key frame, no new GOP
+        gopCache.add(newRtpPacket(4100), "audio", false);
+
+        // 3) Then
+        assertEquals(1, firstKey.refCnt());                 // Released with the first GOP
+        RtpDto[] snapshot = gopCache.snapshot();
+        assertEquals(3, snapshot.length);
+        assertEquals("audio", snapshot[2].getMediaType());
+        for (RtpDto rtpDto : snapshot) {
+            rtpDto.getRtpBuf().release();
+        }
+
+        gopCache.clear();
+        assertEquals(1, secondKey.refCnt());
+        assertEquals(0, gopCache.size());
+    }
+
+    @Test
+    public void dropTooLongGop() {
+        // 1) Given
+        GopCache gopCache = new GopCache(2);
+
+        // 2) When
+        gopCache.add(newRtpPacket(1000), "video", true);
+        gopCache.add(newRtpPacket(2000), "video", false);
+        gopCache.add(newRtpPacket(3000), "video", false);
+        gopCache.add(newRtpPacket(4000), "video", false);
+
+        // 3) Then
+        assertEquals(0, gopCache.snapshot().length);
+    }
+
+}
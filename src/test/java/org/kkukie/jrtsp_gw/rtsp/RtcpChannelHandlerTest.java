@@ -0,0 +1,125 @@
+package org.kkukie.jrtsp_gw.rtsp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.config.ConfigEnv;
+import org.kkukie.jrtsp_gw.config.ConfigManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.Streamer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.base.MediaType;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.NettyChannelManager;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.RtcpChannelHandler;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.netty.handler.RtspInterleavedDecoder;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.CongestionPolicy;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RtcpChannelHandlerTest {
+
+    private static final InetSocketAddress VIEWER_ADDRESS = new InetSocketAddress("127.0.0.1", 50001);
+    private static final InetSocketAddress RTCP_ADDRESS = new InetSocketAddress("127.0.0.1", 50003);
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        // The first document of application.yml (dev profile), congestionRaiseReports is 2
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(
+                new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yml")).get(0)
+        );
+        new ConfigManager(new ConfigEnv(environment));
+        NettyChannelManager.getInstance().openRtspChannel("127.0.0.1", 0);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        NettyChannelManager.getInstance().stop();
+    }
+
+    @Test
+    public void raiseCongestionLevelByReceiverReport() {
+        // 1) Given
+        Streamer streamer = NettyChannelManager.getInstance().addStreamer(
+                MediaType.VIDEO, "rtcp-test", "1000", "2", true, false
+        );
+        assertNotNull(streamer);
+        EmbeddedChannel channel = new EmbeddedChannel(new RtcpChannelHandler(streamer.getKey(), "127.0.0.1", RTCP_ADDRESS.getPort()));
+
+        // 2) When
+        // Fraction lost 0x66 (40%) in two reports in a row
+        channel.writeInbound(new DatagramPacket(makeReceiverReport(0x66), RTCP_ADDRESS, VIEWER_ADDRESS));
+        int firstLevel = streamer.getCongestionLevel();
+        channel.writeInbound(new DatagramPacket(makeReceiverReport(0x66), RTCP_ADDRESS, VIEWER_ADDRESS));
+
+        // 3) Then
+        assertEquals(CongestionPolicy.LEVEL_NORMAL, firstLevel);
+        assertEquals(CongestionPolicy.LEVEL_KEY_FRAME_ONLY, streamer.getCongestionLevel());
+
+        channel.finishAndReleaseAll();
+        NettyChannelManager.getInstance().deleteStreamer(streamer);
+    }
+
+    @Test
+    public void splitInterleavedRtcpFromRtspRequest() {
+        // 1) Given
+        EmbeddedChannel channel = new EmbeddedChannel(new RtspInterleavedDecoder());
+        ByteBuf receiverReport = makeReceiverReport(0x10);
+        byte[] request = "GET_PARAMETER rtsp://127.0.0.1/live RTSP/1.0\r\nCSeq: 5\r\nContent-Length: 4\r\n\r\n$abc"
+                .getBytes(StandardCharsets.US_ASCII);
+
+        ByteBuf input = Unpooled.buffer();
+        input.writeByte(RtspInterleavedDecoder.INTERLEAVED_MAGIC).writeByte(3).writeShort(receiverReport.readableBytes());
+        input.writeBytes(receiverReport);
+        input.writeBytes(request);
+        receiverReport.release();
+
+        // 2) When
+        // The frame header and the request arrive split over two reads
+        channel.writeInbound(input.readRetainedSlice(2));
+        channel.writeInbound(input);
+
+        // 3) Then
+        RtspInterleavedDecoder.InterleavedFrame frame = channel.readInbound();
+        assertEquals(3, frame.getChannel());
+        assertEquals(32, frame.content().readableBytes());
+        frame.release();
+
+        // '$' in the body does not start a frame
+        ByteBuf message = channel.readInbound();
+        assertEquals(request.length, message.readableBytes());
+        message.release();
+
+        assertNull(channel.readInbound());
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * @return RTCP receiver report (RC=1) with one report block
+     */
+    private static ByteBuf makeReceiverReport(int fraction) {
+        ByteBuf buf = Unpooled.buffer(32);
+        buf.writeByte(0x81);                // V=2, P=0, RC=1
+        buf.writeByte(201);                 // RR
+        buf.writeShort(7);                  // Length in 32 bits words - 1
+        buf.writeInt(0x11223344);           // SSRC of the viewer
+        buf.writeInt(0x55667788);           // SSRC of the source
+        buf.writeByte(fraction);            // Fraction lost
+        buf.writeMedium(10);                // Cumulative number of packets lost
+        buf.writeInt(1000);                 // Extended highest sequence number
+        buf.writeInt(0);                    // Interarrival jitter
+        buf.writeInt(0);                    // LSR
+        buf.writeInt(0);                    // DLSR
+        return buf;
+    }
+
+}
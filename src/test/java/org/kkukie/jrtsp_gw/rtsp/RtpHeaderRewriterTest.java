@@ -0,0 +1,74 @@
+package org.kkukie.jrtsp_gw.rtsp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpHeaderRewriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RtpHeaderRewriterTest {
+
+    private static final int CLOCK_RATE = 90000;
+
+    private static ByteBuf newRtpPacket(int seq, long timestamp, long ssrc) {
+        ByteBuf rtpBuf = Unpooled.buffer(16);
+        rtpBuf.writeByte(0x80).writeByte(96).writeShort(seq).writeInt((int) timestamp).writeInt((int) ssrc).writeInt(0);
+        return rtpBuf;
+    }
+
+    private static ByteBuf rewrite(RtpHeaderRewriter rewriter, ByteBuf rtpBuf) {
+        ByteBuf header = Unpooled.buffer(RtpHeaderRewriter.RTP_HEADER_SIZE);
+        rewriter.writeHeader(rtpBuf, header);
+        return header;
+    }
+
+    @Test
+    public void keepIdentityWhenPlayStartIsPredicted() {
+        // 1) Given
+        RtpHeaderRewriter rewriter = new RtpHeaderRewriter(CLOCK_RATE);
+        rewriter.prepare(100, 3000, CLOCK_RATE);
+
+        // 2) When & 3) Then
+        assertFalse(rewriter.map(newRtpPacket(100, 3000, 0x1111)));
+        assertFalse(rewriter.map(newRtpPacket(101, 6000, 0x1111)));
+        assertEquals(100, rewriter.getStartSeq());
+        assertEquals(3000, rewriter.getStartTs());
+    }
+
+    @Test
+    public void rewriteFirstSequenceAndContinueOnNewSource() {
+        // 1) Given
+        RtpHeaderRewriter rewriter = new RtpHeaderRewriter(CLOCK_RATE);
+        rewriter.prepare(500, 10000, CLOCK_RATE);
+
+        // 2) When
+        ByteBuf first = newRtpPacket(65535, 10000, 0x1111);
+        boolean isFirstRewritten = rewriter.map(first);
+        ByteBuf firstHeader = rewrite(rewriter, first);
+
+        ByteBuf second = newRtpPacket(0, 13000, 0x1111);
+        rewriter.map(second);
+        ByteBuf secondHeader = rewrite(rewriter, second);
+
+        // The publisher reconnects with a new SSRC and random numbering
+        ByteBuf other = newRtpPacket(40000, 777777777L, 0x2222);
+        boolean isOtherRewritten = rewriter.map(other);
+        ByteBuf otherHeader = rewrite(rewriter, other);
+
+        // 3) Then
+        assertTrue(isFirstRewritten);
+        assertEquals(500, firstHeader.getUnsignedShort(2));
+        assertEquals(10000, firstHeader.getUnsignedInt(4));
+        assertEquals(501, secondHeader.getUnsignedShort(2));
+        assertEquals(13000, secondHeader.getUnsignedInt(4));
+
+        assertTrue(isOtherRewritten);
+        assertEquals(502, otherHeader.getUnsignedShort(2));
+        assertTrue(otherHeader.getUnsignedInt(4) > 13000);
+        assertEquals(0x1111, otherHeader.getUnsignedInt(8));
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.kkukie.jrtsp_gw.rtsp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.core.stream.rtsp.stream.rtp.RtpKeyFrameDetector;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RtpKeyFrameDetectorTest {
+
+    private static final String H264 = "H264/90000";
+    private static final String VP8 = "VP8/90000";
+
+    private static ByteBuf newRtpPacket(int... payload) {
+        ByteBuf rtpBuf = Unpooled.buffer(12 + payload.length);
+        rtpBuf.writeByte(0x80).writeByte(96).writeShort(1).writeInt(0).writeInt(0x12345678);
+        for (int value : payload) {
+            rtpBuf.writeByte(value);
+        }
+        return rtpBuf;
+    }
+
+    @Test
+    public void detectH264KeyFrame() {
+        // 1) Given
+        ByteBuf idr = newRtpPacket(0x65, 0x00);
+        ByteBuf delta = newRtpPacket(0x41, 0x00);
+        ByteBuf fuIdrStart = newRtpPacket(0x7C, 0x85, 0x00);
+        ByteBuf fuIdrMiddle = newRtpPacket(0x7C, 0x05, 0x00);
+        ByteBuf stapWithSps = newRtpPacket(0x78, 0x00, 0x02, 0x67, 0x42, 0x00, 0x02, 0x68, 0xCE);
+
+        // 2) When & 3) Then
+        assertTrue(RtpKeyFrameDetector.isKeyFrameStart(H264, idr));
+        assertFalse(RtpKeyFrameDetector.isKeyFrameStart(H264, delta));
+        assertTrue(RtpKeyFrameDetector.isKeyFrameStart(H264, fuIdrStart));
+        assertFalse(RtpKeyFrameDetector.isKeyFrameStart(H264, fuIdrMiddle));
+        assertTrue(RtpKeyFrameDetector.isKeyFrameStart(H264, stapWithSps));
+    }
+
+    @Test
+    public void detectVp8KeyFrameAndUnknownCodec() {
+        // 1) Given
+        // Extended descriptor with a 15-bit picture ID, then the VP8 payload header
+        ByteBuf key = newRtpPacket(0x90, 0x80, 0x81, 0x23, 0x10);
+        ByteBuf delta = newRtpPacket(0x90, 0x80, 0x81, 0x23, 0x11);
+        ByteBuf continuation = newRtpPacket(0x80, 0x80, 0x81, 0x23, 0x10);
+
+        // 2) When & 3) Then
+        assertTrue(RtpKeyFrameDetector.isKeyFrameStart(VP8, key));
+        assertFalse(RtpKeyFrameDetector.isKeyFrameStart(VP8, delta));
+        assertFalse(RtpKeyFrameDetector.isKeyFrameStart(VP8, continuation));
+        // Codecs without a parser never block the video
+        assertTrue(RtpKeyFrameDetector.isKeyFrameStart("AV1/90000", delta));
+    }
+
+}
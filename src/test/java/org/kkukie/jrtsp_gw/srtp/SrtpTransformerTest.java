@@ -0,0 +1,252 @@
+package org.kkukie.jrtsp_gw.srtp;
+
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.bouncycastle.crypto.tls.SRTPProtectionProfile;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.PacketTransformer;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.SRTPCryptoBackend;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.SRTPParameters;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.SRTPPolicy;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.SRTPReplayWindow;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.SRTPTransformEngine;
+import org.kkukie.jrtsp_gw.media.core.stream.rtp.crypto.SsrcContextTable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SrtpTransformerTest {
+
+    private static final byte[] MASTER_KEY = {
+            0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f
+    };
+    private static final byte[] MASTER_SALT = {
+            0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16,
+            0x17, 0x18, 0x19, 0x1a, 0x1b, 0x1c, 0x1d
+    };
+
+    private static PacketTransformer newTransformer() {
+        return newEngine(SRTPCryptoBackend.BACKEND_JCE).getRTPTransformer();
+    }
+
+    private static SRTPTransformEngine newEngine(String backend) {
+        SRTPPolicy policy = new SRTPPolicy(
+                SRTPPolicy.AESCM_ENCRYPTION, 16,
+                SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 14
+        );
+        return new SRTPTransformEngine(MASTER_KEY.clone(), MASTER_SALT.clone(), policy, policy, backend);
+    }
+
+    private static SRTPTransformEngine newGcmEngine(SRTPParameters parameters, String backend) {
+        byte[] masterKey = new byte[parameters.getCipherKeyLength()];
+        for (int i = 0; i < masterKey.length; i++) {
+            masterKey[i] = (byte) i;
+        }
+        byte[] masterSalt = Arrays.copyOf(MASTER_SALT, parameters.getCipherSaltLength());
+        return new SRTPTransformEngine(masterKey, masterSalt,
+                parameters.getSrtpPolicy(), parameters.getSrtcpPolicy(), backend
+        );
+    }
+
+    private static byte[] newRtpPacket(int seq, int payloadLength) {
+        byte[] packet = new byte[12 + payloadLength];
+        packet[0] = (byte) 0x80;
+        packet[1] = 96;
+        packet[2] = (byte) (seq >> 8);
+        packet[3] = (byte) seq;
+        packet[8] = 0x12;
+        packet[9] = 0x34;
+        packet[10] = 0x56;
+        packet[11] = 0x78;
+        for (int i = 12; i < packet.length; i++) {
+            packet[i] = (byte) i;
+        }
+        return packet;
+    }
+
+    @Test
+    public void decryptInPlace() {
+        // 1) Given
+        PacketTransformer encoder = newTransformer();
+        PacketTransformer decoder = newTransformer();
+        byte[] plain = newRtpPacket(1, 160);
+        byte[] secured = encoder.transform(plain.clone());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1500);
+        buffer.put(secured).flip();
+
+        // 2) When
+        int length = decoder.reverseTransform(buffer, 0, secured.length);
+
+        // 3) Then
+        assertEquals(plain.length, length);
+        byte[] restored = new byte[length];
+        buffer.duplicate().get(restored);
+        assertArrayEquals(plain, restored);
+    }
+
+    @Test
+    public void rejectTamperedAndReplayed() {
+        // 1) Given
+        PacketTransformer encoder = newTransformer();
+        PacketTransformer decoder = newTransformer();
+        byte[] secured = encoder.transform(newRtpPacket(7, 40));
+
+        ByteBuffer buffer = ByteBuffer.allocate(1500);
+
+        // 2) When & 3) Then
+        byte[] tampered = Arrays.copyOf(secured, secured.length);
+        tampered[20] ^= 0x01;
+        buffer.clear();
+        buffer.put(tampered);
+        assertEquals(-1, decoder.reverseTransform(buffer, 0, tampered.length));
+
+        // The same packet at a non-zero offset is accepted once, then rejected as a replay
+        buffer.clear();
+        buffer.position(4);
+        buffer.put(secured);
+        assertEquals(secured.length - 10, decoder.reverseTransform(buffer, 4, secured.length));
+
+        buffer.clear();
+        buffer.position(4);
+        buffer.put(secured);
+        assertEquals(-1, decoder.reverseTransform(buffer, 4, secured.length));
+    }
+
+    @Test
+    public void sameOutputOnEveryBackend() {
+        // 1) Given
+        PacketTransformer jceRtp = newEngine(SRTPCryptoBackend.BACKEND_JCE).getRTPTransformer();
+        PacketTransformer bcRtp = newEngine(SRTPCryptoBackend.BACKEND_BC).getRTPTransformer();
+        PacketTransformer jceRtcp = newEngine(SRTPCryptoBackend.BACKEND_JCE).getRTCPTransformer();
+        PacketTransformer bcRtcp = newEngine(SRTPCryptoBackend.BACKEND_BC).getRTCPTransformer();
+
+        byte[] rtcp = newRtpPacket(0, 36);
+        rtcp[1] = (byte) 200;   // Sender report
+
+        // 2) When & 3) Then
+        for (int seq = 65530; seq < 65540; seq++) {
+            // Payload lengths around the block size, across the ROC wrap
+            byte[] plain = newRtpPacket(seq & 0xFFFF, 1 + (seq % 7) * 17);
+            byte[] secured = jceRtp.transform(plain.clone());
+            assertNotNull(secured);
+            assertArrayEquals(bcRtp.transform(plain.clone()), secured);
+        }
+        assertArrayEquals(bcRtp.transform(newRtpPacket(1, 1400)), jceRtp.transform(newRtpPacket(1, 1400)));
+        byte[] securedRtcp = jceRtcp.transform(rtcp.clone());
+        assertNotNull(securedRtcp);
+        assertArrayEquals(bcRtcp.transform(rtcp.clone()), securedRtcp);
+    }
+
+    @Test
+    public void aeadGcmRoundTrip() {
+        for (SRTPParameters parameters : new SRTPParameters[]{
+                SRTPParameters.SRTP_AEAD_AES_128_GCM, SRTPParameters.SRTP_AEAD_AES_256_GCM}) {
+            // 1) Given
+            SRTPTransformEngine jceEngine = newGcmEngine(parameters, SRTPCryptoBackend.BACKEND_JCE);
+            SRTPTransformEngine bcEngine = newGcmEngine(parameters, SRTPCryptoBackend.BACKEND_BC);
+            PacketTransformer decoder = newGcmEngine(parameters, SRTPCryptoBackend.BACKEND_BC).getRTPTransformer();
+            PacketTransformer rtcpDecoder = newGcmEngine(parameters, SRTPCryptoBackend.BACKEND_JCE).getRTCPTransformer();
+
+            byte[] plain = newRtpPacket(65535, 160);
+            byte[] rtcp = newRtpPacket(0, 36);
+            rtcp[1] = (byte) 200;   // Sender report
+
+            // 2) When
+            byte[] secured = jceEngine.getRTPTransformer().transform(plain.clone());
+            byte[] securedRtcp = jceEngine.getRTCPTransformer().transform(rtcp.clone());
+
+            // 3) Then
+            // The 16 bytes tag follows the payload, SRTCP adds the E flag with the index
+            assertNotNull(secured);
+            assertEquals(plain.length + 16, secured.length);
+            assertArrayEquals(bcEngine.getRTPTransformer().transform(plain.clone()), secured);
+            assertNotNull(securedRtcp);
+            assertEquals(rtcp.length + 16 + 4, securedRtcp.length);
+            assertArrayEquals(bcEngine.getRTCPTransformer().transform(rtcp.clone()), securedRtcp);
+
+            byte[] tampered = secured.clone();
+            tampered[2] ^= 0x01;    // The header is authenticated
+            assertNull(decoder.reverseTransform(tampered));
+            assertArrayEquals(plain, decoder.reverseTransform(secured.clone()));
+            assertNull(decoder.reverseTransform(secured.clone()));
+            assertArrayEquals(rtcp, rtcpDecoder.reverseTransform(securedRtcp));
+        }
+    }
+
+    @Test
+    public void chooseProfileByPreference() {
+        // 1) Given
+        int[] preferred = SRTPParameters.getPreferredProfiles();
+        int[] offered = {
+                SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_80,
+                SRTPProtectionProfile.SRTP_AEAD_AES_256_GCM,
+                SRTPProtectionProfile.SRTP_AEAD_AES_128_GCM
+        };
+
+        // 2) When & 3) Then
+        assertEquals(SRTPProtectionProfile.SRTP_AEAD_AES_128_GCM, SRTPParameters.chooseProfile(preferred, offered));
+        assertEquals(SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_80,
+                SRTPParameters.chooseProfile(preferred, new int[]{SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_80}));
+        assertEquals(-1, SRTPParameters.chooseProfile(preferred, new int[]{SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_32}));
+    }
+
+    @Test
+    public void ssrcContextTableLookup() {
+        // 1) Given
+        SsrcContextTable<String> table = new SsrcContextTable<>();
+        for (long ssrc = 0; ssrc < 100; ssrc++) {
+            table.put(ssrc * 0x100000000L + 0x12345678L, "context-" + ssrc);
+        }
+
+        // 2) When & 3) Then
+        assertEquals(100, table.size());
+        assertEquals("context-7", table.get(7 * 0x100000000L + 0x12345678L));
+        assertEquals("context-7", table.get(7 * 0x100000000L + 0x12345678L));   // Last hit
+        assertNull(table.get(0x87654321L));
+
+        // A change is seen even if the SSRC is the last hit
+        table.put(7 * 0x100000000L + 0x12345678L, "replaced");
+        assertEquals(100, table.size());
+        assertEquals("replaced", table.get(7 * 0x100000000L + 0x12345678L));
+
+        assertEquals(100, table.clear().size());
+        assertNull(table.get(7 * 0x100000000L + 0x12345678L));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void replayWindowSeparatesReplayedAndTooOld() {
+        // 1) Given
+        SRTPReplayWindow window = new SRTPReplayWindow(100);
+        PacketTransformer encoder = newTransformer();
+        PacketTransformer decoder = newTransformer();
+        byte[][] secured = new byte[300][];
+        for (int seq = 0; seq < secured.length; seq++) {
+            secured[seq] = encoder.transform(newRtpPacket(seq, 20));
+        }
+
+        // 2) When & 3) Then
+        assertEquals(128, window.getSize());
+        for (long index = 0; index < 1000; index += 2) {
+            assertEquals(SRTPReplayWindow.ACCEPTED, window.check(index));
+            window.update(index);
+        }
+        assertEquals(SRTPReplayWindow.ACCEPTED, window.check(901));
+        window.update(901);
+        assertEquals(SRTPReplayWindow.REPLAYED, window.check(901));
+        assertEquals(SRTPReplayWindow.REPLAYED, window.check(998));
+        assertEquals(SRTPReplayWindow.TOO_OLD, window.check(998 - 128));
+        assertEquals(2, window.getReplayedCount());
+        assertEquals(1, window.getTooOldCount());
+
+        // Reordered by more than 64 packets is still accepted with the default window
+        assertNotNull(decoder.reverseTransform(secured[299].clone()));
+        assertNotNull(decoder.reverseTransform(secured[100].clone()));
+        assertNull(decoder.reverseTransform(secured[100].clone()));
+        assertEquals(1, decoder.getReplayedCount());
+        assertEquals(0, decoder.getTooOldCount());
+    }
+
+}
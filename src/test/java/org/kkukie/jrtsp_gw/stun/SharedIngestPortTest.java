@@ -0,0 +1,74 @@
+package org.kkukie.jrtsp_gw.stun;
+
+import org.junit.jupiter.api.Test;
+import org.kkukie.jrtsp_gw.media.core.model.SharedIngestPort;
+import org.kkukie.jrtsp_gw.media.core.stream.stun.messages.StunMessage;
+import org.kkukie.jrtsp_gw.media.core.stream.stun.messages.attributes.StunAttribute;
+import org.kkukie.jrtsp_gw.media.core.stream.stun.model.StunMessageFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedIngestPortTest {
+
+    @Test
+    public void readLocalUfragFromBindingRequest() throws Exception {
+        // 1) Given
+        byte[] request = StunMessageFactory.createBindingRequest("abcd:wxyz", "password").encode();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1500);
+        buffer.position(8);
+        buffer.put(request);
+
+        // 2) When
+        String localUfrag = SharedIngestPort.getStunLocalUfrag(buffer, request.length, 8);
+
+        // 3) Then
+        assertEquals("abcd", localUfrag);
+    }
+
+    @Test
+    public void verifyMessageIntegrity() throws Exception {
+        // 1) Given
+        byte[] request = StunMessageFactory.createBindingRequest("abcd:wxyz", "password").encode();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1500);
+        buffer.position(8);
+        buffer.put(request);
+        byte[] key = "password".getBytes(StandardCharsets.UTF_8);
+
+        // 2) When & 3) Then
+        assertTrue(SharedIngestPort.hasValidMessageIntegrity(buffer, request.length, 8, key));
+        // Known ufrag, wrong password
+        assertFalse(SharedIngestPort.hasValidMessageIntegrity(buffer, request.length, 8, "wrong".getBytes(StandardCharsets.UTF_8)));
+
+        // Forged USERNAME
+        buffer.put(8 + 24, (byte) 'x');
+        assertFalse(SharedIngestPort.hasValidMessageIntegrity(buffer, request.length, 8, key));
+    }
+
+    @Test
+    public void rejectStunWithoutMessageIntegrity() {
+        // 1) Given
+        // Binding request with USERNAME "abcd:wxyz" only
+        ByteBuffer buffer = ByteBuffer.allocate(36);
+        buffer.putShort((short) 0x0001).putShort((short) 16).put(StunMessage.MAGIC_COOKIE).put(new byte[12]);
+        buffer.putShort((short) StunAttribute.USERNAME).putShort((short) 9).put("abcd:wxyz".getBytes(StandardCharsets.UTF_8));
+
+        // 2) When & 3) Then
+        assertEquals("abcd", SharedIngestPort.getStunLocalUfrag(buffer, 36, 0));
+        assertFalse(SharedIngestPort.hasValidMessageIntegrity(buffer, 36, 0, "password".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void ignoreNonStunPacket() {
+        // 1) Given
+        ByteBuffer rtp = ByteBuffer.allocate(64);
+        rtp.put(0, (byte) 0x80).put(1, (byte) 96);
+
+        // 2) When & 3) Then
+        assertNull(SharedIngestPort.getStunLocalUfrag(rtp, 64, 0));
+        assertNull(SharedIngestPort.getStunLocalUfrag(rtp, 10, 0));
+    }
+
+}